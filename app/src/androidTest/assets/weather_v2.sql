@@ -0,0 +1,7 @@
+-- weather.db as version 2 of the earlier Sunshine left it, before this app's schema: a table
+-- of locations with their coordinates, and weather keyed by location with a text description.
+CREATE TABLE location (_id INTEGER PRIMARY KEY,location_setting TEXT UNIQUE NOT NULL, city_name TEXT NOT NULL, coord_lat REAL NOT NULL, coord_long REAL NOT NULL );
+INSERT INTO "location" VALUES(1,'94043','Mountain View',37.4056,-122.0775);
+CREATE TABLE weather (_id INTEGER PRIMARY KEY AUTOINCREMENT,location_id INTEGER NOT NULL, date INTEGER NOT NULL, short_desc TEXT NOT NULL, weather_id INTEGER NOT NULL,min REAL NOT NULL, max REAL NOT NULL, humidity REAL NOT NULL, pressure REAL NOT NULL, wind REAL NOT NULL, degrees REAL NOT NULL,  FOREIGN KEY (location_id) REFERENCES location (_id),  UNIQUE (date, location_id) ON CONFLICT REPLACE);
+INSERT INTO "weather" VALUES(1,1,2457682,'Clear',800,10.5,20.25,60.0,1013.25,3.5,180.0);
+INSERT INTO "weather" VALUES(2,1,2457683,'Clouds',801,11.5,21.25,61.0,1013.25,3.5,181.0);
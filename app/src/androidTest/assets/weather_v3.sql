@@ -0,0 +1,5 @@
+-- weather.db as version 3 of Sunshine left it: the weather table with three days.
+CREATE TABLE weather (_id INTEGER PRIMARY KEY AUTOINCREMENT, date INTEGER NOT NULL, weather_id INTEGER NOT NULL,min REAL NOT NULL, max REAL NOT NULL, humidity REAL NOT NULL, pressure REAL NOT NULL, wind REAL NOT NULL, degrees REAL NOT NULL,  UNIQUE (date) ON CONFLICT REPLACE);
+INSERT INTO "weather" VALUES(1,1475280000000,800,10.5,20.25,60.0,1013.25,3.5,180.0);
+INSERT INTO "weather" VALUES(2,1475366400000,801,11.5,21.25,61.0,1013.25,3.5,181.0);
+INSERT INTO "weather" VALUES(3,1475452800000,802,12.5,22.25,62.0,1013.25,3.5,182.0);
@@ -0,0 +1,9 @@
+-- weather.db as version 5 of Sunshine left it: version 4 plus the summary index.
+CREATE TABLE weather (_id INTEGER PRIMARY KEY AUTOINCREMENT, date INTEGER NOT NULL, weather_id INTEGER NOT NULL,min REAL NOT NULL, max REAL NOT NULL, humidity REAL NOT NULL, pressure REAL NOT NULL, wind REAL NOT NULL, degrees REAL NOT NULL,  UNIQUE (date) ON CONFLICT REPLACE);
+INSERT INTO "weather" VALUES(1,1475280000000,800,10.5,20.25,60.0,1013.25,3.5,180.0);
+INSERT INTO "weather" VALUES(2,1475366400000,801,11.5,21.25,61.0,1013.25,3.5,181.0);
+INSERT INTO "weather" VALUES(3,1475452800000,802,12.5,22.25,62.0,1013.25,3.5,182.0);
+CREATE TABLE weather_history (_id INTEGER PRIMARY KEY AUTOINCREMENT, month INTEGER NOT NULL, days INTEGER NOT NULL, min REAL NOT NULL, max REAL NOT NULL, mean_min REAL NOT NULL, mean_max REAL NOT NULL, mean_humidity REAL NOT NULL, mean_pressure REAL NOT NULL, mean_wind REAL NOT NULL, UNIQUE (month) ON CONFLICT REPLACE);
+INSERT INTO "weather_history" VALUES(1,1470009600000,31,5.0,30.0,12.5,24.5,55.0,1012.0,4.25);
+INSERT INTO "weather_history" VALUES(2,1472688000000,30,6.0,31.0,13.5,25.5,56.0,1013.0,5.25);
+CREATE INDEX weather_summary_index ON weather (date, weather_id, min, max, humidity);
@@ -0,0 +1,11 @@
+-- weather.db as version 6 of Sunshine left it: weather and history of the default location.
+CREATE TABLE location (_id INTEGER PRIMARY KEY AUTOINCREMENT, location_setting TEXT NOT NULL,  UNIQUE (location_setting));
+INSERT INTO "location" VALUES(1,'Mountain View, CA 94043');
+CREATE TABLE weather (_id INTEGER PRIMARY KEY AUTOINCREMENT, location_id INTEGER NOT NULL REFERENCES location (_id), date INTEGER NOT NULL, weather_id INTEGER NOT NULL,min REAL NOT NULL, max REAL NOT NULL, humidity REAL NOT NULL, pressure REAL NOT NULL, wind REAL NOT NULL, degrees REAL NOT NULL,  UNIQUE (location_id, date) ON CONFLICT REPLACE);
+INSERT INTO "weather" VALUES(1,1,1475280000000,800,10.5,20.25,60.0,1013.25,3.5,180.0);
+INSERT INTO "weather" VALUES(2,1,1475366400000,801,11.5,21.25,61.0,1013.25,3.5,181.0);
+INSERT INTO "weather" VALUES(3,1,1475452800000,802,12.5,22.25,62.0,1013.25,3.5,182.0);
+CREATE TABLE weather_history (_id INTEGER PRIMARY KEY AUTOINCREMENT, location_id INTEGER NOT NULL REFERENCES location (_id), month INTEGER NOT NULL, days INTEGER NOT NULL, min REAL NOT NULL, max REAL NOT NULL, mean_min REAL NOT NULL, mean_max REAL NOT NULL, mean_humidity REAL NOT NULL, mean_pressure REAL NOT NULL, mean_wind REAL NOT NULL,  UNIQUE (location_id, month) ON CONFLICT REPLACE);
+INSERT INTO "weather_history" VALUES(1,1,1470009600000,31,5.0,30.0,12.5,24.5,55.0,1012.0,4.25);
+INSERT INTO "weather_history" VALUES(2,1,1472688000000,30,6.0,31.0,13.5,25.5,56.0,1013.0,5.25);
+CREATE INDEX weather_summary_index ON weather (location_id, date, weather_id, min, max, humidity);
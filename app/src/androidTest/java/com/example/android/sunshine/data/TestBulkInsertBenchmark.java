@@ -0,0 +1,206 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static com.example.android.sunshine.data.WeatherContract.WeatherEntry.COLUMN_DATE;
+import static com.example.android.sunshine.data.WeatherContract.WeatherEntry.COLUMN_DEGREES;
+import static com.example.android.sunshine.data.WeatherContract.WeatherEntry.COLUMN_HUMIDITY;
+import static com.example.android.sunshine.data.WeatherContract.WeatherEntry.COLUMN_LOCATION_ID;
+import static com.example.android.sunshine.data.WeatherContract.WeatherEntry.COLUMN_MAX_TEMP;
+import static com.example.android.sunshine.data.WeatherContract.WeatherEntry.COLUMN_MIN_TEMP;
+import static com.example.android.sunshine.data.WeatherContract.WeatherEntry.COLUMN_PRESSURE;
+import static com.example.android.sunshine.data.WeatherContract.WeatherEntry.COLUMN_WEATHER_ID;
+import static com.example.android.sunshine.data.WeatherContract.WeatherEntry.COLUMN_WIND_SPEED;
+import static junit.framework.Assert.assertEquals;
+
+/**
+ * Measures the throughput of {@link WeatherProvider#bulkInsert}, which inserts through one
+ * compiled statement per transaction, against the per-row SQLiteDatabase#insert loop it
+ * replaced. Both run inside a single transaction and get the same ContentValues, which are
+ * built before the clock starts.
+ * <p>
+ * Timings are written to logcat under the tag of this class.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestBulkInsertBenchmark {
+
+    private static final String TAG = TestBulkInsertBenchmark.class.getSimpleName();
+
+    /* One forecast, a long history and a stress case */
+    private static final int[] ROW_COUNTS = {14, 1000, 100000};
+
+    /* The compact encoding rounds values to a tenth, which these rows never need */
+    private static final double TOLERANCE = 0.01;
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    private WeatherDbHelper mDbHelper;
+
+    @Before
+    public void setUp() {
+        mDbHelper = new WeatherDbHelper(mContext);
+        deleteAllRows();
+    }
+
+    @After
+    public void tearDown() {
+        deleteAllRows();
+        mDbHelper.close();
+    }
+
+    @Test
+    public void benchmarkBulkInsert() {
+        ContentResolver resolver = mContext.getContentResolver();
+
+        for (int rowCount : ROW_COUNTS) {
+            ContentValues[] values = createRows(rowCount);
+
+            long start = System.nanoTime();
+            int insertedPerRow = insertRowByRow(values);
+            long perRowNanos = System.nanoTime() - start;
+            assertEquals(rowCount, insertedPerRow);
+            assertStoredRows("SQLiteDatabase#insert", values);
+
+            deleteAllRows();
+
+            start = System.nanoTime();
+            int insertedCompiled =
+                    resolver.bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, values);
+            long compiledNanos = System.nanoTime() - start;
+            assertEquals(rowCount, insertedCompiled);
+            assertStoredRows("Compiled statement", values);
+
+            deleteAllRows();
+
+            Log.i(TAG, rowCount + " rows: SQLiteDatabase#insert "
+                    + rowsPerSecond(rowCount, perRowNanos) + " rows/s, compiled statement "
+                    + rowsPerSecond(rowCount, compiledNanos) + " rows/s");
+        }
+    }
+
+    /**
+     * The insert loop WeatherProvider#bulkInsert used before it compiled its statement.
+     */
+    private int insertRowByRow(ContentValues[] values) {
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        int rowsInserted = 0;
+
+        db.beginTransaction();
+        try {
+            for (ContentValues value : values) {
+                long weatherDate = value.getAsLong(COLUMN_DATE);
+                if (!SunshineDateUtils.isDateNormalized(weatherDate)) {
+                    throw new IllegalArgumentException("Date must be normalized to insert");
+                }
+
+                if (db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value) != -1) {
+                    rowsInserted++;
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        return rowsInserted;
+    }
+
+    /**
+     * Checks, outside the timed part, that the table holds exactly the given rows, read back
+     * through the view so that the values compare the same in either encoding.
+     */
+    private void assertStoredRows(String method, ContentValues[] values) {
+        Cursor cursor = mDbHelper.getReadableDatabase().query(
+                WeatherContract.WeatherEntry.VIEW_NAME,
+                new String[]{COLUMN_LOCATION_ID, COLUMN_DATE, COLUMN_WEATHER_ID, COLUMN_MIN_TEMP,
+                        COLUMN_MAX_TEMP, COLUMN_HUMIDITY, COLUMN_PRESSURE, COLUMN_WIND_SPEED,
+                        COLUMN_DEGREES},
+                null,
+                null,
+                null,
+                null,
+                COLUMN_DATE + " ASC");
+        try {
+            assertEquals(method + " stored the wrong number of rows",
+                    values.length, cursor.getCount());
+            for (int i = 0; cursor.moveToNext(); i++) {
+                ContentValues expected = values[i];
+                String row = method + ", row " + i;
+                assertEquals(row, (long) expected.getAsLong(COLUMN_LOCATION_ID),
+                        cursor.getLong(0));
+                assertEquals(row, (long) expected.getAsLong(COLUMN_DATE), cursor.getLong(1));
+                assertEquals(row, (int) expected.getAsInteger(COLUMN_WEATHER_ID),
+                        cursor.getInt(2));
+                assertEquals(row, expected.getAsDouble(COLUMN_MIN_TEMP), cursor.getDouble(3),
+                        TOLERANCE);
+                assertEquals(row, expected.getAsDouble(COLUMN_MAX_TEMP), cursor.getDouble(4),
+                        TOLERANCE);
+                assertEquals(row, expected.getAsDouble(COLUMN_HUMIDITY), cursor.getDouble(5),
+                        TOLERANCE);
+                assertEquals(row, expected.getAsDouble(COLUMN_PRESSURE), cursor.getDouble(6),
+                        TOLERANCE);
+                assertEquals(row, expected.getAsDouble(COLUMN_WIND_SPEED), cursor.getDouble(7),
+                        TOLERANCE);
+                assertEquals(row, expected.getAsDouble(COLUMN_DEGREES), cursor.getDouble(8),
+                        TOLERANCE);
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static ContentValues[] createRows(int rowCount) {
+        ContentValues[] values = new ContentValues[rowCount];
+        for (int i = 0; i < rowCount; i++) {
+            ContentValues weatherValues = new ContentValues();
+            weatherValues.put(COLUMN_LOCATION_ID, TestUtilities.TEST_LOCATION_ID);
+            weatherValues.put(COLUMN_DATE,
+                    TestUtilities.DATE_NORMALIZED + SunshineDateUtils.DAY_IN_MILLIS * i);
+            weatherValues.put(COLUMN_WEATHER_ID, 800 + i % 4);
+            weatherValues.put(COLUMN_MIN_TEMP, 10.0 + i % 7);
+            weatherValues.put(COLUMN_MAX_TEMP, 20.0 + i % 9);
+            weatherValues.put(COLUMN_HUMIDITY, 50 + i % 40);
+            weatherValues.put(COLUMN_PRESSURE, 1000.0 + i % 30);
+            weatherValues.put(COLUMN_WIND_SPEED, 0.5 * (i % 20));
+            weatherValues.put(COLUMN_DEGREES, (double) (i % 360));
+            values[i] = weatherValues;
+        }
+        return values;
+    }
+
+    private void deleteAllRows() {
+        mDbHelper.getWritableDatabase().delete(WeatherContract.WeatherEntry.TABLE_NAME, null, null);
+    }
+
+    private static long rowsPerSecond(int rowCount, long nanos) {
+        return rowCount * 1000000000L / Math.max(1, nanos);
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+import com.example.android.sunshine.MainActivity;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Checks that the weather database runs in write-ahead-log mode, and that queries like the
+ * ones MainActivity's loader makes are answered while a large bulk insert holds the write
+ * transaction. Query latencies are written to logcat under the tag of this class.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestConcurrentReads {
+
+    private static final String TAG = TestConcurrentReads.class.getSimpleName();
+
+    /* Big enough that the insert's transaction stays open for a while */
+    private static final int ROWS_TO_INSERT = 50000;
+
+    /* A handful of rows the queries can find while the insert runs */
+    private static final int ROWS_ALREADY_STORED = 14;
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    @Before
+    public void setUp() {
+        deleteAllRows();
+    }
+
+    @After
+    public void tearDown() {
+        deleteAllRows();
+    }
+
+    @Test
+    public void testDatabaseUsesWriteAheadLog() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) return;
+
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        Cursor cursor = db.rawQuery("PRAGMA journal_mode", null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals("wal", cursor.getString(0).toLowerCase());
+        } finally {
+            cursor.close();
+            dbHelper.close();
+        }
+    }
+
+    @Test
+    public void testQueriesDoNotWaitForBulkInsert() throws InterruptedException {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) return;
+
+        final ContentResolver resolver = mContext.getContentResolver();
+
+        ForecastBatch stored = new ForecastBatch(ROWS_ALREADY_STORED);
+        fill(stored, 0, ROWS_ALREADY_STORED);
+        WeatherProvider.bulkInsert(mContext, stored);
+
+        /* The insert starts after the stored rows, so it doesn't replace what the queries read */
+        final ForecastBatch large = new ForecastBatch(ROWS_TO_INSERT);
+        fill(large, ROWS_ALREADY_STORED, ROWS_TO_INSERT);
+
+        final CountDownLatch insertDone = new CountDownLatch(1);
+        final long[] insertNanos = new long[1];
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    long start = System.nanoTime();
+                    WeatherProvider.bulkInsert(mContext, large);
+                    insertNanos[0] = System.nanoTime() - start;
+                } finally {
+                    insertDone.countDown();
+                }
+            }
+        }, "BulkInsertWriter");
+
+        long[] latencies = new long[1024];
+        int queries = 0;
+        int queriesDuringInsert = 0;
+
+        writer.start();
+        while (insertDone.getCount() > 0 && queries < latencies.length) {
+            long start = System.nanoTime();
+            Cursor cursor = resolver.query(
+                    WeatherContract.WeatherEntry.CONTENT_URI,
+                    MainActivity.MAIN_FORECAST_PROJECTION,
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " < ?",
+                    new String[]{Long.toString(
+                            TestUtilities.DATE_NORMALIZED
+                                    + SunshineDateUtils.DAY_IN_MILLIS * ROWS_ALREADY_STORED)},
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+            assertEquals(ROWS_ALREADY_STORED, cursor.getCount());
+            cursor.close();
+            latencies[queries++] = System.nanoTime() - start;
+
+            /* Only count queries that finished while the write transaction was still open */
+            if (insertDone.getCount() > 0) {
+                queriesDuringInsert++;
+            }
+        }
+
+        assertTrue("The bulk insert did not finish",
+                insertDone.await(60, TimeUnit.SECONDS));
+        writer.join();
+
+        assertTrue("No query completed while the bulk insert was running; "
+                + "reads are waiting for the write transaction", queriesDuringInsert > 0);
+
+        long[] measured = Arrays.copyOf(latencies, queries);
+        Arrays.sort(measured);
+        long maxLatency = measured[queries - 1];
+        Log.i(TAG, queries + " queries during a " + ROWS_TO_INSERT + " row insert taking "
+                + insertNanos[0] / 1000 + " us: median " + measured[queries / 2] / 1000
+                + " us, max " + maxLatency / 1000 + " us");
+
+        /*
+         * A query that had to wait for the write transaction would take about as long as the
+         * insert itself.
+         */
+        assertTrue("A query waited for the bulk insert (" + maxLatency / 1000 + " us of "
+                + insertNanos[0] / 1000 + " us)", maxLatency < insertNanos[0] / 2);
+    }
+
+    private static void fill(ForecastBatch batch, int firstDay, int days) {
+        for (int day = firstDay; day < firstDay + days; day++) {
+            TestUtilities.addTestDay(batch, TestUtilities.DATE_NORMALIZED, day, 800);
+        }
+    }
+
+    private void deleteAllRows() {
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.os.Debug;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests the columnar ForecastBatch and the allocation-free path that writes it into
+ * WeatherProvider. Allocations are counted with {@link Debug#getThreadAllocCount()}, so only
+ * objects created on the test thread are counted.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestForecastBatch {
+
+    private static final String TAG = TestForecastBatch.class.getSimpleName();
+
+    /* The length of a default OWM daily forecast */
+    private static final int FORECAST_DAYS = 14;
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    @Before
+    public void setUp() {
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+    }
+
+    @Test
+    public void testBatchGrowsAndKeepsValues() {
+        /* Start too small on purpose, so the arrays have to grow several times */
+        ForecastBatch batch = new ForecastBatch(1);
+        fill(batch, 100);
+
+        assertEquals(100, batch.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(TestUtilities.DATE_NORMALIZED + SunshineDateUtils.DAY_IN_MILLIS * i,
+                    batch.getDate(i));
+            assertEquals(800 + i, batch.getWeatherId(i));
+            assertEquals(10.0 + i, batch.getMinTemp(i));
+            assertEquals(20.0 + i, batch.getMaxTemp(i));
+            assertEquals(50 + i % 50, batch.getHumidity(i));
+            assertEquals(1000.0 + i, batch.getPressure(i));
+            assertEquals(0.5 * i, batch.getWindSpeed(i));
+            assertEquals((double) (i % 360), batch.getDegrees(i));
+        }
+    }
+
+    @Test
+    public void testAddDoesNotAllocate() {
+        ForecastBatch batch = new ForecastBatch(FORECAST_DAYS);
+
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        fill(batch, FORECAST_DAYS);
+        Debug.stopAllocCounting();
+
+        assertEquals("Appending to a presized batch should not allocate (no boxing)",
+                0, Debug.getThreadAllocCount());
+    }
+
+    @Test
+    public void testBatchInsertStoresEveryColumn() {
+        ForecastBatch batch = new ForecastBatch();
+        fill(batch, FORECAST_DAYS);
+
+        int inserted = WeatherProvider.bulkInsert(mContext, batch);
+        assertEquals(FORECAST_DAYS, inserted);
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                null,
+                null,
+                null,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        assertNotNull(cursor);
+        assertEquals(FORECAST_DAYS, cursor.getCount());
+
+        for (int i = 0; cursor.moveToNext(); i++) {
+            TestUtilities.validateCurrentRecord("Row " + i + " differs from the batch",
+                    cursor, batch.toContentValues(i));
+        }
+        cursor.close();
+    }
+
+    @Test
+    public void testBatchInsertAllocatesLessThanContentValues() {
+        ForecastBatch batch = new ForecastBatch(FORECAST_DAYS);
+        fill(batch, FORECAST_DAYS);
+        ContentResolver resolver = mContext.getContentResolver();
+
+        /* Warm up both paths, so one-time class loading and caches aren't counted */
+        WeatherProvider.bulkInsert(mContext, batch);
+        resolver.bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, batch.toContentValues());
+
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        ContentValues[] values = batch.toContentValues();
+        resolver.bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, values);
+        Debug.stopAllocCounting();
+        int contentValuesAllocations = Debug.getThreadAllocCount();
+
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        WeatherProvider.bulkInsert(mContext, batch);
+        Debug.stopAllocCounting();
+        int batchAllocations = Debug.getThreadAllocCount();
+
+        Log.i(TAG, "Allocations to store " + FORECAST_DAYS + " days: ContentValues "
+                + contentValuesAllocations + ", ForecastBatch " + batchAllocations);
+
+        assertTrue("Storing a ForecastBatch should allocate less than storing ContentValues ("
+                        + batchAllocations + " vs " + contentValuesAllocations + ")",
+                batchAllocations < contentValuesAllocations);
+    }
+
+    private static void fill(ForecastBatch batch, int days) {
+        for (int i = 0; i < days; i++) {
+            batch.add(TestUtilities.DATE_NORMALIZED + SunshineDateUtils.DAY_IN_MILLIS * i,
+                    800 + i,
+                    10.0 + i,
+                    20.0 + i,
+                    50 + i % 50,
+                    1000.0 + i,
+                    0.5 * i,
+                    i % 360);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests that {@link ForecastFreshness} vouches for a forecast that WeatherProvider has
+ * reconciled, for its location and only while it still covers today, and that it stops
+ * vouching once weather is deleted.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestForecastFreshness {
+
+    private static final int FORECAST_DAYS = 14;
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    private String mLocation;
+    private long mToday;
+
+    @Before
+    public void setUp() {
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        ForecastFreshness.clear(mContext);
+        mLocation = SunshinePreferences.getPreferredWeatherLocation(mContext);
+        mToday = SunshineDateUtils.normalizeDate(System.currentTimeMillis());
+    }
+
+    @After
+    public void tearDown() {
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+    }
+
+    @Test
+    public void testReconcileIsRecorded() {
+        assertFalse(ForecastFreshness.hasForecastFromToday(mContext, mLocation));
+
+        long before = System.currentTimeMillis();
+        WeatherProvider.reconcile(mContext, mLocation, createForecast(0));
+
+        assertTrue(ForecastFreshness.hasForecastFromToday(mContext, mLocation));
+        assertFalse("The record is only good for the location it was made for",
+                ForecastFreshness.hasForecastFromToday(mContext, mLocation + " (elsewhere)"));
+        assertEquals(FORECAST_DAYS, ForecastFreshness.getRowCount(mContext));
+        assertTrue(ForecastFreshness.getLastSyncMillis(mContext) >= before);
+    }
+
+    @Test
+    public void testForecastEndingBeforeTodayIsNotFresh() {
+        WeatherProvider.reconcile(mContext, mLocation, createForecast(-FORECAST_DAYS));
+
+        assertFalse("A forecast that ended yesterday says nothing about today",
+                ForecastFreshness.hasForecastFromToday(mContext, mLocation));
+    }
+
+    @Test
+    public void testDeleteClearsRecord() {
+        WeatherProvider.reconcile(mContext, mLocation, createForecast(0));
+
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+
+        assertFalse(ForecastFreshness.hasForecastFromToday(mContext, mLocation));
+        assertEquals(0, ForecastFreshness.getRowCount(mContext));
+    }
+
+    /* FORECAST_DAYS days, starting firstDay days from today */
+    private ForecastBatch createForecast(int firstDay) {
+        return TestUtilities.createTestForecast(mToday, firstDay, FORECAST_DAYS, 800);
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+import com.example.android.sunshine.BuildConfig;
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests the provider statistics WeatherProvider reports through
+ * {@link WeatherContract#METHOD_GET_PROVIDER_STATS}, and measures what recording them costs.
+ * <p>
+ * Timings are written to logcat under the tag of this class.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestProviderMetrics {
+
+    private static final String TAG = TestProviderMetrics.class.getSimpleName();
+
+    private static final int FORECAST_DAYS = 14;
+
+    private static final int BENCHMARK_ITERATIONS = 100000;
+
+    /*
+     * Recording is a few atomic increments. This bound only catches a lock or an allocation
+     * sneaking into the hot path, even on a slow emulator.
+     */
+    private static final long MAX_NANOS_PER_RECORD = 5000;
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    @Before
+    public void setUp() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        WeatherProvider.reconcile(mContext, TestUtilities.createTestForecast(
+                TestUtilities.DATE_NORMALIZED, 0, FORECAST_DAYS, 800));
+    }
+
+    @Test
+    public void testEntryPointsAreCounted() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) return;
+
+        ContentResolver resolver = mContext.getContentResolver();
+        String queryKey = WeatherContract.buildStatsKey("query",
+                WeatherProvider.CODE_WEATHER_FROM_DATE);
+        String deleteKey = WeatherContract.buildStatsKey("delete", WeatherProvider.CODE_WEATHER);
+
+        Bundle before = getProviderStats();
+        if (!BuildConfig.DEBUG) {
+            assertNull("Release builds must not report provider statistics", before);
+            return;
+        }
+
+        Uri fromUri = WeatherEntry.buildWeatherUriFromDate(TestUtilities.DATE_NORMALIZED);
+        for (int i = 0; i < 3; i++) {
+            resolver.query(fromUri, null, null, null, null).close();
+        }
+        int deleted = resolver.delete(WeatherEntry.CONTENT_URI, null, null);
+
+        Bundle after = getProviderStats();
+
+        assertEquals(3, getLong(after, queryKey, WeatherContract.KEY_STATS_CALLS)
+                - getLong(before, queryKey, WeatherContract.KEY_STATS_CALLS));
+        assertEquals(3 * FORECAST_DAYS, getLong(after, queryKey, WeatherContract.KEY_STATS_ROWS)
+                - getLong(before, queryKey, WeatherContract.KEY_STATS_ROWS));
+        assertEquals(deleted, getLong(after, deleteKey, WeatherContract.KEY_STATS_ROWS)
+                - getLong(before, deleteKey, WeatherContract.KEY_STATS_ROWS));
+
+        Bundle query = after.getBundle(queryKey);
+        long p50 = query.getLong(WeatherContract.KEY_STATS_P50_NANOS);
+        long p99 = query.getLong(WeatherContract.KEY_STATS_P99_NANOS);
+        long max = query.getLong(WeatherContract.KEY_STATS_MAX_NANOS);
+        assertTrue(p50 > 0);
+        assertTrue(p50 <= p99 && p99 <= max);
+    }
+
+    @Test
+    public void benchmarkRecordingOverhead() {
+        ProviderMetrics metrics = new ProviderMetrics();
+
+        /* Warm up, and make the entry point exist before the clock starts */
+        for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+            metrics.record(ProviderMetrics.OPERATION_QUERY, WeatherProvider.CODE_WEATHER,
+                    System.nanoTime(), 1);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+            metrics.record(ProviderMetrics.OPERATION_QUERY, WeatherProvider.CODE_WEATHER,
+                    System.nanoTime(), 1);
+        }
+        long nanosPerRecord = (System.nanoTime() - start) / BENCHMARK_ITERATIONS;
+
+        /* For scale: a single-day query, which the provider answers in far more than that */
+        ContentResolver resolver = mContext.getContentResolver();
+        Uri dayUri = WeatherEntry.buildWeatherUriWithDate(TestUtilities.DATE_NORMALIZED);
+        int queries = 1000;
+        start = System.nanoTime();
+        for (int i = 0; i < queries; i++) {
+            resolver.query(dayUri, null, null, null, null).close();
+        }
+        long nanosPerQuery = (System.nanoTime() - start) / queries;
+
+        Log.i(TAG, "Recording: " + nanosPerRecord + " ns per call, a single-day query takes "
+                + nanosPerQuery + " ns");
+
+        assertTrue("Recording took " + nanosPerRecord + " ns per call",
+                nanosPerRecord < MAX_NANOS_PER_RECORD);
+    }
+
+    private Bundle getProviderStats() {
+        return mContext.getContentResolver().call(
+                WeatherEntry.CONTENT_URI, WeatherContract.METHOD_GET_PROVIDER_STATS, null, null);
+    }
+
+    /* An entry point that hasn't been called yet is missing from the stats, which counts as 0 */
+    private static long getLong(Bundle stats, String entryPoint, String key) {
+        assertNotNull(stats);
+        Bundle values = stats.getBundle(entryPoint);
+        return values == null ? 0 : values.getLong(key);
+    }
+}
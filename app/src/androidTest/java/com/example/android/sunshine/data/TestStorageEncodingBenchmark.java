@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Compares the plain and the compact encoding of the weather table on the same long history:
+ * the size of the database file, in pages, and the time a full scan through
+ * {@link WeatherEntry#VIEW_NAME} takes. The compact database must be the smaller one.
+ * <p>
+ * Timings and sizes are written to logcat under the tag of this class.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestStorageEncodingBenchmark {
+
+    private static final String TAG = TestStorageEncodingBenchmark.class.getSimpleName();
+
+    private static final String PLAIN_DATABASE = "weather_plain_benchmark.db";
+    private static final String COMPACT_DATABASE = "weather_compact_benchmark.db";
+
+    /* A hundred years of days, far more than the history keeps, to make the difference show */
+    private static final int ROW_COUNT = 36500;
+
+    private static final int SCAN_RUNS = 5;
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    @After
+    public void tearDown() {
+        mContext.deleteDatabase(PLAIN_DATABASE);
+        mContext.deleteDatabase(COMPACT_DATABASE);
+    }
+
+    @Test
+    public void benchmarkStorageEncoding() {
+        long plainPages = measure(PLAIN_DATABASE, false);
+        long compactPages = measure(COMPACT_DATABASE, true);
+
+        assertTrue("The compact database should be smaller, but it has " + compactPages
+                + " pages against " + plainPages, compactPages < plainPages);
+    }
+
+    /**
+     * Fills a database of the given encoding and scans it.
+     *
+     * @return The number of pages the database takes
+     */
+    private long measure(String name, boolean compact) {
+        mContext.deleteDatabase(name);
+        WeatherDbHelper helper = new WeatherDbHelper(mContext, name, compact);
+        try {
+            SQLiteDatabase db = helper.getWritableDatabase();
+            insertRows(db, helper.getEncoding());
+
+            long pages = queryLong(db, "PRAGMA page_count");
+            long pageSize = queryLong(db, "PRAGMA page_size");
+
+            long bestScanNanos = Long.MAX_VALUE;
+            for (int run = 0; run < SCAN_RUNS; run++) {
+                long start = System.nanoTime();
+                Cursor cursor = db.rawQuery("SELECT MIN(" + WeatherEntry.COLUMN_MIN_TEMP + "),"
+                        + " MAX(" + WeatherEntry.COLUMN_MAX_TEMP + "),"
+                        + " AVG(" + WeatherEntry.COLUMN_PRESSURE + "),"
+                        + " AVG(" + WeatherEntry.COLUMN_WIND_SPEED + "),"
+                        + " COUNT(*) FROM " + WeatherEntry.VIEW_NAME, null);
+                assertTrue(cursor.moveToFirst());
+                assertEquals(ROW_COUNT, cursor.getInt(4));
+                cursor.close();
+                bestScanNanos = Math.min(bestScanNanos, System.nanoTime() - start);
+            }
+
+            Log.i(TAG, (compact ? "Compact" : "Plain") + " encoding, " + ROW_COUNT + " rows: "
+                    + pages + " pages (" + pages * pageSize / 1024 + " KB), full scan in "
+                    + bestScanNanos / 1000 + " us");
+            return pages;
+        } finally {
+            helper.close();
+        }
+    }
+
+    private static void insertRows(SQLiteDatabase db, WeatherEncoding encoding) {
+        SQLiteStatement insert = db.compileStatement("INSERT INTO " + WeatherEntry.TABLE_NAME
+                + " (" + WeatherEntry.COLUMN_LOCATION_ID + ", " + WeatherEntry.COLUMN_DATE + ", "
+                + WeatherEntry.COLUMN_WEATHER_ID + ", " + WeatherEntry.COLUMN_MIN_TEMP + ", "
+                + WeatherEntry.COLUMN_MAX_TEMP + ", " + WeatherEntry.COLUMN_HUMIDITY + ", "
+                + WeatherEntry.COLUMN_PRESSURE + ", " + WeatherEntry.COLUMN_WIND_SPEED + ", "
+                + WeatherEntry.COLUMN_DEGREES + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)");
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < ROW_COUNT; i++) {
+                insert.bindLong(1, TestUtilities.TEST_LOCATION_ID);
+                insert.bindLong(2,
+                        TestUtilities.DATE_NORMALIZED + SunshineDateUtils.DAY_IN_MILLIS * i);
+                insert.bindLong(3, 800 + i % 4);
+                encoding.bind(insert, 4, WeatherEncoding.INDEX_MIN_TEMP, 10.0 + i % 70 * 0.1);
+                encoding.bind(insert, 5, WeatherEncoding.INDEX_MAX_TEMP, 20.0 + i % 90 * 0.1);
+                encoding.bind(insert, 6, WeatherEncoding.INDEX_HUMIDITY, 50 + i % 40);
+                encoding.bind(insert, 7, WeatherEncoding.INDEX_PRESSURE, 1000.0 + i % 300 * 0.1);
+                encoding.bind(insert, 8, WeatherEncoding.INDEX_WIND_SPEED, 0.5 * (i % 20));
+                encoding.bind(insert, 9, WeatherEncoding.INDEX_DEGREES, i % 360);
+                insert.executeInsert();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            insert.close();
+        }
+    }
+
+    private static long queryLong(SQLiteDatabase db, String sql) {
+        Cursor cursor = db.rawQuery(sql, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+}
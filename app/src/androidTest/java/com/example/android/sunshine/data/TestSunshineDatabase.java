@@ -193,7 +193,7 @@ public class TestSunshineDatabase {
 
     @Test
     public void testDatabaseVersionWasIncremented() {
-        int expectedDatabaseVersion = 3;
+        int expectedDatabaseVersion = 8;
         String databaseVersionShouldBe1 = "Database version should be "
                 + expectedDatabaseVersion + " but isn't."
                 + "\n Database version: ";
@@ -382,9 +382,10 @@ public class TestSunshineDatabase {
     }
 
     /**
-     * This method tests the {@link WeatherDbHelper#onUpgrade(SQLiteDatabase, int, int)}. The proper
-     * behavior for this method in our case is to simply DROP (or delete) the weather table from
-     * the database and then have the table recreated.
+     * This method tests the {@link WeatherDbHelper#onUpgrade(SQLiteDatabase, int, int)} between
+     * two versions there are no migrations for. The proper behavior in that case is to DROP (or
+     * delete) the weather table from the database and then have the table recreated. Upgrades
+     * that keep the data are tested by TestWeatherMigrations.
      */
     @Test
     public void testOnUpgradeBehavesCorrectly() {
@@ -456,6 +457,11 @@ public class TestSunshineDatabase {
 
         /* Here, we add the name of our only table in this particular database */
         tableNameHashSet.add(REFLECTED_TABLE_NAME);
+        tableNameHashSet.add(WeatherContract.HistoryEntry.TABLE_NAME);
+        tableNameHashSet.add(WeatherContract.LocationEntry.TABLE_NAME);
+        tableNameHashSet.add(WeatherContract.FreshnessEntry.TABLE_NAME);
+        /* The view weather is read through is listed along with the tables */
+        tableNameHashSet.add(WeatherContract.WeatherEntry.VIEW_NAME);
         /* Students, here is where you would add any other table names if you had them */
 //        tableNameHashSet.add(MyAwesomeSuperCoolTableName);
 //        tableNameHashSet.add(MyOtherCoolTableNameThatContainsOtherCoolData);
@@ -466,9 +472,9 @@ public class TestSunshineDatabase {
                 true,
                 database.isOpen());
 
-        /* This Cursor will contain the names of each table in our database */
+        /* This Cursor will contain the names of each table and view in our database */
         Cursor tableNameCursor = database.rawQuery(
-                "SELECT name FROM sqlite_master WHERE type='table'",
+                "SELECT name FROM sqlite_master WHERE type IN ('table', 'view')",
                 null);
 
         /*
@@ -37,6 +37,15 @@ public class TestUriMatcher {
     private static final Uri TEST_WEATHER_DIR = WeatherContract.WeatherEntry.CONTENT_URI;
     private static final Uri TEST_WEATHER_WITH_DATE_DIR = WeatherContract.WeatherEntry
             .buildWeatherUriWithDate(TestUtilities.DATE_NORMALIZED);
+    private static final Uri TEST_WEATHER_FROM_DATE_DIR = WeatherContract.WeatherEntry
+            .buildWeatherUriFromDate(TestUtilities.DATE_NORMALIZED);
+    private static final Uri TEST_WEATHER_PAGE_DIR = WeatherContract.WeatherEntry
+            .buildWeatherPageUri(TestUtilities.DATE_NORMALIZED, 20);
+    private static final Uri TEST_HISTORY_PAGE_DIR = WeatherContract.HistoryEntry
+            .buildHistoryPageUri(0, 20);
+    private static final Uri TEST_LOCATION_DIR = WeatherContract.LocationEntry.CONTENT_URI;
+    private static final Uri TEST_WEATHER_FOR_LOCATION_DIR = WeatherContract.LocationEntry
+            .buildUriForLocation(TEST_WEATHER_FROM_DATE_DIR, 2);
 
     private static final String weatherCodeVariableName = "CODE_WEATHER";
     private static int REFLECTED_WEATHER_CODE;
@@ -44,6 +53,18 @@ public class TestUriMatcher {
     private static final String weatherCodeWithDateVariableName = "CODE_WEATHER_WITH_DATE";
     private static int REFLECTED_WEATHER_WITH_DATE_CODE;
 
+    private static final String weatherCodeFromDateVariableName = "CODE_WEATHER_FROM_DATE";
+    private static int REFLECTED_WEATHER_FROM_DATE_CODE;
+
+    private static final String weatherCodePageVariableName = "CODE_WEATHER_PAGE";
+    private static int REFLECTED_WEATHER_PAGE_CODE;
+
+    private static final String historyCodePageVariableName = "CODE_HISTORY_PAGE";
+    private static int REFLECTED_HISTORY_PAGE_CODE;
+
+    private static final String locationCodeVariableName = "CODE_LOCATION";
+    private static int REFLECTED_LOCATION_CODE;
+
     private UriMatcher testMatcher;
 
     @Before
@@ -61,6 +82,22 @@ public class TestUriMatcher {
                     WeatherProvider.class,
                     weatherCodeWithDateVariableName);
 
+            REFLECTED_WEATHER_FROM_DATE_CODE = getStaticIntegerField(
+                    WeatherProvider.class,
+                    weatherCodeFromDateVariableName);
+
+            REFLECTED_WEATHER_PAGE_CODE = getStaticIntegerField(
+                    WeatherProvider.class,
+                    weatherCodePageVariableName);
+
+            REFLECTED_HISTORY_PAGE_CODE = getStaticIntegerField(
+                    WeatherProvider.class,
+                    historyCodePageVariableName);
+
+            REFLECTED_LOCATION_CODE = getStaticIntegerField(
+                    WeatherProvider.class,
+                    locationCodeVariableName);
+
         } catch (NoSuchFieldException e) {
             fail(studentReadableNoSuchField(e));
         } catch (IllegalAccessException e) {
@@ -101,5 +138,28 @@ public class TestUriMatcher {
         assertEquals(weatherWithDateUriCodeDoesNotMatch,
                 expectedWeatherWithDateCode,
                 actualWeatherWithDateCode);
+
+        /* Test that the "from a date onwards" URI isn't mistaken for a single date */
+        String weatherFromDateUriCodeDoesNotMatch =
+                "Error: The CODE_WEATHER_FROM_DATE URI was matched incorrectly.";
+        assertEquals(weatherFromDateUriCodeDoesNotMatch,
+                REFLECTED_WEATHER_FROM_DATE_CODE,
+                testMatcher.match(TEST_WEATHER_FROM_DATE_DIR));
+
+        /* Test that page URIs match, whatever their limit parameter */
+        assertEquals("Error: The CODE_WEATHER_PAGE URI was matched incorrectly.",
+                REFLECTED_WEATHER_PAGE_CODE,
+                testMatcher.match(TEST_WEATHER_PAGE_DIR));
+        assertEquals("Error: The CODE_HISTORY_PAGE URI was matched incorrectly.",
+                REFLECTED_HISTORY_PAGE_CODE,
+                testMatcher.match(TEST_HISTORY_PAGE_DIR));
+
+        /* Test the location table, and that a location parameter doesn't change the match */
+        assertEquals("Error: The CODE_LOCATION URI was matched incorrectly.",
+                REFLECTED_LOCATION_CODE,
+                testMatcher.match(TEST_LOCATION_DIR));
+        assertEquals("Error: A URI with a location was matched incorrectly.",
+                REFLECTED_WEATHER_FROM_DATE_CODE,
+                testMatcher.match(TEST_WEATHER_FOR_LOCATION_DIR));
     }
 }
@@ -16,6 +16,7 @@
 package com.example.android.sunshine.data;
 
 import android.content.ContentValues;
+import android.content.Context;
 import android.database.ContentObserver;
 import android.database.Cursor;
 import android.net.Uri;
@@ -35,6 +36,7 @@ import java.util.regex.Pattern;
 import static com.example.android.sunshine.data.WeatherContract.WeatherEntry.COLUMN_DATE;
 import static com.example.android.sunshine.data.WeatherContract.WeatherEntry.COLUMN_DEGREES;
 import static com.example.android.sunshine.data.WeatherContract.WeatherEntry.COLUMN_HUMIDITY;
+import static com.example.android.sunshine.data.WeatherContract.WeatherEntry.COLUMN_LOCATION_ID;
 import static com.example.android.sunshine.data.WeatherContract.WeatherEntry.COLUMN_MAX_TEMP;
 import static com.example.android.sunshine.data.WeatherContract.WeatherEntry.COLUMN_MIN_TEMP;
 import static com.example.android.sunshine.data.WeatherContract.WeatherEntry.COLUMN_PRESSURE;
@@ -59,6 +61,12 @@ class TestUtilities {
 
     static final int BULK_INSERT_RECORDS_TO_INSERT = 10;
 
+    /*
+     * The location the test weather values are stored for. It is far from the _IDs the provider
+     * hands out, so these rows never show up in queries for the location of the settings.
+     */
+    static final long TEST_LOCATION_ID = 1000000;
+
     /**
      * Ensures there is a non empty cursor and validates the cursor's data by checking it against
      * a set of expected values. This method will then close the cursor.
@@ -120,6 +128,7 @@ class TestUtilities {
 
         ContentValues testWeatherValues = new ContentValues();
 
+        testWeatherValues.put(COLUMN_LOCATION_ID, TEST_LOCATION_ID);
         testWeatherValues.put(COLUMN_DATE, DATE_NORMALIZED);
         testWeatherValues.put(COLUMN_DEGREES, 1.1);
         testWeatherValues.put(COLUMN_HUMIDITY, 1.2);
@@ -172,6 +181,89 @@ class TestUtilities {
         return bulkTestWeatherValues;
     }
 
+    /**
+     * Picks the weather ID of each day of a forecast made by
+     * {@link #createTestForecast(long, int, int, WeatherIdPicker)}.
+     */
+    interface WeatherIdPicker {
+
+        /**
+         * @param day The day, counted from the date the forecast is made from
+         * @return The weather ID of that day
+         */
+        int getWeatherId(int day);
+    }
+
+    /**
+     * Appends one day of test weather to a forecast. The temperatures and the humidity follow
+     * the day and the other values are the same every day, so forecasts that overlap agree on
+     * the days they share unless their weather IDs differ.
+     *
+     * @param forecast  The forecast to append to
+     * @param fromDate  The normalized date that days are counted from
+     * @param day       The day to append, counted from fromDate
+     * @param weatherId The weather ID of the day
+     */
+    static void addTestDay(ForecastBatch forecast, long fromDate, int day, int weatherId) {
+        forecast.add(fromDate + SunshineDateUtils.DAY_IN_MILLIS * day,
+                weatherId, 10.0 + day, 20.0 + day, 60 + day, 1013.25, 3.5, 180);
+    }
+
+    /**
+     * Makes a forecast of consecutive days of test weather, see
+     * {@link #addTestDay(ForecastBatch, long, int, int)}, all with the same weather ID.
+     *
+     * @param fromDate  The normalized date that days are counted from
+     * @param firstDay  The first day of the forecast, counted from fromDate
+     * @param days      How many days the forecast has
+     * @param weatherId The weather ID of every day
+     * @return A new forecast
+     */
+    static ForecastBatch createTestForecast(long fromDate, int firstDay, int days,
+            final int weatherId) {
+        return createTestForecast(fromDate, firstDay, days, new WeatherIdPicker() {
+            @Override
+            public int getWeatherId(int day) {
+                return weatherId;
+            }
+        });
+    }
+
+    /**
+     * Same as {@link #createTestForecast(long, int, int, int)}, but with a weather ID per day.
+     *
+     * @param fromDate   The normalized date that days are counted from
+     * @param firstDay   The first day of the forecast, counted from fromDate
+     * @param days       How many days the forecast has
+     * @param weatherIds Picks the weather ID of each day
+     * @return A new forecast
+     */
+    static ForecastBatch createTestForecast(long fromDate, int firstDay, int days,
+            WeatherIdPicker weatherIds) {
+        ForecastBatch forecast = new ForecastBatch(days);
+        for (int day = firstDay; day < firstDay + days; day++) {
+            addTestDay(forecast, fromDate, day, weatherIds.getWeatherId(day));
+        }
+        return forecast;
+    }
+
+    /**
+     * Returns the _ID of the location of the settings, which is what the provider stores and
+     * queries for when a URI doesn't name a location. Adds the location's row if it has none.
+     *
+     * @param context Used to open the database and read the settings
+     * @return The _ID of the location of the settings
+     */
+    static long getCurrentLocationId(Context context) {
+        WeatherDbHelper dbHelper = new WeatherDbHelper(context);
+        try {
+            return WeatherLocations.findOrInsert(dbHelper.getWritableDatabase(),
+                    SunshinePreferences.getPreferredWeatherLocation(context));
+        } finally {
+            dbHelper.close();
+        }
+    }
+
 
     static TestContentObserver getTestContentObserver() {
         return TestContentObserver.getTestContentObserver();
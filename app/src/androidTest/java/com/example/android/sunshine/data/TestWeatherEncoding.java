@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import com.example.android.sunshine.data.WeatherContract.HistoryEntry;
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests a weather database created in the compact encoding: that it is recognized as such when
+ * it is opened again, whatever the build's default is, that its values read back through
+ * {@link WeatherEntry#VIEW_NAME} in the units of WeatherContract, and that history compaction,
+ * which reads the days through the view, still works on it.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestWeatherEncoding {
+
+    private static final String COMPACT_DATABASE = "weather_compact.db";
+
+    /* Compact values are kept to a tenth, so they read back within half of that */
+    private static final double DELTA = 0.05;
+
+    private static final int STORED_DAYS = 40;
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    private WeatherDbHelper mDbHelper;
+
+    @Before
+    public void setUp() {
+        mContext.deleteDatabase(COMPACT_DATABASE);
+        mDbHelper = new WeatherDbHelper(mContext, COMPACT_DATABASE, true);
+    }
+
+    @After
+    public void tearDown() {
+        mDbHelper.close();
+        mContext.deleteDatabase(COMPACT_DATABASE);
+    }
+
+    @Test
+    public void testEncodingIsKeptByTheDatabase() {
+        mDbHelper.getWritableDatabase();
+        assertTrue(mDbHelper.getEncoding().isCompact());
+        mDbHelper.close();
+
+        WeatherDbHelper plainHelper = new WeatherDbHelper(mContext, COMPACT_DATABASE, false);
+        try {
+            plainHelper.getReadableDatabase();
+            assertTrue("A database should keep the encoding it was created with",
+                    plainHelper.getEncoding().isCompact());
+        } finally {
+            plainHelper.close();
+        }
+
+        assertFalse(WeatherEncoding.PLAIN.isCompact());
+    }
+
+    @Test
+    public void testValuesAreDecodedThroughView() {
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        insertDays(db, mDbHelper.getEncoding());
+
+        Cursor stored = db.rawQuery("SELECT typeof(" + WeatherEntry.COLUMN_MIN_TEMP + ")"
+                + " FROM " + WeatherEntry.TABLE_NAME + " LIMIT 1", null);
+        assertTrue(stored.moveToFirst());
+        assertEquals("Compact values should be stored as integers",
+                "integer", stored.getString(0));
+        stored.close();
+
+        Cursor cursor = db.query(WeatherEntry.VIEW_NAME,
+                new String[]{WeatherEntry.COLUMN_MIN_TEMP, WeatherEntry.COLUMN_MAX_TEMP,
+                        WeatherEntry.COLUMN_HUMIDITY, WeatherEntry.COLUMN_PRESSURE,
+                        WeatherEntry.COLUMN_WIND_SPEED, WeatherEntry.COLUMN_DEGREES},
+                null,
+                null,
+                null,
+                null,
+                WeatherEntry.COLUMN_DATE + " ASC");
+        try {
+            assertEquals(STORED_DAYS, cursor.getCount());
+            for (int day = 0; cursor.moveToNext(); day++) {
+                ContentValues expected = createDay(day);
+                assertEquals(expected.getAsDouble(WeatherEntry.COLUMN_MIN_TEMP),
+                        cursor.getDouble(0), DELTA);
+                assertEquals(expected.getAsDouble(WeatherEntry.COLUMN_MAX_TEMP),
+                        cursor.getDouble(1), DELTA);
+                assertEquals(expected.getAsDouble(WeatherEntry.COLUMN_HUMIDITY),
+                        cursor.getDouble(2), DELTA);
+                assertEquals(expected.getAsDouble(WeatherEntry.COLUMN_PRESSURE),
+                        cursor.getDouble(3), DELTA);
+                assertEquals(expected.getAsDouble(WeatherEntry.COLUMN_WIND_SPEED),
+                        cursor.getDouble(4), DELTA);
+                assertEquals(expected.getAsDouble(WeatherEntry.COLUMN_DEGREES),
+                        cursor.getDouble(5), DELTA);
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Folds every stored October day into history. The month's aggregates must come out in
+     * degrees, not in the tenths the days are stored in.
+     */
+    @Test
+    public void testHistoryCompactsCompactDatabase() {
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        insertDays(db, mDbHelper.getEncoding());
+
+        long today = TestUtilities.DATE_NORMALIZED + SunshineDateUtils.DAY_IN_MILLIS * STORED_DAYS;
+        WeatherHistory.compact(db, today, 0, WeatherHistory.MAX_HISTORY_MONTHS);
+
+        Cursor cursor = db.query(HistoryEntry.TABLE_NAME,
+                new String[]{HistoryEntry.COLUMN_DAY_COUNT, HistoryEntry.COLUMN_MIN_TEMP,
+                        HistoryEntry.COLUMN_MAX_TEMP},
+                HistoryEntry.COLUMN_MONTH + " = ?",
+                new String[]{Long.toString(TestUtilities.DATE_NORMALIZED)},
+                null,
+                null,
+                null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals(31, cursor.getInt(0));
+            assertEquals(createDay(0).getAsDouble(WeatherEntry.COLUMN_MIN_TEMP),
+                    cursor.getDouble(1), DELTA);
+            assertEquals(createDay(30).getAsDouble(WeatherEntry.COLUMN_MAX_TEMP),
+                    cursor.getDouble(2), DELTA);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static void insertDays(SQLiteDatabase db, WeatherEncoding encoding) {
+        db.beginTransaction();
+        try {
+            for (int day = 0; day < STORED_DAYS; day++) {
+                assertTrue(db.insert(WeatherEntry.TABLE_NAME, null,
+                        encoding.encode(createDay(day))) != -1);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /* Values with more decimals than the compact encoding keeps, starting on October 1st */
+    private static ContentValues createDay(int day) {
+        ContentValues values = new ContentValues();
+        values.put(WeatherEntry.COLUMN_LOCATION_ID, TestUtilities.TEST_LOCATION_ID);
+        values.put(WeatherEntry.COLUMN_DATE,
+                TestUtilities.DATE_NORMALIZED + SunshineDateUtils.DAY_IN_MILLIS * day);
+        values.put(WeatherEntry.COLUMN_WEATHER_ID, 800);
+        values.put(WeatherEntry.COLUMN_MIN_TEMP, -5.27 + day * 0.31);
+        values.put(WeatherEntry.COLUMN_MAX_TEMP, 12.83 + day * 0.29);
+        values.put(WeatherEntry.COLUMN_HUMIDITY, 40 + day);
+        values.put(WeatherEntry.COLUMN_PRESSURE, 1008.44 + day * 0.17);
+        values.put(WeatherEntry.COLUMN_WIND_SPEED, 1.27 + day * 0.13);
+        values.put(WeatherEntry.COLUMN_DEGREES, (double) (day * 9 % 360));
+        return values;
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests that the freshness table knows when the forecast of a location was last sent or
+ * confirmed by the server: a reconcile sets it, {@link WeatherProvider#markChecked(Context,
+ * String)} moves it on, and deleting the location's weather forgets it.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestWeatherFreshness {
+
+    private static final int FORECAST_DAYS = 14;
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    private String mLocation;
+
+    @Before
+    public void setUp() {
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mLocation = SunshinePreferences.getPreferredWeatherLocation(mContext);
+    }
+
+    @After
+    public void tearDown() {
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+    }
+
+    @Test
+    public void testReconcileMarksFetched() {
+        assertEquals("Nothing stored means nothing was checked",
+                -1, WeatherProvider.getCheckedMillis(mContext, mLocation));
+
+        long before = System.currentTimeMillis();
+        WeatherProvider.reconcile(mContext, mLocation, createForecast());
+        long checked = WeatherProvider.getCheckedMillis(mContext, mLocation);
+
+        assertTrue(checked >= before);
+        assertTrue(checked <= System.currentTimeMillis());
+        assertEquals("Only the location that was synced is fresh",
+                -1, WeatherProvider.getCheckedMillis(mContext, mLocation + " (elsewhere)"));
+    }
+
+    @Test
+    public void testUnchangedForecastStillMarksFetched() {
+        WeatherProvider.reconcile(mContext, mLocation, createForecast());
+        long first = WeatherProvider.getCheckedMillis(mContext, mLocation);
+
+        SystemClock.sleep(5);
+        assertEquals(0, WeatherProvider.reconcile(mContext, mLocation, createForecast()));
+
+        assertTrue(WeatherProvider.getCheckedMillis(mContext, mLocation) > first);
+    }
+
+    @Test
+    public void testMarkCheckedMovesCheckedTime() {
+        assertFalse("There is nothing to confirm before a sync stored something",
+                WeatherProvider.markChecked(mContext, mLocation));
+
+        WeatherProvider.reconcile(mContext, mLocation, createForecast());
+        long fetched = WeatherProvider.getCheckedMillis(mContext, mLocation);
+
+        SystemClock.sleep(5);
+        assertTrue(WeatherProvider.markChecked(mContext, mLocation));
+
+        assertTrue(WeatherProvider.getCheckedMillis(mContext, mLocation) > fetched);
+    }
+
+    @Test
+    public void testDeleteForgetsFreshness() {
+        WeatherProvider.reconcile(mContext, mLocation, createForecast());
+
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+
+        assertEquals(-1, WeatherProvider.getCheckedMillis(mContext, mLocation));
+        assertFalse(WeatherProvider.markChecked(mContext, mLocation));
+    }
+
+    private ForecastBatch createForecast() {
+        long today = SunshineDateUtils.normalizeDate(System.currentTimeMillis());
+        return TestUtilities.createTestForecast(today, 0, FORECAST_DAYS, 800);
+    }
+}
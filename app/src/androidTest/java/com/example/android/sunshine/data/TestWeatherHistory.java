@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import com.example.android.sunshine.data.WeatherContract.HistoryEntry;
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+/**
+ * Tests that {@link WeatherHistory#compact} folds past days into monthly aggregates, that
+ * folding a month in several runs gives the same aggregate as folding it at once, and that the
+ * oldest months are dropped beyond the size budget.
+ * <p>
+ * The stored days start on TestUtilities.DATE_NORMALIZED, which is October 1st, 2016.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestWeatherHistory {
+
+    /* All of October and half of November */
+    private static final int STORED_DAYS = 45;
+
+    private static final int DAILY_HISTORY_DAYS = 4;
+    private static final int MAX_HISTORY_MONTHS = 12;
+
+    /* The last stored day, November 14th */
+    private static final long TODAY =
+            TestUtilities.DATE_NORMALIZED + SunshineDateUtils.DAY_IN_MILLIS * (STORED_DAYS - 1);
+
+    private static final long OCTOBER = TestUtilities.DATE_NORMALIZED;
+    private static final long NOVEMBER = OCTOBER + SunshineDateUtils.DAY_IN_MILLIS * 31;
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    private WeatherDbHelper mDbHelper;
+
+    @Before
+    public void setUp() {
+        mDbHelper = new WeatherDbHelper(mContext);
+        deleteAllRows();
+
+        ForecastBatch days = new ForecastBatch(STORED_DAYS);
+        for (int day = 0; day < STORED_DAYS; day++) {
+            days.add(TestUtilities.DATE_NORMALIZED + SunshineDateUtils.DAY_IN_MILLIS * day,
+                    800, day, day + 10.0, 50, 1000.0, day % 3, 180);
+        }
+        WeatherProvider.bulkInsert(mContext, days);
+    }
+
+    @After
+    public void tearDown() {
+        deleteAllRows();
+        mDbHelper.close();
+    }
+
+    @Test
+    public void testCompactFoldsOldDaysIntoMonths() {
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+
+        int deleted = WeatherHistory.compact(db, TODAY, DAILY_HISTORY_DAYS, MAX_HISTORY_MONTHS);
+
+        /* Every day before November 10th: all 31 days of October and 9 of November */
+        assertEquals(40, deleted);
+        assertEquals(DAILY_HISTORY_DAYS + 1, count(db, WeatherEntry.TABLE_NAME));
+
+        Cursor history = queryHistory(db);
+        assertEquals(2, history.getCount());
+
+        /* October held the days 0 to 30 */
+        assertTrue(history.moveToNext());
+        assertMonth(history, OCTOBER, 31, 0.0, 40.0, 15.0, 25.0);
+
+        /* November so far held the days 31 to 39 */
+        assertTrue(history.moveToNext());
+        assertMonth(history, NOVEMBER, 9, 31.0, 49.0, 35.0, 45.0);
+        history.close();
+    }
+
+    @Test
+    public void testCompactMergesIntoExistingMonth() {
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        WeatherHistory.compact(db, TODAY, DAILY_HISTORY_DAYS, MAX_HISTORY_MONTHS);
+
+        /* Three days later, the days 40 to 42 are folded into November as well */
+        long later = TODAY + SunshineDateUtils.DAY_IN_MILLIS * 3;
+        int deleted = WeatherHistory.compact(db, later, DAILY_HISTORY_DAYS, MAX_HISTORY_MONTHS);
+        assertEquals(3, deleted);
+
+        Cursor history = queryHistory(db);
+        assertEquals(2, history.getCount());
+        assertTrue(history.moveToLast());
+        assertMonth(history, NOVEMBER, 12, 31.0, 52.0, 36.5, 46.5);
+        history.close();
+    }
+
+    @Test
+    public void testCompactKeepsNewestMonthsWithinBudget() {
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+
+        int deleted = WeatherHistory.compact(db, TODAY, DAILY_HISTORY_DAYS, 1);
+
+        /* 40 days were folded, then October was dropped */
+        assertEquals(41, deleted);
+
+        Cursor history = queryHistory(db);
+        assertEquals(1, history.getCount());
+        assertTrue(history.moveToFirst());
+        assertEquals(NOVEMBER,
+                history.getLong(history.getColumnIndex(HistoryEntry.COLUMN_MONTH)));
+        history.close();
+    }
+
+    @Test
+    public void testCompactRejectsEmptyBudget() {
+        try {
+            WeatherHistory.compact(mDbHelper.getWritableDatabase(), TODAY, DAILY_HISTORY_DAYS, 0);
+            fail("compact should reject a history that keeps no month");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    private static void assertMonth(Cursor history, long month, int days, double min,
+            double max, double meanMin, double meanMax) {
+        assertEquals(month, history.getLong(history.getColumnIndex(HistoryEntry.COLUMN_MONTH)));
+        assertEquals(days, history.getInt(history.getColumnIndex(HistoryEntry.COLUMN_DAY_COUNT)));
+        assertEquals(min,
+                history.getDouble(history.getColumnIndex(HistoryEntry.COLUMN_MIN_TEMP)), 1e-9);
+        assertEquals(max,
+                history.getDouble(history.getColumnIndex(HistoryEntry.COLUMN_MAX_TEMP)), 1e-9);
+        assertEquals(meanMin,
+                history.getDouble(history.getColumnIndex(HistoryEntry.COLUMN_MEAN_MIN_TEMP)),
+                1e-9);
+        assertEquals(meanMax,
+                history.getDouble(history.getColumnIndex(HistoryEntry.COLUMN_MEAN_MAX_TEMP)),
+                1e-9);
+        assertEquals(50.0,
+                history.getDouble(history.getColumnIndex(HistoryEntry.COLUMN_MEAN_HUMIDITY)),
+                1e-9);
+        assertEquals(1000.0,
+                history.getDouble(history.getColumnIndex(HistoryEntry.COLUMN_MEAN_PRESSURE)),
+                1e-9);
+    }
+
+    private static Cursor queryHistory(SQLiteDatabase db) {
+        return db.query(HistoryEntry.TABLE_NAME, null, null, null, null, null,
+                HistoryEntry.COLUMN_MONTH + " ASC");
+    }
+
+    private static long count(SQLiteDatabase db, String table) {
+        Cursor cursor = db.rawQuery("SELECT COUNT(*) FROM " + table, null);
+        try {
+            cursor.moveToFirst();
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private void deleteAllRows() {
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        db.delete(WeatherEntry.TABLE_NAME, null, null);
+        db.delete(HistoryEntry.TABLE_NAME, null, null);
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.preference.PreferenceManager;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import com.example.android.sunshine.R;
+import com.example.android.sunshine.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests that the weather of every saved location is kept apart: that each location's URIs only
+ * see its own forecast, that deleting one location's forecast leaves the others alone, and that
+ * switching the location of the settings finds the forecast already stored for it.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestWeatherLocations {
+
+    private static final int FORECAST_DAYS = 14;
+
+    private static final long TODAY = SunshineDateUtils.getNormalizedUtcDateForToday();
+
+    private static final String OTHER_LOCATION = "Test City, 12345";
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    private long mOtherLocationId;
+
+    @Before
+    public void setUp() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        WeatherProvider.bulkInsert(mContext,
+                TestUtilities.createTestForecast(TODAY, 0, FORECAST_DAYS, 800));
+
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        mOtherLocationId = WeatherLocations.findOrInsert(dbHelper.getWritableDatabase(),
+                OTHER_LOCATION);
+        dbHelper.close();
+
+        Uri otherUri = LocationEntry.buildUriForLocation(WeatherEntry.CONTENT_URI,
+                mOtherLocationId);
+        mContext.getContentResolver().delete(otherUri, null, null);
+        mContext.getContentResolver().bulkInsert(otherUri,
+                TestUtilities.createTestForecast(TODAY, 0, FORECAST_DAYS, 500).toContentValues());
+    }
+
+    @After
+    public void tearDown() {
+        ContentResolver resolver = mContext.getContentResolver();
+        resolver.delete(WeatherEntry.CONTENT_URI, null, null);
+        resolver.delete(LocationEntry.buildUriForLocation(WeatherEntry.CONTENT_URI,
+                mOtherLocationId), null, null);
+    }
+
+    @Test
+    public void testLocationsAreStoredSeparately() {
+        assertForecast(WeatherEntry.buildWeatherUriFromToday(), 800);
+        assertForecast(LocationEntry.buildUriForLocation(
+                WeatherEntry.buildWeatherUriFromToday(), mOtherLocationId), 500);
+
+        /* Deleting the forecast of the settings' location leaves the other location's */
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        assertForecast(LocationEntry.buildUriForLocation(
+                WeatherEntry.buildWeatherUriFromToday(), mOtherLocationId), 500);
+    }
+
+    @Test
+    public void testLocationsAreListed() {
+        Cursor cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI,
+                new String[]{LocationEntry.COLUMN_LOCATION_SETTING}, null, null, null);
+        assertNotNull(cursor);
+
+        Set<String> settings = new HashSet<>();
+        while (cursor.moveToNext()) {
+            settings.add(cursor.getString(0));
+        }
+        cursor.close();
+
+        assertTrue(settings.contains(OTHER_LOCATION));
+        assertTrue(settings.contains(SunshinePreferences.getPreferredWeatherLocation(mContext)));
+    }
+
+    @Test
+    public void testSwitchingLocationFindsStoredForecast() {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(mContext);
+        String keyForLocation = mContext.getString(R.string.pref_location_key);
+        String savedLocation = SunshinePreferences.getPreferredWeatherLocation(mContext);
+
+        sp.edit().putString(keyForLocation, OTHER_LOCATION).commit();
+        try {
+            assertForecast(WeatherEntry.buildWeatherUriFromToday(), 500);
+            assertForecast(WeatherEntry.buildWeatherUriWithDate(TODAY), 500);
+        } finally {
+            sp.edit().putString(keyForLocation, savedLocation).commit();
+        }
+
+        assertForecast(WeatherEntry.buildWeatherUriFromToday(), 800);
+    }
+
+    /**
+     * Switching between locations should be a seek on the unique index of the location and
+     * date, not a scan of the weather of every location.
+     */
+    @Test
+    public void testLocationQueryUsesIndexSeek() {
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        SQLiteDatabase database = dbHelper.getReadableDatabase();
+
+        Cursor plan = database.rawQuery("EXPLAIN QUERY PLAN SELECT * FROM "
+                        + WeatherEntry.TABLE_NAME
+                        + " WHERE " + WeatherEntry.COLUMN_LOCATION_ID + " = ?"
+                        + " AND " + WeatherEntry.COLUMN_DATE + " >= ?"
+                        + " ORDER BY " + WeatherEntry.COLUMN_DATE + " ASC",
+                new String[]{Long.toString(mOtherLocationId), Long.toString(TODAY)});
+        assertTrue(plan.moveToFirst());
+        String detail = plan.getString(plan.getColumnIndex("detail"));
+        plan.close();
+        dbHelper.close();
+
+        assertTrue("Expected an index seek, but the plan was: " + detail,
+                detail.contains("SEARCH") && detail.contains("INDEX"));
+    }
+
+    private void assertForecast(Uri uri, int weatherId) {
+        Cursor cursor = mContext.getContentResolver().query(
+                uri, new String[]{WeatherEntry.COLUMN_WEATHER_ID}, null, null, null);
+        assertNotNull(cursor);
+        assertTrue("No forecast for " + uri, cursor.getCount() > 0);
+        while (cursor.moveToNext()) {
+            assertEquals(weatherId, cursor.getInt(0));
+        }
+        cursor.close();
+    }
+}
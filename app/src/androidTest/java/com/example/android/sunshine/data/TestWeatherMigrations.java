@@ -0,0 +1,295 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import com.example.android.sunshine.data.WeatherContract.HistoryEntry;
+import com.example.android.sunshine.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Upgrades databases recorded at every older version, from the test APK's assets, to the latest
+ * version. Every upgrade must end with the same schema onCreate creates. Upgrades from the
+ * versions of this app must also keep the weather and history that were stored, while the
+ * databases of the earlier Sunshine, which can't be migrated, are recreated empty.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestWeatherMigrations {
+
+    private static final String FIXTURE_DATABASE = "weather_fixture.db";
+    private static final String FRESH_DATABASE = "weather_fresh.db";
+
+    /* What the recorded databases of this app hold */
+    private static final int FIXTURE_DAYS = 3;
+    private static final int FIXTURE_MONTHS = 2;
+
+    /* The location recorded databases that already have a location table store weather for */
+    private static final String FIXTURE_LOCATION = "Mountain View, CA 94043";
+    private static final int FIRST_VERSION_WITH_LOCATIONS = 6;
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    @After
+    public void tearDown() {
+        mContext.deleteDatabase(FIXTURE_DATABASE);
+        mContext.deleteDatabase(FRESH_DATABASE);
+    }
+
+    @Test
+    public void testUpgradeKeepsStoredWeather() throws IOException {
+        String freshSchema = describeFreshSchema();
+
+        for (int version = WeatherMigrations.OLDEST_VERSION;
+             version < WeatherMigrations.LATEST_VERSION; version++) {
+            WeatherDbHelper helper = upgradeFixture(version, false);
+            SQLiteDatabase db = helper.getReadableDatabase();
+            try {
+                assertEquals("Upgrading version " + version + " left a different schema",
+                        freshSchema, describeSchema(db));
+
+                /* Older versions store their weather for the location of the settings */
+                String location = version >= FIRST_VERSION_WITH_LOCATIONS
+                        ? FIXTURE_LOCATION
+                        : SunshinePreferences.getPreferredWeatherLocation(mContext);
+                long locationId = WeatherLocations.find(db, location);
+                assertTrue("The stored weather should belong to " + location,
+                        locationId != WeatherLocations.NO_LOCATION);
+
+                assertWeatherKept(db, locationId);
+                assertEquals("Version " + version + " lost its history",
+                        version >= 4 ? FIXTURE_MONTHS : 0,
+                        count(db, HistoryEntry.TABLE_NAME,
+                                HistoryEntry.COLUMN_LOCATION_ID + " = " + locationId));
+            } finally {
+                helper.close();
+            }
+        }
+    }
+
+    @Test
+    public void testUpgradeFromEarlierSunshineRecreatesTables() throws IOException {
+        String freshSchema = describeFreshSchema();
+
+        for (int version = 1; version < WeatherMigrations.OLDEST_VERSION; version++) {
+            WeatherDbHelper helper = upgradeFixture(version, false);
+            SQLiteDatabase db = helper.getReadableDatabase();
+            try {
+                assertEquals("Upgrading version " + version + " left a different schema",
+                        freshSchema, describeSchema(db));
+                assertEquals(0, count(db, WeatherEntry.TABLE_NAME, null));
+                assertEquals(0, count(db, LocationEntry.TABLE_NAME, null));
+            } finally {
+                helper.close();
+            }
+        }
+    }
+
+    /**
+     * A step that fails, here because the history table the step to version 6 copies is missing,
+     * must not leave a half migrated database behind.
+     */
+    @Test
+    public void testFailedUpgradeRecreatesTables() throws IOException {
+        String freshSchema = describeFreshSchema();
+
+        WeatherDbHelper helper = upgradeFixture(FIRST_VERSION_WITH_LOCATIONS - 1, true);
+        SQLiteDatabase db = helper.getReadableDatabase();
+        try {
+            assertEquals(freshSchema, describeSchema(db));
+            assertEquals(0, count(db, WeatherEntry.TABLE_NAME, null));
+        } finally {
+            helper.close();
+        }
+    }
+
+    /**
+     * Recreates the recorded database of a version and opens it, which upgrades it.
+     *
+     * @param version     The version of the recorded database
+     * @param dropHistory Whether to drop the history table before the upgrade
+     * @return The helper of the upgraded database, which the caller closes
+     */
+    private WeatherDbHelper upgradeFixture(int version, boolean dropHistory) throws IOException {
+        mContext.deleteDatabase(FIXTURE_DATABASE);
+        SQLiteDatabase db = mContext.openOrCreateDatabase(
+                FIXTURE_DATABASE, Context.MODE_PRIVATE, null);
+        db.beginTransaction();
+        try {
+            for (String statement : readStatements("weather_v" + version + ".sql")) {
+                db.execSQL(statement);
+            }
+            if (dropHistory) {
+                db.execSQL("DROP TABLE " + HistoryEntry.TABLE_NAME);
+            }
+            db.setVersion(version);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        db.close();
+
+        WeatherDbHelper helper = new WeatherDbHelper(mContext, FIXTURE_DATABASE);
+        helper.getWritableDatabase();
+        return helper;
+    }
+
+    private void assertWeatherKept(SQLiteDatabase db, long locationId) {
+        Cursor cursor = db.query(WeatherEntry.TABLE_NAME,
+                new String[]{WeatherEntry.COLUMN_DATE, WeatherEntry.COLUMN_WEATHER_ID,
+                        WeatherEntry.COLUMN_MIN_TEMP, WeatherEntry.COLUMN_DEGREES},
+                WeatherEntry.COLUMN_LOCATION_ID + " = ?",
+                new String[]{Long.toString(locationId)},
+                null,
+                null,
+                WeatherEntry.COLUMN_DATE + " ASC");
+        try {
+            assertEquals(FIXTURE_DAYS, cursor.getCount());
+            for (int day = 0; cursor.moveToNext(); day++) {
+                assertEquals(TestUtilities.DATE_NORMALIZED + SunshineDateUtils.DAY_IN_MILLIS * day,
+                        cursor.getLong(0));
+                assertEquals(800 + day, cursor.getInt(1));
+                assertEquals(10.5 + day, cursor.getDouble(2));
+                assertEquals(180.0 + day, cursor.getDouble(3));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private String describeFreshSchema() {
+        mContext.deleteDatabase(FRESH_DATABASE);
+        WeatherDbHelper helper = new WeatherDbHelper(mContext, FRESH_DATABASE);
+        try {
+            return describeSchema(helper.getReadableDatabase());
+        } finally {
+            helper.close();
+        }
+    }
+
+    /**
+     * Describes every table and view by its columns, indexes and foreign keys. Unlike the CREATE
+     * statements in sqlite_master, the description doesn't depend on how the statements were
+     * written or on the names a table had while it was being rebuilt.
+     */
+    private static String describeSchema(SQLiteDatabase db) {
+        StringBuilder schema = new StringBuilder();
+        for (String table : queryStrings(db, "SELECT name FROM sqlite_master"
+                + " WHERE type IN ('table', 'view') AND name NOT LIKE 'sqlite_%'"
+                + " AND name != 'android_metadata' ORDER BY name", 0)) {
+            schema.append(table).append('\n');
+
+            Cursor columns = db.rawQuery("PRAGMA table_info(" + table + ")", null);
+            while (columns.moveToNext()) {
+                schema.append("  column ")
+                        .append(columns.getString(columns.getColumnIndex("name"))).append(' ')
+                        .append(columns.getString(columns.getColumnIndex("type")))
+                        .append(" notnull=")
+                        .append(columns.getInt(columns.getColumnIndex("notnull")))
+                        .append(" pk=")
+                        .append(columns.getInt(columns.getColumnIndex("pk")))
+                        .append('\n');
+            }
+            columns.close();
+
+            List<String> indexes = new ArrayList<>();
+            Cursor indexList = db.rawQuery("PRAGMA index_list(" + table + ")", null);
+            while (indexList.moveToNext()) {
+                String index = indexList.getString(indexList.getColumnIndex("name"));
+                indexes.add("  index unique=" + indexList.getInt(indexList.getColumnIndex("unique"))
+                        + " " + queryStrings(db, "PRAGMA index_info(" + index + ")", 2));
+            }
+            indexList.close();
+            Collections.sort(indexes);
+            for (String index : indexes) {
+                schema.append(index).append('\n');
+            }
+
+            Cursor foreignKeys = db.rawQuery("PRAGMA foreign_key_list(" + table + ")", null);
+            while (foreignKeys.moveToNext()) {
+                schema.append("  references ")
+                        .append(foreignKeys.getString(foreignKeys.getColumnIndex("table")))
+                        .append(" from ")
+                        .append(foreignKeys.getString(foreignKeys.getColumnIndex("from")))
+                        .append('\n');
+            }
+            foreignKeys.close();
+        }
+        return schema.toString();
+    }
+
+    private static List<String> queryStrings(SQLiteDatabase db, String sql, int column) {
+        List<String> strings = new ArrayList<>();
+        Cursor cursor = db.rawQuery(sql, null);
+        while (cursor.moveToNext()) {
+            strings.add(cursor.getString(column));
+        }
+        cursor.close();
+        return strings;
+    }
+
+    private static int count(SQLiteDatabase db, String table, String selection) {
+        Cursor cursor = db.query(table, null, selection, null, null, null, null);
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+
+    /**
+     * Reads the statements of a recorded database from the test APK's assets. The recordings
+     * hold one statement per line, ended by a semicolon, and comment lines starting with "--".
+     */
+    private static List<String> readStatements(String name) throws IOException {
+        InputStream in = InstrumentationRegistry.getContext().getAssets().open(name);
+        StringBuilder builder = new StringBuilder();
+        try {
+            Reader reader = new InputStreamReader(in, "UTF-8");
+            char[] buffer = new char[4096];
+            int read;
+            while ((read = reader.read(buffer)) != -1) {
+                builder.append(buffer, 0, read);
+            }
+        } finally {
+            in.close();
+        }
+
+        List<String> statements = new ArrayList<>();
+        for (String line : builder.toString().split("\n")) {
+            if (line.startsWith("--") || line.trim().isEmpty()) continue;
+            statements.add(line);
+        }
+        return statements;
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.net.Uri;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static junit.framework.Assert.assertFalse;
+
+/**
+ * Tests that writes through WeatherProvider notify the URIs of the days they changed and the
+ * forecast list, but not the URIs of days that stayed the same. Observers are registered the
+ * way a cursor of the detail screen or of the forecast list registers itself.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestWeatherNotifications {
+
+    private static final int FORECAST_DAYS = 14;
+
+    /* The day whose forecast changes, and one that doesn't */
+    private static final int CHANGED_DAY = 5;
+    private static final int UNCHANGED_DAY = 3;
+
+    /* How long an unexpected notification gets to arrive after the expected ones did */
+    private static final long QUIET_PERIOD_MILLIS = 500;
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    private TestUtilities.TestContentObserver mChangedDayObserver;
+    private TestUtilities.TestContentObserver mUnchangedDayObserver;
+    private TestUtilities.TestContentObserver mListObserver;
+
+    @Before
+    public void setUp() {
+        ContentResolver resolver = mContext.getContentResolver();
+        resolver.delete(WeatherEntry.CONTENT_URI, null, null);
+        WeatherProvider.reconcile(mContext, createForecast(-1));
+
+        mChangedDayObserver = TestUtilities.getTestContentObserver();
+        mUnchangedDayObserver = TestUtilities.getTestContentObserver();
+        mListObserver = TestUtilities.getTestContentObserver();
+
+        resolver.registerContentObserver(dayUri(CHANGED_DAY), true, mChangedDayObserver);
+        resolver.registerContentObserver(dayUri(UNCHANGED_DAY), true, mUnchangedDayObserver);
+        resolver.registerContentObserver(
+                WeatherEntry.buildWeatherUriFromDate(TestUtilities.DATE_NORMALIZED),
+                true,
+                mListObserver);
+    }
+
+    @After
+    public void tearDown() {
+        ContentResolver resolver = mContext.getContentResolver();
+        resolver.unregisterContentObserver(mChangedDayObserver);
+        resolver.unregisterContentObserver(mUnchangedDayObserver);
+        resolver.unregisterContentObserver(mListObserver);
+        mUnchangedDayObserver.mHT.quit();
+    }
+
+    @Test
+    public void testReconcileNotifiesChangedDayOnly() throws InterruptedException {
+        WeatherProvider.reconcile(mContext, createForecast(CHANGED_DAY));
+
+        mChangedDayObserver.waitForNotificationOrFail();
+        mListObserver.waitForNotificationOrFail();
+
+        Thread.sleep(QUIET_PERIOD_MILLIS);
+        assertFalse("A day that didn't change was notified",
+                mUnchangedDayObserver.mContentChanged);
+    }
+
+    @Test
+    public void testDeleteNotifiesDeletedDayOnly() throws InterruptedException {
+        mContext.getContentResolver().delete(
+                WeatherEntry.CONTENT_URI,
+                WeatherEntry.COLUMN_DATE + " = ?",
+                new String[]{dayUri(CHANGED_DAY).getLastPathSegment()});
+
+        mChangedDayObserver.waitForNotificationOrFail();
+        mListObserver.waitForNotificationOrFail();
+
+        Thread.sleep(QUIET_PERIOD_MILLIS);
+        assertFalse("A day that wasn't deleted was notified",
+                mUnchangedDayObserver.mContentChanged);
+    }
+
+    /**
+     * @param changedDay The day that gets a different weather ID, or -1 for none
+     */
+    private static ForecastBatch createForecast(final int changedDay) {
+        return TestUtilities.createTestForecast(TestUtilities.DATE_NORMALIZED, 0, FORECAST_DAYS,
+                new TestUtilities.WeatherIdPicker() {
+                    @Override
+                    public int getWeatherId(int day) {
+                        return day == changedDay ? 500 : 800;
+                    }
+                });
+    }
+
+    private static Uri dayUri(int day) {
+        return WeatherEntry.buildWeatherUriWithDate(
+                TestUtilities.DATE_NORMALIZED + SunshineDateUtils.DAY_IN_MILLIS * day);
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import com.example.android.sunshine.data.WeatherContract.HistoryEntry;
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+/**
+ * Tests the keyset page URIs of the weather and the history: that paging through a table
+ * returns every row exactly once and in order, that a page is found through the index rather
+ * than by skipping the rows before it, and that bad page requests are rejected.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestWeatherPaging {
+
+    /* More days than fit in three pages, so the last page is a partial one */
+    private static final int DAYS = 100;
+    private static final int PAGE_SIZE = 30;
+
+    private static final int MONTHS = 25;
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    @Before
+    public void setUp() {
+        ContentResolver resolver = mContext.getContentResolver();
+        resolver.delete(WeatherEntry.CONTENT_URI, null, null);
+
+        ForecastBatch days = new ForecastBatch(DAYS);
+        for (int day = 0; day < DAYS; day++) {
+            days.add(day(day), 800 + day % 4, day % 10, 20.0 + day % 10, 60, 1013.25, 3.5, 180);
+        }
+        WeatherProvider.bulkInsert(mContext, days);
+    }
+
+    @After
+    public void tearDown() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        deleteHistory();
+    }
+
+    @Test
+    public void testPagesCoverEveryDayOnce() {
+        ContentResolver resolver = mContext.getContentResolver();
+        String[] projection = {WeatherEntry.COLUMN_DATE};
+
+        long afterDate = day(0) - 1;
+        int expectedDay = 0;
+        int pages = 0;
+
+        while (true) {
+            Cursor page = resolver.query(WeatherEntry.buildWeatherPageUri(afterDate, PAGE_SIZE),
+                    projection, null, null, null);
+            assertNotNull(page);
+            int rows = page.getCount();
+            assertTrue("A page holds at most the limit", rows <= PAGE_SIZE);
+
+            while (page.moveToNext()) {
+                assertEquals("Days must come in order, without gaps or repeats",
+                        day(expectedDay++), page.getLong(0));
+            }
+            if (page.moveToLast()) {
+                afterDate = page.getLong(0);
+            }
+            page.close();
+
+            pages++;
+            if (rows < PAGE_SIZE) break;
+        }
+
+        assertEquals(DAYS, expectedDay);
+        assertEquals((DAYS + PAGE_SIZE - 1) / PAGE_SIZE, pages);
+    }
+
+    @Test
+    public void testPageWithSelection() {
+        Cursor page = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherPageUri(day(9), 5),
+                new String[]{WeatherEntry.COLUMN_DATE},
+                WeatherEntry.COLUMN_WEATHER_ID + " = ?",
+                new String[]{"800"},
+                null);
+        assertNotNull(page);
+
+        /* Every fourth day has weather ID 800; the first one after day 9 is day 12 */
+        assertEquals(5, page.getCount());
+        for (int day = 12; page.moveToNext(); day += 4) {
+            assertEquals(day(day), page.getLong(0));
+        }
+        page.close();
+    }
+
+    @Test
+    public void testHistoryPages() {
+        insertHistory();
+
+        ContentResolver resolver = mContext.getContentResolver();
+        String[] projection = {HistoryEntry.COLUMN_MONTH};
+
+        Cursor first = resolver.query(HistoryEntry.buildHistoryPageUri(0, 10),
+                projection, null, null, null);
+        assertNotNull(first);
+        assertEquals(10, first.getCount());
+        assertTrue(first.moveToLast());
+        long lastMonth = first.getLong(0);
+        first.close();
+
+        Cursor rest = resolver.query(HistoryEntry.buildHistoryPageUri(lastMonth, 100),
+                projection, null, null, null);
+        assertNotNull(rest);
+        assertEquals(MONTHS - 10, rest.getCount());
+        assertTrue(rest.moveToFirst());
+        assertTrue(rest.getLong(0) > lastMonth);
+        rest.close();
+    }
+
+    @Test
+    public void testInvalidPagesAreRejected() {
+        assertRejected(WeatherEntry.buildWeatherPageUri(day(0), 0), null);
+        assertRejected(WeatherEntry.buildWeatherPageUri(day(0),
+                WeatherContract.MAX_PAGE_SIZE + 1), null);
+        assertRejected(WeatherEntry.buildWeatherPageUri(day(0), PAGE_SIZE),
+                WeatherEntry.COLUMN_DATE + " DESC");
+    }
+
+    /**
+     * Every page, however deep, should be a seek on the unique index of the location and date
+     * followed by at most limit steps, not a scan that skips the rows before it.
+     */
+    @Test
+    public void testPageUsesIndexSeek() {
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        SQLiteDatabase database = dbHelper.getReadableDatabase();
+
+        Cursor plan = database.rawQuery("EXPLAIN QUERY PLAN SELECT * FROM "
+                        + WeatherEntry.TABLE_NAME
+                        + " WHERE " + WeatherEntry.COLUMN_LOCATION_ID + " = ?"
+                        + " AND " + WeatherEntry.COLUMN_DATE + " > ?"
+                        + " ORDER BY " + WeatherEntry.COLUMN_DATE + " ASC"
+                        + " LIMIT " + PAGE_SIZE,
+                new String[]{"1", Long.toString(day(DAYS / 2))});
+        assertTrue(plan.moveToFirst());
+        String detail = plan.getString(plan.getColumnIndex("detail"));
+        plan.close();
+        dbHelper.close();
+
+        assertTrue("Expected an index seek, but the plan was: " + detail,
+                detail.contains("SEARCH") && detail.contains("INDEX"));
+    }
+
+    private void assertRejected(Uri uri, String sortOrder) {
+        try {
+            mContext.getContentResolver().query(uri, null, null, null, sortOrder);
+            fail("The page query should have been rejected: " + uri);
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    private void insertHistory() {
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        db.delete(HistoryEntry.TABLE_NAME, null, null);
+
+        /* The history pages are those of the location of the settings */
+        long locationId = TestUtilities.getCurrentLocationId(mContext);
+        for (int month = 0; month < MONTHS; month++) {
+            ContentValues values = new ContentValues();
+            values.put(HistoryEntry.COLUMN_LOCATION_ID, locationId);
+            values.put(HistoryEntry.COLUMN_MONTH, day(month * 31));
+            values.put(HistoryEntry.COLUMN_DAY_COUNT, 30);
+            values.put(HistoryEntry.COLUMN_MIN_TEMP, 0.0);
+            values.put(HistoryEntry.COLUMN_MAX_TEMP, 30.0);
+            values.put(HistoryEntry.COLUMN_MEAN_MIN_TEMP, 10.0);
+            values.put(HistoryEntry.COLUMN_MEAN_MAX_TEMP, 20.0);
+            values.put(HistoryEntry.COLUMN_MEAN_HUMIDITY, 60.0);
+            values.put(HistoryEntry.COLUMN_MEAN_PRESSURE, 1013.25);
+            values.put(HistoryEntry.COLUMN_MEAN_WIND_SPEED, 3.5);
+            db.insert(HistoryEntry.TABLE_NAME, null, values);
+        }
+        dbHelper.close();
+    }
+
+    private void deleteHistory() {
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        dbHelper.getWritableDatabase().delete(HistoryEntry.TABLE_NAME, null, null);
+        dbHelper.close();
+    }
+
+    private static long day(int day) {
+        return TestUtilities.DATE_NORMALIZED + SunshineDateUtils.DAY_IN_MILLIS * day;
+    }
+}
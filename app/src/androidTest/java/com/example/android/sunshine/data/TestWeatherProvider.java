@@ -191,7 +191,9 @@ public class TestWeatherProvider {
          * step.
          */
         Cursor weatherCursor = mContext.getContentResolver().query(
-                WeatherContract.WeatherEntry.CONTENT_URI,
+                /* The test values are stored for their own location, not that of the settings */
+                WeatherContract.LocationEntry.buildUriForLocation(
+                        WeatherContract.WeatherEntry.CONTENT_URI, TestUtilities.TEST_LOCATION_ID),
                 /* Columns; leaving this null returns every column in the table */
                 null,
                 /* Optional specification for columns in the "where" clause above */
@@ -326,6 +328,74 @@ public class TestWeatherProvider {
         cursor.close();
     }
 
+    /**
+     * Tests the weather/from/# URI that the forecast list uses to query "today onwards". The
+     * bulk insert test values start the day after DATE_NORMALIZED, one day apart.
+     */
+    @Test
+    public void testQueryFromDate() {
+        ContentValues[] bulkInsertTestContentValues = createBulkInsertTestWeatherValues();
+        ContentResolver contentResolver = mContext.getContentResolver();
+        contentResolver.bulkInsert(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                bulkInsertTestContentValues);
+
+        /* Skip the first two inserted days */
+        int firstDay = 2;
+        Uri fromDateUri = WeatherContract.WeatherEntry.buildWeatherUriFromDate(
+                bulkInsertTestContentValues[firstDay]
+                        .getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE));
+
+        /* Without a sort order, the days come in date order */
+        Cursor cursor = contentResolver.query(fromDateUri, null, null, null, null);
+        assertNotNull(cursor);
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT - firstDay, cursor.getCount());
+        for (int i = firstDay; cursor.moveToNext(); i++) {
+            TestUtilities.validateCurrentRecord(
+                    "testQueryFromDate. Error validating WeatherEntry " + i,
+                    cursor,
+                    bulkInsertTestContentValues[i]);
+        }
+        cursor.close();
+
+        /* A selection from the caller is applied on top of the date, with its own arguments */
+        cursor = contentResolver.query(
+                fromDateUri,
+                null,
+                WeatherContract.WeatherEntry.COLUMN_MAX_TEMP + " > ?",
+                new String[]{"80"},
+                null);
+        assertNotNull(cursor);
+        assertEquals("Only the days after the first two with a high above 80 should match",
+                BULK_INSERT_RECORDS_TO_INSERT - 6, cursor.getCount());
+        cursor.close();
+    }
+
+    /**
+     * The "from a date onwards" query should be answered from the unique index on the location
+     * and date, not by scanning the whole table.
+     */
+    @Test
+    public void testQueryFromDateUsesIndexRangeScan() {
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        SQLiteDatabase database = dbHelper.getReadableDatabase();
+
+        Cursor plan = database.rawQuery("EXPLAIN QUERY PLAN SELECT * FROM "
+                        + WeatherContract.WeatherEntry.TABLE_NAME
+                        + " WHERE " + WeatherContract.WeatherEntry.COLUMN_LOCATION_ID + " = ?"
+                        + " AND " + WeatherContract.WeatherEntry.COLUMN_DATE + " >= ?"
+                        + " ORDER BY " + WeatherContract.WeatherEntry.COLUMN_DATE + " ASC",
+                new String[]{Long.toString(TestUtilities.TEST_LOCATION_ID),
+                        Long.toString(TestUtilities.DATE_NORMALIZED)});
+        assertTrue(plan.moveToFirst());
+        String detail = plan.getString(plan.getColumnIndex("detail"));
+        plan.close();
+        dbHelper.close();
+
+        assertTrue("Expected an index range scan, but the plan was: " + detail,
+                detail.contains("SEARCH") && detail.contains("INDEX"));
+    }
+
     /**
      * This test deletes all records from the weather table using the ContentProvider. It also
      * verifies that registered ContentObservers receive onChange callbacks when data is deleted.
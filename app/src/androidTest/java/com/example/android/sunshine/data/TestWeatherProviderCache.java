@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import com.example.android.sunshine.MainActivity;
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests WeatherProvider's in-memory snapshot of the forecast: that it answers the same as
+ * SQLite, that repeated queries are hits, and that every write through the provider replaces
+ * it. The forecast starts today, so it is inside the snapshot's window.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestWeatherProviderCache {
+
+    private static final int FORECAST_DAYS = 14;
+
+    private static final long TODAY = SunshineDateUtils.getNormalizedUtcDateForToday();
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    @Before
+    public void setUp() {
+        ContentResolver resolver = mContext.getContentResolver();
+        resolver.delete(WeatherEntry.CONTENT_URI, null, null);
+        WeatherProvider.bulkInsert(mContext,
+                TestUtilities.createTestForecast(TODAY, 0, FORECAST_DAYS, 800));
+    }
+
+    @Test
+    public void testCachedQueriesMatchDatabase() {
+        ContentResolver resolver = mContext.getContentResolver();
+
+        assertSameAsDatabase(
+                resolver.query(WeatherEntry.buildWeatherUriFromToday(), null, null, null, null),
+                null, TODAY, FORECAST_DAYS);
+
+        assertSameAsDatabase(
+                resolver.query(WeatherEntry.buildWeatherUriFromToday(),
+                        MainActivity.MAIN_FORECAST_PROJECTION, null, null, null),
+                MainActivity.MAIN_FORECAST_PROJECTION, TODAY, FORECAST_DAYS);
+
+        for (int day = 0; day < FORECAST_DAYS; day++) {
+            long date = TODAY + SunshineDateUtils.DAY_IN_MILLIS * day;
+            assertSameAsDatabase(
+                    resolver.query(WeatherEntry.buildWeatherUriWithDate(date),
+                            null, null, null, null),
+                    null, date, 1);
+        }
+
+        /* A day after the forecast is simply not there */
+        long afterForecast = TODAY + SunshineDateUtils.DAY_IN_MILLIS * FORECAST_DAYS;
+        Cursor missing = resolver.query(
+                WeatherEntry.buildWeatherUriWithDate(afterForecast), null, null, null, null);
+        assertNotNull(missing);
+        assertEquals(0, missing.getCount());
+        missing.close();
+    }
+
+    @Test
+    public void testRepeatedQueriesAreHits() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) return;
+
+        ContentResolver resolver = mContext.getContentResolver();
+        Uri todayUri = WeatherEntry.buildWeatherUriWithDate(TODAY);
+
+        /* Make sure the snapshot is loaded, whatever the tests before left behind */
+        resolver.query(todayUri, null, null, null, null).close();
+
+        Bundle before = getCacheStats();
+        for (int i = 0; i < 10; i++) {
+            resolver.query(todayUri, null, null, null, null).close();
+            resolver.query(WeatherEntry.buildWeatherUriFromToday(),
+                    MainActivity.MAIN_FORECAST_PROJECTION, null, null, null).close();
+        }
+        Bundle after = getCacheStats();
+
+        assertEquals(20, after.getLong(WeatherContract.KEY_CACHE_HITS)
+                - before.getLong(WeatherContract.KEY_CACHE_HITS));
+        assertEquals(0, after.getLong(WeatherContract.KEY_CACHE_MISSES)
+                - before.getLong(WeatherContract.KEY_CACHE_MISSES));
+    }
+
+    @Test
+    public void testQueryWithSelectionIsAnsweredByDatabase() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) return;
+
+        Bundle before = getCacheStats();
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherUriFromToday(),
+                null,
+                WeatherEntry.COLUMN_WEATHER_ID + " = ?",
+                new String[]{"800"},
+                null);
+        Bundle after = getCacheStats();
+
+        assertNotNull(cursor);
+        assertEquals(FORECAST_DAYS, cursor.getCount());
+        cursor.close();
+
+        assertEquals(1, after.getLong(WeatherContract.KEY_CACHE_MISSES)
+                - before.getLong(WeatherContract.KEY_CACHE_MISSES));
+    }
+
+    @Test
+    public void testWarmUpLoadsSnapshot() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) return;
+
+        /* The provider runs in the test's process, so the warm-up reaches it */
+        assertTrue(WeatherProvider.warmUp(mContext));
+
+        Bundle before = getCacheStats();
+        assertEquals(800, queryWeatherId(WeatherEntry.buildWeatherUriWithDate(TODAY)));
+        Bundle after = getCacheStats();
+
+        assertEquals("The warm-up should leave a fresh snapshot behind",
+                1, after.getLong(WeatherContract.KEY_CACHE_HITS)
+                        - before.getLong(WeatherContract.KEY_CACHE_HITS));
+    }
+
+    @Test
+    public void testWritesReplaceSnapshot() {
+        ContentResolver resolver = mContext.getContentResolver();
+        Uri todayUri = WeatherEntry.buildWeatherUriWithDate(TODAY);
+
+        assertEquals(800, queryWeatherId(todayUri));
+
+        WeatherProvider.reconcile(mContext,
+                TestUtilities.createTestForecast(TODAY, 0, FORECAST_DAYS, 500));
+        assertEquals(500, queryWeatherId(todayUri));
+
+        resolver.delete(WeatherEntry.CONTENT_URI, null, null);
+        Cursor cursor = resolver.query(
+                WeatherEntry.buildWeatherUriFromToday(), null, null, null, null);
+        assertNotNull(cursor);
+        assertEquals(0, cursor.getCount());
+        cursor.close();
+    }
+
+    private int queryWeatherId(Uri uri) {
+        Cursor cursor = mContext.getContentResolver().query(
+                uri, new String[]{WeatherEntry.COLUMN_WEATHER_ID}, null, null, null);
+        assertNotNull(cursor);
+        assertTrue(cursor.moveToFirst());
+        int weatherId = cursor.getInt(0);
+        cursor.close();
+        return weatherId;
+    }
+
+    private Bundle getCacheStats() {
+        Bundle stats = mContext.getContentResolver().call(
+                WeatherEntry.CONTENT_URI, WeatherContract.METHOD_GET_CACHE_STATS, null, null);
+        assertNotNull(stats);
+        return stats;
+    }
+
+    /**
+     * Compares a cursor from the provider, column by column, with the same rows read straight
+     * from the database. Closes the cursor.
+     */
+    private void assertSameAsDatabase(Cursor actual, String[] projection, long fromDate,
+            int days) {
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        SQLiteDatabase db = dbHelper.getReadableDatabase();
+        Cursor expected = db.query(
+                WeatherEntry.TABLE_NAME,
+                projection,
+                WeatherEntry.COLUMN_DATE + " >= ? AND " + WeatherEntry.COLUMN_DATE + " < ?",
+                new String[]{Long.toString(fromDate),
+                        Long.toString(fromDate + SunshineDateUtils.DAY_IN_MILLIS * days)},
+                null,
+                null,
+                WeatherEntry.COLUMN_DATE + " ASC");
+
+        try {
+            assertNotNull(actual);
+            assertEquals(expected.getCount(), actual.getCount());
+            assertEquals(expected.getColumnCount(), actual.getColumnCount());
+
+            while (expected.moveToNext()) {
+                assertTrue(actual.moveToNext());
+                for (int column = 0; column < expected.getColumnCount(); column++) {
+                    String name = expected.getColumnName(column);
+                    int actualColumn = actual.getColumnIndex(name);
+                    assertTrue("Column " + name + " is missing", actualColumn != -1);
+                    assertEquals("Column " + name + " differs",
+                            expected.getDouble(column), actual.getDouble(actualColumn));
+                }
+            }
+        } finally {
+            expected.close();
+            actual.close();
+            dbHelper.close();
+        }
+    }
+}
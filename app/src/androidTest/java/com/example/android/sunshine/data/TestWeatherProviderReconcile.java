@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.support.v4.os.CancellationSignal;
+import android.support.v4.os.OperationCanceledException;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+/**
+ * Tests that {@link WeatherProvider#reconcile(ForecastBatch)} only writes what changed. A row
+ * that was rewritten gets a new _ID, so unchanged rows are recognized by keeping theirs. Days
+ * before the new forecast are history and must be left alone.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestWeatherProviderReconcile {
+
+    private static final int FORECAST_DAYS = 14;
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    @Before
+    public void setUp() {
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+    }
+
+    @Test
+    public void testReconcileIntoEmptyTableInsertsEverything() {
+        ForecastBatch forecast = createForecast(0, FORECAST_DAYS);
+
+        TestUtilities.TestContentObserver weatherObserver = TestUtilities.getTestContentObserver();
+        ContentResolver contentResolver = mContext.getContentResolver();
+        contentResolver.registerContentObserver(
+                WeatherContract.WeatherEntry.CONTENT_URI, true, weatherObserver);
+
+        int changed = WeatherProvider.reconcile(mContext, forecast);
+
+        weatherObserver.waitForNotificationOrFail();
+        contentResolver.unregisterContentObserver(weatherObserver);
+
+        assertEquals(FORECAST_DAYS, changed);
+        assertStoredForecast(forecast);
+    }
+
+    @Test
+    public void testReconcileSameForecastWritesNothing() {
+        ForecastBatch forecast = createForecast(0, FORECAST_DAYS);
+        WeatherProvider.reconcile(mContext, forecast);
+        long[] idsBefore = queryIds();
+
+        int changed = WeatherProvider.reconcile(mContext, createForecast(0, FORECAST_DAYS));
+
+        assertEquals("A stable forecast should not write any row", 0, changed);
+        assertTrue("A stable forecast should not rewrite any row",
+                Arrays.equals(idsBefore, queryIds()));
+    }
+
+    @Test
+    public void testReconcileWritesOnlyChangedDaysAndKeepsPastDays() {
+        WeatherProvider.reconcile(mContext, createForecast(0, FORECAST_DAYS));
+        long[] idsBefore = queryIds();
+
+        /*
+         * One day later: the first day is now in the past, a new last day appears and the
+         * forecast for the day in the middle has changed.
+         */
+        ForecastBatch shifted = new ForecastBatch();
+        for (int day = 1; day <= FORECAST_DAYS; day++) {
+            int weatherId = day == 7 ? 500 : 800 + day;
+            addDay(shifted, day, weatherId);
+        }
+
+        int changed = WeatherProvider.reconcile(mContext, shifted);
+
+        assertEquals("Expected one update and one insert", 2, changed);
+
+        long[] idsAfter = queryIds();
+        assertEquals("The past day should have been kept as history",
+                FORECAST_DAYS + 1, idsAfter.length);
+        for (int day = 0; day < FORECAST_DAYS; day++) {
+            if (day == 7) continue;
+            assertEquals("Unchanged day " + day + " should not have been rewritten",
+                    idsBefore[day], idsAfter[day]);
+        }
+    }
+
+    @Test
+    public void testReconcileDeletesDayMissingFromForecast() {
+        WeatherProvider.reconcile(mContext, createForecast(0, FORECAST_DAYS));
+
+        /* The server dropped a day in the middle of the window it still covers */
+        ForecastBatch withGap = new ForecastBatch();
+        for (int day = 0; day < FORECAST_DAYS; day++) {
+            if (day == 5) continue;
+            addDay(withGap, day, 800 + day);
+        }
+
+        int changed = WeatherProvider.reconcile(mContext, withGap);
+
+        assertEquals("Expected one delete", 1, changed);
+        assertStoredForecast(withGap);
+    }
+
+    @Test
+    public void testReconcileRejectsUnsortedDates() {
+        ForecastBatch forecast = new ForecastBatch();
+        addDay(forecast, 1, 800);
+        addDay(forecast, 0, 800);
+
+        try {
+            WeatherProvider.reconcile(mContext, forecast);
+            fail("reconcile should reject dates that are not ascending");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void testCancelledReconcileWritesNothing() {
+        ForecastBatch forecast = createForecast(0, FORECAST_DAYS);
+        WeatherProvider.reconcile(mContext, forecast);
+        long[] idsBefore = queryIds();
+
+        ForecastBatch changed = new ForecastBatch();
+        for (int day = 0; day < FORECAST_DAYS; day++) {
+            addDay(changed, day, 500);
+        }
+        CancellationSignal signal = new CancellationSignal();
+        signal.cancel();
+
+        try {
+            WeatherProvider.reconcile(mContext,
+                    SunshinePreferences.getPreferredWeatherLocation(mContext), changed, signal);
+            fail("reconcile should stop on a cancelled signal");
+        } catch (OperationCanceledException expected) {
+        }
+
+        assertTrue("A cancelled reconcile should be rolled back",
+                Arrays.equals(idsBefore, queryIds()));
+        assertStoredForecast(forecast);
+    }
+
+    /* Days of test weather whose weather ID is 800 plus the day */
+    private static ForecastBatch createForecast(int firstDay, int days) {
+        return TestUtilities.createTestForecast(TestUtilities.DATE_NORMALIZED, firstDay, days,
+                new TestUtilities.WeatherIdPicker() {
+                    @Override
+                    public int getWeatherId(int day) {
+                        return 800 + day;
+                    }
+                });
+    }
+
+    private static void addDay(ForecastBatch forecast, int day, int weatherId) {
+        TestUtilities.addTestDay(forecast, TestUtilities.DATE_NORMALIZED, day, weatherId);
+    }
+
+    private void assertStoredForecast(ForecastBatch expected) {
+        Cursor cursor = queryByDate(null);
+        assertEquals(expected.size(), cursor.getCount());
+        for (int i = 0; cursor.moveToNext(); i++) {
+            TestUtilities.validateCurrentRecord("Day " + i + " differs from the forecast",
+                    cursor, expected.toContentValues(i));
+        }
+        cursor.close();
+    }
+
+    private long[] queryIds() {
+        Cursor cursor = queryByDate(new String[]{WeatherContract.WeatherEntry._ID});
+        long[] ids = new long[cursor.getCount()];
+        for (int i = 0; cursor.moveToNext(); i++) {
+            ids[i] = cursor.getLong(0);
+        }
+        cursor.close();
+        return ids;
+    }
+
+    private Cursor queryByDate(String[] projection) {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                projection,
+                null,
+                null,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        assertNotNull(cursor);
+        return cursor;
+    }
+}
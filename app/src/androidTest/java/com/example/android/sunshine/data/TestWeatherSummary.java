@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import com.example.android.sunshine.data.WeatherContract.SummaryEntry;
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+/**
+ * Tests the weather/summary URI: the values SQLite computes for a date range, that a write is
+ * reflected in the next summary, and that the aggregate is answered from the covering index.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestWeatherSummary {
+
+    private static final int FORECAST_DAYS = 14;
+
+    /* The repeating weather IDs of the forecast: 800 is the most common */
+    private static final int[] WEATHER_IDS = {800, 500, 800, 201};
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    @Before
+    public void setUp() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        WeatherProvider.reconcile(mContext, createForecast(WEATHER_IDS));
+    }
+
+    @Test
+    public void testSummaryOfRange() {
+        /*
+         * Days 2 to 8: weather IDs 800, 201, 800, 500, 800, 201, 800. The test forecast's
+         * temperatures and humidity go up by one every day.
+         */
+        Cursor summary = querySummary(day(2), day(9), null);
+
+        assertEquals(7, summary.getInt(summary.getColumnIndex(SummaryEntry.COLUMN_DAY_COUNT)));
+        assertEquals(12.0,
+                summary.getDouble(summary.getColumnIndex(SummaryEntry.COLUMN_MIN_TEMP)));
+        assertEquals(28.0,
+                summary.getDouble(summary.getColumnIndex(SummaryEntry.COLUMN_MAX_TEMP)));
+        assertEquals(65.0,
+                summary.getDouble(summary.getColumnIndex(SummaryEntry.COLUMN_MEAN_HUMIDITY)));
+        assertEquals(800,
+                summary.getInt(summary.getColumnIndex(SummaryEntry.COLUMN_WEATHER_ID)));
+        summary.close();
+    }
+
+    @Test
+    public void testSummaryOfEmptyRange() {
+        long afterForecast = day(FORECAST_DAYS);
+        Cursor summary = querySummary(afterForecast,
+                afterForecast + SunshineDateUtils.DAY_IN_MILLIS * 7, null);
+
+        assertEquals(0, summary.getInt(summary.getColumnIndex(SummaryEntry.COLUMN_DAY_COUNT)));
+        assertTrue(summary.isNull(summary.getColumnIndex(SummaryEntry.COLUMN_MIN_TEMP)));
+        assertTrue(summary.isNull(summary.getColumnIndex(SummaryEntry.COLUMN_WEATHER_ID)));
+        summary.close();
+    }
+
+    @Test
+    public void testSummaryReflectsWrites() {
+        String[] projection = {SummaryEntry.COLUMN_WEATHER_ID};
+
+        Cursor summary = querySummary(day(0), day(FORECAST_DAYS), projection);
+        assertEquals(800, summary.getInt(0));
+        summary.close();
+
+        /* Rain on most days now. The cached summary of the same range must not be served. */
+        WeatherProvider.reconcile(mContext, createForecast(new int[]{500, 500, 800}));
+
+        summary = querySummary(day(0), day(FORECAST_DAYS), projection);
+        assertEquals(500, summary.getInt(0));
+        summary.close();
+    }
+
+    @Test
+    public void testSummaryRejectsUnknownColumn() {
+        try {
+            mContext.getContentResolver().query(
+                    SummaryEntry.buildSummaryUri(day(0), day(FORECAST_DAYS)),
+                    new String[]{WeatherEntry.COLUMN_PRESSURE},
+                    null,
+                    null,
+                    null);
+            fail("The summary has no pressure column");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void testSummaryUsesCoveringIndex() {
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        SQLiteDatabase db = dbHelper.getReadableDatabase();
+
+        Cursor plan = db.rawQuery("EXPLAIN QUERY PLAN SELECT COUNT(*),"
+                        + " MIN(" + WeatherEntry.COLUMN_MIN_TEMP + "),"
+                        + " MAX(" + WeatherEntry.COLUMN_MAX_TEMP + "),"
+                        + " AVG(" + WeatherEntry.COLUMN_HUMIDITY + ")"
+                        + " FROM " + WeatherEntry.TABLE_NAME
+                        + " WHERE " + WeatherEntry.COLUMN_LOCATION_ID + " = ?"
+                        + " AND " + WeatherEntry.COLUMN_DATE + " >= ?"
+                        + " AND " + WeatherEntry.COLUMN_DATE + " < ?",
+                new String[]{"1", Long.toString(day(0)), Long.toString(day(FORECAST_DAYS))});
+        assertTrue(plan.moveToFirst());
+        String detail = plan.getString(plan.getColumnIndex("detail"));
+        plan.close();
+        dbHelper.close();
+
+        assertTrue("Expected the covering index to be used, but the plan was: " + detail,
+                detail.contains("COVERING INDEX"));
+    }
+
+    private Cursor querySummary(long fromDate, long toDate, String[] projection) {
+        Uri uri = SummaryEntry.buildSummaryUri(fromDate, toDate);
+        Cursor summary = mContext.getContentResolver().query(uri, projection, null, null, null);
+        assertNotNull(summary);
+        assertEquals(1, summary.getCount());
+        assertTrue(summary.moveToFirst());
+        return summary;
+    }
+
+    /* FORECAST_DAYS days of test weather, whose weather IDs repeat the given ones */
+    private static ForecastBatch createForecast(final int[] weatherIds) {
+        return TestUtilities.createTestForecast(TestUtilities.DATE_NORMALIZED, 0, FORECAST_DAYS,
+                new TestUtilities.WeatherIdPicker() {
+                    @Override
+                    public int getWeatherId(int day) {
+                        return weatherIds[day % weatherIds.length];
+                    }
+                });
+    }
+
+    private static long day(int day) {
+        return TestUtilities.DATE_NORMALIZED + SunshineDateUtils.DAY_IN_MILLIS * day;
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.sunshine.utils.PollingCheck;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Fires sync triggers through {@link SunshineSyncUtils#startImmediateSync(Context, int)} the way
+ * the app does, and checks that {@link SunshineSyncCoordinator} merges them into one sync, and
+ * that leaving a shared sync doesn't cancel it for the others.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestSunshineSyncCoordinator {
+
+    private static final long SERVICE_TIMEOUT = 5000;
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    /**
+     * A location change queues a sync, since it never joins one that is already running. The
+     * empty check that follows right away finds it pending, or running as forced, and joins it.
+     * Both go through {@link SunshineSyncService}, which hands them over in the order they were
+     * started.
+     */
+    @Test
+    public void testEmptyCheckJoinsSettingsSync() throws Exception {
+        final int settingsRequested =
+                SunshineSyncCoordinator.getRequestCount(SunshineSyncCoordinator.TRIGGER_SETTINGS);
+        final int emptyRequested =
+                SunshineSyncCoordinator.getRequestCount(SunshineSyncCoordinator.TRIGGER_EMPTY);
+        int emptyJoined =
+                SunshineSyncCoordinator.getJoinedCount(SunshineSyncCoordinator.TRIGGER_EMPTY);
+
+        SunshineSyncUtils.startImmediateSync(mContext, SunshineSyncCoordinator.TRIGGER_SETTINGS);
+        SunshineSyncUtils.startImmediateSync(mContext, SunshineSyncCoordinator.TRIGGER_EMPTY);
+
+        PollingCheck.check("The service should have handed both triggers over", SERVICE_TIMEOUT,
+                new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() {
+                        return SunshineSyncCoordinator
+                                .getRequestCount(SunshineSyncCoordinator.TRIGGER_SETTINGS)
+                                == settingsRequested + 1
+                                && SunshineSyncCoordinator
+                                .getRequestCount(SunshineSyncCoordinator.TRIGGER_EMPTY)
+                                == emptyRequested + 1;
+                    }
+                });
+
+        /* Joins the same sync, so it can be cancelled; nothing here needs the weather */
+        Future<Void> sync = SunshineSyncCoordinator.requestSync(mContext,
+                SunshineSyncCoordinator.TRIGGER_JOB);
+        sync.cancel(true);
+
+        assertEquals("The empty check should have joined", emptyJoined + 1,
+                SunshineSyncCoordinator.getJoinedCount(SunshineSyncCoordinator.TRIGGER_EMPTY));
+    }
+
+    /**
+     * A job that is stopped leaves a sync that a user's request shares running, and the last
+     * request to leave a sync cancels it.
+     */
+    @Test
+    public void testLeavingSharedSyncKeepsItRunning() {
+        Runnable onJobDone = new Runnable() {
+            @Override
+            public void run() {
+            }
+        };
+
+        Future<Void> settingsSync = SunshineSyncCoordinator.requestSync(mContext,
+                SunshineSyncCoordinator.TRIGGER_SETTINGS);
+        Future<Void> jobSync = SunshineSyncCoordinator.requestSync(mContext,
+                SunshineSyncCoordinator.TRIGGER_JOB, onJobDone);
+        assertSame("The job should share the queued sync", settingsSync, jobSync);
+
+        assertFalse("The settings request still waits for the sync",
+                SunshineSyncCoordinator.leaveSync(jobSync, onJobDone));
+        assertFalse(settingsSync.isCancelled());
+
+        boolean cancelled = SunshineSyncCoordinator.leaveSync(settingsSync, null);
+        assertEquals(cancelled, settingsSync.isCancelled());
+        assertTrue("Nobody waits, so the sync is cancelled unless it is over",
+                settingsSync.isDone());
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import com.firebase.jobdispatcher.DefaultJobValidator;
+import com.firebase.jobdispatcher.Driver;
+import com.firebase.jobdispatcher.FirebaseJobDispatcher;
+import com.firebase.jobdispatcher.Job;
+import com.firebase.jobdispatcher.JobTrigger;
+import com.firebase.jobdispatcher.JobValidator;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Steps {@link SyncScheduler} through series of syncs with a fake clock, and checks the
+ * execution windows it hands a fake FirebaseJobDispatcher driver: that the interval is counted
+ * in hours, that it backs off while the forecast is unchanged and tightens while it is
+ * volatile, within its bounds, and that switching locations doesn't count as a change.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestSyncScheduler {
+
+    private static final int HOUR_SECONDS = (int) TimeUnit.HOURS.toSeconds(1);
+
+    private static final String LOCATION = "Mountain View, CA 94043";
+    private static final String OTHER_LOCATION = "Test City, 12345";
+
+    private static final int FORECAST_DAYS = 14;
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    private FakeClock mClock;
+    private FakeDriver mDriver;
+    private SyncScheduler mScheduler;
+
+    @Before
+    public void setUp() {
+        mClock = new FakeClock();
+        mDriver = new FakeDriver(mContext);
+        mScheduler = new SyncScheduler(mContext, mDriver, mClock,
+                SunshineSyncUtils.MIN_SYNC_INTERVAL_SECONDS,
+                SunshineSyncUtils.SYNC_INTERVAL_SECONDS,
+                SunshineSyncUtils.MAX_SYNC_INTERVAL_SECONDS);
+        mScheduler.reset();
+    }
+
+    @After
+    public void tearDown() {
+        mScheduler.reset();
+    }
+
+    @Test
+    public void testDefaultIntervalIsHours() {
+        mScheduler.schedule();
+
+        assertEquals(1, mDriver.mScheduled.size());
+        assertWindow(3 * HOUR_SECONDS, mDriver.mScheduled.get(0));
+    }
+
+    @Test
+    public void testBacksOffWhileUnchanged() {
+        syncAfter(0, LOCATION, FORECAST_DAYS);
+
+        assertEquals(6 * HOUR_SECONDS, syncAfter(3 * HOUR_SECONDS, LOCATION, 0));
+        assertEquals(12 * HOUR_SECONDS, syncAfter(6 * HOUR_SECONDS, LOCATION, 0));
+
+        /* Unchanged again, but the interval is already at its upper bound */
+        assertEquals(12 * HOUR_SECONDS, syncAfter(12 * HOUR_SECONDS, LOCATION, 0));
+
+        /* Rescheduled only when the interval moved */
+        assertEquals(2, mDriver.mScheduled.size());
+        assertWindow(12 * HOUR_SECONDS, mDriver.mScheduled.get(1));
+    }
+
+    @Test
+    public void testTightensWhenVolatile() {
+        syncAfter(0, LOCATION, FORECAST_DAYS);
+
+        assertEquals(3 * HOUR_SECONDS / 2, syncAfter(3 * HOUR_SECONDS, LOCATION, FORECAST_DAYS));
+        assertEquals(HOUR_SECONDS, syncAfter(3 * HOUR_SECONDS / 2, LOCATION, FORECAST_DAYS));
+
+        /* Volatile again, but the interval is already at its lower bound */
+        assertEquals(HOUR_SECONDS, syncAfter(HOUR_SECONDS, LOCATION, FORECAST_DAYS));
+
+        assertEquals(2, mDriver.mScheduled.size());
+        assertWindow(HOUR_SECONDS, mDriver.mScheduled.get(1));
+    }
+
+    /**
+     * A few days changing per sync, such as the day that rolls into the forecast, is neither
+     * volatile nor unchanged.
+     */
+    @Test
+    public void testSteadyChangeKeepsInterval() {
+        syncAfter(0, LOCATION, FORECAST_DAYS);
+
+        assertEquals(3 * HOUR_SECONDS, syncAfter(3 * HOUR_SECONDS, LOCATION, 2));
+        assertEquals(3 * HOUR_SECONDS, syncAfter(3 * HOUR_SECONDS, LOCATION, 2));
+        assertTrue(mDriver.mScheduled.isEmpty());
+    }
+
+    /**
+     * The change of a sync is projected onto a whole interval: the same change is volatile
+     * after an early sync, and steady after a late one.
+     */
+    @Test
+    public void testChangeIsScaledToInterval() {
+        syncAfter(0, LOCATION, FORECAST_DAYS);
+        assertEquals(3 * HOUR_SECONDS, syncAfter(6 * HOUR_SECONDS, LOCATION, 5));
+        assertEquals(3 * HOUR_SECONDS / 2, syncAfter(HOUR_SECONDS, LOCATION, 5));
+    }
+
+    @Test
+    public void testLocationChangeIsNotVolatility() {
+        syncAfter(0, LOCATION, FORECAST_DAYS);
+
+        assertEquals(3 * HOUR_SECONDS,
+                syncAfter(3 * HOUR_SECONDS, OTHER_LOCATION, FORECAST_DAYS));
+        assertTrue(mDriver.mScheduled.isEmpty());
+    }
+
+    /**
+     * Moves the clock forward and records a sync of a whole forecast.
+     *
+     * @return The interval after the sync, in seconds
+     */
+    private int syncAfter(int seconds, String location, int changedDays) {
+        mClock.mMillis += TimeUnit.SECONDS.toMillis(seconds);
+        return mScheduler.onSyncFinished(location, changedDays, FORECAST_DAYS);
+    }
+
+    private static void assertWindow(int intervalSeconds, Job job) {
+        JobTrigger.ExecutionWindowTrigger trigger =
+                (JobTrigger.ExecutionWindowTrigger) job.getTrigger();
+        assertEquals(intervalSeconds, trigger.getWindowStart());
+        assertEquals(intervalSeconds + intervalSeconds / 3, trigger.getWindowEnd());
+        assertTrue(job.isRecurring());
+    }
+
+    private static final class FakeClock implements SyncScheduler.Clock {
+
+        /* Any fixed start will do, only the differences between syncs matter */
+        long mMillis = 1475280000000L;
+
+        @Override
+        public long currentTimeMillis() {
+            return mMillis;
+        }
+    }
+
+    /**
+     * Records the jobs it is given instead of handing them to Google Play services.
+     */
+    private static final class FakeDriver implements Driver {
+
+        final List<Job> mScheduled = new ArrayList<>();
+
+        private final JobValidator mValidator;
+
+        FakeDriver(Context context) {
+            mValidator = new DefaultJobValidator(context);
+        }
+
+        @Override
+        public int schedule(Job job) {
+            mScheduled.add(job);
+            return FirebaseJobDispatcher.SCHEDULE_RESULT_SUCCESS;
+        }
+
+        @Override
+        public int cancel(String tag) {
+            return FirebaseJobDispatcher.CANCEL_RESULT_SUCCESS;
+        }
+
+        @Override
+        public int cancelAll() {
+            return FirebaseJobDispatcher.CANCEL_RESULT_SUCCESS;
+        }
+
+        @Override
+        public JobValidator getValidator() {
+            return mValidator;
+        }
+
+        @Override
+        public boolean isAvailable() {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,235 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+/**
+ * Runs {@link NetworkUtils#getHedgedResponseFromHttpUrl} against two local HTTP stand-ins, one
+ * for each endpoint, that answer after a delay set per test. Checks that the alternate is only
+ * asked once the primary is late or has failed, that the faster answer wins, and that every
+ * answer is recorded in its endpoint's latency histogram.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestHedgedRequests {
+
+    private static final long HEDGE_DELAY_MILLIS = 200;
+
+    /* Far longer than the hedge delay plus the time a local answer takes */
+    private static final long SLOW_MILLIS = 5000;
+    private static final long MAX_HEDGED_MILLIS = 2000;
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    private StandIn mPrimary;
+    private StandIn mAlternate;
+
+    @Before
+    public void setUp() throws IOException {
+        mPrimary = new StandIn("primary");
+        mAlternate = new StandIn("alternate");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mPrimary.close();
+        mAlternate.close();
+    }
+
+    @Test
+    public void testFastPrimaryIsNotHedged() throws Exception {
+        NetworkUtils.Response response = NetworkUtils.getHedgedResponseFromHttpUrl(mContext,
+                mPrimary.mUrl, mAlternate.mUrl, HEDGE_DELAY_MILLIS, null);
+        try {
+            assertEquals(mPrimary.mUrl, response.getUrl());
+            assertEquals("primary", response.getBody());
+        } finally {
+            response.close();
+        }
+
+        Thread.sleep(HEDGE_DELAY_MILLIS * 2);
+        assertEquals("The alternate should not have been asked", 0, mAlternate.mRequests.get());
+    }
+
+    @Test
+    public void testSlowPrimaryLosesToAlternate() throws Exception {
+        mPrimary.mDelayMillis = SLOW_MILLIS;
+
+        long start = System.nanoTime();
+        NetworkUtils.Response response = NetworkUtils.getHedgedResponseFromHttpUrl(mContext,
+                mPrimary.mUrl, mAlternate.mUrl, HEDGE_DELAY_MILLIS, null);
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        try {
+            assertEquals(mAlternate.mUrl, response.getUrl());
+            assertEquals("alternate", response.getBody());
+        } finally {
+            response.close();
+        }
+
+        assertTrue("Hedging took " + elapsedMillis + " ms", elapsedMillis < MAX_HEDGED_MILLIS);
+        assertTrue("The alternate was asked before the hedge delay",
+                elapsedMillis >= HEDGE_DELAY_MILLIS);
+        assertEquals(1, mPrimary.mRequests.get());
+    }
+
+    @Test
+    public void testFailedPrimaryIsHedgedAtOnce() throws Exception {
+        URL unreachable = mPrimary.mUrl;
+        mPrimary.close();
+
+        long start = System.nanoTime();
+        NetworkUtils.Response response = NetworkUtils.getHedgedResponseFromHttpUrl(mContext,
+                unreachable, mAlternate.mUrl, SLOW_MILLIS, null);
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        try {
+            assertEquals("alternate", response.getBody());
+        } finally {
+            response.close();
+        }
+
+        assertTrue("Failing over took " + elapsedMillis + " ms", elapsedMillis < SLOW_MILLIS);
+    }
+
+    @Test
+    public void testBothFailing() throws Exception {
+        URL primary = mPrimary.mUrl;
+        URL alternate = mAlternate.mUrl;
+        mPrimary.close();
+        mAlternate.close();
+
+        try {
+            NetworkUtils.getHedgedResponseFromHttpUrl(mContext, primary, alternate,
+                    HEDGE_DELAY_MILLIS, null).close();
+            fail("Neither endpoint is up, the fetch should have failed");
+        } catch (IOException e) {
+            /* Expected */
+        }
+    }
+
+    @Test
+    public void testLatencyIsRecordedPerEndpoint() throws Exception {
+        LatencyHistogram primaryLatency = NetworkUtils.getEndpointLatency(mPrimary.mUrl);
+        LatencyHistogram alternateLatency = NetworkUtils.getEndpointLatency(mAlternate.mUrl);
+        long primaryBefore = primaryLatency.getCount();
+        long alternateBefore = alternateLatency.getCount();
+
+        mPrimary.mDelayMillis = 50;
+        NetworkUtils.getHedgedResponseFromHttpUrl(mContext, mPrimary.mUrl, mAlternate.mUrl,
+                HEDGE_DELAY_MILLIS, null).close();
+
+        assertEquals(primaryBefore + 1, primaryLatency.getCount());
+        assertEquals(alternateBefore, alternateLatency.getCount());
+        assertTrue(primaryLatency.getMaxNanos() >= TimeUnit.MILLISECONDS.toNanos(50));
+    }
+
+    /**
+     * A local HTTP server that answers every request with its name as the body, after a delay.
+     * Each connection is served on its own thread, so a slow answer doesn't hold up the next.
+     */
+    private static final class StandIn implements Runnable {
+
+        final ServerSocket mServer;
+        final URL mUrl;
+        final String mBody;
+        final AtomicInteger mRequests = new AtomicInteger();
+        volatile long mDelayMillis;
+
+        private final Thread mAcceptThread;
+
+        StandIn(String body) throws IOException {
+            mServer = new ServerSocket(0, 10, InetAddress.getByName("127.0.0.1"));
+            mUrl = new URL("http://127.0.0.1:" + mServer.getLocalPort() + "/" + body);
+            mBody = body;
+            mAcceptThread = new Thread(this);
+            mAcceptThread.start();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    final Socket socket = mServer.accept();
+                    new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            answer(socket);
+                        }
+                    }).start();
+                }
+            } catch (IOException e) {
+                /* The server was closed */
+            }
+        }
+
+        private void answer(Socket socket) {
+            try {
+                BufferedReader request = new BufferedReader(
+                        new InputStreamReader(socket.getInputStream(), "US-ASCII"));
+                String line;
+                while ((line = request.readLine()) != null && !line.isEmpty()) {
+                    /* Skip the request line and headers */
+                }
+                mRequests.incrementAndGet();
+
+                Thread.sleep(mDelayMillis);
+
+                byte[] body = mBody.getBytes("UTF-8");
+                OutputStream out = socket.getOutputStream();
+                out.write(("HTTP/1.1 200 OK\r\n"
+                        + "Content-Type: application/json\r\n"
+                        + "Content-Length: " + body.length + "\r\n"
+                        + "Connection: close\r\n\r\n").getBytes("US-ASCII"));
+                out.write(body);
+                out.flush();
+            } catch (IOException | InterruptedException e) {
+                /* The client gave up on this request, which is what a hedge does to the loser */
+            } finally {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    /* Closing anyway */
+                }
+            }
+        }
+
+        void close() throws Exception {
+            mServer.close();
+            mAcceptThread.join();
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests that LatencyHistogram reports percentiles within its 1/8 precision, keeps exact counts,
+ * totals and maxima, and loses no value recorded from several threads at once.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestLatencyHistogram {
+
+    private static final long MICROSECOND = 1000;
+
+    @Test
+    public void testEmptyHistogram() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getValueAtPercentile(50));
+        assertEquals(0, histogram.getMaxNanos());
+    }
+
+    @Test
+    public void testPercentilesWithinPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long micros = 1; micros <= 1000; micros++) {
+            histogram.record(micros * MICROSECOND);
+        }
+
+        assertEquals(1000, histogram.getCount());
+        assertEquals(500500 * MICROSECOND, histogram.getTotalNanos());
+        assertEquals(1000 * MICROSECOND, histogram.getMaxNanos());
+
+        assertWithinPrecision(500 * MICROSECOND, histogram.getValueAtPercentile(50));
+        assertWithinPrecision(900 * MICROSECOND, histogram.getValueAtPercentile(90));
+        assertWithinPrecision(990 * MICROSECOND, histogram.getValueAtPercentile(99));
+        assertEquals(1000 * MICROSECOND, histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void testSmallAndHugeValues() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        histogram.record(3);
+        histogram.record(Long.MAX_VALUE);
+
+        assertEquals(0, histogram.getValueAtPercentile(0));
+        assertEquals(3, histogram.getValueAtPercentile(50));
+        assertEquals(Long.MAX_VALUE, histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void testReset() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(42 * MICROSECOND);
+        histogram.reset();
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getTotalNanos());
+        assertEquals(0, histogram.getValueAtPercentile(99));
+    }
+
+    @Test
+    public void testConcurrentRecording() throws InterruptedException {
+        final int threadCount = 4;
+        final int valuesPerThread = 100000;
+        final LatencyHistogram histogram = new LatencyHistogram();
+
+        Thread[] threads = new Thread[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            final long value = (i + 1) * MICROSECOND;
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < valuesPerThread; j++) {
+                        histogram.record(value);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(threadCount * valuesPerThread, histogram.getCount());
+        assertEquals(threadCount * MICROSECOND, histogram.getMaxNanos());
+        assertEquals((long) valuesPerThread * MICROSECOND * (1 + 2 + 3 + 4),
+                histogram.getTotalNanos());
+        assertWithinPrecision(2 * MICROSECOND, histogram.getValueAtPercentile(50));
+    }
+
+    /* The histogram reports the upper bound of a bucket, which is at most 1/8 above the value */
+    private static void assertWithinPrecision(long expected, long actual) {
+        assertTrue("Expected about " + expected + " but was " + actual,
+                actual >= expected && actual <= expected + expected / 8);
+    }
+}
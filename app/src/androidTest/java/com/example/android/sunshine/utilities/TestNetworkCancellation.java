@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.support.v4.os.CancellationSignal;
+import android.support.v4.os.OperationCanceledException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+/**
+ * Fetches from a local server that accepts the connection and never answers, and checks that
+ * cancelling the signal from another thread ends the blocked read at once, rather than when
+ * the socket times out.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestNetworkCancellation {
+
+    /* Far below any socket timeout, and far above the time a disconnect takes */
+    private static final long MAX_CANCEL_MILLIS = 1000;
+
+    private static final long CANCEL_DELAY_MILLIS = 200;
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    private ServerSocket mServer;
+    private Thread mAcceptThread;
+    private final List<Socket> mAccepted = new ArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+        mAcceptThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        Socket socket = mServer.accept();
+                        synchronized (mAccepted) {
+                            mAccepted.add(socket);
+                        }
+                    }
+                } catch (IOException e) {
+                    /* The server was closed by tearDown */
+                }
+            }
+        });
+        mAcceptThread.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mServer.close();
+        mAcceptThread.join();
+        synchronized (mAccepted) {
+            for (Socket socket : mAccepted) {
+                socket.close();
+            }
+        }
+    }
+
+    @Test
+    public void testCancelEndsBlockedRead() throws IOException {
+        URL url = new URL("http://127.0.0.1:" + mServer.getLocalPort() + "/forecast");
+        final CancellationSignal signal = new CancellationSignal();
+
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(CANCEL_DELAY_MILLIS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                signal.cancel();
+            }
+        }).start();
+
+        long start = System.nanoTime();
+        try {
+            NetworkUtils.getConditionalResponseFromHttpUrl(mContext, url, signal).close();
+            fail("The server never answers, the fetch should have been cancelled");
+        } catch (IOException e) {
+            /* The read failed on the disconnected socket, as expected */
+        }
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertTrue("Cancelling took " + elapsedMillis + " ms",
+                elapsedMillis < CANCEL_DELAY_MILLIS + MAX_CANCEL_MILLIS);
+    }
+
+    @Test
+    public void testCancelledSignalFailsBeforeConnecting() throws IOException {
+        URL url = new URL("http://127.0.0.1:" + mServer.getLocalPort() + "/forecast");
+        CancellationSignal signal = new CancellationSignal();
+        signal.cancel();
+
+        try {
+            NetworkUtils.getConditionalResponseFromHttpUrl(mContext, url, signal).close();
+            fail("A cancelled signal should fail the fetch");
+        } catch (OperationCanceledException e) {
+            /* Expected */
+        }
+
+        synchronized (mAccepted) {
+            assertTrue("No connection should have been made", mAccepted.isEmpty());
+        }
+    }
+}
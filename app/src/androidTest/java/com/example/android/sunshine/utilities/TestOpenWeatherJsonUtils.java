@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import com.example.android.sunshine.data.ForecastBatch;
+
+import org.json.JSONException;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.fail;
+
+/**
+ * Runs the streaming and the DOM forecast parsers on the same recorded payloads and checks that
+ * they produce the same forecast.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestOpenWeatherJsonUtils {
+
+    /* A recorded 14 day forecast, with the "city" object before and after the "list" array */
+    static final String FORECAST_14_DAYS = "forecast_14_days.json";
+    static final String FORECAST_14_DAYS_CITY_LAST = "forecast_14_days_city_last.json";
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    @After
+    public void tearDown() {
+        OpenWeatherJsonUtils.setStreamingParserEnabled(true);
+    }
+
+    @Test
+    public void testStreamingParserMatchesDomParser() throws Exception {
+        String json = readAsset(FORECAST_14_DAYS);
+
+        ForecastBatch domValues =
+                OpenWeatherJsonUtils.getForecastFromJsonDom(mContext, json);
+        ForecastBatch streamValues = OpenWeatherJsonUtils
+                .getForecastFromJsonStream(mContext, new StringReader(json));
+
+        assertSameForecast(domValues, streamValues);
+        assertEquals("The recorded payload should contain 14 days", 14, streamValues.size());
+    }
+
+    @Test
+    public void testStreamingParserIgnoresKeyOrder() throws Exception {
+        ForecastBatch cityFirst = OpenWeatherJsonUtils.getForecastFromJsonStream(
+                mContext, new StringReader(readAsset(FORECAST_14_DAYS)));
+        ForecastBatch cityLast = OpenWeatherJsonUtils.getForecastFromJsonStream(
+                mContext, new StringReader(readAsset(FORECAST_14_DAYS_CITY_LAST)));
+
+        assertSameForecast(cityFirst, cityLast);
+    }
+
+    @Test
+    public void testSwitchSelectsParser() throws Exception {
+        String json = readAsset(FORECAST_14_DAYS);
+
+        OpenWeatherJsonUtils.setStreamingParserEnabled(false);
+        ForecastBatch domValues =
+                OpenWeatherJsonUtils.getForecastFromJson(mContext, json);
+
+        OpenWeatherJsonUtils.setStreamingParserEnabled(true);
+        ForecastBatch streamValues =
+                OpenWeatherJsonUtils.getForecastFromJson(mContext, json);
+
+        assertSameForecast(domValues, streamValues);
+    }
+
+    @Test
+    public void testErrorCodeReturnsNull() throws Exception {
+        String json = "{\"cod\":\"404\",\"message\":\"city not found\"}";
+
+        assertNull(OpenWeatherJsonUtils.getForecastFromJsonDom(mContext, json));
+        assertNull(OpenWeatherJsonUtils
+                .getForecastFromJsonStream(mContext, new StringReader(json)));
+    }
+
+    @Test
+    public void testMissingFieldFailsLikeDomParser() throws Exception {
+        String json = "{\"city\":{\"coord\":{\"lat\":1.0,\"lon\":2.0}},\"list\":[{\"pressure\":1000," +
+                "\"humidity\":50,\"speed\":1.0,\"deg\":90,\"temp\":{\"min\":1.0}," +
+                "\"weather\":[{\"id\":800}]}]}";
+
+        try {
+            OpenWeatherJsonUtils.getForecastFromJsonDom(mContext, json);
+            fail("The DOM parser should reject a day without a max temperature");
+        } catch (JSONException expected) {
+        }
+
+        try {
+            OpenWeatherJsonUtils.getForecastFromJsonStream(mContext, new StringReader(json));
+            fail("The streaming parser should reject a day without a max temperature");
+        } catch (JSONException expected) {
+        }
+    }
+
+    static void assertSameForecast(ForecastBatch expected, ForecastBatch actual) {
+        assertNotNull(expected);
+        assertNotNull(actual);
+        assertEquals("Both parsers should return the same number of days",
+                expected.size(), actual.size());
+
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals("Day " + i + " differs between parsers",
+                    expected.toContentValues(i), actual.toContentValues(i));
+        }
+    }
+
+    /**
+     * Reads a recorded payload from the test APK's assets.
+     */
+    static String readAsset(String name) throws IOException {
+        Context testContext = InstrumentationRegistry.getContext();
+        InputStream in = testContext.getAssets().open(name);
+        try {
+            Reader reader = new InputStreamReader(in, "UTF-8");
+            StringBuilder builder = new StringBuilder();
+            char[] buffer = new char[4096];
+            int read;
+            while ((read = reader.read(buffer)) != -1) {
+                builder.append(buffer, 0, read);
+            }
+            return builder.toString();
+        } finally {
+            in.close();
+        }
+    }
+}
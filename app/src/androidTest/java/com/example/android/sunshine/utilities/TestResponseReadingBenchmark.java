@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+import com.example.android.sunshine.data.ForecastBatch;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.Scanner;
+import java.util.zip.GZIPOutputStream;
+
+import static com.example.android.sunshine.utilities.TestOpenWeatherJsonUtils.FORECAST_14_DAYS;
+import static com.example.android.sunshine.utilities.TestOpenWeatherJsonUtils.assertSameForecast;
+import static com.example.android.sunshine.utilities.TestOpenWeatherJsonUtils.readAsset;
+import static junit.framework.Assert.assertEquals;
+
+/**
+ * Compares the old way of reading a forecast response (a regex Scanner into one String, then the
+ * org.json DOM) against the new one (gzip decoded as a stream, handed to the streaming parser as
+ * a Reader) on a recorded 14 day payload. The payload is held in memory so that only the reading
+ * and parsing are measured, not the network.
+ * <p>
+ * Timings are written to logcat under the tag of this class.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestResponseReadingBenchmark {
+
+    private static final String TAG = TestResponseReadingBenchmark.class.getSimpleName();
+
+    private static final int WARM_UP_ITERATIONS = 20;
+    private static final int MEASURED_ITERATIONS = 200;
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    private byte[] mPlainPayload;
+    private byte[] mGzipPayload;
+
+    @Before
+    public void setUp() throws IOException {
+        mPlainPayload = readAsset(FORECAST_14_DAYS).getBytes("UTF-8");
+
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        GZIPOutputStream gzip = new GZIPOutputStream(compressed);
+        gzip.write(mPlainPayload);
+        gzip.close();
+        mGzipPayload = compressed.toByteArray();
+
+        OpenWeatherJsonUtils.setStreamingParserEnabled(true);
+    }
+
+    @Test
+    public void testReadersProduceTheSameBody() throws IOException {
+        String scanned = readWithScanner(new ByteArrayInputStream(mPlainPayload));
+
+        String plain = NetworkUtils.readFully(
+                NetworkUtils.openReader(new ByteArrayInputStream(mPlainPayload), false),
+                mPlainPayload.length);
+
+        String gunzipped = NetworkUtils.readFully(
+                NetworkUtils.openReader(new ByteArrayInputStream(mGzipPayload), true),
+                -1);
+
+        assertEquals(scanned, plain);
+        assertEquals(scanned, gunzipped);
+    }
+
+    @Test
+    public void benchmarkScannerAgainstStreamingDecode() throws Exception {
+        ForecastBatch expected = scannerAndDom();
+        assertSameForecast(expected, gzipAndStream());
+
+        for (int i = 0; i < WARM_UP_ITERATIONS; i++) {
+            scannerAndDom();
+            gzipAndStream();
+        }
+
+        long[] scannerTimes = new long[MEASURED_ITERATIONS];
+        long[] streamingTimes = new long[MEASURED_ITERATIONS];
+
+        /* Interleave the two so that both see the same device state (thermal, GC, ...) */
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+            long start = System.nanoTime();
+            scannerAndDom();
+            scannerTimes[i] = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            gzipAndStream();
+            streamingTimes[i] = System.nanoTime() - start;
+        }
+
+        Log.i(TAG, "Payload: " + mPlainPayload.length + " bytes, "
+                + mGzipPayload.length + " bytes gzipped");
+        Log.i(TAG, "Scanner + DOM median: " + median(scannerTimes) / 1000 + " us");
+        Log.i(TAG, "Gzip stream + JsonReader median: " + median(streamingTimes) / 1000 + " us");
+    }
+
+    private ForecastBatch scannerAndDom() throws Exception {
+        String body = readWithScanner(new ByteArrayInputStream(mPlainPayload));
+        return OpenWeatherJsonUtils.getForecastFromJsonDom(mContext, body);
+    }
+
+    private ForecastBatch gzipAndStream() throws Exception {
+        Reader reader = NetworkUtils.openReader(new ByteArrayInputStream(mGzipPayload), true);
+        return OpenWeatherJsonUtils.getForecastFromJsonStream(mContext, reader);
+    }
+
+    /**
+     * The way responses used to be read: a regular expression Scanner matching the whole input.
+     *
+     * @param in The raw body
+     * @return The whole body, null if it is empty
+     */
+    static String readWithScanner(InputStream in) {
+        Scanner scanner = new Scanner(in);
+        scanner.useDelimiter("\\A");
+
+        boolean hasInput = scanner.hasNext();
+        String response = null;
+        if (hasInput) {
+            response = scanner.next();
+        }
+        scanner.close();
+        return response;
+    }
+
+    static long median(long[] times) {
+        long[] sorted = times.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+}
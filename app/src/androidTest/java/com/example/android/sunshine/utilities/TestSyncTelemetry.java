@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import com.example.android.sunshine.data.ForecastBatch;
+import com.example.android.sunshine.data.SunshinePreferences;
+import com.example.android.sunshine.data.WeatherContract;
+import com.example.android.sunshine.data.WeatherProvider;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests that {@link SyncTelemetry} keeps the stages and outcome of each sync, that its ring
+ * buffer keeps only the newest records, in order, and that the records can be read through
+ * WeatherProvider's call method.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestSyncTelemetry {
+
+    private static final int FORECAST_DAYS = 14;
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    @Test
+    public void testTraceRecordsStages() {
+        SyncTelemetry.Trace trace = SyncTelemetry.startTrace();
+        trace.begin(SyncTelemetry.STAGE_PARSE);
+        trace.end(FORECAST_DAYS);
+        trace.split(SyncTelemetry.STAGE_PARSE, SyncTelemetry.STAGE_DOWNLOAD, 0, 4096);
+        SyncTelemetry.Record record = trace.finish(SyncTelemetry.OUTCOME_SUCCESS);
+
+        assertNotNull(record);
+        assertEquals(SyncTelemetry.OUTCOME_SUCCESS, record.getOutcome());
+        assertEquals(-1, record.getFailedStage());
+        assertEquals(FORECAST_DAYS, record.getStageCount(SyncTelemetry.STAGE_PARSE));
+        assertEquals(4096, record.getStageCount(SyncTelemetry.STAGE_DOWNLOAD));
+        assertTrue(record.getTotalNanos() >= record.getStageNanos(SyncTelemetry.STAGE_PARSE));
+
+        assertNull("A trace is only published once",
+                trace.finish(SyncTelemetry.OUTCOME_FAILED));
+        assertEquals(record.getSequence(), lastRecord().getSequence());
+    }
+
+    @Test
+    public void testUnfinishedStageIsWhereSyncFailed() {
+        SyncTelemetry.Trace trace = SyncTelemetry.startTrace();
+        trace.begin(SyncTelemetry.STAGE_CONNECT);
+        trace.finish(SyncTelemetry.OUTCOME_FAILED);
+
+        SyncTelemetry.Record record = lastRecord();
+        assertEquals(SyncTelemetry.OUTCOME_FAILED, record.getOutcome());
+        assertEquals(SyncTelemetry.STAGE_CONNECT, record.getFailedStage());
+    }
+
+    @Test
+    public void testRingKeepsNewestRecords() {
+        int syncs = SyncTelemetry.CAPACITY + 5;
+        long lastSequence = -1;
+        for (int i = 0; i < syncs; i++) {
+            lastSequence = SyncTelemetry.startTrace()
+                    .finish(SyncTelemetry.OUTCOME_NOT_MODIFIED).getSequence();
+        }
+
+        List<SyncTelemetry.Record> records = SyncTelemetry.getRecords();
+        assertEquals(SyncTelemetry.CAPACITY, records.size());
+        for (int i = 0; i < records.size(); i++) {
+            assertEquals("Records should be the newest, oldest first",
+                    lastSequence - SyncTelemetry.CAPACITY + 1 + i, records.get(i).getSequence());
+        }
+    }
+
+    @Test
+    public void testReconcileStagesAreReadThroughProvider() {
+        String location = SunshinePreferences.getPreferredWeatherLocation(mContext);
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+
+        ForecastBatch forecast = new ForecastBatch();
+        long today = SunshineDateUtils.normalizeDate(System.currentTimeMillis());
+        for (int day = 0; day < FORECAST_DAYS; day++) {
+            forecast.add(today + SunshineDateUtils.DAY_IN_MILLIS * day,
+                    800, 10.0, 20.0, 60, 1013.25, 3.5, 180);
+        }
+
+        SyncTelemetry.Trace trace = SyncTelemetry.startTrace();
+        WeatherProvider.reconcile(mContext, location, forecast, null, trace);
+        long sequence = trace.finish(SyncTelemetry.OUTCOME_SUCCESS).getSequence();
+
+        Bundle telemetry = mContext.getContentResolver().call(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                WeatherContract.METHOD_GET_SYNC_TELEMETRY, null, null);
+        assertNotNull(telemetry);
+
+        String[] stages = telemetry.getStringArray(WeatherContract.KEY_SYNC_STAGES);
+        assertEquals(SyncTelemetry.STAGE_COUNT, stages.length);
+        assertEquals("insert", stages[SyncTelemetry.STAGE_INSERT]);
+
+        long[] sequences = telemetry.getLongArray(WeatherContract.KEY_SYNC_SEQUENCES);
+        assertEquals(sequence, sequences[sequences.length - 1]);
+
+        Bundle values = telemetry.getBundle(WeatherContract.buildSyncRecordKey(sequence));
+        assertNotNull(values);
+        assertEquals(SyncTelemetry.OUTCOME_SUCCESS,
+                values.getInt(WeatherContract.KEY_SYNC_OUTCOME));
+
+        long[] counts = values.getLongArray(WeatherContract.KEY_SYNC_STAGE_COUNTS);
+        assertEquals(0, counts[SyncTelemetry.STAGE_DELETE]);
+        assertEquals(FORECAST_DAYS, counts[SyncTelemetry.STAGE_INSERT]);
+        assertEquals(FORECAST_DAYS, counts[SyncTelemetry.STAGE_NOTIFY]);
+
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+    }
+
+    private static SyncTelemetry.Record lastRecord() {
+        List<SyncTelemetry.Record> records = SyncTelemetry.getRecords();
+        return records.get(records.size() - 1);
+    }
+}
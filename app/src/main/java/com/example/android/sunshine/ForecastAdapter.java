@@ -31,7 +31,8 @@ import com.example.android.sunshine.utilities.SunshineWeatherUtils;
  * {@link ForecastAdapter} exposes a list of weather forecasts
  * from a {@link android.database.Cursor} to a {@link android.support.v7.widget.RecyclerView}.
  */
-class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapterViewHolder> {
+class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapterViewHolder>
+    implements ForecastPager.Listener {
 
   private static final int VIEW_TYPE_TODAY      = 0;
   private static final int VIEW_TYPE_FUTURE_DAY = 1;
@@ -64,6 +65,13 @@ class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapt
 
   private Cursor mCursor;
 
+  /*
+   * In paging mode, set by setPageSize, the cursor from swapCursor is only the first page and
+   * the rest of the list is read through this pager. Otherwise it is null.
+   */
+  private int mPageSize;
+  private ForecastPager mPager;
+
   /**
    * Creates a ForecastAdapter.
    *
@@ -128,12 +136,17 @@ class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapt
    */
   @Override
   public void onBindViewHolder(ForecastAdapterViewHolder forecastAdapterViewHolder, int position) {
-    mCursor.moveToPosition(position);
+    Cursor cursor = moveToPosition(position);
+    if (cursor == null) {
+      /* The page of this row is still being read. onPageLoaded will bind it again. */
+      bindPlaceholder(forecastAdapterViewHolder);
+      return;
+    }
 
     /****************
      * Weather Icon *
      ****************/
-    int weatherId = mCursor.getInt(MainActivity.INDEX_WEATHER_CONDITION_ID);
+    int weatherId = cursor.getInt(MainActivity.INDEX_WEATHER_CONDITION_ID);
     int weatherImageId;
 
     int viewType = getItemViewType(position);
@@ -160,7 +173,7 @@ class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapt
      * Weather Date *
      ****************/
          /* Read date from the cursor */
-    long dateInMillis = mCursor.getLong(MainActivity.INDEX_WEATHER_DATE);
+    long dateInMillis = cursor.getLong(MainActivity.INDEX_WEATHER_DATE);
          /* Get human readable string using our utility method */
     String dateString = SunshineDateUtils.getFriendlyDateString(mContext, dateInMillis, false);
 
@@ -182,7 +195,7 @@ class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapt
      * High (max) temperature *
      **************************/
          /* Read high temperature from the cursor (in degrees celsius) */
-    double highInCelsius = mCursor.getDouble(MainActivity.INDEX_WEATHER_MAX_TEMP);
+    double highInCelsius = cursor.getDouble(MainActivity.INDEX_WEATHER_MAX_TEMP);
          /*
           * If the user's preference for weather is fahrenheit, formatTemperature will convert
           * the temperature. This method will also append either °C or °F to the temperature
@@ -200,7 +213,7 @@ class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapt
      * Low (min) temperature *
      *************************/
          /* Read low temperature from the cursor (in degrees celsius) */
-    double lowInCelsius = mCursor.getDouble(MainActivity.INDEX_WEATHER_MIN_TEMP);
+    double lowInCelsius = cursor.getDouble(MainActivity.INDEX_WEATHER_MIN_TEMP);
          /*
           * If the user's preference for weather is fahrenheit, formatTemperature will convert
           * the temperature. This method will also append either °C or °F to the temperature
@@ -223,6 +236,7 @@ class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapt
   @Override
   public int getItemCount() {
     if (null == mCursor) return 0;
+    if (mPager != null) return mPager.getCount();
     return mCursor.getCount();
   }
 
@@ -254,10 +268,68 @@ class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapt
    * @param newCursor the new cursor to use as ForecastAdapter's data source
    */
   void swapCursor(Cursor newCursor) {
+    if (mPager != null) {
+      mPager.close();
+      mPager = null;
+    }
+
     mCursor = newCursor;
+    if (mCursor != null && mPageSize > 0) {
+      mPager = new ForecastPager(mContext.getContentResolver(),
+          MainActivity.MAIN_FORECAST_PROJECTION, MainActivity.INDEX_WEATHER_DATE,
+          mCursor, mPageSize, this);
+    }
     notifyDataSetChanged();
   }
 
+  /**
+   * Switches the adapter to paging mode. The cursors given to {@link #swapCursor(Cursor)} must
+   * then be the first page of the forecast, queried through
+   * {@link com.example.android.sunshine.data.WeatherContract.WeatherEntry#buildWeatherPageUri}
+   * with this page size and {@link MainActivity#MAIN_FORECAST_PROJECTION}. The following pages
+   * are read in the background as the list is scrolled towards them.
+   *
+   * @param pageSize How many days each page holds
+   */
+  void setPageSize(int pageSize) {
+    mPageSize = pageSize;
+  }
+
+  /**
+   * Rebinds the rows of a page that was read in the background, and adds the rows that
+   * reading it discovered to the end of the list.
+   */
+  @Override
+  public void onPageLoaded(int firstPosition, int rowCount, int previousItemCount) {
+    int itemCount = getItemCount();
+    int changedEnd = Math.min(firstPosition + rowCount, previousItemCount);
+    if (changedEnd > firstPosition) {
+      notifyItemRangeChanged(firstPosition, changedEnd - firstPosition);
+    }
+    if (itemCount > previousItemCount) {
+      notifyItemRangeInserted(previousItemCount, itemCount - previousItemCount);
+    } else if (itemCount < previousItemCount) {
+      notifyItemRangeRemoved(itemCount, previousItemCount - itemCount);
+    }
+  }
+
+  /* Moves to the row of a position, in the cursor or the pager. Null if it isn't read yet. */
+  private Cursor moveToPosition(int position) {
+    if (mPager != null) {
+      return mPager.moveToPosition(position);
+    }
+    mCursor.moveToPosition(position);
+    return mCursor;
+  }
+
+  private static void bindPlaceholder(ForecastAdapterViewHolder forecastAdapterViewHolder) {
+    forecastAdapterViewHolder.iconView.setImageDrawable(null);
+    forecastAdapterViewHolder.dateView.setText(null);
+    forecastAdapterViewHolder.descriptionView.setText(null);
+    forecastAdapterViewHolder.highTempView.setText(null);
+    forecastAdapterViewHolder.lowTempView.setText(null);
+  }
+
   /**
    * A ViewHolder is a required part of the pattern for RecyclerViews. It mostly behaves as
    * a cache of the child views for a forecast item. It's also a convenient place to set an
@@ -293,8 +365,9 @@ class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapt
     @Override
     public void onClick(View v) {
       int adapterPosition = getAdapterPosition();
-      mCursor.moveToPosition(adapterPosition);
-      long dateInMillis = mCursor.getLong(MainActivity.INDEX_WEATHER_DATE);
+      Cursor cursor = moveToPosition(adapterPosition);
+      if (cursor == null) return;
+      long dateInMillis = cursor.getLong(MainActivity.INDEX_WEATHER_DATE);
       mClickHandler.onClick(dateInMillis);
     }
   }
@@ -0,0 +1,253 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.os.AsyncTask;
+import android.util.SparseArray;
+import com.example.android.sunshine.data.WeatherContract;
+
+/**
+ * Reads the forecast list one page at a time through
+ * {@link WeatherContract.WeatherEntry#buildWeatherPageUri(long, int)}, so however many days are
+ * stored, only a few pages are in memory at once.
+ * <p>
+ * The first page is the one MainActivity's loader delivered. The pages after it are queried in
+ * the background as the list gets close to them, and the ones furthest from what is on screen
+ * are closed once more than {@link #MAX_LOADED_PAGES} are open. Pages have a fixed size, so a
+ * position always maps to the same page, and the first date of every page that has been read
+ * once is remembered, so a closed page can be read again with a single index seek.
+ * <p>
+ * Everything but the queries runs on the main thread.
+ */
+class ForecastPager {
+
+  /* Pages kept open besides the first one, which belongs to the loader */
+  private static final int MAX_LOADED_PAGES = 3;
+
+  /**
+   * Told when a page has been read, so the rows it holds can be rebound.
+   */
+  interface Listener {
+    /**
+     * @param firstPosition     Position of the page's first row
+     * @param rowCount          How many rows the page holds
+     * @param previousItemCount What {@link #getCount()} returned before the page was read
+     */
+    void onPageLoaded(int firstPosition, int rowCount, int previousItemCount);
+  }
+
+  private final ContentResolver mResolver;
+  private final String[] mProjection;
+  private final int mDateColumn;
+  private final int mPageSize;
+  private final Listener mListener;
+
+  private final Cursor mFirstPage;
+  private final SparseArray<Cursor> mPages = new SparseArray<>();
+
+  /* mAfterDates[p] is the last date of page p - 1, which page p is queried after */
+  private long[] mAfterDates = new long[8];
+
+  /* How many pages have been read at least once, and whether the last of them was the end */
+  private int mKnownPages;
+  private int mLastPageRows;
+  private boolean mEndReached;
+
+  /* The page being read, and the one to read after it, or -1 */
+  private int mLoadingPage = -1;
+  private int mPendingPage = -1;
+
+  /* The page of the row bound last, which eviction keeps pages around */
+  private int mCurrentPage;
+
+  private boolean mClosed;
+
+  /**
+   * @param resolver   Used to query the pages after the first
+   * @param projection The projection of the first page, used for the others as well
+   * @param dateColumn Index of the date in the projection
+   * @param firstPage  The first page, queried with a limit of pageSize. It is not closed here.
+   * @param pageSize   How many rows each page holds
+   * @param listener   Told about every page read after the first
+   */
+  ForecastPager(ContentResolver resolver, String[] projection, int dateColumn, Cursor firstPage,
+                int pageSize, Listener listener) {
+    mResolver = resolver;
+    mProjection = projection;
+    mDateColumn = dateColumn;
+    mPageSize = pageSize;
+    mListener = listener;
+    mFirstPage = firstPage;
+    onPageRead(0, firstPage);
+  }
+
+  /**
+   * @return How many rows the list has as far as we know. It grows as pages are read, until
+   * the last page has been.
+   */
+  int getCount() {
+    if (mEndReached) {
+      return (mKnownPages - 1) * mPageSize + mLastPageRows;
+    }
+    return mKnownPages * mPageSize;
+  }
+
+  /**
+   * Returns the cursor of the page holding a position, moved to it. If that page isn't open, it
+   * is read in the background and null is returned; the listener is told once it arrives. The
+   * page next to the position is read ahead when the position gets close to it.
+   *
+   * @param position A position below {@link #getCount()}
+   * @return The cursor, or null if the row isn't in memory yet
+   */
+  Cursor moveToPosition(int position) {
+    int page = position / mPageSize;
+    int offset = position % mPageSize;
+    mCurrentPage = page;
+
+    Cursor cursor = getPage(page);
+    if (cursor == null) {
+      requestPage(page);
+    }
+
+    int readAhead = Math.max(1, mPageSize / 4);
+    if (offset >= mPageSize - readAhead && (page + 1 < mKnownPages || !mEndReached)) {
+      requestPage(page + 1);
+    } else if (offset < readAhead && page > 0) {
+      requestPage(page - 1);
+    }
+
+    if (cursor == null || !cursor.moveToPosition(offset)) {
+      return null;
+    }
+    return cursor;
+  }
+
+  /**
+   * Closes every page this pager read. Pages still being read are closed when they arrive.
+   */
+  void close() {
+    mClosed = true;
+    for (int i = 0; i < mPages.size(); i++) {
+      mPages.valueAt(i).close();
+    }
+    mPages.clear();
+  }
+
+  private Cursor getPage(int page) {
+    return page == 0 ? mFirstPage : mPages.get(page);
+  }
+
+  private void requestPage(int page) {
+    if (page >= mKnownPages + (mEndReached ? 0 : 1) || getPage(page) != null) {
+      return;
+    }
+    if (mLoadingPage != -1) {
+      if (mLoadingPage != page) mPendingPage = page;
+      return;
+    }
+
+    mLoadingPage = page;
+    new PageTask(page, mAfterDates[page]).execute();
+  }
+
+  /* Records what a page says about the pages after it */
+  private void onPageRead(int page, Cursor cursor) {
+    int rows = cursor.getCount();
+    if (page + 1 > mKnownPages) {
+      mKnownPages = page + 1;
+      mLastPageRows = rows;
+      mEndReached = rows < mPageSize;
+    }
+
+    if (rows == mPageSize && cursor.moveToLast()) {
+      if (page + 1 >= mAfterDates.length) {
+        long[] grown = new long[mAfterDates.length * 2];
+        System.arraycopy(mAfterDates, 0, grown, 0, mAfterDates.length);
+        mAfterDates = grown;
+      }
+      mAfterDates[page + 1] = cursor.getLong(mDateColumn);
+    }
+  }
+
+  private void onPageLoaded(int page, Cursor cursor) {
+    mLoadingPage = -1;
+    if (mClosed) {
+      if (cursor != null) cursor.close();
+      return;
+    }
+
+        /* A failed query leaves the page's rows blank until they are bound again */
+    if (cursor != null) {
+      int previousCount = getCount();
+      onPageRead(page, cursor);
+      mPages.put(page, cursor);
+      evictPages();
+      mListener.onPageLoaded(page * mPageSize, cursor.getCount(), previousCount);
+    }
+
+    int pending = mPendingPage;
+    mPendingPage = -1;
+    if (pending != -1) {
+      requestPage(pending);
+    }
+  }
+
+  /* Closes the pages furthest from the current one until MAX_LOADED_PAGES are left */
+  private void evictPages() {
+    while (mPages.size() > MAX_LOADED_PAGES) {
+      int furthest = 0;
+      for (int i = 1; i < mPages.size(); i++) {
+        if (Math.abs(mPages.keyAt(i) - mCurrentPage)
+            > Math.abs(mPages.keyAt(furthest) - mCurrentPage)) {
+          furthest = i;
+        }
+      }
+      mPages.valueAt(furthest).close();
+      mPages.removeAt(furthest);
+    }
+  }
+
+  /* Queries one page and fills its window off the main thread */
+  private class PageTask extends AsyncTask<Void, Void, Cursor> {
+    private final int mPage;
+    private final long mAfterDate;
+
+    PageTask(int page, long afterDate) {
+      mPage = page;
+      mAfterDate = afterDate;
+    }
+
+    @Override
+    protected Cursor doInBackground(Void... params) {
+      Cursor cursor = mResolver.query(
+          WeatherContract.WeatherEntry.buildWeatherPageUri(mAfterDate, mPageSize),
+          mProjection,
+          null,
+          null,
+          null);
+      if (cursor != null) cursor.getCount();
+      return cursor;
+    }
+
+    @Override
+    protected void onPostExecute(Cursor cursor) {
+      onPageLoaded(mPage, cursor);
+    }
+  }
+}
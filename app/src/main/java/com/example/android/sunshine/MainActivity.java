@@ -19,6 +19,7 @@ import android.content.Intent;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.support.v4.app.LoaderManager;
 import android.support.v4.content.CursorLoader;
 import android.support.v4.content.Loader;
@@ -31,6 +32,7 @@ import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.view.View;
 import android.widget.ProgressBar;
+import com.example.android.sunshine.data.DatabaseWarmUp;
 import com.example.android.sunshine.data.SunshinePreferences;
 import com.example.android.sunshine.data.WeatherContract;
 import com.example.android.sunshine.sync.SunshineSyncUtils;
@@ -72,10 +74,20 @@ public class MainActivity extends AppCompatActivity implements
    */
   private static final int ID_FORECAST_LOADER = 44;
 
+  /*
+   * How many days the loader reads, and every page the list reads after that. A forecast fits
+   * in the first page; a longer list is read a page at a time as it is scrolled, see
+   * ForecastPager.
+   */
+  private static final int FORECAST_PAGE_SIZE = 30;
+
   private ForecastAdapter mForecastAdapter;
   private RecyclerView    mRecyclerView;
   private int mPosition = RecyclerView.NO_POSITION;
 
+  /* Elapsed realtime when the forecast load was created, for DatabaseWarmUp's report */
+  private long mLoadStartMillis;
+
   private ProgressBar mLoadingIndicator;
 
 
@@ -137,6 +149,7 @@ public class MainActivity extends AppCompatActivity implements
          * is also an instance of that type of handler.
          */
     mForecastAdapter = new ForecastAdapter(this, this);
+    mForecastAdapter.setPageSize(FORECAST_PAGE_SIZE);
 
         /* Setting the adapter attaches it to the RecyclerView in our layout. */
     mRecyclerView.setAdapter(mForecastAdapter);
@@ -196,23 +209,22 @@ public class MainActivity extends AppCompatActivity implements
     switch (loaderId) {
 
       case ID_FORECAST_LOADER:
-                /* URI for all rows of weather data in our weather table */
-        Uri forecastQueryUri = WeatherContract.WeatherEntry.CONTENT_URI;
-                /* Sort order: Ascending by date */
-        String sortOrder = WeatherContract.WeatherEntry.COLUMN_DATE + " ASC";
+        mLoadStartMillis = SystemClock.elapsedRealtime();
+
                 /*
-                 * A SELECTION in SQL declares which rows you'd like to return. In our case, we
-                 * want all weather data from today onwards that is stored in our weather table.
-                 * We created a handy method to do that in our WeatherEntry class.
+                 * URI for the first page of the weather data from today onwards. The provider
+                 * binds today's date as an argument, rather than us building it into a new SQL
+                 * string every day. Pages always come in ascending date order.
                  */
-        String selection = WeatherContract.WeatherEntry.getSqlSelectForTodayOnwards();
+        Uri forecastQueryUri =
+            WeatherContract.WeatherEntry.buildWeatherPageUriFromToday(FORECAST_PAGE_SIZE);
 
         return new CursorLoader(this,
             forecastQueryUri,
             MAIN_FORECAST_PROJECTION,
-            selection,
             null,
-            sortOrder);
+            null,
+            null);
 
       default:
         throw new RuntimeException("Loader Not Implemented: " + loaderId);
@@ -235,6 +247,7 @@ public class MainActivity extends AppCompatActivity implements
 
 
     mForecastAdapter.swapCursor(data);
+    DatabaseWarmUp.reportFirstLoad(mLoadStartMillis);
     if (mPosition == RecyclerView.NO_POSITION) mPosition = 0;
     mRecyclerView.smoothScrollToPosition(mPosition);
     if (data.getCount() != 0) showWeatherDataView();
@@ -21,6 +21,7 @@ import android.os.Bundle;
 import android.support.v7.preference.*;
 import com.example.android.sunshine.data.SunshinePreferences;
 import com.example.android.sunshine.data.WeatherContract;
+import com.example.android.sunshine.sync.SunshineSyncCoordinator;
 import com.example.android.sunshine.sync.SunshineSyncUtils;
 
 /**
@@ -93,7 +94,10 @@ public class SettingsFragment extends PreferenceFragmentCompat implements
       // we've changed the location
       // Wipe out any potential PlacePicker latlng values so that we can use this text entry.
       SunshinePreferences.resetLocationCoordinates(activity);
-      SunshineSyncUtils.startImmediateSync(activity);
+      // show what is stored for the new location, and only download it if there is nothing
+      activity.getContentResolver().notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, null);
+      SunshineSyncUtils.startImmediateSyncIfEmpty(activity,
+          SunshineSyncCoordinator.TRIGGER_SETTINGS);
     } else if (key.equals(getString(R.string.pref_units_key))) {
       // units have changed. update lists of weather entries accordingly
       activity.getContentResolver().notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, null);
@@ -17,6 +17,7 @@ import android.os.Bundle;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.util.Log;
+import com.example.android.sunshine.data.DatabaseWarmUp;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.api.GoogleApiClient;
 import com.google.android.gms.wearable.Wearable;
@@ -31,6 +32,7 @@ public class SunshineApp extends Application implements GoogleApiClient.Connecti
   @Override
   public void onCreate() {
     super.onCreate();
+    DatabaseWarmUp.start(this);
     mGoogleApiClient = new GoogleApiClient.Builder(this)
         .addApi(Wearable.API)
         .addConnectionCallbacks(this)
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.Context;
+import android.os.Process;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+/**
+ * Warms up WeatherProvider on a background thread as soon as the process starts, so the
+ * forecast list's first query finds the database open, its statements compiled and today's
+ * forecast in memory, instead of doing all that on the loader's critical path. See
+ * {@link WeatherProvider#warmUp()}.
+ * <p>
+ * It also keeps the numbers that show what the warm-up bought: how long it took, and how long
+ * the first forecast load took after it.
+ */
+public final class DatabaseWarmUp {
+
+  private static final String TAG = DatabaseWarmUp.class.getSimpleName();
+
+  private static final Object sLock = new Object();
+
+  /* Guarded by sLock */
+  private static boolean sStarted;
+
+  /* Elapsed realtime of the start and end of the warm-up, 0 until they happened */
+  private static volatile long sStartMillis;
+  private static volatile long sFinishMillis;
+
+  private static volatile boolean sFirstLoadReported;
+
+  private DatabaseWarmUp() {
+  }
+
+  /**
+   * Starts the warm-up, unless it has been started before in this process. Returns at once.
+   *
+   * @param context Used to reach the provider
+   */
+  public static void start(@NonNull Context context) {
+    synchronized (sLock) {
+      if (sStarted) return;
+      sStarted = true;
+    }
+
+    final Context applicationContext = context.getApplicationContext();
+    sStartMillis = SystemClock.elapsedRealtime();
+
+    new Thread(new Runnable() {
+      @Override
+      public void run() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+        try {
+          WeatherProvider.warmUp(applicationContext);
+        } catch (RuntimeException e) {
+                    /* The first query will open the database the slow way, and likely fail */
+          Log.e(TAG, "Database warm-up failed", e);
+        }
+        sFinishMillis = SystemClock.elapsedRealtime();
+        Log.d(TAG, "Database warm-up took " + (sFinishMillis - sStartMillis) + " ms");
+      }
+    }, "SunshineWarmUp").start();
+  }
+
+  /**
+   * Logs, once per process, how long the first load of the forecast list took and whether the
+   * warm-up had finished before it, along with how long the warm-up took. That is the part of
+   * the time to the first frame the database accounts for, with and without the warm-up's help.
+   *
+   * @param loadStartMillis Elapsed realtime when the load was started, or 0 if the load was
+   *                        started by an earlier instance of the activity
+   */
+  public static void reportFirstLoad(long loadStartMillis) {
+    if (sFirstLoadReported || loadStartMillis == 0) return;
+    sFirstLoadReported = true;
+
+    long loadMillis = SystemClock.elapsedRealtime() - loadStartMillis;
+    long finished = sFinishMillis;
+    if (finished == 0) {
+      Log.i(TAG, "First forecast load took " + loadMillis + " ms,"
+          + " the database warm-up hadn't finished");
+    } else {
+      Log.i(TAG, "First forecast load took " + loadMillis + " ms, the database warm-up took "
+          + (finished - sStartMillis) + " ms and finished "
+          + (finished <= loadStartMillis ? "before" : "during") + " the load");
+    }
+  }
+
+  /**
+   * @return How long the warm-up took in milliseconds, or -1 if it hasn't finished
+   */
+  public static long getWarmUpMillis() {
+    long finished = sFinishMillis;
+    return finished == 0 ? -1 : finished - sStartMillis;
+  }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentValues;
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+
+import java.util.Arrays;
+
+/**
+ * A forecast of several days, stored column by column in primitive arrays. This is what the
+ * parser produces and what the sync hands to {@link WeatherProvider} and to the Wear sender, so
+ * no value is boxed between the network and the database.
+ * <p>
+ * Row i of every column describes the same day. Rows are appended with
+ * {@link #add(long, int, double, double, int, double, double, double)}; the arrays grow as
+ * needed, so presizing the batch only saves copies.
+ */
+public final class ForecastBatch {
+
+  /* OWM's daily forecast returns 14 days unless told otherwise */
+  private static final int DEFAULT_CAPACITY = 16;
+
+  private long[]   mDates;
+  private int[]    mWeatherIds;
+  private double[] mMinTemps;
+  private double[] mMaxTemps;
+  private int[]    mHumidities;
+  private double[] mPressures;
+  private double[] mWindSpeeds;
+  private double[] mDegrees;
+
+  private int mSize;
+
+  public ForecastBatch() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  /**
+   * @param capacity The number of days the batch can hold before its arrays have to grow
+   */
+  public ForecastBatch(int capacity) {
+    if (capacity < 0) {
+      throw new IllegalArgumentException("Negative capacity: " + capacity);
+    }
+    mDates = new long[capacity];
+    mWeatherIds = new int[capacity];
+    mMinTemps = new double[capacity];
+    mMaxTemps = new double[capacity];
+    mHumidities = new int[capacity];
+    mPressures = new double[capacity];
+    mWindSpeeds = new double[capacity];
+    mDegrees = new double[capacity];
+  }
+
+  /**
+   * Appends one day to the batch. The arguments follow the columns of {@link WeatherEntry}.
+   *
+   * @param date      Normalized UTC date of the day, in milliseconds
+   * @param weatherId OWM weather condition code
+   * @param minTemp   Minimum temperature, in Celsius
+   * @param maxTemp   Maximum temperature, in Celsius
+   * @param humidity  Humidity, in percent
+   * @param pressure  Pressure, in hPa
+   * @param windSpeed Wind speed, in meters per second
+   * @param degrees   Meteorological wind direction, in degrees
+   */
+  public void add(long date, int weatherId, double minTemp, double maxTemp, int humidity,
+                  double pressure, double windSpeed, double degrees) {
+    if (mSize == mDates.length) {
+      grow();
+    }
+
+    int i = mSize++;
+    mDates[i] = date;
+    mWeatherIds[i] = weatherId;
+    mMinTemps[i] = minTemp;
+    mMaxTemps[i] = maxTemp;
+    mHumidities[i] = humidity;
+    mPressures[i] = pressure;
+    mWindSpeeds[i] = windSpeed;
+    mDegrees[i] = degrees;
+  }
+
+  /**
+   * @return The number of days in the batch
+   */
+  public int size() {
+    return mSize;
+  }
+
+  public long getDate(int index) {
+    checkIndex(index);
+    return mDates[index];
+  }
+
+  public int getWeatherId(int index) {
+    checkIndex(index);
+    return mWeatherIds[index];
+  }
+
+  public double getMinTemp(int index) {
+    checkIndex(index);
+    return mMinTemps[index];
+  }
+
+  public double getMaxTemp(int index) {
+    checkIndex(index);
+    return mMaxTemps[index];
+  }
+
+  public int getHumidity(int index) {
+    checkIndex(index);
+    return mHumidities[index];
+  }
+
+  public double getPressure(int index) {
+    checkIndex(index);
+    return mPressures[index];
+  }
+
+  public double getWindSpeed(int index) {
+    checkIndex(index);
+    return mWindSpeeds[index];
+  }
+
+  public double getDegrees(int index) {
+    checkIndex(index);
+    return mDegrees[index];
+  }
+
+  /**
+   * Copies one day into a ContentValues, for callers that still go through the generic
+   * ContentResolver API.
+   *
+   * @param index The day to copy
+   * @return A new ContentValues holding every column of that day
+   */
+  public ContentValues toContentValues(int index) {
+    checkIndex(index);
+
+    ContentValues values = new ContentValues();
+    values.put(WeatherEntry.COLUMN_DATE, mDates[index]);
+    values.put(WeatherEntry.COLUMN_WEATHER_ID, mWeatherIds[index]);
+    values.put(WeatherEntry.COLUMN_MIN_TEMP, mMinTemps[index]);
+    values.put(WeatherEntry.COLUMN_MAX_TEMP, mMaxTemps[index]);
+    values.put(WeatherEntry.COLUMN_HUMIDITY, mHumidities[index]);
+    values.put(WeatherEntry.COLUMN_PRESSURE, mPressures[index]);
+    values.put(WeatherEntry.COLUMN_WIND_SPEED, mWindSpeeds[index]);
+    values.put(WeatherEntry.COLUMN_DEGREES, mDegrees[index]);
+    return values;
+  }
+
+  /**
+   * @return Every day of the batch as a ContentValues, in order
+   */
+  public ContentValues[] toContentValues() {
+    ContentValues[] values = new ContentValues[mSize];
+    for (int i = 0; i < mSize; i++) {
+      values[i] = toContentValues(i);
+    }
+    return values;
+  }
+
+  private void grow() {
+    int capacity = Math.max(DEFAULT_CAPACITY, mDates.length * 2);
+    mDates = Arrays.copyOf(mDates, capacity);
+    mWeatherIds = Arrays.copyOf(mWeatherIds, capacity);
+    mMinTemps = Arrays.copyOf(mMinTemps, capacity);
+    mMaxTemps = Arrays.copyOf(mMaxTemps, capacity);
+    mHumidities = Arrays.copyOf(mHumidities, capacity);
+    mPressures = Arrays.copyOf(mPressures, capacity);
+    mWindSpeeds = Arrays.copyOf(mWindSpeeds, capacity);
+    mDegrees = Arrays.copyOf(mDegrees, capacity);
+  }
+
+  private void checkIndex(int index) {
+    if (index < 0 || index >= mSize) {
+      throw new IndexOutOfBoundsException("Index " + index + ", size " + mSize);
+    }
+  }
+}
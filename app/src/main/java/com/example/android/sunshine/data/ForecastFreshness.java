@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.support.annotation.NonNull;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+/**
+ * Remembers the last forecast a sync stored: for which location, when, how many days it had and
+ * the last of them. That is enough to tell whether anything is stored from today onwards
+ * without asking the database, which is the question the app asks on every cold start.
+ * <p>
+ * WeatherProvider records a forecast once it is committed, and forgets it whenever weather rows
+ * of any location are deleted or the database is created from scratch. The record is kept in
+ * memory and in its own preferences file, so it outlives the process. It only ever vouches for
+ * stored weather; when it can't, the caller has to look at the database.
+ */
+public final class ForecastFreshness {
+
+  /* The record lives in its own file so clearing it never touches the user's settings */
+  private static final String PREFS_NAME = "forecast_freshness";
+
+  private static final String KEY_LOCATION    = "location";
+  private static final String KEY_SYNC_MILLIS = "sync_millis";
+  private static final String KEY_ROW_COUNT   = "row_count";
+  private static final String KEY_LAST_DATE   = "last_date";
+
+  private static final Object sLock = new Object();
+
+  /* The record as last written or read. Guarded by sLock. */
+  private static boolean sLoaded;
+  private static String sLocation;
+  private static long sSyncMillis;
+  private static int sRowCount;
+  private static long sLastDate;
+
+  private ForecastFreshness() {
+  }
+
+  /**
+   * Returns whether the last recorded forecast of the given location still has a day from today
+   * onwards. False doesn't mean nothing is stored, only that the record can't tell.
+   *
+   * @param context         Used to access SharedPreferences the first time
+   * @param locationSetting The location of the settings
+   * @return True if the weather of the location is known to be stored from today onwards
+   */
+  public static boolean hasForecastFromToday(@NonNull Context context,
+                                             @NonNull String locationSetting) {
+    long today = SunshineDateUtils.normalizeDate(System.currentTimeMillis());
+    synchronized (sLock) {
+      load(context);
+      return sRowCount > 0 && locationSetting.equals(sLocation) && sLastDate >= today;
+    }
+  }
+
+  /**
+   * Not a measure of whether the forecast is fresh enough to skip a sync: the server may have
+   * confirmed it since, and the record may be of another location. Syncs read that from the
+   * freshness table, see {@link WeatherProvider#getCheckedMillis(Context, String)}.
+   *
+   * @return When the last recorded forecast was stored, in milliseconds, or 0 if there is none
+   */
+  public static long getLastSyncMillis(@NonNull Context context) {
+    synchronized (sLock) {
+      load(context);
+      return sSyncMillis;
+    }
+  }
+
+  /**
+   * @return How many days the last recorded forecast had, or 0 if there is none
+   */
+  public static int getRowCount(@NonNull Context context) {
+    synchronized (sLock) {
+      load(context);
+      return sRowCount;
+    }
+  }
+
+  /**
+   * Records a forecast that has just been committed.
+   *
+   * @param context         Used to access SharedPreferences
+   * @param locationSetting The location the forecast was stored for
+   * @param rowCount        How many days the forecast has
+   * @param lastDate        The normalized date of its last day
+   */
+  static void record(@NonNull Context context, @NonNull String locationSetting, int rowCount,
+                     long lastDate) {
+    long now = System.currentTimeMillis();
+    synchronized (sLock) {
+      sLoaded = true;
+      sLocation = locationSetting;
+      sSyncMillis = now;
+      sRowCount = rowCount;
+      sLastDate = lastDate;
+
+      getPreferences(context).edit()
+          .putString(KEY_LOCATION, locationSetting)
+          .putLong(KEY_SYNC_MILLIS, now)
+          .putInt(KEY_ROW_COUNT, rowCount)
+          .putLong(KEY_LAST_DATE, lastDate)
+          .apply();
+    }
+  }
+
+  /**
+   * Forgets the record, so the next check looks at the database. Call this whenever stored
+   * weather may have been lost.
+   *
+   * @param context Used to access SharedPreferences
+   */
+  public static void clear(@NonNull Context context) {
+    synchronized (sLock) {
+      sLoaded = true;
+      sLocation = null;
+      sSyncMillis = 0;
+      sRowCount = 0;
+      sLastDate = 0;
+
+      getPreferences(context).edit().clear().apply();
+    }
+  }
+
+  /* Reads the record of an earlier process the first time it is needed. Holds sLock. */
+  private static void load(Context context) {
+    if (sLoaded) return;
+    SharedPreferences preferences = getPreferences(context);
+    sLocation = preferences.getString(KEY_LOCATION, null);
+    sSyncMillis = preferences.getLong(KEY_SYNC_MILLIS, 0);
+    sRowCount = preferences.getInt(KEY_ROW_COUNT, 0);
+    sLastDate = preferences.getLong(KEY_LAST_DATE, 0);
+    sLoaded = true;
+  }
+
+  private static SharedPreferences getPreferences(Context context) {
+    return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+  }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.os.Bundle;
+import com.example.android.sunshine.utilities.LatencyHistogram;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Call counts, row counts and latency histograms of WeatherProvider's entry points, one set per
+ * operation and UriMatcher code. Recording takes no lock and, once an entry point has been seen,
+ * allocates nothing.
+ */
+final class ProviderMetrics {
+
+  /* The operations WeatherProvider records, as indices into OPERATION_NAMES */
+  static final int OPERATION_QUERY       = 0;
+  static final int OPERATION_BULK_INSERT = 1;
+  static final int OPERATION_RECONCILE   = 2;
+  static final int OPERATION_DELETE      = 3;
+  static final int OPERATION_COMPACT     = 4;
+
+  private static final String[] OPERATION_NAMES = {
+      "query",
+      "bulkInsert",
+      "reconcile",
+      "delete",
+      "compactHistory",
+  };
+
+  /* One entry point: an operation on one kind of URI */
+  static final class EntryPoint {
+    final AtomicLong mCalls = new AtomicLong();
+    final AtomicLong mRows = new AtomicLong();
+    final LatencyHistogram mLatency = new LatencyHistogram();
+  }
+
+  /* The entry points of one UriMatcher code, by operation */
+  private static final class CodeMetrics {
+    final int mCode;
+    final EntryPoint[] mEntryPoints = new EntryPoint[OPERATION_NAMES.length];
+
+    CodeMetrics(int code) {
+      mCode = code;
+      for (int i = 0; i < mEntryPoints.length; i++) {
+        mEntryPoints[i] = new EntryPoint();
+      }
+    }
+  }
+
+  /*
+   * A provider has a handful of codes, so a linear scan beats hashing a boxed code. The array is
+   * copied on write: the first call for a new code takes the lock, every later one just reads.
+   */
+  private volatile CodeMetrics[] mCodes = new CodeMetrics[0];
+
+  /**
+   * Records one call.
+   *
+   * @param operation  One of the OPERATION_* constants
+   * @param code       The UriMatcher code of the call's URI
+   * @param startNanos {@link System#nanoTime()} when the call started
+   * @param rows       The number of rows returned, written or deleted
+   */
+  void record(int operation, int code, long startNanos, int rows) {
+    long elapsed = System.nanoTime() - startNanos;
+
+    EntryPoint entryPoint = getEntryPoint(operation, code);
+    entryPoint.mCalls.incrementAndGet();
+    entryPoint.mRows.addAndGet(rows);
+    entryPoint.mLatency.record(elapsed);
+  }
+
+  EntryPoint getEntryPoint(int operation, int code) {
+    CodeMetrics[] codes = mCodes;
+    for (CodeMetrics metrics : codes) {
+      if (metrics.mCode == code) {
+        return metrics.mEntryPoints[operation];
+      }
+    }
+    return addCode(code).mEntryPoints[operation];
+  }
+
+  private synchronized CodeMetrics addCode(int code) {
+    CodeMetrics[] codes = mCodes;
+    for (CodeMetrics metrics : codes) {
+      if (metrics.mCode == code) {
+        return metrics;
+      }
+    }
+
+    CodeMetrics added = new CodeMetrics(code);
+    CodeMetrics[] grown = new CodeMetrics[codes.length + 1];
+    System.arraycopy(codes, 0, grown, 0, codes.length);
+    grown[codes.length] = added;
+    mCodes = grown;
+    return added;
+  }
+
+  /**
+   * Writes every entry point that has been called into a Bundle, see
+   * {@link WeatherContract#METHOD_GET_PROVIDER_STATS} for its layout.
+   */
+  Bundle toBundle() {
+    Bundle stats = new Bundle();
+    for (CodeMetrics metrics : mCodes) {
+      for (int operation = 0; operation < OPERATION_NAMES.length; operation++) {
+        EntryPoint entryPoint = metrics.mEntryPoints[operation];
+        long calls = entryPoint.mCalls.get();
+        if (calls == 0) continue;
+
+        LatencyHistogram latency = entryPoint.mLatency;
+        long count = latency.getCount();
+
+        Bundle values = new Bundle();
+        values.putLong(WeatherContract.KEY_STATS_CALLS, calls);
+        values.putLong(WeatherContract.KEY_STATS_ROWS, entryPoint.mRows.get());
+        values.putLong(WeatherContract.KEY_STATS_MEAN_NANOS,
+            count == 0 ? 0 : latency.getTotalNanos() / count);
+        values.putLong(WeatherContract.KEY_STATS_P50_NANOS, latency.getValueAtPercentile(50));
+        values.putLong(WeatherContract.KEY_STATS_P90_NANOS, latency.getValueAtPercentile(90));
+        values.putLong(WeatherContract.KEY_STATS_P99_NANOS, latency.getValueAtPercentile(99));
+        values.putLong(WeatherContract.KEY_STATS_MAX_NANOS, latency.getMaxNanos());
+
+        stats.putBundle(
+            WeatherContract.buildStatsKey(OPERATION_NAMES[operation], metrics.mCode), values);
+      }
+    }
+    return stats;
+  }
+}
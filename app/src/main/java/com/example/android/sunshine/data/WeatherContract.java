@@ -55,6 +55,133 @@ public class WeatherContract {
    */
   public static final String PATH_WEATHER = "weather";
 
+  /* Appended to the weather path for the forecast from a date onwards */
+  public static final String PATH_FROM = "from";
+
+  /*
+   * WeatherProvider#call method that reports how many forecast queries were answered from the
+   * provider's in-memory snapshot. The result holds KEY_CACHE_HITS and KEY_CACHE_MISSES as longs.
+   */
+  public static final String METHOD_GET_CACHE_STATS = "getCacheStats";
+  public static final String KEY_CACHE_HITS         = "cacheHits";
+  public static final String KEY_CACHE_MISSES       = "cacheMisses";
+
+  /*
+   * WeatherProvider#call method that reports, in debug builds only, how often each provider
+   * entry point was called, how many rows it touched and how long it took. The result holds one
+   * Bundle per entry point that has been called, under the key buildStatsKey(operation, code)
+   * returns for WeatherProvider's UriMatcher code, e.g. "query:101". Each holds the KEY_STATS_*
+   * values as longs, durations in nanoseconds. Release builds return null.
+   */
+  public static final String METHOD_GET_PROVIDER_STATS = "getProviderStats";
+  public static final String KEY_STATS_CALLS           = "calls";
+  public static final String KEY_STATS_ROWS            = "rows";
+  public static final String KEY_STATS_MEAN_NANOS      = "meanNanos";
+  public static final String KEY_STATS_P50_NANOS       = "p50Nanos";
+  public static final String KEY_STATS_P90_NANOS       = "p90Nanos";
+  public static final String KEY_STATS_P99_NANOS       = "p99Nanos";
+  public static final String KEY_STATS_MAX_NANOS       = "maxNanos";
+
+  /**
+   * Builds the key of one entry point in the result of {@link #METHOD_GET_PROVIDER_STATS}.
+   *
+   * @param operation "query", "bulkInsert", "reconcile", "delete" or "compactHistory"
+   * @param code      The UriMatcher code of the URI, see WeatherProvider's CODE_* constants
+   * @return The key
+   */
+  public static String buildStatsKey(String operation, int code) {
+    return operation + ":" + code;
+  }
+
+  /*
+   * WeatherProvider#call method that returns the recent syncs of this process, see
+   * SyncTelemetry. The result holds the stage names under KEY_SYNC_STAGES, as a String array
+   * that the per-stage arrays below are indexed like, and the sequence numbers of the syncs,
+   * oldest first, under KEY_SYNC_SEQUENCES. Each sync is a Bundle under the key
+   * buildSyncRecordKey(sequence) returns, holding its start time in milliseconds, its outcome
+   * and the stage it failed in (one of SyncTelemetry's OUTCOME_* and STAGE_* constants, -1 if
+   * none) as ints, its total time and, as long arrays, the time and the bytes or rows of each
+   * stage. Times are in nanoseconds.
+   */
+  public static final String METHOD_GET_SYNC_TELEMETRY = "getSyncTelemetry";
+  public static final String KEY_SYNC_STAGES           = "stages";
+  public static final String KEY_SYNC_SEQUENCES        = "sequences";
+  public static final String KEY_SYNC_START_MILLIS     = "startMillis";
+  public static final String KEY_SYNC_OUTCOME          = "outcome";
+  public static final String KEY_SYNC_FAILED_STAGE     = "failedStage";
+  public static final String KEY_SYNC_TOTAL_NANOS      = "totalNanos";
+  public static final String KEY_SYNC_STAGE_NANOS      = "stageNanos";
+  public static final String KEY_SYNC_STAGE_COUNTS     = "stageCounts";
+
+  /**
+   * Builds the key of one sync in the result of {@link #METHOD_GET_SYNC_TELEMETRY}.
+   *
+   * @param sequence The sequence number of the sync
+   * @return The key
+   */
+  public static String buildSyncRecordKey(long sequence) {
+    return "sync:" + sequence;
+  }
+
+  /* Appended to the weather path for one row of statistics over the forecast, see SummaryEntry */
+  public static final String PATH_SUMMARY = "summary";
+
+  /* Path to the monthly aggregates of past weather, see HistoryEntry */
+  public static final String PATH_HISTORY = "history";
+
+  /*
+   * Appended to the weather or history path for one page of rows after a date, see
+   * WeatherEntry#buildWeatherPageUri. PARAM_LIMIT is the page size, at most MAX_PAGE_SIZE.
+   */
+  public static final String PATH_PAGE     = "page";
+  public static final String PARAM_LIMIT   = "limit";
+  public static final int    MAX_PAGE_SIZE = 500;
+
+  /* Path to the saved locations, see LocationEntry */
+  public static final String PATH_LOCATION = "location";
+
+  /*
+   * Optional query parameter of every weather and history URI: the _ID of the saved location
+   * to answer for, see LocationEntry#buildUriForLocation. Without it, the provider answers for
+   * the location chosen in the settings.
+   */
+  public static final String PARAM_LOCATION = "location";
+
+  /*
+   * Inner class that defines the table contents of the location table. Every location the user
+   * has asked for weather of gets a row, and the weather and history rows of that location point
+   * to it, so switching back to a city shows what is stored for it without a download.
+   */
+  public static final class LocationEntry implements BaseColumns {
+
+    /* The base CONTENT_URI used to query the location table from the content provider */
+    public static final Uri CONTENT_URI = BASE_CONTENT_URI.buildUpon()
+        .appendPath(PATH_LOCATION)
+        .build();
+
+    /* Used internally as the name of our location table. */
+    public static final String TABLE_NAME = "location";
+
+    /* The location as the user entered it in the settings, such as "94043,USA". Unique. */
+    public static final String COLUMN_LOCATION_SETTING = "location_setting";
+
+    /**
+     * Scopes a weather, summary or history URI to one saved location. The weather of the
+     * location is read through the composite (location, date) index, so no other location's
+     * rows are touched.
+     *
+     * @param uri        Any URI of {@link WeatherEntry}, {@link SummaryEntry} or
+     *                   {@link HistoryEntry}
+     * @param locationId The _ID of the location
+     * @return The same URI, answered for that location
+     */
+    public static Uri buildUriForLocation(Uri uri, long locationId) {
+      return uri.buildUpon()
+          .appendQueryParameter(PARAM_LOCATION, Long.toString(locationId))
+          .build();
+    }
+  }
+
   /* Inner class that defines the table contents of the weather table */
   public static final class WeatherEntry implements BaseColumns {
 
@@ -63,9 +190,27 @@ public class WeatherContract {
         .appendPath(PATH_WEATHER)
         .build();
 
+    /*
+     * The parent of every buildWeatherUriFromDate URI. WeatherProvider notifies it once per
+     * write, so the forecast list is told about every change, while a single day's URI is only
+     * notified when that day changed.
+     */
+    public static final Uri CONTENT_LIST_URI = CONTENT_URI.buildUpon()
+        .appendPath(PATH_FROM)
+        .build();
+
     /* Used internally as the name of our weather table. */
     public static final String TABLE_NAME = "weather";
 
+    /*
+     * Used internally as the name of the view weather is read through. It has the columns of
+     * the weather table, in the units documented below however the table stores them.
+     */
+    public static final String VIEW_NAME = "weather_values";
+
+    /* The _ID of the row in the location table this day's weather is for */
+    public static final String COLUMN_LOCATION_ID = "location_id";
+
     /*
      * The date column will store the UTC date that correlates to the local date for which
      * each particular weather row represents. For example, if you live in the Eastern
@@ -122,16 +267,202 @@ public class WeatherContract {
           .build();
     }
 
+    /**
+     * Builds a URI for every weather entry from a date onwards, ordered by date unless a sort
+     * order is given. The provider binds the date as an argument, so the SQL text is the same
+     * every day and SQLite can reuse its compiled statement. We assume a normalized date is
+     * passed to this method.
+     *
+     * @param date Normalized date in milliseconds
+     * @return Uri to query the weather from that date onwards
+     */
+    public static Uri buildWeatherUriFromDate(long date) {
+      return CONTENT_LIST_URI.buildUpon()
+          .appendPath(Long.toString(date))
+          .build();
+    }
+
+    /**
+     * Builds a URI for the weather forecast from today onwards, see
+     * {@link #buildWeatherUriFromDate(long)}.
+     *
+     * @return Uri to query the weather from today onwards
+     */
+    public static Uri buildWeatherUriFromToday() {
+      return buildWeatherUriFromDate(
+          SunshineDateUtils.normalizeDate(System.currentTimeMillis()));
+    }
+
+    /**
+     * Builds a URI for one page of the weather: at most limit days after a date, in date order.
+     * The next page starts after the last date of this one, so paging through the table costs
+     * an index seek per page however far in it is, unlike an OFFSET. Observers of
+     * {@link #CONTENT_LIST_URI} hear about changes to any page.
+     *
+     * @param afterDate Normalized date in milliseconds. The page starts with the first day after
+     *                  it.
+     * @param limit     How many days the page holds at most, up to {@link #MAX_PAGE_SIZE}
+     * @return Uri to query the page
+     */
+    public static Uri buildWeatherPageUri(long afterDate, int limit) {
+      return CONTENT_URI.buildUpon()
+          .appendPath(PATH_PAGE)
+          .appendPath(Long.toString(afterDate))
+          .appendQueryParameter(PARAM_LIMIT, Integer.toString(limit))
+          .build();
+    }
+
+    /**
+     * Builds a URI for the first page of the weather forecast from today onwards, see
+     * {@link #buildWeatherPageUri(long, int)}.
+     *
+     * @param limit How many days the page holds at most
+     * @return Uri to query the first page
+     */
+    public static Uri buildWeatherPageUriFromToday(int limit) {
+      /* Dates are normalized to midnight, so nothing is stored between this and today */
+      return buildWeatherPageUri(
+          SunshineDateUtils.normalizeDate(System.currentTimeMillis()) - 1, limit);
+    }
+
     /**
      * Returns just the selection part of the weather query from a normalized today value.
      * This is used to get a weather forecast from today's date. To make this easy to use
      * in compound selection, we embed today's date as an argument in the query.
      *
      * @return The selection part of the weather query for today onwards
+     * @deprecated The embedded date makes the SQL different every day, so SQLite can't reuse a
+     * compiled statement for it. Query {@link #buildWeatherUriFromToday()} instead.
      */
+    @Deprecated
     public static String getSqlSelectForTodayOnwards() {
       long normalizedUtcNow = SunshineDateUtils.normalizeDate(System.currentTimeMillis());
       return WeatherContract.WeatherEntry.COLUMN_DATE + " >= " + normalizedUtcNow;
     }
   }
+
+  /*
+   * Inner class that defines the table of how fresh the stored weather of each location is:
+   * when its forecast was last downloaded, and when the server last confirmed it, by sending it
+   * again or by answering 304 Not Modified. Syncs skip the network while the confirmation is
+   * recent. Only WeatherProvider writes it, and it drops a location's row along with its
+   * weather.
+   */
+  public static final class FreshnessEntry {
+
+    /* Used internally as the name of our freshness table. */
+    public static final String TABLE_NAME = "freshness";
+
+    /* The _ID of the location in the location table, and the primary key of this one */
+    public static final String COLUMN_LOCATION_ID = "location_id";
+
+    /* When the forecast was last downloaded and stored, in milliseconds since the epoch */
+    public static final String COLUMN_FETCHED_AT = "fetched_at";
+
+    /* When the server last confirmed the stored forecast, in milliseconds since the epoch */
+    public static final String COLUMN_CHECKED_AT = "checked_at";
+  }
+
+  /*
+   * Inner class that defines the table contents of the weather history table. Past days are
+   * kept in the weather table at daily resolution for a while, then folded into one row per
+   * month here by WeatherHistory's compaction.
+   */
+  public static final class HistoryEntry implements BaseColumns {
+
+    /* The base CONTENT_URI used to query the history table from the content provider */
+    public static final Uri CONTENT_URI = BASE_CONTENT_URI.buildUpon()
+        .appendPath(PATH_HISTORY)
+        .build();
+
+    /* Used internally as the name of our history table. */
+    public static final String TABLE_NAME = "weather_history";
+
+    /* The _ID of the row in the location table this month's weather is for */
+    public static final String COLUMN_LOCATION_ID = "location_id";
+
+    /*
+     * Normalized UTC date of the first day of the month, in milliseconds. Unique per location.
+     */
+    public static final String COLUMN_MONTH = "month";
+
+    /* How many days of the month have been folded into this row */
+    public static final String COLUMN_DAY_COUNT = "days";
+
+    /* Lowest minimum and highest maximum temperature of the month, in °C */
+    public static final String COLUMN_MIN_TEMP = "min";
+    public static final String COLUMN_MAX_TEMP = "max";
+
+    /* Averages over the days of the month */
+    public static final String COLUMN_MEAN_MIN_TEMP   = "mean_min";
+    public static final String COLUMN_MEAN_MAX_TEMP   = "mean_max";
+    public static final String COLUMN_MEAN_HUMIDITY   = "mean_humidity";
+    public static final String COLUMN_MEAN_PRESSURE   = "mean_pressure";
+    public static final String COLUMN_MEAN_WIND_SPEED = "mean_wind";
+
+    /**
+     * Builds a URI for one page of the history: at most limit months after a month, oldest
+     * first. See {@link WeatherEntry#buildWeatherPageUri(long, int)}.
+     *
+     * @param afterMonth The month before the page, as stored in {@link #COLUMN_MONTH}. Pass 0
+     *                   for the first page.
+     * @param limit      How many months the page holds at most, up to {@link #MAX_PAGE_SIZE}
+     * @return Uri to query the page
+     */
+    public static Uri buildHistoryPageUri(long afterMonth, int limit) {
+      return CONTENT_URI.buildUpon()
+          .appendPath(PATH_PAGE)
+          .appendPath(Long.toString(afterMonth))
+          .appendQueryParameter(PARAM_LIMIT, Integer.toString(limit))
+          .build();
+    }
+  }
+
+  /*
+   * The columns of the single row returned by SummaryEntry.CONTENT_URI. The row is computed by
+   * SQLite over a date range of the weather table, so consumers like a watch face or a widget
+   * don't have to read every day and aggregate it themselves.
+   */
+  public static final class SummaryEntry {
+
+    /* The summary of the weather from today onwards */
+    public static final Uri CONTENT_URI = WeatherEntry.CONTENT_URI.buildUpon()
+        .appendPath(PATH_SUMMARY)
+        .build();
+
+    /* Optional query parameters: first date included and first date excluded, both normalized */
+    public static final String PARAM_FROM = "from";
+    public static final String PARAM_TO   = "to";
+
+    /* How many days are in the range */
+    public static final String COLUMN_DAY_COUNT = "days";
+
+    /* Lowest minimum and highest maximum temperature of the range, in °C */
+    public static final String COLUMN_MIN_TEMP = "min";
+    public static final String COLUMN_MAX_TEMP = "max";
+
+    /* Average humidity of the range, as a percentage */
+    public static final String COLUMN_MEAN_HUMIDITY = "mean_humidity";
+
+    /*
+     * The weather ID most days of the range have. If several are as common, the lowest, which
+     * in OWM's numbering is the most severe condition, wins.
+     */
+    public static final String COLUMN_WEATHER_ID = "weather_id";
+
+    /**
+     * Builds a URI for the summary of the days from one date up to, but not including,
+     * another. We assume normalized dates are passed to this method.
+     *
+     * @param fromDate First date included in the summary
+     * @param toDate   First date after the summary
+     * @return Uri to query the summary of that range
+     */
+    public static Uri buildSummaryUri(long fromDate, long toDate) {
+      return CONTENT_URI.buildUpon()
+          .appendQueryParameter(PARAM_FROM, Long.toString(fromDate))
+          .appendQueryParameter(PARAM_TO, Long.toString(toDate))
+          .build();
+    }
+  }
 }
\ No newline at end of file
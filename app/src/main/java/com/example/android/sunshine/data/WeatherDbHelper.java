@@ -15,11 +15,24 @@
  */
 package com.example.android.sunshine.data;
 
+import android.annotation.TargetApi;
 import android.content.Context;
+import android.database.Cursor;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
+import android.util.Log;
+import com.example.android.sunshine.BuildConfig;
+import com.example.android.sunshine.data.WeatherContract.FreshnessEntry;
+import com.example.android.sunshine.data.WeatherContract.HistoryEntry;
+import com.example.android.sunshine.data.WeatherContract.LocationEntry;
 import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
 /**
  * Manages a local database for weather data.
  */
@@ -41,11 +54,109 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
    * versions of Sunshine could cause everything to break. Although that is certainly a rare
    * use-case, we wanted to watch out for it and warn you what could happen if you mistakenly
    * version your databases.
+   *
+   * Version 4 keeps past weather and adds the weather_history table.
+   * Version 5 adds the covering index for the weather summary.
+   * Version 6 adds the location table and keys weather and history by location and date.
+   * Version 7 reads weather through the weather_values view, so its values can be stored
+   * compactly.
+   * Version 8 adds the freshness table, which records when each location was last synced.
+   *
+   * Every version after 3 comes with a step in WeatherMigrations that upgrades the version
+   * before it.
    */
-  private static final int DATABASE_VERSION = 3;
+  private static final int DATABASE_VERSION = 8;
+
+  /*
+   * Holds every column the summary query of WeatherProvider reads, led by the location and the
+   * date it selects a range of. SQLite answers that query from the index alone, without
+   * touching the table.
+   */
+  private static final String SUMMARY_INDEX_NAME = "weather_summary_index";
+
+  private static final String TAG = WeatherDbHelper.class.getSimpleName();
+
+  private final Context mContext;
+
+  /* Whether a database this helper creates stores its weather in the compact encoding */
+  private final boolean mCompact;
+
+  /* The encoding of the open database, found out every time it is opened */
+  private volatile WeatherEncoding mEncoding = WeatherEncoding.PLAIN;
 
   public WeatherDbHelper(Context context) {
-    super(context, DATABASE_NAME, null, DATABASE_VERSION);
+    this(context, DATABASE_NAME);
+  }
+
+  /**
+   * Opens the database of the given name instead of the app's. Tests use it to upgrade the
+   * databases of older versions they recorded, without touching the app's own.
+   */
+  WeatherDbHelper(Context context, String name) {
+    this(context, name, BuildConfig.COMPACT_WEATHER_STORAGE);
+  }
+
+  /**
+   * Opens the database of the given name, creating it in the given encoding if it doesn't
+   * exist yet. A database that already exists keeps the encoding it was created with, so
+   * changing COMPACT_WEATHER_STORAGE only affects new installs and recreated databases.
+   *
+   * @param compact Whether to store the weather values as scaled integers, see
+   *                {@link WeatherEncoding}
+   */
+  WeatherDbHelper(Context context, String name, boolean compact) {
+    super(context, name, null, DATABASE_VERSION);
+    mContext = context;
+    mCompact = compact;
+
+        /*
+         * The database is opened in write-ahead-log mode. A sync then writes to the log while
+         * the forecast list and the detail screen keep reading the last committed data through
+         * their own connections, instead of waiting for the sync's transaction to finish.
+         * SQLiteDatabase keeps the pool of reader connections for us; its size is chosen by the
+         * platform.
+         */
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+      enableWriteAheadLogging();
+    }
+  }
+
+  @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+  private void enableWriteAheadLogging() {
+    setWriteAheadLoggingEnabled(true);
+  }
+
+  /**
+   * Called when the database has been opened. Before Jelly Bean, SQLiteOpenHelper can't be
+   * told to use write-ahead logging, so it is switched on here instead, while no transaction is
+   * running yet. The encoding of the weather table is read from its schema here too.
+   *
+   * @param sqLiteDatabase The database.
+   */
+  @Override
+  public void onOpen(SQLiteDatabase sqLiteDatabase) {
+    super.onOpen(sqLiteDatabase);
+
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
+        && Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+      enableWriteAheadLogging(sqLiteDatabase);
+    }
+
+    mEncoding = WeatherEncoding.of(sqLiteDatabase);
+  }
+
+  /**
+   * @return How the open database stores its weather. Writes to the weather table must go
+   * through it, while reads go through {@link WeatherEntry#VIEW_NAME}, which decodes them.
+   * Only valid once the database has been opened.
+   */
+  WeatherEncoding getEncoding() {
+    return mEncoding;
+  }
+
+  @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+  private static void enableWriteAheadLogging(SQLiteDatabase sqLiteDatabase) {
+    sqLiteDatabase.enableWriteAheadLogging();
   }
 
   /**
@@ -56,11 +167,38 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
    */
   @Override
   public void onCreate(SQLiteDatabase sqLiteDatabase) {
+    WeatherEncoding encoding = mCompact ? WeatherEncoding.COMPACT : WeatherEncoding.PLAIN;
+    createLocationTable(sqLiteDatabase);
+    createWeatherTable(sqLiteDatabase, encoding);
+    createWeatherView(sqLiteDatabase, encoding);
+    createHistoryTable(sqLiteDatabase);
+    createSummaryIndex(sqLiteDatabase);
+    createFreshnessTable(sqLiteDatabase);
+
+        /* Whatever a sync stored before, this database doesn't have it */
+    ForecastFreshness.clear(mContext);
+  }
+
+  /**
+   * Creates the table of the locations weather has been stored for. Its UNIQUE constraint
+   * gives the location setting an index, so a location is found without a scan.
+   */
+  private static void createLocationTable(SQLiteDatabase sqLiteDatabase) {
+    sqLiteDatabase.execSQL("CREATE TABLE " + LocationEntry.TABLE_NAME + " (" +
+        LocationEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+        LocationEntry.COLUMN_LOCATION_SETTING + " TEXT NOT NULL, " +
+        " UNIQUE (" + LocationEntry.COLUMN_LOCATION_SETTING + "));");
+  }
+
+  private static void createWeatherTable(SQLiteDatabase sqLiteDatabase,
+                                         WeatherEncoding encoding) {
 
         /*
          * This String will contain a simple SQL statement that will create a table that will
-         * cache our weather data.
+         * cache our weather data. The values are declared with the type of the encoding,
+         * which is how it is told apart when the database is opened again.
          */
+    final String valueType = " " + encoding.getColumnType() + " NOT NULL, ";
     final String SQL_CREATE_WEATHER_TABLE =
 
         "CREATE TABLE " + WeatherEntry.TABLE_NAME + " (" +
@@ -72,26 +210,32 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
                  */
             WeatherEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
 
+            WeatherEntry.COLUMN_LOCATION_ID + " INTEGER NOT NULL REFERENCES "
+            + LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+
             WeatherEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
 
             WeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL," +
 
-            WeatherEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
-            WeatherEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
+            WeatherEntry.COLUMN_MIN_TEMP + valueType +
+            WeatherEntry.COLUMN_MAX_TEMP + valueType +
 
-            WeatherEntry.COLUMN_HUMIDITY + " REAL NOT NULL, " +
-            WeatherEntry.COLUMN_PRESSURE + " REAL NOT NULL, " +
+            WeatherEntry.COLUMN_HUMIDITY + valueType +
+            WeatherEntry.COLUMN_PRESSURE + valueType +
 
-            WeatherEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
-            WeatherEntry.COLUMN_DEGREES + " REAL NOT NULL, " +
+            WeatherEntry.COLUMN_WIND_SPEED + valueType +
+            WeatherEntry.COLUMN_DEGREES + valueType +
 
                 /*
-                 * To ensure this table can only contain one weather entry per date, we declare
-                 * the date column to be unique. We also specify "ON CONFLICT REPLACE". This tells
-                 * SQLite that if we have a weather entry for a certain date and we attempt to
-                 * insert another weather entry with that date, we replace the old weather entry.
+                 * To ensure this table can only contain one weather entry per date and location,
+                 * we declare the pair of them to be unique. We also specify "ON CONFLICT REPLACE".
+                 * This tells SQLite that if we have a weather entry for a certain date and
+                 * location and we attempt to insert another one, we replace the old weather
+                 * entry. The constraint's index leads with the location, so the days of one
+                 * location are a contiguous range of it, in date order.
                  */
-            " UNIQUE (" + WeatherEntry.COLUMN_DATE + ") ON CONFLICT REPLACE);";
+            " UNIQUE (" + WeatherEntry.COLUMN_LOCATION_ID + ", " + WeatherEntry.COLUMN_DATE
+            + ") ON CONFLICT REPLACE);";
 
         /*
          * After we've spelled out our SQLite table creation statement above, we actually execute
@@ -101,12 +245,68 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
   }
 
   /**
-   * This database is only a cache for online data, so its upgrade policy is simply to discard
-   * the data and call through to onCreate to recreate the table. Note that this only fires if
+   * Creates the view every read of the weather goes through, which returns the values of the
+   * weather table in the units of WeatherContract.
+   */
+  private static void createWeatherView(SQLiteDatabase sqLiteDatabase,
+                                        WeatherEncoding encoding) {
+    sqLiteDatabase.execSQL("CREATE VIEW " + WeatherEntry.VIEW_NAME + " AS "
+        + encoding.buildViewSelect());
+  }
+
+  private static void createSummaryIndex(SQLiteDatabase sqLiteDatabase) {
+    sqLiteDatabase.execSQL("CREATE INDEX " + SUMMARY_INDEX_NAME
+        + " ON " + WeatherEntry.TABLE_NAME + " ("
+        + WeatherEntry.COLUMN_LOCATION_ID + ", "
+        + WeatherEntry.COLUMN_DATE + ", "
+        + WeatherEntry.COLUMN_WEATHER_ID + ", "
+        + WeatherEntry.COLUMN_MIN_TEMP + ", "
+        + WeatherEntry.COLUMN_MAX_TEMP + ", "
+        + WeatherEntry.COLUMN_HUMIDITY + ");");
+  }
+
+  /**
+   * Creates the table that holds one row of aggregates per past month and location. The UNIQUE
+   * constraint on the two gives it an index, so ranges of a location's months are found by an
+   * index search however many years of history have been kept.
+   */
+  private static void createHistoryTable(SQLiteDatabase sqLiteDatabase) {
+    sqLiteDatabase.execSQL("CREATE TABLE " + HistoryEntry.TABLE_NAME + " (" +
+        HistoryEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+        HistoryEntry.COLUMN_LOCATION_ID + " INTEGER NOT NULL REFERENCES "
+        + LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+        HistoryEntry.COLUMN_MONTH + " INTEGER NOT NULL, " +
+        HistoryEntry.COLUMN_DAY_COUNT + " INTEGER NOT NULL, " +
+        HistoryEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
+        HistoryEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
+        HistoryEntry.COLUMN_MEAN_MIN_TEMP + " REAL NOT NULL, " +
+        HistoryEntry.COLUMN_MEAN_MAX_TEMP + " REAL NOT NULL, " +
+        HistoryEntry.COLUMN_MEAN_HUMIDITY + " REAL NOT NULL, " +
+        HistoryEntry.COLUMN_MEAN_PRESSURE + " REAL NOT NULL, " +
+        HistoryEntry.COLUMN_MEAN_WIND_SPEED + " REAL NOT NULL, " +
+        " UNIQUE (" + HistoryEntry.COLUMN_LOCATION_ID + ", " + HistoryEntry.COLUMN_MONTH
+        + ") ON CONFLICT REPLACE);");
+  }
+
+  /**
+   * Creates the table that records when the weather of each location was last synced, one row
+   * per location, keyed by it.
+   */
+  private static void createFreshnessTable(SQLiteDatabase sqLiteDatabase) {
+    sqLiteDatabase.execSQL("CREATE TABLE " + FreshnessEntry.TABLE_NAME + " (" +
+        FreshnessEntry.COLUMN_LOCATION_ID + " INTEGER PRIMARY KEY REFERENCES "
+        + LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+        FreshnessEntry.COLUMN_FETCHED_AT + " INTEGER NOT NULL, " +
+        FreshnessEntry.COLUMN_CHECKED_AT + " INTEGER NOT NULL);");
+  }
+
+  /**
+   * Upgrades the database one version at a time with the steps of WeatherMigrations, which
+   * keep the weather that is stored. A database of a version there are no steps from, or whose
+   * upgrade fails, is recreated empty instead: losing the stored weather costs a sync, while a
+   * database that can't be opened would keep the app from starting. Note that this only fires if
    * you change the version number for your database (in our case, DATABASE_VERSION). It does NOT
-   * depend on the version number for your application found in your app/build.gradle file. If
-   * you want to update the schema without wiping data, commenting out the current body of this
-   * method should be your top priority before modifying this method.
+   * depend on the version number for your application found in your app/build.gradle file.
    *
    * @param sqLiteDatabase Database that is being upgraded
    * @param oldVersion     The old database version
@@ -114,7 +314,40 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
    */
   @Override
   public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
-    sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
+    if (WeatherMigrations.canMigrate(oldVersion, newVersion)) {
+      try {
+        WeatherMigrations.migrate(mContext, sqLiteDatabase, oldVersion, newVersion);
+        return;
+      } catch (SQLException e) {
+        Log.e(TAG, "Upgrade from version " + oldVersion + " failed, recreating the tables", e);
+      }
+    }
+
+    dropAllTables(sqLiteDatabase);
     onCreate(sqLiteDatabase);
   }
-}
\ No newline at end of file
+
+  /**
+   * Drops every table and view of the database, including those of schemas we don't know, such
+   * as the tables of an earlier Sunshine or those a failed upgrade left behind. Their indexes go
+   * with them.
+   */
+  private static void dropAllTables(SQLiteDatabase sqLiteDatabase) {
+    Cursor cursor = sqLiteDatabase.rawQuery("SELECT type, name FROM sqlite_master"
+        + " WHERE type IN ('table', 'view')"
+        + " AND name NOT LIKE 'sqlite_%' AND name != 'android_metadata'", null);
+    List<String> drops = new ArrayList<>();
+    try {
+      while (cursor.moveToNext()) {
+        drops.add("DROP " + cursor.getString(0).toUpperCase(Locale.US)
+            + " IF EXISTS \"" + cursor.getString(1) + "\"");
+      }
+    } finally {
+      cursor.close();
+    }
+
+    for (String drop : drops) {
+      sqLiteDatabase.execSQL(drop);
+    }
+  }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+
+/**
+ * How the values of the weather table are stored. The plain encoding stores each value as the
+ * 8 byte REAL it was given. The compact encoding stores them as integers in fixed units, such as
+ * tenths of a degree and tenths of a hectopascal, which SQLite writes in 1 to 3 bytes, so more
+ * days fit in a page and a scan reads fewer pages.
+ * <p>
+ * A database keeps the encoding it was created with, and says which one it is through the
+ * declared type of its value columns. Whichever it is, the values are read through
+ * {@link WeatherEntry#VIEW_NAME}, which decodes them back to the units WeatherContract
+ * documents, so only writes need to know the encoding.
+ */
+final class WeatherEncoding {
+
+  static final WeatherEncoding PLAIN   = new WeatherEncoding(false);
+  static final WeatherEncoding COMPACT = new WeatherEncoding(true);
+
+  /* The value columns, in the order of ForecastBatch's columns and of the indexes below */
+  private static final String[] COLUMNS = {
+      WeatherEntry.COLUMN_MIN_TEMP,
+      WeatherEntry.COLUMN_MAX_TEMP,
+      WeatherEntry.COLUMN_HUMIDITY,
+      WeatherEntry.COLUMN_PRESSURE,
+      WeatherEntry.COLUMN_WIND_SPEED,
+      WeatherEntry.COLUMN_DEGREES,
+  };
+
+  static final int INDEX_MIN_TEMP   = 0;
+  static final int INDEX_MAX_TEMP   = 1;
+  static final int INDEX_HUMIDITY   = 2;
+  static final int INDEX_PRESSURE   = 3;
+  static final int INDEX_WIND_SPEED = 4;
+  static final int INDEX_DEGREES    = 5;
+
+  /*
+   * How many stored units the compact encoding counts per unit of each column: tenths of a
+   * degree, whole percent, tenths of a hectopascal, tenths of the wind speed and whole degrees
+   * of the wind direction. That is finer than any of them is ever displayed.
+   */
+  private static final int[] SCALES = {10, 10, 1, 10, 10, 1};
+
+  private final boolean mCompact;
+
+  private WeatherEncoding(boolean compact) {
+    mCompact = compact;
+  }
+
+  /**
+   * Finds out which encoding a weather database was created with.
+   *
+   * @param db A weather database of the current version
+   * @return The encoding of its weather table
+   */
+  static WeatherEncoding of(SQLiteDatabase db) {
+    Cursor columns = db.rawQuery("PRAGMA table_info(" + WeatherEntry.TABLE_NAME + ")", null);
+    try {
+      int nameIndex = columns.getColumnIndexOrThrow("name");
+      int typeIndex = columns.getColumnIndexOrThrow("type");
+      while (columns.moveToNext()) {
+        if (WeatherEntry.COLUMN_MIN_TEMP.equals(columns.getString(nameIndex))) {
+          return "INTEGER".equalsIgnoreCase(columns.getString(typeIndex)) ? COMPACT : PLAIN;
+        }
+      }
+    } finally {
+      columns.close();
+    }
+    return PLAIN;
+  }
+
+  boolean isCompact() {
+    return mCompact;
+  }
+
+  /**
+   * @return The SQL type the value columns of the weather table are declared with
+   */
+  String getColumnType() {
+    return mCompact ? "INTEGER" : "REAL";
+  }
+
+  /**
+   * @return The SELECT {@link WeatherEntry#VIEW_NAME} is defined as, which returns every column
+   * of the weather table with its values decoded. Compact values are all divided by their
+   * scale, even when it is 1, so they are read back as REAL like plain ones.
+   */
+  String buildViewSelect() {
+    StringBuilder select = new StringBuilder("SELECT ")
+        .append(WeatherEntry._ID).append(", ")
+        .append(WeatherEntry.COLUMN_LOCATION_ID).append(", ")
+        .append(WeatherEntry.COLUMN_DATE).append(", ")
+        .append(WeatherEntry.COLUMN_WEATHER_ID);
+    for (int i = 0; i < COLUMNS.length; i++) {
+      select.append(", ");
+      if (mCompact) {
+        select.append(COLUMNS[i]).append(" / ").append(SCALES[i]).append(".0 AS ");
+      }
+      select.append(COLUMNS[i]);
+    }
+    return select.append(" FROM ").append(WeatherEntry.TABLE_NAME).toString();
+  }
+
+  /**
+   * Binds a value to a statement that writes the weather table.
+   *
+   * @param column One of the INDEX constants
+   */
+  void bind(SQLiteStatement statement, int index, int column, double value) {
+    if (mCompact) {
+      statement.bindLong(index, encode(column, value));
+    } else {
+      statement.bindDouble(index, value);
+    }
+  }
+
+  /**
+   * Encodes a value from a ContentValues for the weather table. Values of other columns, null
+   * and values that aren't numbers are returned as they are, and left to SQLite.
+   */
+  Object encode(String column, Object value) {
+    if (!mCompact || value == null) {
+      return value;
+    }
+    for (int i = 0; i < COLUMNS.length; i++) {
+      if (!COLUMNS[i].equals(column)) continue;
+
+      if (value instanceof Number) {
+        return encode(i, ((Number) value).doubleValue());
+      }
+      try {
+        return encode(i, Double.parseDouble(value.toString()));
+      } catch (NumberFormatException e) {
+        return value;
+      }
+    }
+    return value;
+  }
+
+  /**
+   * @return The values with every value column encoded, or the same values in the plain
+   * encoding
+   */
+  ContentValues encode(ContentValues values) {
+    if (!mCompact) {
+      return values;
+    }
+    ContentValues encoded = new ContentValues(values);
+    for (String column : COLUMNS) {
+      Object value = encode(column, values.get(column));
+      if (value instanceof Long) {
+        encoded.put(column, (Long) value);
+      }
+    }
+    return encoded;
+  }
+
+  /**
+   * Tells whether a value read straight from the weather table, not through the view, is what
+   * the given value would be stored as. Compact values are compared once encoded, so a value
+   * that rounds to the stored one doesn't count as a change.
+   *
+   * @param stored      A cursor over the weather table
+   * @param cursorIndex The index of the value in the cursor
+   * @param column      One of the INDEX constants
+   */
+  boolean isStored(Cursor stored, int cursorIndex, int column, double value) {
+    return mCompact
+        ? stored.getLong(cursorIndex) == encode(column, value)
+        : stored.getDouble(cursorIndex) == value;
+  }
+
+  private static long encode(int column, double value) {
+    return Math.round(value * SCALES[column]);
+  }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import com.example.android.sunshine.data.WeatherContract.FreshnessEntry;
+
+/**
+ * Reads and writes the freshness table, which records per location when its forecast was last
+ * downloaded and when the server last confirmed it. A location only has a row while its weather
+ * is stored.
+ */
+final class WeatherFreshness {
+
+  /* The time of a location that has never been synced, or whose weather has been deleted */
+  static final long NEVER = -1;
+
+  private static final String SELECTION_LOCATION = FreshnessEntry.COLUMN_LOCATION_ID + " = ?";
+
+  private WeatherFreshness() {
+  }
+
+  /**
+   * Records that the forecast of a location has just been downloaded and stored, which also
+   * confirms it.
+   *
+   * @param db         The weather database, in the transaction that stored the forecast
+   * @param locationId The _ID of the location
+   * @param nowMillis  The current time in milliseconds since the epoch
+   */
+  static void markFetched(SQLiteDatabase db, long locationId, long nowMillis) {
+    ContentValues values = new ContentValues();
+    values.put(FreshnessEntry.COLUMN_LOCATION_ID, locationId);
+    values.put(FreshnessEntry.COLUMN_FETCHED_AT, nowMillis);
+    values.put(FreshnessEntry.COLUMN_CHECKED_AT, nowMillis);
+    db.insertWithOnConflict(FreshnessEntry.TABLE_NAME, null, values,
+        SQLiteDatabase.CONFLICT_REPLACE);
+  }
+
+  /**
+   * Records that the server has confirmed the stored forecast of a location without sending it
+   * again. A location that has no row isn't given one: what is stored for it wasn't fetched by a
+   * sync that recorded it.
+   *
+   * @param db         The weather database, open for writing
+   * @param locationId The _ID of the location
+   * @param nowMillis  The current time in milliseconds since the epoch
+   * @return Whether the location had a row
+   */
+  static boolean markChecked(SQLiteDatabase db, long locationId, long nowMillis) {
+    ContentValues values = new ContentValues();
+    values.put(FreshnessEntry.COLUMN_CHECKED_AT, nowMillis);
+    return db.update(FreshnessEntry.TABLE_NAME, values, SELECTION_LOCATION,
+        new String[]{Long.toString(locationId)}) > 0;
+  }
+
+  /**
+   * @param db         The weather database
+   * @param locationId The _ID of the location
+   * @return When the stored forecast of the location was last confirmed, in milliseconds since
+   * the epoch, or {@link #NEVER}
+   */
+  static long getCheckedMillis(SQLiteDatabase db, long locationId) {
+    Cursor cursor = db.query(
+        FreshnessEntry.TABLE_NAME,
+        new String[]{FreshnessEntry.COLUMN_CHECKED_AT},
+        SELECTION_LOCATION,
+        new String[]{Long.toString(locationId)},
+        null,
+        null,
+        null);
+
+    try {
+      return cursor.moveToFirst() ? cursor.getLong(0) : NEVER;
+    } finally {
+      cursor.close();
+    }
+  }
+
+  /**
+   * Forgets when a location was synced, so its next sync goes to the network.
+   *
+   * @param db         The weather database, open for writing
+   * @param locationId The _ID of the location
+   */
+  static void forget(SQLiteDatabase db, long locationId) {
+    db.delete(FreshnessEntry.TABLE_NAME, SELECTION_LOCATION,
+        new String[]{Long.toString(locationId)});
+  }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.database.sqlite.SQLiteDatabase;
+import com.example.android.sunshine.data.WeatherContract.HistoryEntry;
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+/**
+ * The retention policy for past weather. Past days stay in the weather table, one row per day,
+ * for {@link #DAILY_HISTORY_DAYS}. After that, compaction folds them into one row per month in
+ * the history table and deletes them. At most {@link #MAX_HISTORY_MONTHS} months are kept per
+ * location, so the database stays within a fixed size however long the app is used.
+ * <p>
+ * Both tables have a unique index on their location and date columns, so a range of a
+ * location's dates or months is found with an index search rather than a scan.
+ */
+public final class WeatherHistory {
+
+  /* How long past days are kept at daily resolution */
+  public static final int DAILY_HISTORY_DAYS = 92;
+
+  /* The size budget of the history table: ten years of monthly aggregates */
+  public static final int MAX_HISTORY_MONTHS = 120;
+
+  /* The first day of a date's month, as a normalized UTC date in milliseconds */
+  private static final String SQL_MONTH_OF_DATE = "CAST(strftime('%s', "
+      + WeatherEntry.COLUMN_DATE + " / 1000, 'unixepoch', 'start of month') AS INTEGER) * 1000";
+
+  /*
+   * Aggregates the days before a cutoff date per location and month and merges them with what
+   * is already stored for those months. The month's existing means are weighted by its
+   * existing day count, so folding a month in several steps gives the same result as folding it
+   * at once.
+   */
+  private static final String SQL_FOLD_DAYS_INTO_MONTHS =
+      "INSERT INTO " + HistoryEntry.TABLE_NAME + " ("
+          + HistoryEntry.COLUMN_LOCATION_ID + ", "
+          + HistoryEntry.COLUMN_MONTH + ", "
+          + HistoryEntry.COLUMN_DAY_COUNT + ", "
+          + HistoryEntry.COLUMN_MIN_TEMP + ", "
+          + HistoryEntry.COLUMN_MAX_TEMP + ", "
+          + HistoryEntry.COLUMN_MEAN_MIN_TEMP + ", "
+          + HistoryEntry.COLUMN_MEAN_MAX_TEMP + ", "
+          + HistoryEntry.COLUMN_MEAN_HUMIDITY + ", "
+          + HistoryEntry.COLUMN_MEAN_PRESSURE + ", "
+          + HistoryEntry.COLUMN_MEAN_WIND_SPEED + ")"
+          + " SELECT g.location_id, g.month,"
+          + " g.days + IFNULL(h." + HistoryEntry.COLUMN_DAY_COUNT + ", 0),"
+          + " MIN(g.min, IFNULL(h." + HistoryEntry.COLUMN_MIN_TEMP + ", g.min)),"
+          + " MAX(g.max, IFNULL(h." + HistoryEntry.COLUMN_MAX_TEMP + ", g.max)),"
+          + mergedMean("g.sum_min", HistoryEntry.COLUMN_MEAN_MIN_TEMP) + ","
+          + mergedMean("g.sum_max", HistoryEntry.COLUMN_MEAN_MAX_TEMP) + ","
+          + mergedMean("g.sum_humidity", HistoryEntry.COLUMN_MEAN_HUMIDITY) + ","
+          + mergedMean("g.sum_pressure", HistoryEntry.COLUMN_MEAN_PRESSURE) + ","
+          + mergedMean("g.sum_wind", HistoryEntry.COLUMN_MEAN_WIND_SPEED)
+          + " FROM (SELECT " + WeatherEntry.COLUMN_LOCATION_ID + " AS location_id,"
+          + " " + SQL_MONTH_OF_DATE + " AS month,"
+          + " COUNT(*) AS days,"
+          + " MIN(" + WeatherEntry.COLUMN_MIN_TEMP + ") AS min,"
+          + " MAX(" + WeatherEntry.COLUMN_MAX_TEMP + ") AS max,"
+          + " TOTAL(" + WeatherEntry.COLUMN_MIN_TEMP + ") AS sum_min,"
+          + " TOTAL(" + WeatherEntry.COLUMN_MAX_TEMP + ") AS sum_max,"
+          + " TOTAL(" + WeatherEntry.COLUMN_HUMIDITY + ") AS sum_humidity,"
+          + " TOTAL(" + WeatherEntry.COLUMN_PRESSURE + ") AS sum_pressure,"
+          + " TOTAL(" + WeatherEntry.COLUMN_WIND_SPEED + ") AS sum_wind"
+          + " FROM " + WeatherEntry.VIEW_NAME
+          + " WHERE " + WeatherEntry.COLUMN_DATE + " < ?"
+          + " GROUP BY location_id, month) AS g"
+          + " LEFT JOIN " + HistoryEntry.TABLE_NAME + " AS h"
+          + " ON h." + HistoryEntry.COLUMN_LOCATION_ID + " = g.location_id"
+          + " AND h." + HistoryEntry.COLUMN_MONTH + " = g.month";
+
+  private WeatherHistory() {
+  }
+
+  /**
+   * Folds the days that are older than the daily retention into monthly aggregates, then
+   * drops the oldest months beyond the size budget. Runs in one transaction.
+   *
+   * @param db    The weather database, open for writing
+   * @param today Today's normalized UTC date
+   * @return The number of rows deleted from either table
+   */
+  public static int compact(SQLiteDatabase db, long today) {
+    return compact(db, today, DAILY_HISTORY_DAYS, MAX_HISTORY_MONTHS);
+  }
+
+  /**
+   * Same as {@link #compact(SQLiteDatabase, long)} with an explicit policy, for tests.
+   */
+  static int compact(SQLiteDatabase db, long today, int dailyHistoryDays, int maxHistoryMonths) {
+    if (maxHistoryMonths < 1) {
+      throw new IllegalArgumentException("The history must keep at least one month");
+    }
+
+    long cutoffDate = today - SunshineDateUtils.DAY_IN_MILLIS * dailyHistoryDays;
+    String[] cutoff = {Long.toString(cutoffDate)};
+    int rowsDeleted;
+
+    db.beginTransaction();
+    try {
+      db.execSQL(SQL_FOLD_DAYS_INTO_MONTHS, cutoff);
+      rowsDeleted = db.delete(WeatherEntry.TABLE_NAME,
+          WeatherEntry.COLUMN_DATE + " < ?",
+          cutoff);
+
+            /*
+             * Keep the newest months of each location only. If a location has fewer months
+             * than the budget, the sub-select is empty and the comparison with NULL deletes
+             * nothing. The sub-select reads the location's months from the unique index.
+             */
+      rowsDeleted += db.delete(HistoryEntry.TABLE_NAME,
+          HistoryEntry.COLUMN_MONTH + " < (SELECT newer." + HistoryEntry.COLUMN_MONTH
+              + " FROM " + HistoryEntry.TABLE_NAME + " AS newer"
+              + " WHERE newer." + HistoryEntry.COLUMN_LOCATION_ID + " = "
+              + HistoryEntry.TABLE_NAME + "." + HistoryEntry.COLUMN_LOCATION_ID
+              + " ORDER BY newer." + HistoryEntry.COLUMN_MONTH + " DESC"
+              + " LIMIT 1 OFFSET " + (maxHistoryMonths - 1) + ")",
+          null);
+
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+
+    return rowsDeleted;
+  }
+
+  private static String mergedMean(String newSum, String meanColumn) {
+    return " (" + newSum + " + IFNULL(h." + meanColumn + " * h." + HistoryEntry.COLUMN_DAY_COUNT
+        + ", 0)) / (g.days + IFNULL(h." + HistoryEntry.COLUMN_DAY_COUNT + ", 0))";
+  }
+}
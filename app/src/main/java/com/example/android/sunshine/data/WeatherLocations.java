@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import com.example.android.sunshine.data.WeatherContract.LocationEntry;
+
+/**
+ * Maps the locations of the settings to the rows of the location table their weather is stored
+ * under. A location gets its row the first time weather is stored for it and keeps it, so the
+ * weather of every city the user has switched between stays in the database.
+ */
+final class WeatherLocations {
+
+  /* The _ID of a location that has no row, which no weather row points to */
+  static final long NO_LOCATION = -1;
+
+  private WeatherLocations() {
+  }
+
+  /**
+   * @param db              The weather database
+   * @param locationSetting The location as stored in the settings
+   * @return The _ID of the location's row, or {@link #NO_LOCATION} if it has none
+   */
+  static long find(SQLiteDatabase db, String locationSetting) {
+    Cursor cursor = db.query(
+        LocationEntry.TABLE_NAME,
+        new String[]{LocationEntry._ID},
+        LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+        new String[]{locationSetting},
+        null,
+        null,
+        null);
+
+    try {
+      return cursor.moveToFirst() ? cursor.getLong(0) : NO_LOCATION;
+    } finally {
+      cursor.close();
+    }
+  }
+
+  /**
+   * Same as {@link #find(SQLiteDatabase, String)}, but inserts a row for the location if it
+   * has none.
+   *
+   * @param db              The weather database, open for writing
+   * @param locationSetting The location as stored in the settings
+   * @return The _ID of the location's row
+   */
+  static long findOrInsert(SQLiteDatabase db, String locationSetting) {
+    long locationId = find(db, locationSetting);
+    if (locationId != NO_LOCATION) {
+      return locationId;
+    }
+
+    ContentValues values = new ContentValues();
+    values.put(LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+    locationId = db.insertWithOnConflict(LocationEntry.TABLE_NAME, null, values,
+        SQLiteDatabase.CONFLICT_IGNORE);
+
+        /* Another connection inserted it since we looked */
+    if (locationId == -1) {
+      locationId = find(db, locationSetting);
+    }
+    return locationId;
+  }
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * The steps that bring a weather database of an older version up to date, one version at a
+ * time, keeping the weather it stores. Each step is written against the schema of the version
+ * it starts from, so its SQL is spelled out as it was at the time instead of being built from
+ * WeatherContract, which only describes the latest schema.
+ * <p>
+ * To change the schema, increment DATABASE_VERSION in WeatherDbHelper, change its onCreate and
+ * add a step for the new version at the end of {@link #MIGRATIONS}. Steps that have shipped are
+ * never changed: the devices that ran them won't run them again.
+ */
+final class WeatherMigrations {
+
+  private static final String TAG = WeatherMigrations.class.getSimpleName();
+
+  /*
+   * The oldest version there are steps from. Databases of versions 1 and 2 were written by an
+   * earlier Sunshine with a schema of its own, so they are recreated instead.
+   */
+  static final int OLDEST_VERSION = 3;
+
+  /* Version 4: the monthly aggregates of past weather */
+  private static final String CREATE_HISTORY_V4 = "CREATE TABLE weather_history ("
+      + "_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+      + "month INTEGER NOT NULL, "
+      + "days INTEGER NOT NULL, "
+      + "min REAL NOT NULL, "
+      + "max REAL NOT NULL, "
+      + "mean_min REAL NOT NULL, "
+      + "mean_max REAL NOT NULL, "
+      + "mean_humidity REAL NOT NULL, "
+      + "mean_pressure REAL NOT NULL, "
+      + "mean_wind REAL NOT NULL, "
+      + "UNIQUE (month) ON CONFLICT REPLACE)";
+
+  /* Version 5: the covering index of the weather summary */
+  private static final String CREATE_SUMMARY_INDEX_V5 = "CREATE INDEX weather_summary_index"
+      + " ON weather (date, weather_id, min, max, humidity)";
+
+  /* Version 6: weather and history keyed by location */
+  private static final String CREATE_LOCATION_V6 = "CREATE TABLE location ("
+      + "_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+      + "location_setting TEXT NOT NULL, "
+      + "UNIQUE (location_setting))";
+  private static final String CREATE_WEATHER_V6 = "CREATE TABLE weather_new ("
+      + "_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+      + "location_id INTEGER NOT NULL REFERENCES location (_id), "
+      + "date INTEGER NOT NULL, "
+      + "weather_id INTEGER NOT NULL, "
+      + "min REAL NOT NULL, "
+      + "max REAL NOT NULL, "
+      + "humidity REAL NOT NULL, "
+      + "pressure REAL NOT NULL, "
+      + "wind REAL NOT NULL, "
+      + "degrees REAL NOT NULL, "
+      + "UNIQUE (location_id, date) ON CONFLICT REPLACE)";
+  private static final String CREATE_HISTORY_V6 = "CREATE TABLE weather_history_new ("
+      + "_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+      + "location_id INTEGER NOT NULL REFERENCES location (_id), "
+      + "month INTEGER NOT NULL, "
+      + "days INTEGER NOT NULL, "
+      + "min REAL NOT NULL, "
+      + "max REAL NOT NULL, "
+      + "mean_min REAL NOT NULL, "
+      + "mean_max REAL NOT NULL, "
+      + "mean_humidity REAL NOT NULL, "
+      + "mean_pressure REAL NOT NULL, "
+      + "mean_wind REAL NOT NULL, "
+      + "UNIQUE (location_id, month) ON CONFLICT REPLACE)";
+  private static final String CREATE_SUMMARY_INDEX_V6 = "CREATE INDEX weather_summary_index"
+      + " ON weather (location_id, date, weather_id, min, max, humidity)";
+
+  /* Version 7: the view weather is read through. Databases that are upgraded stay plain. */
+  private static final String CREATE_VALUES_VIEW_V7 = "CREATE VIEW weather_values AS"
+      + " SELECT _id, location_id, date, weather_id, min, max, humidity, pressure, wind, degrees"
+      + " FROM weather";
+
+  /* Version 8: when each location was last synced. Nothing stored before it has been. */
+  private static final String CREATE_FRESHNESS_V8 = "CREATE TABLE freshness ("
+      + "location_id INTEGER PRIMARY KEY REFERENCES location (_id), "
+      + "fetched_at INTEGER NOT NULL, "
+      + "checked_at INTEGER NOT NULL)";
+
+  /**
+   * Every step, in order. Each one upgrades a database of the version before its own.
+   */
+  private static final Migration[] MIGRATIONS = {
+
+      new Migration(4) {
+        @Override
+        void migrate(Context context, SQLiteDatabase db) {
+          db.execSQL(CREATE_HISTORY_V4);
+        }
+      },
+
+      new Migration(5) {
+        @Override
+        void migrate(Context context, SQLiteDatabase db) {
+          db.execSQL(CREATE_SUMMARY_INDEX_V5);
+        }
+      },
+
+      /*
+       * The weather that is stored is that of the location currently in the settings, so that
+       * location gets the first row of the new location table and every stored row is copied
+       * over to it. SQLite can't change the UNIQUE constraint of a table in place, so both
+       * tables are rebuilt under a temporary name and then take the place of the old ones. The
+       * summary index of version 5 goes with the old weather table and is created again.
+       */
+      new Migration(6) {
+        @Override
+        void migrate(Context context, SQLiteDatabase db) {
+          db.execSQL(CREATE_LOCATION_V6);
+          SQLiteStatement insertLocation =
+              db.compileStatement("INSERT INTO location (location_setting) VALUES (?)");
+          insertLocation.bindString(1, SunshinePreferences.getPreferredWeatherLocation(context));
+          Object[] location = {insertLocation.executeInsert()};
+          insertLocation.close();
+
+          db.execSQL(CREATE_WEATHER_V6);
+          db.execSQL("INSERT INTO weather_new (_id, location_id, date, weather_id, min, max,"
+              + " humidity, pressure, wind, degrees)"
+              + " SELECT _id, ?, date, weather_id, min, max, humidity, pressure, wind, degrees"
+              + " FROM weather", location);
+          db.execSQL("DROP TABLE weather");
+          db.execSQL("ALTER TABLE weather_new RENAME TO weather");
+
+          db.execSQL(CREATE_HISTORY_V6);
+          db.execSQL("INSERT INTO weather_history_new (_id, location_id, month, days, min, max,"
+              + " mean_min, mean_max, mean_humidity, mean_pressure, mean_wind)"
+              + " SELECT _id, ?, month, days, min, max, mean_min, mean_max, mean_humidity,"
+              + " mean_pressure, mean_wind FROM weather_history", location);
+          db.execSQL("DROP TABLE weather_history");
+          db.execSQL("ALTER TABLE weather_history_new RENAME TO weather_history");
+
+          db.execSQL(CREATE_SUMMARY_INDEX_V6);
+        }
+      },
+
+      new Migration(7) {
+        @Override
+        void migrate(Context context, SQLiteDatabase db) {
+          db.execSQL(CREATE_VALUES_VIEW_V7);
+        }
+      },
+
+      new Migration(8) {
+        @Override
+        void migrate(Context context, SQLiteDatabase db) {
+          db.execSQL(CREATE_FRESHNESS_V8);
+        }
+      },
+  };
+
+  /* The version the last step upgrades to, which should be WeatherDbHelper's */
+  static final int LATEST_VERSION = MIGRATIONS[MIGRATIONS.length - 1].mVersion;
+
+  private WeatherMigrations() {
+  }
+
+  /**
+   * Only a database of a version this app has shipped is migrated, and only to the latest
+   * version. Anything else, such as a version from a newer build, is recreated.
+   *
+   * @param oldVersion The version of the database
+   * @param newVersion The version it should be upgraded to
+   * @return Whether there are steps for every version between the two
+   */
+  static boolean canMigrate(int oldVersion, int newVersion) {
+    return oldVersion >= OLDEST_VERSION && oldVersion < newVersion
+        && newVersion == LATEST_VERSION;
+  }
+
+  /**
+   * Runs the steps from oldVersion to newVersion, in order. SQLiteOpenHelper calls onUpgrade in
+   * a transaction that also sets the new version, so either every step is kept along with the
+   * new version, or the database stays as it was and the upgrade is tried again the next time
+   * it is opened.
+   *
+   * @param context    Used to read the settings
+   * @param db         The database that is being upgraded
+   * @param oldVersion The version of the database, which {@link #canMigrate(int, int)} accepts
+   * @param newVersion The version it should be upgraded to
+   */
+  static void migrate(Context context, SQLiteDatabase db, int oldVersion, int newVersion) {
+    for (Migration migration : MIGRATIONS) {
+      if (migration.mVersion <= oldVersion || migration.mVersion > newVersion) continue;
+
+      long startMillis = SystemClock.elapsedRealtime();
+      migration.migrate(context, db);
+      Log.i(TAG, "Migrated the weather database to version " + migration.mVersion + " in "
+          + (SystemClock.elapsedRealtime() - startMillis) + " ms");
+    }
+  }
+
+  /**
+   * One step of the upgrade, from the version before {@link #mVersion} to it.
+   */
+  private abstract static class Migration {
+
+    final int mVersion;
+
+    Migration(int version) {
+      mVersion = version;
+    }
+
+    abstract void migrate(Context context, SQLiteDatabase db);
+  }
+}
@@ -17,13 +17,31 @@ package com.example.android.sunshine.data;
 
 import android.annotation.TargetApi;
 import android.content.ContentProvider;
+import android.content.ContentProviderClient;
+import android.content.ContentResolver;
 import android.content.ContentValues;
+import android.content.Context;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.MatrixCursor;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Bundle;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.v4.os.CancellationSignal;
+import android.util.Log;
+import com.example.android.sunshine.BuildConfig;
 import com.example.android.sunshine.utilities.SunshineDateUtils;
+import com.example.android.sunshine.utilities.SyncTelemetry;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * This class serves as the ContentProvider for all of Sunshine's data. This class allows us to
@@ -37,6 +55,8 @@ import com.example.android.sunshine.utilities.SunshineDateUtils;
  */
 public class WeatherProvider extends ContentProvider {
 
+  private static final String TAG = WeatherProvider.class.getSimpleName();
+
   /*
    * These constant will be used to match URIs with the data they are looking for. We will take
    * advantage of the UriMatcher class to make that matching MUCH easier than doing something
@@ -44,6 +64,12 @@ public class WeatherProvider extends ContentProvider {
    */
   public static final int CODE_WEATHER           = 100;
   public static final int CODE_WEATHER_WITH_DATE = 101;
+  public static final int CODE_WEATHER_FROM_DATE = 102;
+  public static final int CODE_WEATHER_SUMMARY   = 103;
+  public static final int CODE_WEATHER_PAGE      = 104;
+  public static final int CODE_HISTORY           = 200;
+  public static final int CODE_HISTORY_PAGE      = 201;
+  public static final int CODE_LOCATION          = 300;
 
   /*
    * The URI Matcher used by this content provider. The leading "s" in this variable name
@@ -53,6 +79,169 @@ public class WeatherProvider extends ContentProvider {
   private static final UriMatcher sUriMatcher = buildUriMatcher();
   private WeatherDbHelper mOpenHelper;
 
+  /*
+   * The read-through cache of the forecast, see WeatherSnapshot. Every committed write bumps
+   * the generation, and a snapshot is only used while its generation is the current one, so a
+   * snapshot read before a write can never be served after it.
+   */
+  private final AtomicReference<WeatherSnapshot> mSnapshot = new AtomicReference<>();
+  private final AtomicLong mWriteGeneration = new AtomicLong();
+
+  /* Queries the snapshot could answer, and queries that had to go to SQLite */
+  private final AtomicLong mCacheHits   = new AtomicLong();
+  private final AtomicLong mCacheMisses = new AtomicLong();
+
+  /*
+   * Summary rows by location and date range, valid for the write generation they were computed
+   * in
+   */
+  private final ConcurrentHashMap<String, CachedSummary> mSummaries = new ConcurrentHashMap<>();
+
+  /* Calls, rows and latencies of every entry point, see METHOD_GET_PROVIDER_STATS */
+  private final ProviderMetrics mMetrics = new ProviderMetrics();
+
+  /*
+   * The location setting asked for last and the _ID of its row. Every query without a location
+   * parameter needs the _ID of the location in the settings, which only changes when the user
+   * picks another one, so it is only looked up again then.
+   */
+  private final AtomicReference<CachedLocation> mLocation = new AtomicReference<>();
+
+  /*
+   * The columns of SQL_INSERT_WEATHER, in the order their values are bound. This is also the
+   * order of a ForecastBatch's columns. The _ID of the location is bound after them, at
+   * INDEX_INSERT_LOCATION_ID.
+   */
+  private static final String[] INSERT_COLUMNS = {
+      WeatherContract.WeatherEntry.COLUMN_DATE,
+      WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+      WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+      WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+      WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+      WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+      WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+      WeatherContract.WeatherEntry.COLUMN_DEGREES,
+  };
+
+  /*
+   * Inserts one day, replacing whatever is stored for the same date. It is compiled once per
+   * transaction and bound positionally, instead of SQLiteDatabase#insert building and parsing
+   * a new statement from a ContentValues for every row.
+   */
+  private static final String SQL_INSERT_WEATHER = buildInsertSql();
+
+  private static final int INDEX_INSERT_LOCATION_ID = INSERT_COLUMNS.length + 1;
+
+  /* The stored values reconcile() compares against an incoming forecast */
+  private static final String[] RECONCILE_PROJECTION = {
+      WeatherContract.WeatherEntry.COLUMN_DATE,
+      WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+      WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+      WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+      WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+      WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+      WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+      WeatherContract.WeatherEntry.COLUMN_DEGREES,
+  };
+
+  private static final int INDEX_RECONCILE_DATE       = 0;
+  private static final int INDEX_RECONCILE_WEATHER_ID = 1;
+  private static final int INDEX_RECONCILE_MIN_TEMP   = 2;
+  private static final int INDEX_RECONCILE_MAX_TEMP   = 3;
+  private static final int INDEX_RECONCILE_HUMIDITY   = 4;
+  private static final int INDEX_RECONCILE_PRESSURE   = 5;
+  private static final int INDEX_RECONCILE_WIND_SPEED = 6;
+  private static final int INDEX_RECONCILE_DEGREES    = 7;
+
+  /*
+   * Above this many changed days, one notification of the whole weather table is cheaper than
+   * one per day. A forecast is well below it.
+   */
+  private static final int MAX_DATE_NOTIFICATIONS = 32;
+
+  /* The columns of the summary row, in the order SQL_SUMMARY returns them */
+  private static final String[] SUMMARY_COLUMNS = {
+      WeatherContract.SummaryEntry.COLUMN_DAY_COUNT,
+      WeatherContract.SummaryEntry.COLUMN_MIN_TEMP,
+      WeatherContract.SummaryEntry.COLUMN_MAX_TEMP,
+      WeatherContract.SummaryEntry.COLUMN_MEAN_HUMIDITY,
+      WeatherContract.SummaryEntry.COLUMN_WEATHER_ID,
+  };
+
+  private static final int INDEX_SUMMARY_DAY_COUNT     = 0;
+  private static final int INDEX_SUMMARY_MIN_TEMP      = 1;
+  private static final int INDEX_SUMMARY_MAX_TEMP      = 2;
+  private static final int INDEX_SUMMARY_MEAN_HUMIDITY = 3;
+  private static final int INDEX_SUMMARY_WEATHER_ID    = 4;
+
+  /*
+   * Computes the summary of the days in [?1, ?2) of the location ?3. Both the aggregate and the
+   * sub-select of the most common weather ID are answered from WeatherDbHelper's covering
+   * summary index. SQLite flattens the view into the query, so its decoding of the values
+   * doesn't keep the index from covering it.
+   */
+  private static final String SQL_SUMMARY = "SELECT"
+      + " COUNT(*),"
+      + " MIN(" + WeatherContract.WeatherEntry.COLUMN_MIN_TEMP + "),"
+      + " MAX(" + WeatherContract.WeatherEntry.COLUMN_MAX_TEMP + "),"
+      + " AVG(" + WeatherContract.WeatherEntry.COLUMN_HUMIDITY + "),"
+      + " (SELECT " + WeatherContract.WeatherEntry.COLUMN_WEATHER_ID
+      + " FROM " + WeatherContract.WeatherEntry.VIEW_NAME
+      + " WHERE " + WeatherContract.WeatherEntry.COLUMN_LOCATION_ID + " = ?3"
+      + " AND " + WeatherContract.WeatherEntry.COLUMN_DATE + " >= ?1"
+      + " AND " + WeatherContract.WeatherEntry.COLUMN_DATE + " < ?2"
+      + " GROUP BY " + WeatherContract.WeatherEntry.COLUMN_WEATHER_ID
+      + " ORDER BY COUNT(*) DESC, " + WeatherContract.WeatherEntry.COLUMN_WEATHER_ID + " ASC"
+      + " LIMIT 1)"
+      + " FROM " + WeatherContract.WeatherEntry.VIEW_NAME
+      + " WHERE " + WeatherContract.WeatherEntry.COLUMN_LOCATION_ID + " = ?3"
+      + " AND " + WeatherContract.WeatherEntry.COLUMN_DATE + " >= ?1"
+      + " AND " + WeatherContract.WeatherEntry.COLUMN_DATE + " < ?2";
+
+  /* Consumers ask for a handful of ranges. Past this, the memo is dropped rather than grown. */
+  private static final int MAX_CACHED_SUMMARIES = 16;
+
+  /*
+   * Every weather and history query is narrowed down to one location. The unique indexes of
+   * both tables lead with the location, so these selections, and the ones below that add a
+   * date to them, are answered by an index search within the location's rows.
+   */
+  private static final String SELECTION_LOCATION =
+      WeatherContract.WeatherEntry.COLUMN_LOCATION_ID + " = ?";
+  private static final String SELECTION_HISTORY_LOCATION =
+      WeatherContract.HistoryEntry.COLUMN_LOCATION_ID + " = ?";
+
+  /* The selection of CODE_WEATHER_WITH_DATE */
+  private static final String SELECTION_WITH_DATE =
+      SELECTION_LOCATION + " AND " + WeatherContract.WeatherEntry.COLUMN_DATE + " = ?";
+
+  /*
+   * The selection of CODE_WEATHER_FROM_DATE. The date is always bound, so the SQL text never
+   * changes and each connection keeps reusing the statement it compiled the first time. The
+   * unique index on the location and the date turns it into an index range scan.
+   */
+  private static final String SELECTION_FROM_DATE =
+      SELECTION_LOCATION + " AND " + WeatherContract.WeatherEntry.COLUMN_DATE + " >= ?";
+
+  /* Compiled once by warmUp(), so their first real use finds them in the statement cache */
+  private static final String[] WARM_UP_STATEMENTS = {
+      SQL_INSERT_WEATHER,
+      SQL_SUMMARY,
+  };
+
+  /*
+   * The keyset selections of CODE_WEATHER_PAGE and CODE_HISTORY_PAGE. Each page seeks to its
+   * first row through the unique index and stops after the limit, so reading page n costs the
+   * same as reading page 1, where an OFFSET would step over every row before it.
+   */
+  private static final String SELECTION_AFTER_DATE =
+      SELECTION_LOCATION + " AND " + WeatherContract.WeatherEntry.COLUMN_DATE + " > ?";
+  private static final String SELECTION_AFTER_MONTH =
+      SELECTION_HISTORY_LOCATION + " AND " + WeatherContract.HistoryEntry.COLUMN_MONTH + " > ?";
+
+  /* The page size of a page URI without a limit parameter */
+  private static final int DEFAULT_PAGE_SIZE = 50;
+
   /**
    * Creates the UriMatcher that will match each URI to the CODE_WEATHER and
    * CODE_WEATHER_WITH_DATE constants defined above.
@@ -95,6 +284,32 @@ public class WeatherProvider extends ContentProvider {
          */
     matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/#", CODE_WEATHER_WITH_DATE);
 
+        /* This URI is content://com.example.android.sunshine/weather/from/1472214172 */
+    matcher.addURI(authority,
+        WeatherContract.PATH_WEATHER + "/" + WeatherContract.PATH_FROM + "/#",
+        CODE_WEATHER_FROM_DATE);
+
+        /* This URI is content://com.example.android.sunshine/weather/summary?from=...&to=... */
+    matcher.addURI(authority,
+        WeatherContract.PATH_WEATHER + "/" + WeatherContract.PATH_SUMMARY,
+        CODE_WEATHER_SUMMARY);
+
+        /* This URI is content://com.example.android.sunshine/weather/page/1472214172?limit=50 */
+    matcher.addURI(authority,
+        WeatherContract.PATH_WEATHER + "/" + WeatherContract.PATH_PAGE + "/#",
+        CODE_WEATHER_PAGE);
+
+        /* This URI is content://com.example.android.sunshine/history/ */
+    matcher.addURI(authority, WeatherContract.PATH_HISTORY, CODE_HISTORY);
+
+        /* This URI is content://com.example.android.sunshine/history/page/1472214172?limit=50 */
+    matcher.addURI(authority,
+        WeatherContract.PATH_HISTORY + "/" + WeatherContract.PATH_PAGE + "/#",
+        CODE_HISTORY_PAGE);
+
+        /* This URI is content://com.example.android.sunshine/location/ */
+    matcher.addURI(authority, WeatherContract.PATH_LOCATION, CODE_LOCATION);
+
     return matcher;
   }
 
@@ -130,6 +345,8 @@ public class WeatherProvider extends ContentProvider {
    * for inserting a single row of data into our ContentProvider, and so we are only going to
    * implement bulkInsert. In a normal ContentProvider's implementation, you will probably want
    * to provide proper functionality for the insert method as well.
+   * <p>
+   * Rows are stored for the location of the URI, unless they name a location themselves.
    *
    * @param uri    The content:// URI of the insertion request.
    * @param values An array of sets of column_name/value pairs to add to the database.
@@ -138,25 +355,41 @@ public class WeatherProvider extends ContentProvider {
    */
   @Override
   public int bulkInsert(@NonNull Uri uri, @NonNull ContentValues[] values) {
+    final long startNanos = System.nanoTime();
     final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+    final int match = sUriMatcher.match(uri);
 
-    switch (sUriMatcher.match(uri)) {
+    switch (match) {
 
       case CODE_WEATHER:
+                /*
+                 * Validate every row before the transaction starts, so a bad date fails the
+                 * whole insert without holding the database lock for the rows before it.
+                 */
+        for (ContentValues value : values) {
+          long weatherDate =
+              value.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+          if (!SunshineDateUtils.isDateNormalized(weatherDate)) {
+            throw new IllegalArgumentException("Date must be normalized to insert");
+          }
+        }
+
+        long locationId = getLocationId(uri, true);
+        WeatherEncoding encoding = mOpenHelper.getEncoding();
         db.beginTransaction();
         int rowsInserted = 0;
+        long[] insertedDates = new long[values.length];
         try {
-          for (ContentValues value : values) {
-            long weatherDate =
-                value.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
-            if (!SunshineDateUtils.isDateNormalized(weatherDate)) {
-              throw new IllegalArgumentException("Date must be normalized to insert");
-            }
-
-            long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
-            if (_id != -1) {
-              rowsInserted++;
+          SQLiteStatement insert = db.compileStatement(SQL_INSERT_WEATHER);
+          try {
+            for (ContentValues value : values) {
+              if (insertRow(db, insert, value, locationId, encoding) != -1) {
+                insertedDates[rowsInserted++] =
+                    value.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+              }
             }
+          } finally {
+            insert.close();
           }
           db.setTransactionSuccessful();
         } finally {
@@ -164,9 +397,11 @@ public class WeatherProvider extends ContentProvider {
         }
 
         if (rowsInserted > 0) {
-          getContext().getContentResolver().notifyChange(uri, null);
+          refreshSnapshot();
+          notifyWeatherChanged(insertedDates, rowsInserted);
         }
 
+        mMetrics.record(ProviderMetrics.OPERATION_BULK_INSERT, match, startNanos, rowsInserted);
         return rowsInserted;
 
       default:
@@ -174,6 +409,977 @@ public class WeatherProvider extends ContentProvider {
     }
   }
 
+  /**
+   * Inserts a whole forecast for the location of the settings without going through
+   * ContentValues. Every value is bound to a compiled INSERT straight from the batch's primitive
+   * columns, so nothing is boxed. Rows for dates that are already stored replace the old ones,
+   * like in {@link #bulkInsert(Uri, ContentValues[])}.
+   *
+   * @param batch The days to insert. Every date must be normalized.
+   * @return The number of rows that were inserted.
+   */
+  public int bulkInsert(@NonNull ForecastBatch batch) {
+    final long startNanos = System.nanoTime();
+    checkDatesNormalized(batch);
+
+    final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+    final long locationId = getCurrentLocationId(true);
+    final WeatherEncoding encoding = mOpenHelper.getEncoding();
+    final int size = batch.size();
+    int rowsInserted = 0;
+    long[] insertedDates = new long[size];
+
+    db.beginTransaction();
+    try {
+      SQLiteStatement insert = db.compileStatement(SQL_INSERT_WEATHER);
+      try {
+        for (int i = 0; i < size; i++) {
+          bindForecastRow(insert, batch, i, locationId, encoding);
+          if (insert.executeInsert() != -1) {
+            insertedDates[rowsInserted++] = batch.getDate(i);
+          }
+        }
+      } finally {
+        insert.close();
+      }
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+
+    if (rowsInserted > 0) {
+      refreshSnapshot();
+      notifyWeatherChanged(insertedDates, rowsInserted);
+    }
+
+    mMetrics.record(ProviderMetrics.OPERATION_BULK_INSERT, CODE_WEATHER, startNanos, rowsInserted);
+    return rowsInserted;
+  }
+
+  /**
+   * Makes the weather table hold exactly the given forecast for the location of the settings,
+   * see {@link #reconcile(String, ForecastBatch)}.
+   *
+   * @param batch The complete forecast. Dates must be normalized, ascending and unique.
+   * @return The number of rows that were written or deleted
+   */
+  public int reconcile(@NonNull ForecastBatch batch) {
+    return reconcile(SunshinePreferences.getPreferredWeatherLocation(getContext()), batch);
+  }
+
+  /**
+   * Makes the weather table hold exactly the given forecast for a location, touching as few rows
+   * as possible. The weather of other locations is left alone. Stored days of the location are
+   * matched to the batch by date:
+   * <ul>
+   *   <li>days whose values are unchanged are left alone,</li>
+   *   <li>days whose values changed, and new days, are written,</li>
+   *   <li>stored days within the batch's date range that are not in the batch any more are
+   *   deleted.</li>
+   * </ul>
+   * Days before the first day of the batch are past weather. They are kept as history, see
+   * {@link WeatherHistory}.
+   * Everything happens in one transaction and observers get a single notification at the end,
+   * or none at all if the forecast didn't change. This replaces the delete-everything-then-
+   * bulkInsert cycle, which rewrote every row and briefly left the list empty.
+   *
+   * @param locationSetting The location the forecast is for, as stored in the settings. It is
+   *                        added to the location table if it isn't there yet.
+   * @param batch           The complete forecast. Dates must be normalized, ascending and
+   *                        unique.
+   * @return The number of rows that were written or deleted
+   */
+  public int reconcile(@NonNull String locationSetting, @NonNull ForecastBatch batch) {
+    return reconcile(locationSetting, batch, null);
+  }
+
+  /**
+   * Same as {@link #reconcile(String, ForecastBatch)}, but gives up once the signal is
+   * cancelled. The signal is checked before every row that is written and once more before the
+   * transaction is committed, so a cancelled reconcile rolls back and leaves the stored forecast
+   * as it was.
+   *
+   * @param locationSetting The location the forecast is for
+   * @param batch           The complete forecast
+   * @param signal          Cancels the reconcile, may be null
+   * @return The number of rows that were written or deleted
+   * @throws android.support.v4.os.OperationCanceledException If the signal was cancelled
+   */
+  public int reconcile(@NonNull String locationSetting, @NonNull ForecastBatch batch,
+                       @Nullable CancellationSignal signal) {
+    return reconcile(locationSetting, batch, signal, null);
+  }
+
+  /**
+   * Same as {@link #reconcile(String, ForecastBatch, CancellationSignal)}, but also times its
+   * stages into the trace of the sync: finding and deleting the days that are gone, writing the
+   * new and changed ones and committing, and notifying observers.
+   *
+   * @param locationSetting The location the forecast is for
+   * @param batch           The complete forecast
+   * @param signal          Cancels the reconcile, may be null
+   * @param trace           The trace of the sync, may be null
+   * @return The number of rows that were written or deleted
+   * @throws android.support.v4.os.OperationCanceledException If the signal was cancelled
+   */
+  public int reconcile(@NonNull String locationSetting, @NonNull ForecastBatch batch,
+                       @Nullable CancellationSignal signal, @Nullable SyncTelemetry.Trace trace) {
+    final long startNanos = System.nanoTime();
+    checkDatesNormalized(batch);
+
+    final int size = batch.size();
+    if (size == 0) {
+      mMetrics.record(ProviderMetrics.OPERATION_RECONCILE, CODE_WEATHER, startNanos, 0);
+      return 0;
+    }
+
+    final long[] dates = new long[size];
+    for (int i = 0; i < size; i++) {
+      dates[i] = batch.getDate(i);
+      if (i > 0 && dates[i] <= dates[i - 1]) {
+        throw new IllegalArgumentException("Dates must be ascending and unique to reconcile");
+      }
+    }
+
+    final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+    final long locationId = getLocationId(locationSetting, true);
+    final String location = Long.toString(locationId);
+    final WeatherEncoding encoding = mOpenHelper.getEncoding();
+    int rowsChanged = 0;
+    int rowsInserted = 0;
+    long[] changedDates;
+
+    if (trace != null) trace.begin(SyncTelemetry.STAGE_DELETE);
+    db.beginTransaction();
+    try {
+            /*
+             * First pass: compare what is stored against the batch. Nothing is written while the
+             * cursor is open, the dates to delete are only collected.
+             */
+      boolean[] unchanged = new boolean[size];
+      long[] datesToDelete = null;
+      int deleteCount = 0;
+
+      Cursor stored = db.query(
+          WeatherContract.WeatherEntry.TABLE_NAME,
+          RECONCILE_PROJECTION,
+          SELECTION_FROM_DATE,
+          new String[]{location, Long.toString(dates[0])},
+          null,
+          null,
+          null);
+      try {
+        while (stored.moveToNext()) {
+          long storedDate = stored.getLong(INDEX_RECONCILE_DATE);
+          int index = Arrays.binarySearch(dates, storedDate);
+
+          if (index < 0) {
+            if (datesToDelete == null) {
+              datesToDelete = new long[stored.getCount()];
+            }
+            datesToDelete[deleteCount++] = storedDate;
+          } else {
+            unchanged[index] = isSameForecastRow(stored, batch, index, encoding);
+          }
+        }
+      } finally {
+        stored.close();
+      }
+
+            /* Second pass: write the days that are new or changed, and drop the stale ones */
+      changedDates = new long[deleteCount + size];
+
+      if (deleteCount > 0) {
+        SQLiteStatement delete = db.compileStatement("DELETE FROM "
+            + WeatherContract.WeatherEntry.TABLE_NAME + " WHERE " + SELECTION_WITH_DATE);
+        try {
+          delete.bindLong(1, locationId);
+          for (int i = 0; i < deleteCount; i++) {
+            delete.bindLong(2, datesToDelete[i]);
+            delete.execute();
+            changedDates[rowsChanged++] = datesToDelete[i];
+          }
+        } finally {
+          delete.close();
+        }
+      }
+      if (trace != null) {
+        trace.end(deleteCount);
+        trace.begin(SyncTelemetry.STAGE_INSERT);
+      }
+
+      SQLiteStatement insert = null;
+      try {
+        for (int i = 0; i < size; i++) {
+          if (unchanged[i]) continue;
+
+          if (signal != null) {
+            signal.throwIfCanceled();
+          }
+          if (insert == null) {
+            insert = db.compileStatement(SQL_INSERT_WEATHER);
+          }
+          bindForecastRow(insert, batch, i, locationId, encoding);
+          if (insert.executeInsert() != -1) {
+            changedDates[rowsChanged++] = dates[i];
+            rowsInserted++;
+          }
+        }
+      } finally {
+        if (insert != null) insert.close();
+      }
+
+      if (signal != null) {
+        signal.throwIfCanceled();
+      }
+            /* Even a forecast that changed nothing is as fresh as the server can make it */
+      WeatherFreshness.markFetched(db, locationId, System.currentTimeMillis());
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+    if (trace != null) {
+      trace.end(rowsInserted);
+      trace.begin(SyncTelemetry.STAGE_NOTIFY);
+    }
+
+    if (rowsChanged > 0) {
+      refreshSnapshot();
+      notifyWeatherChanged(changedDates, rowsChanged);
+    }
+    if (trace != null) trace.end(rowsChanged);
+    ForecastFreshness.record(getContext(), locationSetting, size, dates[size - 1]);
+
+    mMetrics.record(ProviderMetrics.OPERATION_RECONCILE, CODE_WEATHER, startNanos, rowsChanged);
+    return rowsChanged;
+  }
+
+  /**
+   * Inserts a forecast through the WeatherProvider of this process, handing it the batch as is.
+   * If the provider lives in another process, the batch is converted to ContentValues and sent
+   * through {@link ContentResolver#bulkInsert(Uri, ContentValues[])} instead.
+   *
+   * @param context Used to reach the provider
+   * @param batch   The days to insert
+   * @return The number of rows that were inserted
+   */
+  public static int bulkInsert(@NonNull Context context, @NonNull ForecastBatch batch) {
+    ContentResolver resolver = context.getContentResolver();
+    Uri uri = WeatherContract.WeatherEntry.CONTENT_URI;
+
+    ContentProviderClient client = acquireClient(resolver);
+    try {
+      ContentProvider provider = client.getLocalContentProvider();
+      if (provider instanceof WeatherProvider) {
+        return ((WeatherProvider) provider).bulkInsert(batch);
+      }
+    } finally {
+      client.release();
+    }
+
+    return resolver.bulkInsert(uri, batch.toContentValues());
+  }
+
+  /**
+   * Replaces the stored forecast of the location of the settings with the given one, see
+   * {@link #reconcile(Context, String, ForecastBatch)}.
+   *
+   * @param context Used to reach the provider
+   * @param batch   The complete forecast
+   * @return The number of rows that were written or deleted
+   */
+  public static int reconcile(@NonNull Context context, @NonNull ForecastBatch batch) {
+    return reconcile(context, SunshinePreferences.getPreferredWeatherLocation(context), batch);
+  }
+
+  /**
+   * Replaces the stored forecast of a location with the given one through the WeatherProvider
+   * of this process, see {@link #reconcile(String, ForecastBatch)}. If the provider lives in
+   * another process, this falls back to deleting every row of the location of the settings and
+   * inserting the batch as ContentValues.
+   *
+   * @param context         Used to reach the provider
+   * @param locationSetting The location the forecast was downloaded for
+   * @param batch           The complete forecast
+   * @return The number of rows that were written or deleted
+   */
+  public static int reconcile(@NonNull Context context, @NonNull String locationSetting,
+                              @NonNull ForecastBatch batch) {
+    return reconcile(context, locationSetting, batch, null);
+  }
+
+  /**
+   * Same as {@link #reconcile(Context, String, ForecastBatch)}, but can be cancelled, see
+   * {@link #reconcile(String, ForecastBatch, CancellationSignal)}. The fallback for a provider
+   * in another process is only cancelled before it starts.
+   *
+   * @param context         Used to reach the provider
+   * @param locationSetting The location the forecast was downloaded for
+   * @param batch           The complete forecast
+   * @param signal          Cancels the reconcile, may be null
+   * @return The number of rows that were written or deleted
+   */
+  public static int reconcile(@NonNull Context context, @NonNull String locationSetting,
+                              @NonNull ForecastBatch batch, @Nullable CancellationSignal signal) {
+    return reconcile(context, locationSetting, batch, signal, null);
+  }
+
+  /**
+   * Same as {@link #reconcile(Context, String, ForecastBatch, CancellationSignal)}, but also
+   * times its stages into the trace of the sync, see
+   * {@link #reconcile(String, ForecastBatch, CancellationSignal, SyncTelemetry.Trace)}. The
+   * fallback for a provider in another process is timed as a whole, as an insert.
+   *
+   * @param context         Used to reach the provider
+   * @param locationSetting The location the forecast was downloaded for
+   * @param batch           The complete forecast
+   * @param signal          Cancels the reconcile, may be null
+   * @param trace           The trace of the sync, may be null
+   * @return The number of rows that were written or deleted
+   */
+  public static int reconcile(@NonNull Context context, @NonNull String locationSetting,
+                              @NonNull ForecastBatch batch, @Nullable CancellationSignal signal,
+                              @Nullable SyncTelemetry.Trace trace) {
+    ContentResolver resolver = context.getContentResolver();
+    Uri uri = WeatherContract.WeatherEntry.CONTENT_URI;
+
+    ContentProviderClient client = acquireClient(resolver);
+    try {
+      ContentProvider provider = client.getLocalContentProvider();
+      if (provider instanceof WeatherProvider) {
+        return ((WeatherProvider) provider).reconcile(locationSetting, batch, signal, trace);
+      }
+    } finally {
+      client.release();
+    }
+
+    if (signal != null) {
+      signal.throwIfCanceled();
+    }
+    if (trace != null) trace.begin(SyncTelemetry.STAGE_INSERT);
+    int rowsChanged =
+        resolver.delete(uri, null, null) + resolver.bulkInsert(uri, batch.toContentValues());
+    if (trace != null) trace.end(rowsChanged);
+    return rowsChanged;
+  }
+
+  /**
+   * Applies the history retention policy, see {@link WeatherHistory#compact}. Observers of
+   * both the weather and the history are notified if anything was folded or dropped.
+   *
+   * @param today Today's normalized UTC date
+   * @return The number of rows deleted from either table
+   */
+  public int compactHistory(long today) {
+    long startNanos = System.nanoTime();
+    int rowsDeleted = WeatherHistory.compact(mOpenHelper.getWritableDatabase(), today);
+
+    if (rowsDeleted > 0) {
+      refreshSnapshot();
+            /* Compaction runs once a day and can drop any number of days, so notify them all */
+      ContentResolver resolver = getContext().getContentResolver();
+      resolver.notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, null);
+      resolver.notifyChange(WeatherContract.HistoryEntry.CONTENT_URI, null);
+    }
+
+    mMetrics.record(ProviderMetrics.OPERATION_COMPACT, CODE_HISTORY, startNanos, rowsDeleted);
+    return rowsDeleted;
+  }
+
+  /**
+   * Compacts the weather history through the WeatherProvider of this process, see
+   * {@link #compactHistory(long)}.
+   *
+   * @param context Used to reach the provider
+   * @return The number of rows deleted, 0 if the provider lives in another process
+   */
+  public static int compactHistory(@NonNull Context context) {
+    ContentProviderClient client = acquireClient(context.getContentResolver());
+    try {
+      ContentProvider provider = client.getLocalContentProvider();
+      if (provider instanceof WeatherProvider) {
+        return ((WeatherProvider) provider)
+            .compactHistory(SunshineDateUtils.getNormalizedUtcDateForToday());
+      }
+    } finally {
+      client.release();
+    }
+
+    Log.w(TAG, "WeatherProvider runs in another process, history not compacted");
+    return 0;
+  }
+
+  /**
+   * Does the work the first query after process start would otherwise pay for: opens the
+   * database, which creates or upgrades it and switches on write-ahead logging, compiles the
+   * statements every sync and every summary run into the connection's statement cache, and
+   * reads the forecast from today onwards into the snapshot. That read also pulls the pages of
+   * the weather table and its date index into SQLite's page cache.
+   * <p>
+   * Must not be called on the main thread.
+   */
+  public void warmUp() {
+    SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+    for (String sql : WARM_UP_STATEMENTS) {
+      db.compileStatement(sql).close();
+    }
+    loadSnapshot(getCurrentLocationId(false));
+  }
+
+  /**
+   * Warms up the WeatherProvider of this process, see {@link #warmUp()}.
+   *
+   * @param context Used to reach the provider
+   * @return False if the provider lives in another process, where there is nothing to warm up
+   */
+  public static boolean warmUp(@NonNull Context context) {
+    ContentProviderClient client = acquireClient(context.getContentResolver());
+    try {
+      ContentProvider provider = client.getLocalContentProvider();
+      if (provider instanceof WeatherProvider) {
+        ((WeatherProvider) provider).warmUp();
+        return true;
+      }
+    } finally {
+      client.release();
+    }
+    return false;
+  }
+
+  /**
+   * @param locationSetting The location as stored in the settings
+   * @return When the server last sent or confirmed the stored forecast of the location, in
+   * milliseconds since the epoch, or -1 if it isn't known to have done so
+   */
+  public long getCheckedMillis(@NonNull String locationSetting) {
+    long locationId = getLocationId(locationSetting, false);
+    if (locationId == WeatherLocations.NO_LOCATION) {
+      return WeatherFreshness.NEVER;
+    }
+    return WeatherFreshness.getCheckedMillis(mOpenHelper.getReadableDatabase(), locationId);
+  }
+
+  /**
+   * Reads when the stored forecast of a location was last confirmed through the WeatherProvider
+   * of this process, see {@link #getCheckedMillis(String)}.
+   *
+   * @param context         Used to reach the provider
+   * @param locationSetting The location as stored in the settings
+   * @return -1 if the provider lives in another process, so any sync goes to the network
+   */
+  public static long getCheckedMillis(@NonNull Context context,
+                                      @NonNull String locationSetting) {
+    ContentProviderClient client = acquireClient(context.getContentResolver());
+    try {
+      ContentProvider provider = client.getLocalContentProvider();
+      if (provider instanceof WeatherProvider) {
+        return ((WeatherProvider) provider).getCheckedMillis(locationSetting);
+      }
+    } finally {
+      client.release();
+    }
+    return WeatherFreshness.NEVER;
+  }
+
+  /**
+   * Records that the server has just confirmed the stored forecast of a location, by answering
+   * that it hasn't changed.
+   *
+   * @param locationSetting The location as stored in the settings
+   * @return False if no sync has stored a forecast for the location, so there was nothing to
+   * confirm
+   */
+  public boolean markChecked(@NonNull String locationSetting) {
+    long locationId = getLocationId(locationSetting, false);
+    return locationId != WeatherLocations.NO_LOCATION
+        && WeatherFreshness.markChecked(mOpenHelper.getWritableDatabase(), locationId,
+        System.currentTimeMillis());
+  }
+
+  /**
+   * Records a confirmed forecast through the WeatherProvider of this process, see
+   * {@link #markChecked(String)}.
+   *
+   * @param context         Used to reach the provider
+   * @param locationSetting The location as stored in the settings
+   * @return False if the provider lives in another process, where nothing is recorded
+   */
+  public static boolean markChecked(@NonNull Context context, @NonNull String locationSetting) {
+    ContentProviderClient client = acquireClient(context.getContentResolver());
+    try {
+      ContentProvider provider = client.getLocalContentProvider();
+      if (provider instanceof WeatherProvider) {
+        return ((WeatherProvider) provider).markChecked(locationSetting);
+      }
+    } finally {
+      client.release();
+    }
+    return false;
+  }
+
+  /**
+   * Inserts one row of a {@link #bulkInsert(Uri, ContentValues[])} through the compiled insert,
+   * binding the values by position. Rows that hold columns the statement doesn't know about go
+   * through SQLiteDatabase#insert, so they behave exactly as before.
+   *
+   * @param locationId The location to store the row for, unless it names one itself
+   * @param encoding   How the database stores the values of the row
+   * @return The row ID of the inserted row, or -1 if it could not be inserted
+   */
+  private static long insertRow(SQLiteDatabase db, SQLiteStatement insert, ContentValues value,
+                                long locationId, WeatherEncoding encoding) {
+    boolean hasLocation = value.containsKey(WeatherContract.WeatherEntry.COLUMN_LOCATION_ID);
+    int knownColumns = hasLocation ? 1 : 0;
+    for (int i = 0; i < INSERT_COLUMNS.length; i++) {
+      if (value.containsKey(INSERT_COLUMNS[i])) {
+        knownColumns++;
+      }
+    }
+    if (knownColumns != value.size()) {
+      if (!hasLocation) {
+        value = new ContentValues(value);
+        value.put(WeatherContract.WeatherEntry.COLUMN_LOCATION_ID, locationId);
+      }
+      return db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, encoding.encode(value));
+    }
+
+    for (int i = 0; i < INSERT_COLUMNS.length; i++) {
+      /* A missing column is bound as NULL, which the NOT NULL constraints reject */
+      DatabaseUtils.bindObjectToProgram(insert, i + 1,
+          encoding.encode(INSERT_COLUMNS[i], value.get(INSERT_COLUMNS[i])));
+    }
+    if (hasLocation) {
+      DatabaseUtils.bindObjectToProgram(insert, INDEX_INSERT_LOCATION_ID,
+          value.get(WeatherContract.WeatherEntry.COLUMN_LOCATION_ID));
+    } else {
+      insert.bindLong(INDEX_INSERT_LOCATION_ID, locationId);
+    }
+
+    /* SQLiteDatabase#insert reports a failed row as -1 rather than throwing, and so do we */
+    try {
+      return insert.executeInsert();
+    } catch (SQLException e) {
+      Log.e(TAG, "Error inserting " + value, e);
+      return -1;
+    }
+  }
+
+  private static String buildInsertSql() {
+    StringBuilder sql = new StringBuilder("INSERT OR REPLACE INTO ")
+        .append(WeatherContract.WeatherEntry.TABLE_NAME)
+        .append(" (");
+    for (int i = 0; i < INSERT_COLUMNS.length; i++) {
+      sql.append(INSERT_COLUMNS[i]).append(", ");
+    }
+    sql.append(WeatherContract.WeatherEntry.COLUMN_LOCATION_ID).append(") VALUES (");
+    for (int i = 0; i < INSERT_COLUMNS.length; i++) {
+      sql.append("?, ");
+    }
+    return sql.append("?)").toString();
+  }
+
+  private static ContentProviderClient acquireClient(ContentResolver resolver) {
+    ContentProviderClient client =
+        resolver.acquireContentProviderClient(WeatherContract.CONTENT_AUTHORITY);
+    if (client == null) {
+      throw new IllegalStateException("No provider for " + WeatherContract.CONTENT_AUTHORITY);
+    }
+    return client;
+  }
+
+  private static void checkDatesNormalized(ForecastBatch batch) {
+    for (int i = 0; i < batch.size(); i++) {
+      if (!SunshineDateUtils.isDateNormalized(batch.getDate(i))) {
+        throw new IllegalArgumentException("Date must be normalized to insert");
+      }
+    }
+  }
+
+  /**
+   * Binds one day of the batch to a statement compiled from {@link #SQL_INSERT_WEATHER}, in the
+   * order of {@link #INSERT_COLUMNS}, followed by the location.
+   */
+  private static void bindForecastRow(SQLiteStatement insert, ForecastBatch batch, int index,
+                                      long locationId, WeatherEncoding encoding) {
+    insert.bindLong(1, batch.getDate(index));
+    insert.bindLong(2, batch.getWeatherId(index));
+    encoding.bind(insert, 3, WeatherEncoding.INDEX_MIN_TEMP, batch.getMinTemp(index));
+    encoding.bind(insert, 4, WeatherEncoding.INDEX_MAX_TEMP, batch.getMaxTemp(index));
+    encoding.bind(insert, 5, WeatherEncoding.INDEX_HUMIDITY, batch.getHumidity(index));
+    encoding.bind(insert, 6, WeatherEncoding.INDEX_PRESSURE, batch.getPressure(index));
+    encoding.bind(insert, 7, WeatherEncoding.INDEX_WIND_SPEED, batch.getWindSpeed(index));
+    encoding.bind(insert, 8, WeatherEncoding.INDEX_DEGREES, batch.getDegrees(index));
+    insert.bindLong(INDEX_INSERT_LOCATION_ID, locationId);
+  }
+
+  /**
+   * Tells observers which days a write changed. Each day is notified on its own
+   * {@link WeatherContract.WeatherEntry#buildWeatherUriWithDate(long)} URI, so a detail screen
+   * showing another day is not woken up, and then the forecast list is notified once through
+   * {@link WeatherContract.WeatherEntry#CONTENT_LIST_URI}, and so is the summary. Observers of
+   * CONTENT_URI that watch its descendants hear about every change, as before.
+   *
+   * @param dates The dates of the changed rows. Only the first count are used, and only if
+   *              there are no more than {@link #MAX_DATE_NOTIFICATIONS} of them.
+   * @param count How many rows changed
+   */
+  private void notifyWeatherChanged(long[] dates, int count) {
+    ContentResolver resolver = getContext().getContentResolver();
+
+    if (count > MAX_DATE_NOTIFICATIONS) {
+      resolver.notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, null);
+      return;
+    }
+
+    for (int i = 0; i < count; i++) {
+      resolver.notifyChange(
+          WeatherContract.WeatherEntry.buildWeatherUriWithDate(dates[i]), null);
+    }
+    resolver.notifyChange(WeatherContract.WeatherEntry.CONTENT_LIST_URI, null);
+    resolver.notifyChange(WeatherContract.SummaryEntry.CONTENT_URI, null);
+  }
+
+  /**
+   * @return The dates of up to limit rows of the weather table that match a selection
+   */
+  private static long[] queryDates(SQLiteDatabase db, String selection, String[] selectionArgs,
+                                   int limit) {
+    Cursor cursor = db.query(
+        WeatherContract.WeatherEntry.TABLE_NAME,
+        new String[]{WeatherContract.WeatherEntry.COLUMN_DATE},
+        selection,
+        selectionArgs,
+        null,
+        null,
+        null,
+        Integer.toString(limit));
+
+    try {
+      long[] dates = new long[cursor.getCount()];
+      for (int i = 0; cursor.moveToNext(); i++) {
+        dates[i] = cursor.getLong(0);
+      }
+      return dates;
+    } finally {
+      cursor.close();
+    }
+  }
+
+  /**
+   * Returns the summary row for the date range of a CODE_WEATHER_SUMMARY URI. The row is
+   * computed by SQLite the first time a range is asked for after a write, and then served from
+   * memory until the next write.
+   *
+   * @param uri        The summary URI, with optional from and to parameters
+   * @param projection The summary columns to return, or null for all of them
+   * @param locationId The location to summarize the weather of
+   * @return A cursor over the single summary row
+   */
+  private Cursor querySummary(Uri uri, String[] projection, long locationId) {
+    long fromDate = parseDateParameter(uri, WeatherContract.SummaryEntry.PARAM_FROM,
+        SunshineDateUtils.getNormalizedUtcDateForToday());
+    long toDate = parseDateParameter(uri, WeatherContract.SummaryEntry.PARAM_TO,
+        Long.MAX_VALUE);
+
+    String key = locationId + ":" + fromDate + "-" + toDate;
+    long generation = mWriteGeneration.get();
+    CachedSummary summary = mSummaries.get(key);
+
+    if (summary == null || summary.mGeneration != generation) {
+      Object[] row = new Object[SUMMARY_COLUMNS.length];
+      Cursor computed = mOpenHelper.getReadableDatabase().rawQuery(SQL_SUMMARY,
+          new String[]{Long.toString(fromDate), Long.toString(toDate),
+              Long.toString(locationId)});
+      try {
+        computed.moveToFirst();
+        row[INDEX_SUMMARY_DAY_COUNT] = computed.getInt(INDEX_SUMMARY_DAY_COUNT);
+        row[INDEX_SUMMARY_MIN_TEMP] = getDoubleOrNull(computed, INDEX_SUMMARY_MIN_TEMP);
+        row[INDEX_SUMMARY_MAX_TEMP] = getDoubleOrNull(computed, INDEX_SUMMARY_MAX_TEMP);
+        row[INDEX_SUMMARY_MEAN_HUMIDITY] =
+            getDoubleOrNull(computed, INDEX_SUMMARY_MEAN_HUMIDITY);
+        row[INDEX_SUMMARY_WEATHER_ID] = computed.isNull(INDEX_SUMMARY_WEATHER_ID)
+            ? null
+            : computed.getInt(INDEX_SUMMARY_WEATHER_ID);
+      } finally {
+        computed.close();
+      }
+
+      if (mSummaries.size() >= MAX_CACHED_SUMMARIES) {
+        mSummaries.clear();
+      }
+      summary = new CachedSummary(generation, row);
+      mSummaries.put(key, summary);
+    }
+
+    String[] columns = projection != null ? projection : SUMMARY_COLUMNS;
+    Object[] values = new Object[columns.length];
+    for (int i = 0; i < columns.length; i++) {
+      int index = Arrays.asList(SUMMARY_COLUMNS).indexOf(columns[i]);
+      if (index == -1) {
+        throw new IllegalArgumentException("Unknown summary column: " + columns[i]);
+      }
+      values[i] = summary.mRow[index];
+    }
+
+    MatrixCursor cursor = new MatrixCursor(columns, 1);
+    cursor.addRow(values);
+    return cursor;
+  }
+
+  private static long parseDateParameter(Uri uri, String name, long defaultDate) {
+    String value = uri.getQueryParameter(name);
+    if (value == null) {
+      return defaultDate;
+    }
+    try {
+      return Long.parseLong(value);
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Invalid " + name + " date in " + uri, e);
+    }
+  }
+
+  private static int parseLimit(Uri uri) {
+    String value = uri.getQueryParameter(WeatherContract.PARAM_LIMIT);
+    if (value == null) {
+      return DEFAULT_PAGE_SIZE;
+    }
+    int limit;
+    try {
+      limit = Integer.parseInt(value);
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Invalid page size in " + uri, e);
+    }
+    if (limit <= 0 || limit > WeatherContract.MAX_PAGE_SIZE) {
+      throw new IllegalArgumentException("Invalid page size in " + uri);
+    }
+    return limit;
+  }
+
+  private static Double getDoubleOrNull(Cursor cursor, int column) {
+    return cursor.isNull(column) ? null : cursor.getDouble(column);
+  }
+
+  /**
+   * Returns the location a weather, summary or history URI is answered for: the one its
+   * {@link WeatherContract#PARAM_LOCATION} parameter names, or else the location of the
+   * settings.
+   *
+   * @param create True to add the location of the settings to the location table if it isn't
+   *               there yet, as writes do before they store its weather
+   * @return The _ID of the location, or WeatherLocations.NO_LOCATION if nothing has ever been
+   * stored for the location of the settings
+   */
+  private long getLocationId(Uri uri, boolean create) {
+    String value = uri.getQueryParameter(WeatherContract.PARAM_LOCATION);
+    if (value == null) {
+      return getCurrentLocationId(create);
+    }
+    try {
+      return Long.parseLong(value);
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Invalid location in " + uri, e);
+    }
+  }
+
+  /* The _ID of the location of the settings, see getLocationId(String, boolean) */
+  private long getCurrentLocationId(boolean create) {
+    return getLocationId(SunshinePreferences.getPreferredWeatherLocation(getContext()), create);
+  }
+
+  /**
+   * Looks up the row of a location setting in the location table. The row of the setting asked
+   * for last is remembered, so reads of the same location don't query the table again.
+   *
+   * @param locationSetting The location as stored in the settings
+   * @param create          True to insert a row for the location if it has none
+   * @return The _ID of the location, or WeatherLocations.NO_LOCATION if it has no row
+   */
+  private long getLocationId(String locationSetting, boolean create) {
+    CachedLocation cached = mLocation.get();
+    if (cached != null && cached.mSetting.equals(locationSetting)) {
+      return cached.mId;
+    }
+
+    long locationId;
+    if (create) {
+      SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+      locationId = WeatherLocations.find(db, locationSetting);
+      if (locationId == WeatherLocations.NO_LOCATION) {
+        locationId = WeatherLocations.findOrInsert(db, locationSetting);
+        getContext().getContentResolver()
+            .notifyChange(WeatherContract.LocationEntry.CONTENT_URI, null);
+      }
+    } else {
+      locationId = WeatherLocations.find(mOpenHelper.getReadableDatabase(), locationSetting);
+    }
+
+        /* A location without a row may get one any time, so that is not remembered */
+    if (locationId != WeatherLocations.NO_LOCATION) {
+      mLocation.set(new CachedLocation(locationSetting, locationId));
+    }
+    return locationId;
+  }
+
+  /* A location setting and the _ID of its row */
+  private static final class CachedLocation {
+    final String mSetting;
+    final long mId;
+
+    CachedLocation(String setting, long id) {
+      mSetting = setting;
+      mId = id;
+    }
+  }
+
+  /* A summary row and the write generation of the database it was computed from */
+  private static final class CachedSummary {
+    final long mGeneration;
+    final Object[] mRow;
+
+    CachedSummary(long generation, Object[] row) {
+      mGeneration = generation;
+      mRow = row;
+    }
+  }
+
+  /**
+   * Answers a query for one date, or for the days from a date onwards, from the in-memory
+   * snapshot of the forecast. If the snapshot is stale, or holds another location, it is
+   * reloaded first, which counts as a miss. Queries the snapshot can't answer, such as ones with
+   * a selection, another sort order or an earlier date than the snapshot holds, are left to
+   * SQLite.
+   *
+   * @param locationId The location of the URI
+   * @param date       The date of a CODE_WEATHER_WITH_DATE URI, or the first date of a
+   *                   CODE_WEATHER_FROM_DATE or CODE_WEATHER_PAGE URI
+   * @param singleDay  True for CODE_WEATHER_WITH_DATE
+   * @param limit      How many days to return at most
+   * @return A cursor over the snapshot, or null if the query has to go to SQLite
+   */
+  private Cursor queryCache(long locationId, long date, String[] projection, String selection,
+                            String sortOrder, boolean singleDay, int limit) {
+    boolean dateOrder = sortOrder == null
+        || sortOrder.trim().equalsIgnoreCase(WeatherContract.WeatherEntry.COLUMN_DATE)
+        || sortOrder.trim().equalsIgnoreCase(WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+
+    if (selection != null || !(singleDay || dateOrder)) {
+      mCacheMisses.incrementAndGet();
+      return null;
+    }
+
+    WeatherSnapshot snapshot = mSnapshot.get();
+    boolean fresh = snapshot != null && snapshot.getGeneration() == mWriteGeneration.get()
+        && snapshot.getLocationId() == locationId;
+    if (!fresh) {
+      snapshot = loadSnapshot(locationId);
+    }
+
+    Cursor cursor = snapshot.covers(date) ? snapshot.query(projection, date, singleDay, limit) : null;
+    if (fresh && cursor != null) {
+      mCacheHits.incrementAndGet();
+    } else {
+      mCacheMisses.incrementAndGet();
+    }
+    return cursor;
+  }
+
+  /**
+   * Reads a new snapshot of a location's forecast from today onwards and publishes it, unless a
+   * snapshot of a later write has been published in the meantime.
+   */
+  private WeatherSnapshot loadSnapshot(long locationId) {
+    long generation = mWriteGeneration.get();
+    WeatherSnapshot loaded = WeatherSnapshot.load(
+        mOpenHelper.getReadableDatabase(),
+        locationId,
+        SunshineDateUtils.getNormalizedUtcDateForToday(),
+        generation);
+
+    while (true) {
+      WeatherSnapshot current = mSnapshot.get();
+      if (current != null && current.getGeneration() > generation) break;
+      if (mSnapshot.compareAndSet(current, loaded)) break;
+    }
+    return loaded;
+  }
+
+  /**
+   * Called after every committed write to the weather table. Makes the current snapshot stale
+   * and loads a new one of the location of the settings, so the observers we are about to
+   * notify are answered from memory.
+   */
+  private void refreshSnapshot() {
+    mWriteGeneration.incrementAndGet();
+    loadSnapshot(getCurrentLocationId(false));
+  }
+
+  /**
+   * Answers the provider specific calls defined in WeatherContract:
+   * {@link WeatherContract#METHOD_GET_CACHE_STATS},
+   * {@link WeatherContract#METHOD_GET_SYNC_TELEMETRY} and, in debug builds,
+   * {@link WeatherContract#METHOD_GET_PROVIDER_STATS}. The provider isn't exported, so the sync
+   * telemetry is available in release builds too.
+   */
+  @Override
+  @TargetApi(11)
+  public Bundle call(@NonNull String method, String arg, Bundle extras) {
+    if (WeatherContract.METHOD_GET_CACHE_STATS.equals(method)) {
+      Bundle stats = new Bundle();
+      stats.putLong(WeatherContract.KEY_CACHE_HITS, mCacheHits.get());
+      stats.putLong(WeatherContract.KEY_CACHE_MISSES, mCacheMisses.get());
+      return stats;
+    }
+    if (BuildConfig.DEBUG && WeatherContract.METHOD_GET_PROVIDER_STATS.equals(method)) {
+      return mMetrics.toBundle();
+    }
+    if (WeatherContract.METHOD_GET_SYNC_TELEMETRY.equals(method)) {
+      return SyncTelemetry.toBundle();
+    }
+    return super.call(method, arg, extras);
+  }
+
+  /**
+   * Appends a caller's selection to the one a URI contributes.
+   */
+  private static String appendSelection(String uriSelection, String selection) {
+    return selection == null ? uriSelection : uriSelection + " AND (" + selection + ")";
+  }
+
+  /**
+   * Appends the arguments of a caller's selection to the ones a URI contributes.
+   */
+  private static String[] concat(String[] uriArgs, String[] selectionArgs) {
+    if (selectionArgs == null || selectionArgs.length == 0) {
+      return uriArgs;
+    }
+    String[] args = new String[uriArgs.length + selectionArgs.length];
+    System.arraycopy(uriArgs, 0, args, 0, uriArgs.length);
+    System.arraycopy(selectionArgs, 0, args, uriArgs.length, selectionArgs.length);
+    return args;
+  }
+
+  /**
+   * Compares the current row of a cursor over {@link #RECONCILE_PROJECTION}, which reads the
+   * weather table itself, with one day of the batch. Values are compared as the encoding stores
+   * them, so exact comparison is what we want here.
+   */
+  private static boolean isSameForecastRow(Cursor stored, ForecastBatch batch, int index,
+                                           WeatherEncoding encoding) {
+    return stored.getInt(INDEX_RECONCILE_WEATHER_ID) == batch.getWeatherId(index)
+        && encoding.isStored(stored, INDEX_RECONCILE_MIN_TEMP,
+            WeatherEncoding.INDEX_MIN_TEMP, batch.getMinTemp(index))
+        && encoding.isStored(stored, INDEX_RECONCILE_MAX_TEMP,
+            WeatherEncoding.INDEX_MAX_TEMP, batch.getMaxTemp(index))
+        && encoding.isStored(stored, INDEX_RECONCILE_HUMIDITY,
+            WeatherEncoding.INDEX_HUMIDITY, batch.getHumidity(index))
+        && encoding.isStored(stored, INDEX_RECONCILE_PRESSURE,
+            WeatherEncoding.INDEX_PRESSURE, batch.getPressure(index))
+        && encoding.isStored(stored, INDEX_RECONCILE_WIND_SPEED,
+            WeatherEncoding.INDEX_WIND_SPEED, batch.getWindSpeed(index))
+        && encoding.isStored(stored, INDEX_RECONCILE_DEGREES,
+            WeatherEncoding.INDEX_DEGREES, batch.getDegrees(index));
+  }
+
   /**
    * Handles query requests from clients. We will use this method in Sunshine to query for all
    * of our weather data as well as to query for the weather on a particular day.
@@ -193,13 +1399,16 @@ public class WeatherProvider extends ContentProvider {
   public Cursor query(@NonNull Uri uri, String[] projection, String selection,
                       String[] selectionArgs, String sortOrder) {
 
+    final long startNanos = System.nanoTime();
+    final int match = sUriMatcher.match(uri);
     Cursor cursor;
+    Uri notificationUri = uri;
 
         /*
          * Here's the switch statement that, given a URI, will determine what kind of request is
          * being made and query the database accordingly.
          */
-    switch (sUriMatcher.match(uri)) {
+    switch (match) {
 
             /*
              * When sUriMatcher's match method is called with a URI that looks something like this
@@ -215,6 +1424,11 @@ public class WeatherProvider extends ContentProvider {
              * a particular date.
              */
       case CODE_WEATHER_WITH_DATE: {
+        long locationId = getLocationId(uri, false);
+
+        cursor = queryCache(locationId, Long.parseLong(uri.getLastPathSegment()),
+            projection, selection, sortOrder, true, 1);
+        if (cursor != null) break;
 
                 /*
                  * In order to determine the date associated with this URI, we look at the last
@@ -225,15 +1439,15 @@ public class WeatherProvider extends ContentProvider {
 
                 /*
                  * The query method accepts a string array of arguments, as there may be more
-                 * than one "?" in the selection statement. Even though in our case, we only have
-                 * one "?", we have to create a string array that only contains one element
-                 * because this method signature accepts a string array.
+                 * than one "?" in the selection statement. In our case, there are two: the
+                 * location the URI is answered for, and the date.
                  */
-        String[] selectionArguments = new String[]{normalizedUtcDateString};
+        String[] selectionArguments =
+            new String[]{Long.toString(locationId), normalizedUtcDateString};
 
         cursor = mOpenHelper.getReadableDatabase().query(
-                        /* Table we are going to query */
-            WeatherContract.WeatherEntry.TABLE_NAME,
+                        /* The view that decodes the weather table */
+            WeatherContract.WeatherEntry.VIEW_NAME,
                         /*
                          * A projection designates the columns we want returned in our Cursor.
                          * Passing null will return all columns of data within the Cursor.
@@ -250,7 +1464,7 @@ public class WeatherProvider extends ContentProvider {
                          * within the selectionArguments array will be inserted into the
                          * selection statement by SQLite under the hood.
                          */
-            WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ",
+            SELECTION_WITH_DATE,
             selectionArguments,
             null,
             null,
@@ -268,17 +1482,143 @@ public class WeatherProvider extends ContentProvider {
              * to return all of the weather in our weather table.
              *
              * In this case, we want to return a cursor that contains every row of weather data
-             * in our weather table.
+             * of the URI's location in our weather table.
              */
       case CODE_WEATHER: {
         cursor = mOpenHelper.getReadableDatabase().query(
-            WeatherContract.WeatherEntry.TABLE_NAME,
+            WeatherContract.WeatherEntry.VIEW_NAME,
+            projection,
+            appendSelection(SELECTION_LOCATION, selection),
+            concat(new String[]{Long.toString(getLocationId(uri, false))}, selectionArgs),
+            null,
+            null,
+            sortOrder);
+
+        break;
+      }
+
+            /*
+             * Every day from the date at the end of the URI onwards, which is how the forecast
+             * list asks for "today onwards". A selection from the caller narrows that down
+             * further. Days come in date order unless asked otherwise.
+             */
+      case CODE_WEATHER_FROM_DATE: {
+        long locationId = getLocationId(uri, false);
+        cursor = queryCache(locationId, Long.parseLong(uri.getLastPathSegment()),
+            projection, selection, sortOrder, false, Integer.MAX_VALUE);
+        if (cursor != null) break;
+
+        String[] fromDateArguments =
+            new String[]{Long.toString(locationId), uri.getLastPathSegment()};
+
+        cursor = mOpenHelper.getReadableDatabase().query(
+            WeatherContract.WeatherEntry.VIEW_NAME,
+            projection,
+            appendSelection(SELECTION_FROM_DATE, selection),
+            concat(fromDateArguments, selectionArgs),
+            null,
+            null,
+            sortOrder != null ? sortOrder : WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+
+        break;
+      }
+
+            /*
+             * One row of statistics over a date range of the weather, see SummaryEntry. The
+             * range is given by the URI's query parameters rather than by a selection.
+             */
+      case CODE_WEATHER_SUMMARY: {
+        if (selection != null) {
+          throw new IllegalArgumentException(
+              "The weather summary takes its date range from the URI, not a selection: " + uri);
+        }
+        cursor = querySummary(uri, projection, getLocationId(uri, false));
+        break;
+      }
+
+            /*
+             * One page of the days after the date at the end of the URI, always in date order,
+             * since the next page starts after this page's last date. A selection from the caller
+             * narrows the page down further. Any write can move rows between pages, so every page
+             * is notified through the forecast list's URI.
+             */
+      case CODE_WEATHER_PAGE: {
+        if (sortOrder != null) {
+          throw new IllegalArgumentException("Pages are always in date order: " + uri);
+        }
+        long locationId = getLocationId(uri, false);
+        long afterDate = Long.parseLong(uri.getLastPathSegment());
+        int limit = parseLimit(uri);
+        notificationUri = WeatherContract.WeatherEntry.CONTENT_LIST_URI;
+
+        cursor = queryCache(locationId, afterDate + 1, projection, selection, null, false, limit);
+        if (cursor != null) break;
+
+        String[] afterDateArguments =
+            new String[]{Long.toString(locationId), uri.getLastPathSegment()};
+
+        cursor = mOpenHelper.getReadableDatabase().query(
+            WeatherContract.WeatherEntry.VIEW_NAME,
+            projection,
+            appendSelection(SELECTION_AFTER_DATE, selection),
+            concat(afterDateArguments, selectionArgs),
+            null,
+            null,
+            WeatherContract.WeatherEntry.COLUMN_DATE + " ASC",
+            Integer.toString(limit));
+
+        break;
+      }
+
+            /*
+             * The monthly aggregates of the past weather of the URI's location. A selection on
+             * the month column is answered from the location and month index. Months come oldest
+             * first unless asked otherwise.
+             */
+      case CODE_HISTORY: {
+        cursor = mOpenHelper.getReadableDatabase().query(
+            WeatherContract.HistoryEntry.TABLE_NAME,
+            projection,
+            appendSelection(SELECTION_HISTORY_LOCATION, selection),
+            concat(new String[]{Long.toString(getLocationId(uri, false))}, selectionArgs),
+            null,
+            null,
+            sortOrder != null ? sortOrder : WeatherContract.HistoryEntry.COLUMN_MONTH + " ASC");
+
+        break;
+      }
+
+            /* One page of the months after the month at the end of the URI, oldest first */
+      case CODE_HISTORY_PAGE: {
+        if (sortOrder != null) {
+          throw new IllegalArgumentException("Pages are always in month order: " + uri);
+        }
+        String[] afterMonthArguments = new String[]{
+            Long.toString(getLocationId(uri, false)), uri.getLastPathSegment()};
+
+        cursor = mOpenHelper.getReadableDatabase().query(
+            WeatherContract.HistoryEntry.TABLE_NAME,
+            projection,
+            appendSelection(SELECTION_AFTER_MONTH, selection),
+            concat(afterMonthArguments, selectionArgs),
+            null,
+            null,
+            WeatherContract.HistoryEntry.COLUMN_MONTH + " ASC",
+            Integer.toString(parseLimit(uri)));
+
+        break;
+      }
+
+            /* Every location weather has been stored for, in the order they were first used */
+      case CODE_LOCATION: {
+        cursor = mOpenHelper.getReadableDatabase().query(
+            WeatherContract.LocationEntry.TABLE_NAME,
             projection,
             selection,
             selectionArgs,
             null,
             null,
-            sortOrder);
+            sortOrder != null ? sortOrder : WeatherContract.LocationEntry._ID + " ASC");
 
         break;
       }
@@ -287,7 +1627,13 @@ public class WeatherProvider extends ContentProvider {
         throw new UnsupportedOperationException("Unknown uri: " + uri);
     }
 
-    cursor.setNotificationUri(getContext().getContentResolver(), uri);
+    cursor.setNotificationUri(getContext().getContentResolver(), notificationUri);
+
+        /*
+         * getCount() runs the query of a SQLite cursor, which the caller's first move would
+         * have done anyway, so the latency includes filling the first window of rows.
+         */
+    mMetrics.record(ProviderMetrics.OPERATION_QUERY, match, startNanos, cursor.getCount());
     return cursor;
   }
 
@@ -302,27 +1648,49 @@ public class WeatherProvider extends ContentProvider {
   @Override
   public int delete(@NonNull Uri uri, String selection, String[] selectionArgs) {
 
+    final long startNanos = System.nanoTime();
+    final int match = sUriMatcher.match(uri);
+
         /* Users of the delete method will expect the number of rows deleted to be returned. */
     int numRowsDeleted;
+    long[] deletedDates;
 
-        /*
-         * If we pass null as the selection to SQLiteDatabase#delete, our entire table will be
-         * deleted. However, if we do pass null and delete all of the rows in the table, we won't
-         * know how many rows were deleted. According to the documentation for SQLiteDatabase,
-         * passing "1" for the selection will delete all rows and return the number of rows
-         * deleted, which is what the caller of this method expects.
-         */
-    if (null == selection) selection = "1";
+    switch (match) {
 
-    switch (sUriMatcher.match(uri)) {
+            /*
+             * The weather of the URI's location only. The location is always part of the
+             * selection, so even without a selection from the caller, SQLiteDatabase#delete
+             * returns the number of rows deleted, which is what the caller of this method
+             * expects.
+             */
+      case CODE_WEATHER: {
+        SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        String where = appendSelection(SELECTION_LOCATION, selection);
+        long locationId = getLocationId(uri, false);
+        String[] whereArgs = concat(new String[]{Long.toString(locationId)}, selectionArgs);
 
-      case CODE_WEATHER:
-        numRowsDeleted = mOpenHelper.getWritableDatabase().delete(
-            WeatherContract.WeatherEntry.TABLE_NAME,
-            selection,
-            selectionArgs);
+                /*
+                 * Find out which days are about to go, so only their observers are notified. If
+                 * there are too many to notify one by one, we don't need to know them all.
+                 */
+        db.beginTransaction();
+        try {
+          deletedDates = queryDates(db, where, whereArgs, MAX_DATE_NOTIFICATIONS + 1);
+          numRowsDeleted = db.delete(
+              WeatherContract.WeatherEntry.TABLE_NAME,
+              where,
+              whereArgs);
+                    /* Whatever is left of the forecast is no longer what the server sent */
+          if (numRowsDeleted > 0) {
+            WeatherFreshness.forget(db, locationId);
+          }
+          db.setTransactionSuccessful();
+        } finally {
+          db.endTransaction();
+        }
 
         break;
+      }
 
       default:
         throw new UnsupportedOperationException("Unknown uri: " + uri);
@@ -330,9 +1698,12 @@ public class WeatherProvider extends ContentProvider {
 
         /* If we actually deleted any rows, notify that a change has occurred to this URI */
     if (numRowsDeleted != 0) {
-      getContext().getContentResolver().notifyChange(uri, null);
+      refreshSnapshot();
+      notifyWeatherChanged(deletedDates, numRowsDeleted);
+      ForecastFreshness.clear(getContext());
     }
 
+    mMetrics.record(ProviderMetrics.OPERATION_DELETE, match, startNanos, numRowsDeleted);
     return numRowsDeleted;
   }
 
@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+
+import java.util.Arrays;
+
+/**
+ * An immutable copy of the stored weather of one location from one date onwards, which
+ * WeatherProvider answers the forecast list, the detail screen and the notification from without
+ * going to SQLite.
+ * <p>
+ * A snapshot belongs to one write generation of the provider. Any write makes it stale, and
+ * WeatherProvider replaces it rather than changing it, so it can be read from any thread.
+ */
+final class WeatherSnapshot {
+
+  /* Every column of the weather table, in table order. A null projection returns all of them. */
+  private static final String[] COLUMNS = {
+      WeatherEntry._ID,
+      WeatherEntry.COLUMN_LOCATION_ID,
+      WeatherEntry.COLUMN_DATE,
+      WeatherEntry.COLUMN_WEATHER_ID,
+      WeatherEntry.COLUMN_MIN_TEMP,
+      WeatherEntry.COLUMN_MAX_TEMP,
+      WeatherEntry.COLUMN_HUMIDITY,
+      WeatherEntry.COLUMN_PRESSURE,
+      WeatherEntry.COLUMN_WIND_SPEED,
+      WeatherEntry.COLUMN_DEGREES,
+  };
+
+  /*
+   * OWM forecasts are at most 16 days long. If far more days are stored from today onwards, as
+   * in stress tests, the snapshot gives up and leaves every query to SQLite.
+   */
+  private static final int MAX_DAYS = 64;
+
+  private static final int INDEX_ID          = 0;
+  private static final int INDEX_LOCATION_ID = 1;
+  private static final int INDEX_DATE        = 2;
+  private static final int INDEX_WEATHER_ID  = 3;
+
+  private final long mGeneration;
+  private final long mLocationId;
+  private final long mFirstDate;
+  private final boolean mComplete;
+
+  /* Ascending, for a binary search. mRows[i] is the row for mDates[i], in COLUMNS order. */
+  private final long[] mDates;
+  private final Object[][] mRows;
+
+  private WeatherSnapshot(long generation, long locationId, long firstDate, boolean complete,
+                          long[] dates, Object[][] rows) {
+    mGeneration = generation;
+    mLocationId = locationId;
+    mFirstDate = firstDate;
+    mComplete = complete;
+    mDates = dates;
+    mRows = rows;
+  }
+
+  /**
+   * Reads every stored day of a location from a date onwards, up to {@link #MAX_DAYS} days. The
+   * values are boxed once here, so building a cursor from the snapshot doesn't box them again.
+   *
+   * @param db         The weather database
+   * @param locationId The _ID of the location to copy the weather of
+   * @param firstDate  Normalized UTC date of the first day to copy
+   * @param generation The write generation of the provider before the read started
+   * @return The snapshot
+   */
+  static WeatherSnapshot load(SQLiteDatabase db, long locationId, long firstDate,
+                              long generation) {
+    Cursor cursor = db.query(
+        WeatherEntry.VIEW_NAME,
+        COLUMNS,
+        WeatherEntry.COLUMN_LOCATION_ID + " = ? AND " + WeatherEntry.COLUMN_DATE + " >= ?",
+        new String[]{Long.toString(locationId), Long.toString(firstDate)},
+        null,
+        null,
+        WeatherEntry.COLUMN_DATE + " ASC",
+        Integer.toString(MAX_DAYS + 1));
+
+    try {
+      int count = cursor.getCount();
+      if (count > MAX_DAYS) {
+        return new WeatherSnapshot(generation, locationId, firstDate, false, new long[0],
+            new Object[0][]);
+      }
+
+      long[] dates = new long[count];
+      Object[][] rows = new Object[count][];
+
+      for (int i = 0; cursor.moveToNext(); i++) {
+        Object[] row = new Object[COLUMNS.length];
+        row[INDEX_ID] = cursor.getLong(INDEX_ID);
+        row[INDEX_LOCATION_ID] = cursor.getLong(INDEX_LOCATION_ID);
+        row[INDEX_DATE] = cursor.getLong(INDEX_DATE);
+        row[INDEX_WEATHER_ID] = cursor.getInt(INDEX_WEATHER_ID);
+        for (int column = INDEX_WEATHER_ID + 1; column < COLUMNS.length; column++) {
+          row[column] = cursor.getDouble(column);
+        }
+        dates[i] = cursor.getLong(INDEX_DATE);
+        rows[i] = row;
+      }
+
+      return new WeatherSnapshot(generation, locationId, firstDate, true, dates, rows);
+    } finally {
+      cursor.close();
+    }
+  }
+
+  long getGeneration() {
+    return mGeneration;
+  }
+
+  long getLocationId() {
+    return mLocationId;
+  }
+
+  /**
+   * @return Whether every stored row for the date, and for every day after it, is in this
+   * snapshot
+   */
+  boolean covers(long date) {
+    return mComplete && date >= mFirstDate;
+  }
+
+  /**
+   * Builds a cursor over the days from a date onwards, in date order, or over that day only.
+   *
+   * @param projection The columns to return, or null for all of them
+   * @param date       Normalized UTC date of the first day, see {@link #covers(long)}
+   * @param singleDay  True to return the row of that date only
+   * @param limit      How many days to return at most
+   * @return The cursor, or null if the projection names a column that isn't in the table
+   */
+  Cursor query(String[] projection, long date, boolean singleDay, int limit) {
+    String[] columns = projection != null ? projection : COLUMNS;
+    int[] columnIndices = new int[columns.length];
+    for (int i = 0; i < columns.length; i++) {
+      columnIndices[i] = indexOfColumn(columns[i]);
+      if (columnIndices[i] == -1) {
+        return null;
+      }
+    }
+
+    int from = Arrays.binarySearch(mDates, date);
+    int to;
+    if (singleDay) {
+      to = from >= 0 ? from + 1 : 0;
+      from = Math.max(from, 0);
+    } else {
+      from = from >= 0 ? from : -from - 1;
+      to = mDates.length;
+    }
+    to = (int) Math.min(to, (long) from + limit);
+
+    MatrixCursor cursor = new MatrixCursor(columns, to - from);
+    for (int i = from; i < to; i++) {
+      Object[] row = mRows[i];
+      Object[] values = new Object[columnIndices.length];
+      for (int column = 0; column < columnIndices.length; column++) {
+        values[column] = row[columnIndices[column]];
+      }
+      cursor.addRow(values);
+    }
+    return cursor;
+  }
+
+  /* SQLite compares column names without regard to case, so we do too */
+  private static int indexOfColumn(String column) {
+    for (int i = 0; i < COLUMNS.length; i++) {
+      if (COLUMNS[i].equalsIgnoreCase(column)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+}
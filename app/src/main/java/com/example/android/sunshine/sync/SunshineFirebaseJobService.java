@@ -15,23 +15,24 @@
  */
 package com.example.android.sunshine.sync;
 
-import android.content.Context;
-import android.os.AsyncTask;
 import com.firebase.jobdispatcher.Job;
 import com.firebase.jobdispatcher.JobParameters;
 import com.firebase.jobdispatcher.JobService;
 import com.firebase.jobdispatcher.RetryStrategy;
 
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 
-public class SunshineFirebaseJobService extends JobService {
 
-  private AsyncTask<Void, Void, Void> mFetchWeatherTask;
+public class SunshineFirebaseJobService extends JobService {
 
-  @Override
-  public void onCreate() {
-    super.onCreate();
-    getApplicationContext();
-  }
+  /*
+   * The sync serving the current job, the callback that ends the job, and whether the job is
+   * over. Main thread only.
+   */
+  private Future<Void> mSync;
+  private Runnable mOnDone;
+  private AtomicBoolean mFinished;
 
   /**
    * The entry point to your Job. Implementations should offload work to another thread of
@@ -39,29 +40,26 @@ public class SunshineFirebaseJobService extends JobService {
    *
    * This is called by the Job Dispatcher to tell us we should start our job. Keep in mind this
    * method is run on the application's main thread, so we need to offload work to a background
-   * thread.
+   * thread. The sync runs on the executor of {@link SunshineSyncCoordinator}, and tells us
+   * when it is done, so no thread of ours waits for it.
    *
    * @return whether there is more work remaining.
    */
   @Override
   public boolean onStartJob(final JobParameters jobParameters) {
-
-    mFetchWeatherTask = new AsyncTask<Void, Void, Void>() {
+    final AtomicBoolean finished = new AtomicBoolean();
+    mFinished = finished;
+    mOnDone = new Runnable() {
       @Override
-      protected Void doInBackground(Void... voids) {
-        Context context = getApplicationContext();
-        SunshineSyncTask.syncWeather(context);
-        jobFinished(jobParameters, false);
-        return null;
-      }
-
-      @Override
-      protected void onPostExecute(Void aVoid) {
-        jobFinished(jobParameters, false);
+      public void run() {
+                /* Once per job, and never after onStopJob has ended it */
+        if (finished.compareAndSet(false, true)) {
+          jobFinished(jobParameters, false);
+        }
       }
     };
-
-    mFetchWeatherTask.execute();
+    mSync = SunshineSyncCoordinator.requestSync(this, SunshineSyncCoordinator.TRIGGER_JOB,
+        mOnDone);
     return true;
   }
 
@@ -75,8 +73,17 @@ public class SunshineFirebaseJobService extends JobService {
    */
   @Override
   public boolean onStopJob(JobParameters jobParameters) {
-    if (mFetchWeatherTask != null) {
-      mFetchWeatherTask.cancel(true);
+    if (mFinished != null) {
+      mFinished.set(true);
+    }
+    if (mSync != null) {
+            /*
+             * The sync may serve a request the user made too, so the job only stops waiting
+             * for it. Only if nobody else waits is it cancelled, which drops the connection and
+             * rolls back the write, so the thread is free at once.
+             */
+      SunshineSyncCoordinator.leaveSync(mSync, mOnDone);
+      mSync = null;
     }
     return true;
   }
@@ -0,0 +1,347 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.Context;
+import android.os.Process;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.v4.os.CancellationSignal;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Merges concurrent sync requests into a single fetch. Every trigger (the empty check in
+ * {@link SunshineSyncUtils#initialize(Context)}, the periodic job, a location change in the
+ * settings, ...) asks the coordinator for a sync instead of calling {@link SunshineSyncTask}
+ * itself. While a sync is pending or running, further requests get the same {@link Future}
+ * instead of starting another download.
+ * <p>
+ * A sync that has already started has read the location it downloads the forecast for. A
+ * trigger that has just changed that location ({@link #TRIGGER_SETTINGS}) therefore never
+ * joins a running sync, it joins (or queues) the next one. Syncs run one after another on a
+ * single background thread, so the newest location is always the last one written.
+ * <p>
+ * Syncs of the periodic job and of {@link #TRIGGER_REVALIDATE} skip the download while the
+ * stored forecast is fresh, see {@link SunshineSyncTask#syncWeather}. The other triggers ask for
+ * the weather because it is missing or has just changed, so they force the sync they join to
+ * download: a pending sync is forced when they join it, and they don't join a running sync
+ * that isn't forced already.
+ * <p>
+ * The returned future is shared by every caller that joined it. Cancelling it cancels the
+ * sync for all of them; a caller that only wants to stop waiting calls
+ * {@link #leaveSync(Future, Runnable)}, which cancels the sync only if nobody else shares it.
+ * Cancelling reaches the sync wherever it is, see {@link SunshineSyncTask#syncWeather}, so the
+ * sync thread is free again within milliseconds rather than when the socket times out.
+ * <p>
+ * The executor has one thread and room for one sync behind it, which is all the two slots
+ * below ever hold. Its thread exits after a while without syncs.
+ */
+public final class SunshineSyncCoordinator {
+
+  private static final String TAG = SunshineSyncCoordinator.class.getSimpleName();
+
+  /* What asked for a sync. Used as an index into the counters below. */
+  public static final int TRIGGER_IMMEDIATE  = 0;
+  public static final int TRIGGER_EMPTY      = 1;
+  public static final int TRIGGER_JOB        = 2;
+  public static final int TRIGGER_SETTINGS   = 3;
+  public static final int TRIGGER_REVALIDATE = 4;
+
+  private static final int TRIGGER_COUNT = 5;
+
+  /* How many syncs each trigger asked for, and how many of those joined an existing one */
+  private static final AtomicIntegerArray sRequested = new AtomicIntegerArray(TRIGGER_COUNT);
+  private static final AtomicIntegerArray sJoined    = new AtomicIntegerArray(TRIGGER_COUNT);
+
+  private static final long KEEP_ALIVE_SECONDS = 30;
+
+  private static final ThreadPoolExecutor sExecutor = new ThreadPoolExecutor(1, 1,
+      KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(1),
+      new ThreadFactory() {
+        @Override
+        public Thread newThread(@NonNull final Runnable runnable) {
+          return new Thread(new Runnable() {
+            @Override
+            public void run() {
+              Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+              runnable.run();
+            }
+          }, "SunshineSync");
+        }
+      });
+
+  static {
+    sExecutor.allowCoreThreadTimeOut(true);
+  }
+
+  private static final Object sLock = new Object();
+
+  /*
+   * The sync on the executor's thread, and the one waiting behind it. A cancelled sync keeps
+   * the running slot until its thread has unwound, but nobody joins it. Guarded by sLock.
+   */
+  private static SyncFuture sRunning;
+  private static SyncFuture sQueued;
+
+  private SunshineSyncCoordinator() {
+  }
+
+  /**
+   * Asks for the weather to be synced. Returns immediately; call {@link Future#get()} on the
+   * result to wait for the sync to finish.
+   *
+   * @param context Used to access the ContentResolver and preferences during the sync
+   * @param trigger One of the TRIGGER_* constants, describing what asked for the sync
+   * @return The sync that will serve this request, possibly shared with other callers
+   */
+  public static Future<Void> requestSync(@NonNull Context context, int trigger) {
+    return requestSync(context, trigger, null);
+  }
+
+  /**
+   * Same as {@link #requestSync(Context, int)}, but also runs the given callback once the sync
+   * serving this request is done, whether it completed, failed or was cancelled. The callback
+   * runs on the sync thread, or on the thread that cancelled the sync; if the sync is already
+   * done, it runs right away on the calling thread.
+   *
+   * @param context Used to access the ContentResolver and preferences during the sync
+   * @param trigger One of the TRIGGER_* constants, describing what asked for the sync
+   * @param onDone  Runs once the sync is done, or null
+   * @return The sync that will serve this request, possibly shared with other callers
+   */
+  public static Future<Void> requestSync(@NonNull Context context, int trigger,
+                                         @Nullable Runnable onDone) {
+    SyncFuture sync = obtainSync(context, trigger);
+    if (onDone != null) {
+      sync.addDoneListener(onDone);
+    }
+    return sync;
+  }
+
+  private static SyncFuture obtainSync(Context context, int trigger) {
+    if (trigger < 0 || trigger >= TRIGGER_COUNT) {
+      throw new IllegalArgumentException("Unknown sync trigger: " + trigger);
+    }
+
+    sRequested.incrementAndGet(trigger);
+    boolean force = isForcing(trigger);
+
+    synchronized (sLock) {
+            /*
+             * A sync that hasn't started yet will read the latest preferences and whether it is
+             * forced when it does, so any trigger can join it. A running one is only good for
+             * triggers that don't depend on what has just changed.
+             */
+      SyncFuture shared = sQueued;
+      if (shared == null && trigger != TRIGGER_SETTINGS && sRunning != null
+          && !sRunning.isDone() && (!force || sRunning.isForced())) {
+        shared = sRunning;
+      }
+
+      if (shared != null) {
+        if (force) shared.force();
+        shared.mClients++;
+        sJoined.incrementAndGet(trigger);
+        return shared;
+      }
+
+      SyncFuture sync = new SyncFuture(context.getApplicationContext(), force);
+      sync.mClients = 1;
+      sQueued = sync;
+
+            /* Cancelled syncs would otherwise hold the queue's only place until their turn */
+      sExecutor.purge();
+      try {
+        sExecutor.execute(sync);
+      } catch (RejectedExecutionException e) {
+        Log.e(TAG, "Sync executor is full", e);
+        sync.cancel(false);
+      }
+      return sync;
+    }
+  }
+
+  /**
+   * Stops waiting for a sync that {@link #requestSync} returned: the callback that was passed
+   * along is dropped, and the sync is cancelled only if no other request shares it. A caller
+   * leaves a sync at most once.
+   *
+   * @param sync   The sync returned for the caller's request
+   * @param onDone The callback passed with the request, or null
+   * @return Whether the sync was cancelled, because the caller was the last one waiting for it
+   */
+  public static boolean leaveSync(@NonNull Future<Void> sync, @Nullable Runnable onDone) {
+    SyncFuture shared = (SyncFuture) sync;
+    if (onDone != null) {
+      shared.removeDoneListener(onDone);
+    }
+
+        /* Under sLock, so no request can join the sync between the count and the cancel */
+    synchronized (sLock) {
+      if (--shared.mClients > 0) {
+        return false;
+      }
+      return shared.cancel(true);
+    }
+  }
+
+  /* Whether the trigger needs the weather downloaded, fresh or not */
+  private static boolean isForcing(int trigger) {
+    return trigger != TRIGGER_JOB && trigger != TRIGGER_REVALIDATE;
+  }
+
+  /**
+   * Returns how many syncs the given trigger has asked for since the process started.
+   *
+   * @param trigger One of the TRIGGER_* constants
+   */
+  public static int getRequestCount(int trigger) {
+    return sRequested.get(trigger);
+  }
+
+  /**
+   * Returns how many of the given trigger's requests were served by a sync that was already
+   * pending or running, i.e. how many downloads were avoided.
+   *
+   * @param trigger One of the TRIGGER_* constants
+   */
+  public static int getJoinedCount(int trigger) {
+    return sJoined.get(trigger);
+  }
+
+  /**
+   * A sync on the executor. It moves itself from the queued to the running slot when it
+   * starts, out of the queued slot if it is cancelled there, and out of the running slot once
+   * its thread is done with it.
+   */
+  private static final class SyncFuture extends FutureTask<Void> {
+
+    private final CancellationSignal mSignal;
+    private final AtomicBoolean mForce;
+
+    /* How many requests share the sync and haven't left it. Guarded by sLock. */
+    int mClients;
+
+    /* Guarded by this */
+    private final List<Runnable> mDoneListeners = new ArrayList<>();
+    private boolean mFinished;
+
+    SyncFuture(Context appContext, boolean force) {
+      this(appContext, new CancellationSignal(), new AtomicBoolean(force));
+    }
+
+    private SyncFuture(final Context appContext, final CancellationSignal signal,
+                       final AtomicBoolean force) {
+      super(new Callable<Void>() {
+        @Override
+        public Void call() {
+          SunshineSyncTask.syncWeather(appContext, signal, force.get());
+          return null;
+        }
+      });
+      mSignal = signal;
+      mForce = force;
+    }
+
+    /* Makes the sync download even if the stored forecast is fresh, unless it has started */
+    void force() {
+      mForce.set(true);
+    }
+
+    boolean isForced() {
+      return mForce.get();
+    }
+
+    void addDoneListener(Runnable listener) {
+      synchronized (this) {
+        if (!mFinished) {
+          mDoneListeners.add(listener);
+          return;
+        }
+      }
+      listener.run();
+    }
+
+    void removeDoneListener(Runnable listener) {
+      synchronized (this) {
+        mDoneListeners.remove(listener);
+      }
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+      boolean cancelled = super.cancel(mayInterruptIfRunning);
+      if (cancelled) {
+                /* Interrupting the thread doesn't stop a blocked socket read, the signal does */
+        mSignal.cancel();
+      }
+      return cancelled;
+    }
+
+    @Override
+    public void run() {
+      synchronized (sLock) {
+        if (sQueued == this) sQueued = null;
+        sRunning = this;
+      }
+      try {
+        super.run();
+      } finally {
+        synchronized (sLock) {
+          if (sRunning == this) sRunning = null;
+        }
+      }
+    }
+
+    @Override
+    protected void done() {
+      synchronized (sLock) {
+        if (sQueued == this) sQueued = null;
+      }
+
+      List<Runnable> listeners;
+      synchronized (this) {
+        mFinished = true;
+        listeners = new ArrayList<>(mDoneListeners);
+        mDoneListeners.clear();
+      }
+      for (Runnable listener : listeners) {
+        listener.run();
+      }
+
+      Log.d(TAG, "Sync done. Requested/joined: immediate "
+          + sRequested.get(TRIGGER_IMMEDIATE) + "/" + sJoined.get(TRIGGER_IMMEDIATE)
+          + ", empty " + sRequested.get(TRIGGER_EMPTY) + "/" + sJoined.get(TRIGGER_EMPTY)
+          + ", job " + sRequested.get(TRIGGER_JOB) + "/" + sJoined.get(TRIGGER_JOB)
+          + ", settings " + sRequested.get(TRIGGER_SETTINGS) + "/" + sJoined.get(TRIGGER_SETTINGS)
+          + ", revalidate " + sRequested.get(TRIGGER_REVALIDATE)
+          + "/" + sJoined.get(TRIGGER_REVALIDATE));
+    }
+  }
+}
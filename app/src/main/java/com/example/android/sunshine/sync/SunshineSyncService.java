@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.app.Service;
+import android.content.Intent;
+import android.os.IBinder;
+
+/**
+ * A started {@link Service} for immediate syncs. It keeps the process running while a sync it
+ * was asked for is under way, so leaving the app doesn't kill a download or a reconcile halfway.
+ * <p>
+ * Each start hands its trigger to {@link SunshineSyncCoordinator}, which may merge it into a
+ * sync that is already pending or running. No thread of the service waits for it: the sync
+ * stops the service with the start's id once it is done, and the service only stops for the
+ * id of its latest start.
+ */
+public class SunshineSyncService extends Service {
+
+  /* Tells the service which SunshineSyncCoordinator trigger started it */
+  static final String EXTRA_SYNC_TRIGGER = "sync_trigger";
+
+  @Override
+  public int onStartCommand(Intent intent, int flags, final int startId) {
+    int trigger = intent == null ? SunshineSyncCoordinator.TRIGGER_IMMEDIATE
+        : intent.getIntExtra(EXTRA_SYNC_TRIGGER, SunshineSyncCoordinator.TRIGGER_IMMEDIATE);
+
+    SunshineSyncCoordinator.requestSync(this, trigger, new Runnable() {
+      @Override
+      public void run() {
+        stopSelf(startId);
+      }
+    });
+
+        /* A sync lost with the process is requested again the next time it is needed */
+    return START_NOT_STICKY;
+  }
+
+  @Override
+  public IBinder onBind(Intent intent) {
+    return null;
+  }
+}
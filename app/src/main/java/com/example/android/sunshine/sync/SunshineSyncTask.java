@@ -15,18 +15,20 @@
  */
 package com.example.android.sunshine.sync;
 
-import android.content.ContentResolver;
-import android.content.ContentValues;
 import android.content.Context;
 import android.support.annotation.NonNull;
+import android.support.v4.os.CancellationSignal;
 import android.text.format.DateUtils;
 import android.util.Log;
 import com.example.android.sunshine.SunshineApp;
+import com.example.android.sunshine.data.ForecastBatch;
 import com.example.android.sunshine.data.SunshinePreferences;
-import com.example.android.sunshine.data.WeatherContract;
+import com.example.android.sunshine.data.WeatherProvider;
+import com.example.android.sunshine.utilities.HttpValidatorStore;
 import com.example.android.sunshine.utilities.NetworkUtils;
 import com.example.android.sunshine.utilities.NotificationUtils;
 import com.example.android.sunshine.utilities.OpenWeatherJsonUtils;
+import com.example.android.sunshine.utilities.SyncTelemetry;
 import com.google.android.gms.common.api.ResultCallback;
 import com.google.android.gms.wearable.DataApi;
 import com.google.android.gms.wearable.PutDataMapRequest;
@@ -34,7 +36,6 @@ import com.google.android.gms.wearable.PutDataRequest;
 import com.google.android.gms.wearable.Wearable;
 
 import java.net.URL;
-import java.util.Random;
 
 public class SunshineSyncTask {
 
@@ -43,53 +44,141 @@ public class SunshineSyncTask {
    * inserts the new weather information into our ContentProvider. Will notify the user that new
    * weather has been loaded if the user hasn't been notified of the weather within the last day
    * AND they haven't disabled notifications in the preferences screen.
+   * <p>
+   * This is not synchronized: callers go through {@link SunshineSyncCoordinator}, which runs
+   * one sync at a time and lets concurrent requests share it.
+   * <p>
+   * Cancelling the signal stops the sync wherever it is: the connection is dropped, so a blocked
+   * read fails at once, the parser stops before the next day and the database transaction is
+   * rolled back. Nothing is stored and no validators are saved for a cancelled sync.
+   * <p>
+   * Every sync, whatever its outcome, leaves a record of its stages in {@link SyncTelemetry}.
+   * <p>
+   * Unless forced, a sync doesn't go to the network while the server has sent or confirmed the
+   * stored forecast within the last {@link SunshineSyncUtils#FRESHNESS_TTL_MILLIS}. The stored
+   * forecast is shown in the meantime anyway, so that is all a revalidation can skip.
    *
    * @param context Used to access utility methods and the ContentResolver
+   * @param signal  Cancels the sync
+   * @param force   True to download even if the stored forecast is fresh
    */
-  synchronized public static void syncWeather(Context context) {
+  static void syncWeather(Context context, @NonNull CancellationSignal signal, boolean force) {
     SunshineApp app = null;
     if (context instanceof SunshineApp) {
       app = (SunshineApp) context;
     }
 
+    SyncTelemetry.Trace trace = SyncTelemetry.startTrace();
+    int outcome = SyncTelemetry.OUTCOME_FAILED;
     try {
+            /*
+             * The forecast is stored for the location it was downloaded for, even if the user
+             * picks another one while the download runs.
+             */
+      String locationSetting = SunshinePreferences.getPreferredWeatherLocation(context);
+
+      if (!force) {
+        long age = System.currentTimeMillis()
+            - WeatherProvider.getCheckedMillis(context, locationSetting);
+                /* Not synced yet gives a huge age, a clock set back a negative one */
+        if (age >= 0 && age < SunshineSyncUtils.FRESHNESS_TTL_MILLIS) {
+          Log.i("SunshineSyncTask", "Weather checked " + age / DateUtils.MINUTE_IN_MILLIS
+              + " min ago, skipping sync.");
+          outcome = SyncTelemetry.OUTCOME_FRESH;
+          return;
+        }
+      }
+
             /*
              * The getUrl method will return the URL that we need to get the forecast JSON for the
              * weather. It will decide whether to create a URL based off of the latitude and
              * longitude or off of a simple location as a String.
              */
-      URL weatherRequestUrl = NetworkUtils.getUrl(context);
+      trace.begin(SyncTelemetry.STAGE_URL);
+      URL primaryUrl = NetworkUtils.getUrl(context);
+      URL alternateUrl = NetworkUtils.getAlternateUrl(context);
+      trace.end(0);
 
-            /* Use the URL to retrieve the JSON */
-      String jsonWeatherResponse = NetworkUtils.getResponseFromHttpUrl(weatherRequestUrl);
+            /*
+             * Use the URL to retrieve the JSON. The request carries the validators of the last
+             * forecast we stored, so an unchanged forecast is answered with 304 Not Modified.
+             * If the server is slower to answer than it usually is, the alternate endpoint is
+             * asked as well, and whichever answers first is used.
+             */
+      trace.begin(SyncTelemetry.STAGE_CONNECT);
+      NetworkUtils.Response weatherResponse = NetworkUtils.getHedgedResponseFromHttpUrl(context,
+          primaryUrl, alternateUrl, NetworkUtils.getHedgeDelayMillis(primaryUrl), signal);
+      URL weatherRequestUrl = weatherResponse.getUrl();
+      trace.end(0);
 
-            /* Parse the JSON into a list of weather values */
-      ContentValues[] weatherValues = OpenWeatherJsonUtils
-          .getWeatherContentValuesFromJson(context, jsonWeatherResponse);
+      ForecastBatch forecast;
+      try {
+                /* Nothing changed on the server, so there is nothing to parse, store or send */
+        if (weatherResponse.isNotModified()) {
+          Log.i("SunshineSyncTask", "Weather not modified, skipping sync.");
+          WeatherProvider.markChecked(context, locationSetting);
+          SyncScheduler.create(context).onSyncFinished(locationSetting, 0, 0);
+          outcome = SyncTelemetry.OUTCOME_NOT_MODIFIED;
+          return;
+        }
+
+                /*
+                 * Parse the JSON into a batch of weather values. The parser reads straight from
+                 * the (decompressing) network stream, so the body is never held as one String.
+                 */
+        trace.begin(SyncTelemetry.STAGE_PARSE);
+        forecast = OpenWeatherJsonUtils.getForecastFromJson(context, weatherResponse, signal);
+        trace.end(forecast == null ? 0 : forecast.size());
+
+                /* The time the parser spent waiting for the network was the download */
+        trace.split(SyncTelemetry.STAGE_PARSE, SyncTelemetry.STAGE_DOWNLOAD,
+            weatherResponse.getReadNanos(), weatherResponse.getBytesRead());
+      } finally {
+        weatherResponse.close();
+      }
 
       /*
-       * In cases where our JSON contained an error code, getWeatherContentValuesFromJson
-       * would have returned null. We need to check for those cases here to prevent any
+       * In cases where our JSON contained an error code, getForecastFromJson would have
+       * returned null. We need to check for those cases here to prevent any
        * NullPointerExceptions being thrown. We also have no reason to insert fresh data if
        * there isn't any to insert.
        */
-      if (weatherValues != null && weatherValues.length != 0) {
+      if (forecast != null && forecast.size() != 0) {
         // send update to wear device
-        sendDataItems(app, weatherValues[0]);
+        trace.begin(SyncTelemetry.STAGE_WEAR);
+        trace.end(sendDataItems(app, forecast) ? 1 : 0);
 
-        /* Get a handle on the ContentResolver to delete and insert data */
-        ContentResolver sunshineContentResolver = context.getContentResolver();
+                /*
+                 * The stored forecast is about to change. If anything below fails, the old
+                 * validators must not be able to turn the next sync into a 304. Neither may
+                 * those of the other endpoint, whose forecast is no longer the stored one.
+                 */
+        HttpValidatorStore.forget(context, primaryUrl);
+        HttpValidatorStore.forget(context, alternateUrl);
 
-                /* Delete old weather data because we don't need to keep multiple days' data */
-        sunshineContentResolver.delete(
-            WeatherContract.WeatherEntry.CONTENT_URI,
-            null,
-            null);
+                /*
+                 * Make Sunshine's ContentProvider hold the new forecast. Only the days that
+                 * changed are written and days that are no longer in the forecast are dropped,
+                 * so a stable forecast causes no writes and no requery of the forecast list.
+                 */
+        int rowsChanged =
+            WeatherProvider.reconcile(context, locationSetting, forecast, signal, trace);
 
-                /* Insert our new weather data into Sunshine's ContentProvider */
-        sunshineContentResolver.bulkInsert(
-            WeatherContract.WeatherEntry.CONTENT_URI,
-            weatherValues);
+                /*
+                 * How much of the forecast changed since the last sync decides when the next
+                 * periodic sync runs.
+                 */
+        SyncScheduler.create(context).onSyncFinished(locationSetting, rowsChanged,
+            forecast.size());
+
+                /*
+                 * Only now that the forecast is stored do we remember its validators. The next
+                 * request for the same URL can then be answered with 304 Not Modified.
+                 */
+        HttpValidatorStore.save(context,
+            weatherRequestUrl,
+            weatherResponse.getETag(),
+            weatherResponse.getLastModified());
 
                 /*
                  * Finally, after we insert data into the ContentProvider, determine whether or not
@@ -116,27 +205,46 @@ public class SunshineSyncTask {
                  * haven't shown a notification in the past day.
                  */
         if (notificationsEnabled && oneDayPassedSinceLastNotification) {
+          trace.begin(SyncTelemetry.STAGE_NOTIFY);
           NotificationUtils.notifyUserOfNewWeather(context);
+          trace.end(0);
         }
 
             /* If the code reaches this point, we have successfully performed our sync */
-
+        outcome = SyncTelemetry.OUTCOME_SUCCESS;
+      } else {
+        outcome = SyncTelemetry.OUTCOME_NO_DATA;
       }
 
     } catch (Exception e) {
-            /* Server probably invalid */
-      e.printStackTrace();
+            /*
+             * A cancelled sync fails with whatever the dropped connection or the signal threw.
+             * Nobody waits for its result any more, so there is nothing to report.
+             */
+      if (signal.isCanceled()) {
+        outcome = SyncTelemetry.OUTCOME_CANCELLED;
+        Log.i("SunshineSyncTask", "Sync cancelled.");
+        return;
+      }
+            /* Server probably invalid. The telemetry records the stage it failed in. */
+      Log.e("SunshineSyncTask", "Sync failed.", e);
+    } finally {
+      trace.finish(outcome);
     }
   }
 
-  private static void sendDataItems(SunshineApp app, ContentValues todaysVals) {
-    if (app == null) return;
+  /**
+   * @return true if the forecast was handed to the Wearable API
+   */
+  private static boolean sendDataItems(SunshineApp app, ForecastBatch forecast) {
+    if (app == null) return false;
 
     Log.i("SunshineSyncTask", "Sending data items.");
 
-    double max = todaysVals.getAsDouble(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP);
-    double min = todaysVals.getAsDouble(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP);
-    int weather = todaysVals.getAsInteger(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID);
+    /* The first day of the forecast is today */
+    double max = forecast.getMaxTemp(0);
+    double min = forecast.getMinTemp(0);
+    int weather = forecast.getWeatherId(0);
 
     PutDataMapRequest putDataMapRequest = PutDataMapRequest.create("/weather-info");
     putDataMapRequest.getDataMap().putDouble("temp-max", max);
@@ -156,6 +264,7 @@ public class SunshineSyncTask {
             }
           }
         });
+    return true;
   }
 
 }
\ No newline at end of file
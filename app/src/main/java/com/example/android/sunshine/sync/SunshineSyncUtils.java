@@ -20,7 +20,10 @@ import android.content.Intent;
 import android.database.Cursor;
 import android.net.Uri;
 import android.support.annotation.NonNull;
+import com.example.android.sunshine.data.ForecastFreshness;
+import com.example.android.sunshine.data.SunshinePreferences;
 import com.example.android.sunshine.data.WeatherContract;
+import com.example.android.sunshine.utilities.HttpValidatorStore;
 import com.firebase.jobdispatcher.*;
 
 import java.util.concurrent.TimeUnit;
@@ -28,30 +31,54 @@ import java.util.concurrent.TimeUnit;
 public class SunshineSyncUtils {
 
   /*
-   * Interval at which to sync with the weather. Use TimeUnit for convenience, rather than
-   * writing out a bunch of multiplication ourselves and risk making a silly mistake.
+   * Interval at which to sync with the weather before SyncScheduler has measured how often the
+   * forecast changes, and the bounds it adapts the interval within. Use TimeUnit for
+   * convenience, rather than writing out a bunch of multiplication ourselves and risk making a
+   * silly mistake.
    */
-  private static final int SYNC_INTERVAL_HOURS   = 3;
-  private static final int SYNC_INTERVAL_SECONDS = (int) TimeUnit.SECONDS.toSeconds(SYNC_INTERVAL_HOURS);
-  private static final int SYNC_FLEXTIME_SECONDS = SYNC_INTERVAL_SECONDS / 3;
+  private static final int SYNC_INTERVAL_HOURS = 3;
+
+  static final int SYNC_INTERVAL_SECONDS     = (int) TimeUnit.HOURS.toSeconds(SYNC_INTERVAL_HOURS);
+  static final int MIN_SYNC_INTERVAL_SECONDS = (int) TimeUnit.HOURS.toSeconds(1);
+  static final int MAX_SYNC_INTERVAL_SECONDS = (int) TimeUnit.HOURS.toSeconds(12);
+
+  /*
+   * How long a forecast the server has sent or confirmed is served without asking it again.
+   * Within this time, only a sync that has to fill an empty list goes to the network.
+   */
+  static final long FRESHNESS_TTL_MILLIS = TimeUnit.MINUTES.toMillis(30);
 
   private static boolean sInitialized;
 
   private static final String SUNSHINE_SYNC_TAG = "sunshine-sync";
 
+  /* Past weather is compacted about once a day, see WeatherHistory */
+  private static final int COMPACTION_INTERVAL_SECONDS = (int) TimeUnit.DAYS.toSeconds(1);
+  private static final int COMPACTION_FLEXTIME_SECONDS = (int) TimeUnit.HOURS.toSeconds(6);
+
+  private static final String SUNSHINE_COMPACTION_TAG = "sunshine-history-compaction";
+
   /**
-   * Schedules a repeating sync of Sunshine's weather data using FirebaseJobDispatcher.
+   * Schedules a repeating sync of Sunshine's weather data using FirebaseJobDispatcher, at the
+   * interval SyncScheduler has adapted to how often the forecast changes.
    *
    * @param context Context used to create the GooglePlayDriver that powers the
    *                FirebaseJobDispatcher
    */
   static void scheduleFirebaseJobDispatcherSync(@NonNull final Context context) {
+    SyncScheduler.create(context).schedule();
+  }
 
-    Driver driver = new GooglePlayDriver(context);
-    FirebaseJobDispatcher dispatcher = new FirebaseJobDispatcher(driver);
+  /**
+   * Builds the periodic sync job. It replaces the one that is scheduled, if any.
+   *
+   * @param dispatcher      The dispatcher the job will be scheduled with
+   * @param intervalSeconds How often the job should run
+   */
+  static Job buildSyncJob(@NonNull FirebaseJobDispatcher dispatcher, int intervalSeconds) {
 
         /* Create the Job to periodically sync Sunshine */
-    Job syncSunshineJob = dispatcher.newJobBuilder()
+    return dispatcher.newJobBuilder()
                 /* The Service that will be used to sync Sunshine's data */
         .setService(SunshineFirebaseJobService.class)
                 /* Set the UNIQUE tag used to identify this Job */
@@ -73,15 +100,16 @@ public class SunshineSyncUtils {
                  */
         .setRecurring(true)
                 /*
-                 * We want the weather data to be synced every 3 to 4 hours. The first argument for
-                 * Trigger's static executionWindow method is the start of the time frame when the
-                 * sync should be performed. The second argument is the latest point in time at
-                 * which the data should be synced. Please note that this end time is not
-                 * guaranteed, but is more of a guideline for FirebaseJobDispatcher to go off of.
+                 * We want the weather data to be synced once per interval, give or take a third
+                 * of it. The first argument for Trigger's static executionWindow method is the
+                 * start of the time frame when the sync should be performed. The second argument
+                 * is the latest point in time at which the data should be synced. Please note
+                 * that this end time is not guaranteed, but is more of a guideline for
+                 * FirebaseJobDispatcher to go off of.
                  */
         .setTrigger(Trigger.executionWindow(
-            SYNC_INTERVAL_SECONDS,
-            SYNC_INTERVAL_SECONDS + SYNC_FLEXTIME_SECONDS))
+            intervalSeconds,
+            intervalSeconds + intervalSeconds / 3))
                 /*
                  * If a Job with the tag with provided already exists, this new job will replace
                  * the old one.
@@ -89,9 +117,31 @@ public class SunshineSyncUtils {
         .setReplaceCurrent(true)
                 /* Once the Job is ready, call the builder's build method to return the Job */
         .build();
+  }
 
-        /* Schedule the Job with the dispatcher */
-    dispatcher.schedule(syncSunshineJob);
+  /**
+   * Schedules the daily compaction of past weather into monthly history. It only runs while
+   * the device is charging, as it rewrites up to a month of rows at a time.
+   *
+   * @param context Context used to create the GooglePlayDriver that powers the
+   *                FirebaseJobDispatcher
+   */
+  static void scheduleHistoryCompaction(@NonNull final Context context) {
+    FirebaseJobDispatcher dispatcher = new FirebaseJobDispatcher(new GooglePlayDriver(context));
+
+    Job compactionJob = dispatcher.newJobBuilder()
+        .setService(WeatherCompactionJobService.class)
+        .setTag(SUNSHINE_COMPACTION_TAG)
+        .setConstraints(Constraint.DEVICE_CHARGING)
+        .setLifetime(Lifetime.FOREVER)
+        .setRecurring(true)
+        .setTrigger(Trigger.executionWindow(
+            COMPACTION_INTERVAL_SECONDS,
+            COMPACTION_INTERVAL_SECONDS + COMPACTION_FLEXTIME_SECONDS))
+        .setReplaceCurrent(true)
+        .build();
+
+    dispatcher.schedule(compactionJob);
   }
 
   /**
@@ -116,6 +166,36 @@ public class SunshineSyncUtils {
          * periodically.
          */
     scheduleFirebaseJobDispatcherSync(context);
+    scheduleHistoryCompaction(context);
+
+    startImmediateSyncIfEmpty(context, SunshineSyncCoordinator.TRIGGER_EMPTY);
+  }
+
+  /**
+   * Starts an immediate sync if nothing is stored for the location of the settings from today
+   * onwards. The weather of every location the user has picked is kept, so switching back to
+   * one of them shows its stored forecast at once.
+   * <p>
+   * A stored forecast is served as it is, and revalidated in the background: a
+   * {@link SunshineSyncCoordinator#TRIGGER_REVALIDATE} sync only goes to the network once the
+   * server last sent or confirmed the forecast of the location more than
+   * {@link #FRESHNESS_TTL_MILLIS} ago, which it reads from the freshness table, and joins any
+   * sync already pending.
+   * <p>
+   * Usually the last stored forecast still covers today, and {@link ForecastFreshness} says so
+   * without a thread or a query. Otherwise one row of the first page from today is enough to
+   * tell.
+   *
+   * @param context Context used to access the ContentResolver and start the sync
+   * @param trigger One of the SunshineSyncCoordinator.TRIGGER_* constants
+   */
+  public static void startImmediateSyncIfEmpty(@NonNull final Context context,
+                                               final int trigger) {
+    String location = SunshinePreferences.getPreferredWeatherLocation(context);
+    if (ForecastFreshness.hasForecastFromToday(context, location)) {
+      startImmediateSync(context, SunshineSyncCoordinator.TRIGGER_REVALIDATE);
+      return;
+    }
 
         /*
          * We need to check to see if our ContentProvider has data to display in our forecast
@@ -127,24 +207,24 @@ public class SunshineSyncUtils {
       @Override
       public void run() {
 
-                /* URI for every row of weather data in our weather table*/
-        Uri forecastQueryUri = WeatherContract.WeatherEntry.CONTENT_URI;
+                /*
+                 * A page of a single day from today onwards. Its LIMIT stops the query at the
+                 * first row the index seek finds, rather than reading every day to count them.
+                 */
+        Uri forecastQueryUri = WeatherContract.WeatherEntry.buildWeatherPageUriFromToday(1);
 
                 /*
                  * Since this query is going to be used only as a check to see if we have any
-                 * data (rather than to display data), we just need to PROJECT the ID of each
-                 * row. In our queries where we display data, we need to PROJECT more columns
-                 * to determine what weather details need to be displayed.
+                 * data (rather than to display data), we just need to PROJECT the ID of the
+                 * row.
                  */
         String[] projectionColumns = {WeatherContract.WeatherEntry._ID};
-        String selectionStatement = WeatherContract.WeatherEntry
-            .getSqlSelectForTodayOnwards();
 
                 /* Here, we perform the query to check to see if we have any weather data */
         Cursor cursor = context.getContentResolver().query(
             forecastQueryUri,
             projectionColumns,
-            selectionStatement,
+            null,
             null,
             null);
                 /*
@@ -161,12 +241,19 @@ public class SunshineSyncUtils {
                  * If the Cursor was null OR if it was empty, we need to sync immediately to
                  * be able to display data to the user.
                  */
-        if (null == cursor || cursor.getCount() == 0) {
-          startImmediateSync(context);
+        if (null == cursor || !cursor.moveToFirst()) {
+                    /*
+                     * Without stored data, the validators of the last download are worthless:
+                     * a 304 would leave the list empty. Forget them to force a full download.
+                     */
+          HttpValidatorStore.clear(context);
+          startImmediateSync(context, trigger);
+        } else {
+          startImmediateSync(context, SunshineSyncCoordinator.TRIGGER_REVALIDATE);
         }
 
                 /* Make sure to close the Cursor to avoid memory leaks! */
-        cursor.close();
+        if (cursor != null) cursor.close();
       }
     });
 
@@ -175,13 +262,27 @@ public class SunshineSyncUtils {
   }
 
   /**
-   * Helper method to perform a sync immediately using an IntentService for asynchronous
-   * execution.
+   * Helper method to perform a sync immediately using {@link SunshineSyncService}, which keeps
+   * the process running until the sync is done.
    *
-   * @param context The Context used to start the IntentService for the sync.
+   * @param context The Context used to start the Service for the sync.
    */
   public static void startImmediateSync(@NonNull final Context context) {
-    Intent intentToSyncImmediately = new Intent(context, SunshineSyncIntentService.class);
+    startImmediateSync(context, SunshineSyncCoordinator.TRIGGER_IMMEDIATE);
+  }
+
+  /**
+   * Same as {@link #startImmediateSync(Context)}, but records what asked for the sync so the
+   * coordinator can tell which requests it merged. The service hands the request to the
+   * coordinator without waiting for it, so a request joins a sync that is already pending or
+   * running.
+   *
+   * @param context The Context used to start the Service for the sync.
+   * @param trigger One of the SunshineSyncCoordinator.TRIGGER_* constants.
+   */
+  public static void startImmediateSync(@NonNull final Context context, int trigger) {
+    Intent intentToSyncImmediately = new Intent(context, SunshineSyncService.class);
+    intentToSyncImmediately.putExtra(SunshineSyncService.EXTRA_SYNC_TRIGGER, trigger);
     context.startService(intentToSyncImmediately);
   }
-}
\ No newline at end of file
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.support.annotation.NonNull;
+import android.util.Log;
+import com.firebase.jobdispatcher.Driver;
+import com.firebase.jobdispatcher.FirebaseJobDispatcher;
+import com.firebase.jobdispatcher.GooglePlayDriver;
+
+/**
+ * Chooses how often the periodic sync runs from how much the forecast changed between the last
+ * two syncs. While the forecast comes back unchanged, the interval doubles after every sync; when
+ * so much of it changes that most of it would be stale by the next sync, the interval halves.
+ * Either way it stays between the bounds it was created with.
+ * <p>
+ * The interval and the last sync are kept in their own preferences file, so the schedule
+ * survives the process and a reboot. The job is only rescheduled when the interval changes,
+ * since rescheduling it restarts its execution window.
+ */
+public final class SyncScheduler {
+
+  private static final String TAG = SyncScheduler.class.getSimpleName();
+
+  /* The schedule lives in its own file so clearing it never touches the user's settings */
+  private static final String PREFS_NAME = "sync_schedule";
+
+  private static final String KEY_INTERVAL_SECONDS = "interval_seconds";
+  private static final String KEY_LAST_SYNC_MILLIS = "last_sync_millis";
+  private static final String KEY_LAST_LOCATION    = "last_location";
+
+  /*
+   * The share of the forecast that may change within one interval before the interval is
+   * halved. A sync that changes less than this, but something, keeps the interval as it is.
+   */
+  static final double VOLATILE_FRACTION = 0.5;
+
+  /**
+   * Where the scheduler reads the time. Tests replace it to step through syncs without
+   * waiting for them.
+   */
+  public interface Clock {
+
+    /**
+     * @return The current wall clock time in milliseconds. The schedule is kept across
+     * reboots, so this must not be a clock that restarts with the device.
+     */
+    long currentTimeMillis();
+  }
+
+  static final Clock SYSTEM_CLOCK = new Clock() {
+    @Override
+    public long currentTimeMillis() {
+      return System.currentTimeMillis();
+    }
+  };
+
+  private final SharedPreferences mPreferences;
+  private final FirebaseJobDispatcher mDispatcher;
+  private final Clock mClock;
+
+  private final int mMinIntervalSeconds;
+  private final int mDefaultIntervalSeconds;
+  private final int mMaxIntervalSeconds;
+
+  /**
+   * @param context                Used to access SharedPreferences
+   * @param driver                 What the sync job is scheduled with
+   * @param clock                  Where the time of each sync is read
+   * @param minIntervalSeconds     The shortest interval the sync may run at
+   * @param defaultIntervalSeconds The interval before any sync has been measured
+   * @param maxIntervalSeconds     The longest interval the sync may run at
+   */
+  SyncScheduler(@NonNull Context context, @NonNull Driver driver, @NonNull Clock clock,
+                int minIntervalSeconds, int defaultIntervalSeconds, int maxIntervalSeconds) {
+    if (minIntervalSeconds <= 0 || minIntervalSeconds > defaultIntervalSeconds
+        || defaultIntervalSeconds > maxIntervalSeconds) {
+      throw new IllegalArgumentException("Bounds must satisfy 0 < min <= default <= max");
+    }
+    mPreferences = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    mDispatcher = new FirebaseJobDispatcher(driver);
+    mClock = clock;
+    mMinIntervalSeconds = minIntervalSeconds;
+    mDefaultIntervalSeconds = defaultIntervalSeconds;
+    mMaxIntervalSeconds = maxIntervalSeconds;
+  }
+
+  /**
+   * Creates the scheduler of the app's sync job, with the bounds of SunshineSyncUtils.
+   *
+   * @param context Used to create the GooglePlayDriver and to access SharedPreferences
+   */
+  public static SyncScheduler create(@NonNull Context context) {
+    return new SyncScheduler(context, new GooglePlayDriver(context), SYSTEM_CLOCK,
+        SunshineSyncUtils.MIN_SYNC_INTERVAL_SECONDS,
+        SunshineSyncUtils.SYNC_INTERVAL_SECONDS,
+        SunshineSyncUtils.MAX_SYNC_INTERVAL_SECONDS);
+  }
+
+  /**
+   * @return The interval the sync job runs at, in seconds
+   */
+  public int getIntervalSeconds() {
+    int interval = mPreferences.getInt(KEY_INTERVAL_SECONDS, mDefaultIntervalSeconds);
+    return clamp(interval);
+  }
+
+  /**
+   * Schedules the sync job at the current interval, replacing the one that is scheduled.
+   */
+  public void schedule() {
+    mDispatcher.schedule(SunshineSyncUtils.buildSyncJob(mDispatcher, getIntervalSeconds()));
+  }
+
+  /**
+   * Records the outcome of a sync that completed, and reschedules the sync job if the outcome
+   * moves the interval. Syncs that failed shouldn't be recorded: they say nothing about the
+   * forecast.
+   * <p>
+   * The first sync of a location, such as the one right after the user picks another one, is
+   * only recorded as the starting point. Replacing one location's forecast with another's
+   * isn't the forecast changing. Syncs run one at a time, see SunshineSyncCoordinator, so
+   * outcomes are recorded in order.
+   *
+   * @param locationSetting The location the forecast was synced for
+   * @param changedRows     How many days of the stored forecast were written or deleted
+   * @param forecastDays    How many days the forecast has, or 0 if it came back unchanged
+   *                        without being downloaded
+   * @return The interval the sync job runs at from now on, in seconds
+   */
+  public int onSyncFinished(@NonNull String locationSetting, int changedRows, int forecastDays) {
+    long now = mClock.currentTimeMillis();
+    long lastSyncMillis = mPreferences.getLong(KEY_LAST_SYNC_MILLIS, -1);
+    String lastLocation = mPreferences.getString(KEY_LAST_LOCATION, null);
+    int interval = getIntervalSeconds();
+
+    int nextInterval = interval;
+    if (locationSetting.equals(lastLocation)) {
+      nextInterval = nextInterval(interval, changedRows, forecastDays, now - lastSyncMillis);
+    }
+
+    mPreferences.edit()
+        .putInt(KEY_INTERVAL_SECONDS, nextInterval)
+        .putLong(KEY_LAST_SYNC_MILLIS, now)
+        .putString(KEY_LAST_LOCATION, locationSetting)
+        .apply();
+
+    if (nextInterval != interval) {
+      Log.i(TAG, "Sync interval changed from " + interval + " s to " + nextInterval + " s after "
+          + changedRows + " of " + forecastDays + " days changed");
+      mDispatcher.schedule(SunshineSyncUtils.buildSyncJob(mDispatcher, nextInterval));
+    }
+    return nextInterval;
+  }
+
+  /**
+   * Forgets the measured interval and the last sync, so the next sync starts over from the
+   * default interval.
+   */
+  void reset() {
+    mPreferences.edit().clear().apply();
+  }
+
+  /**
+   * Projects the share of the forecast that changed since the last sync onto one interval. A
+   * sync that ran early or late is scaled to the interval, so a forecast that changes at a
+   * steady rate keeps its interval however the dispatcher placed the syncs in their windows.
+   */
+  private int nextInterval(int interval, int changedRows, int forecastDays, long elapsedMillis) {
+    if (changedRows <= 0 || forecastDays <= 0) {
+      return clamp((int) Math.min(Integer.MAX_VALUE, interval * 2L));
+    }
+
+    double changedFraction = Math.min(1.0, (double) changedRows / forecastDays);
+    double elapsedSeconds = elapsedMillis > 0 ? elapsedMillis / 1000.0 : interval;
+    double fractionPerInterval = changedFraction * interval / elapsedSeconds;
+
+    if (fractionPerInterval >= VOLATILE_FRACTION) {
+      return clamp(interval / 2);
+    }
+    return interval;
+  }
+
+  private int clamp(int intervalSeconds) {
+    return Math.max(mMinIntervalSeconds, Math.min(mMaxIntervalSeconds, intervalSeconds));
+  }
+}
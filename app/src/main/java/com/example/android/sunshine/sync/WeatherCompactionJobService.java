@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.os.Process;
+import android.support.annotation.NonNull;
+import android.util.Log;
+import com.example.android.sunshine.data.WeatherHistory;
+import com.example.android.sunshine.data.WeatherProvider;
+import com.firebase.jobdispatcher.JobParameters;
+import com.firebase.jobdispatcher.JobService;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs {@link WeatherHistory}'s compaction once a day, while the device is charging, so past
+ * weather is folded into monthly aggregates without competing with the user for the disk.
+ * <p>
+ * The compaction runs on a background thread of its own, like the syncs of
+ * {@link SunshineSyncCoordinator}, which exits after a while without work.
+ */
+public class WeatherCompactionJobService extends JobService {
+
+  private static final String TAG = WeatherCompactionJobService.class.getSimpleName();
+
+  private static final long KEEP_ALIVE_SECONDS = 30;
+
+  private static final ThreadPoolExecutor sExecutor = new ThreadPoolExecutor(1, 1,
+      KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+      new ThreadFactory() {
+        @Override
+        public Thread newThread(@NonNull final Runnable runnable) {
+          return new Thread(new Runnable() {
+            @Override
+            public void run() {
+              Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+              runnable.run();
+            }
+          }, "WeatherCompaction");
+        }
+      });
+
+  static {
+    sExecutor.allowCoreThreadTimeOut(true);
+  }
+
+  /* The compaction serving the current job, and whether the job is over. Main thread only. */
+  private Future<?> mCompaction;
+  private AtomicBoolean mFinished;
+
+  @Override
+  public boolean onStartJob(final JobParameters jobParameters) {
+    final AtomicBoolean finished = new AtomicBoolean();
+    mFinished = finished;
+    mCompaction = sExecutor.submit(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          WeatherProvider.compactHistory(getApplicationContext());
+        } catch (RuntimeException e) {
+          Log.e(TAG, "History compaction failed", e);
+        } finally {
+                    /* Once per job, and never after onStopJob has ended it */
+          if (finished.compareAndSet(false, true)) {
+            jobFinished(jobParameters, false);
+          }
+        }
+      }
+    });
+    return true;
+  }
+
+  /**
+   * The compaction runs in one transaction, so an interrupted run leaves nothing half done. A
+   * compaction that hasn't started yet doesn't run at all; one that has is left to commit. It is
+   * simply tried again on the next day.
+   */
+  @Override
+  public boolean onStopJob(JobParameters jobParameters) {
+    if (mFinished != null) {
+      mFinished.set(true);
+    }
+    if (mCompaction != null) {
+      mCompaction.cancel(false);
+    }
+    return false;
+  }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.net.URL;
+
+/**
+ * Remembers the HTTP validators (ETag and Last-Modified) the weather server sent along with the
+ * last forecast we stored, keyed by the request URL. They are sent back on the next request so
+ * the server can answer with 304 Not Modified instead of the whole forecast.
+ * <p>
+ * Validators should only be saved once the forecast they belong to has been written to the
+ * database. Otherwise a 304 could skip a sync whose data never made it to disk.
+ */
+public final class HttpValidatorStore {
+
+  /* Validators live in their own file so clearing them never touches the user's settings */
+  private static final String PREFS_NAME = "http_validators";
+
+  private static final String KEY_ETAG_PREFIX          = "etag:";
+  private static final String KEY_LAST_MODIFIED_PREFIX = "last_modified:";
+
+  /**
+   * Returns the ETag stored for the given URL.
+   *
+   * @param context Used to access SharedPreferences
+   * @param url     The URL the forecast was fetched from
+   * @return The stored ETag, or null if there is none
+   */
+  public static String getETag(Context context, URL url) {
+    return getPreferences(context).getString(KEY_ETAG_PREFIX + url, null);
+  }
+
+  /**
+   * Returns the Last-Modified value stored for the given URL, exactly as the server sent it.
+   *
+   * @param context Used to access SharedPreferences
+   * @param url     The URL the forecast was fetched from
+   * @return The stored Last-Modified header value, or null if there is none
+   */
+  public static String getLastModified(Context context, URL url) {
+    return getPreferences(context).getString(KEY_LAST_MODIFIED_PREFIX + url, null);
+  }
+
+  /**
+   * Stores the validators of a response that has been fully processed. A null validator removes
+   * any previously stored value, since the server no longer vouches for it.
+   *
+   * @param context      Used to access SharedPreferences
+   * @param url          The URL the forecast was fetched from
+   * @param eTag         The ETag header of the response, may be null
+   * @param lastModified The Last-Modified header of the response, may be null
+   */
+  public static void save(Context context, URL url, String eTag, String lastModified) {
+    SharedPreferences.Editor editor = getPreferences(context).edit();
+
+    if (eTag != null) {
+      editor.putString(KEY_ETAG_PREFIX + url, eTag);
+    } else {
+      editor.remove(KEY_ETAG_PREFIX + url);
+    }
+
+    if (lastModified != null) {
+      editor.putString(KEY_LAST_MODIFIED_PREFIX + url, lastModified);
+    } else {
+      editor.remove(KEY_LAST_MODIFIED_PREFIX + url);
+    }
+
+    editor.apply();
+  }
+
+  /**
+   * Forgets the validators stored for one URL. Call this before the stored forecast for that URL
+   * is modified, so a sync that fails halfway can't be followed by a 304.
+   *
+   * @param context Used to access SharedPreferences
+   * @param url     The URL the forecast was fetched from
+   */
+  public static void forget(Context context, URL url) {
+    save(context, url, null, null);
+  }
+
+  /**
+   * Forgets every stored validator. This must be called whenever the stored forecast is lost,
+   * so the next request downloads the full forecast again.
+   *
+   * @param context Used to access SharedPreferences
+   */
+  public static void clear(Context context) {
+    getPreferences(context).edit().clear().apply();
+  }
+
+  private static SharedPreferences getPreferences(Context context) {
+    return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+  }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of durations in nanoseconds, in the spirit of HdrHistogram. Every power
+ * of two is split into {@link #SUB_BUCKETS} linear buckets, so any recorded value is reported
+ * within 1/8 of itself, from 1 ns up to about two minutes, in about 2 KB of counters.
+ * <p>
+ * Recording is a handful of atomic increments and never allocates, so it can sit on hot paths
+ * and be called from any thread. Reads are not atomic across buckets: a percentile computed
+ * while other threads record may be off by the values recorded meanwhile.
+ */
+public final class LatencyHistogram {
+
+  /* Linear buckets per power of two. Must be a power of two itself. */
+  private static final int SUB_BUCKET_BITS = 3;
+  private static final int SUB_BUCKETS     = 1 << SUB_BUCKET_BITS;
+
+  /*
+   * The highest power of two that is bucketed. Its top bucket, from 15 * 2^33 ns (about 129 s),
+   * is the last one and also takes every duration of 2^37 ns (about 137 s) and more.
+   */
+  private static final int MAX_EXPONENT = 36;
+
+  private static final int BUCKET_COUNT = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+  private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKET_COUNT);
+  private final AtomicLong mCount = new AtomicLong();
+  private final AtomicLong mTotalNanos = new AtomicLong();
+  private final AtomicLong mMaxNanos = new AtomicLong();
+
+  /**
+   * Records one duration. Negative durations, which a clock adjustment can produce, count as 0.
+   *
+   * @param nanos The duration in nanoseconds
+   */
+  public void record(long nanos) {
+    if (nanos < 0) nanos = 0;
+
+    mBuckets.incrementAndGet(bucketOf(nanos));
+    mCount.incrementAndGet();
+    mTotalNanos.addAndGet(nanos);
+
+    long max = mMaxNanos.get();
+    while (nanos > max && !mMaxNanos.compareAndSet(max, nanos)) {
+      max = mMaxNanos.get();
+    }
+  }
+
+  public long getCount() {
+    return mCount.get();
+  }
+
+  public long getTotalNanos() {
+    return mTotalNanos.get();
+  }
+
+  public long getMaxNanos() {
+    return mMaxNanos.get();
+  }
+
+  /**
+   * Returns the duration below which the given share of the recorded durations fall, as the
+   * upper bound of the bucket that share ends in.
+   *
+   * @param percentile Between 0 and 100
+   * @return The duration in nanoseconds, or 0 if nothing was recorded
+   */
+  public long getValueAtPercentile(double percentile) {
+    long count = mCount.get();
+    if (count == 0) {
+      return 0;
+    }
+
+    long rank = (long) Math.ceil(count * Math.min(100.0, Math.max(0.0, percentile)) / 100.0);
+    rank = Math.max(1, rank);
+
+    long seen = 0;
+    for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+      seen += mBuckets.get(bucket);
+      if (seen >= rank) {
+        /* The last bucket has no upper bound, only the largest value recorded */
+        long max = mMaxNanos.get();
+        return bucket == BUCKET_COUNT - 1 ? max : Math.min(upperBoundOf(bucket), max);
+      }
+    }
+    return mMaxNanos.get();
+  }
+
+  /**
+   * Clears every counter. Not atomic with respect to concurrent recording.
+   */
+  public void reset() {
+    for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+      mBuckets.set(bucket, 0);
+    }
+    mCount.set(0);
+    mTotalNanos.set(0);
+    mMaxNanos.set(0);
+  }
+
+  /*
+   * Values below SUB_BUCKETS get a bucket each. Above that, the exponent picks a group of
+   * SUB_BUCKETS buckets and the bits right below the highest set bit pick one of them.
+   */
+  private static int bucketOf(long nanos) {
+    if (nanos < SUB_BUCKETS) {
+      return (int) nanos;
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+    if (exponent > MAX_EXPONENT) {
+      return BUCKET_COUNT - 1;
+    }
+    int subBucket = (int) (nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+    return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+  }
+
+  /* The largest value that lands in a bucket */
+  private static long upperBoundOf(int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+    int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+    long subBucket = bucket % SUB_BUCKETS;
+    long lowerBound = (1L << exponent) + (subBucket << (exponent - SUB_BUCKET_BITS));
+    return lowerBound + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+  }
+}
@@ -17,15 +17,33 @@ package com.example.android.sunshine.utilities;
 
 import android.content.Context;
 import android.net.Uri;
+import android.os.Process;
+import android.support.annotation.NonNull;
+import android.support.v4.os.CancellationSignal;
+import android.support.v4.os.OperationCanceledException;
 import android.util.Log;
 import com.example.android.sunshine.data.SunshinePreferences;
 
+import java.io.Closeable;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.Reader;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.util.Scanner;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.GZIPInputStream;
 
 /**
  * These utilities will be used to communicate with the weather servers.
@@ -55,6 +73,9 @@ public final class NetworkUtils {
 
   private static final String FORECAST_BASE_URL = STATIC_WEATHER_URL;
 
+  /* Where a hedged request goes when FORECAST_BASE_URL is slow to answer */
+  private static final String ALTERNATE_BASE_URL = DYNAMIC_WEATHER_URL;
+
     /*
      * NOTE: These values only effect responses from OpenWeatherMap, NOT from the fake weather
      * server. They are simply here to allow us to teach you how to build a URL if you were to use
@@ -82,6 +103,51 @@ public final class NetworkUtils {
   /* The days parameter allows us to designate how many days of weather data we want */
   private static final String DAYS_PARAM   = "cnt";
 
+  /* Headers used to make conditional requests */
+  private static final String HEADER_ETAG              = "ETag";
+  private static final String HEADER_LAST_MODIFIED     = "Last-Modified";
+  private static final String HEADER_IF_NONE_MATCH     = "If-None-Match";
+  private static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+
+  /* We ask for gzip and decompress the body ourselves while it is being parsed */
+  private static final String HEADER_ACCEPT_ENCODING = "Accept-Encoding";
+  private static final String ENCODING_GZIP          = "gzip";
+  private static final String CHARSET_UTF_8          = "UTF-8";
+
+  private static final int STREAM_BUFFER_SIZE      = 8 * 1024;
+  private static final int MAX_PRESIZED_BUFFER     = 1024 * 1024;
+  private static final int GZIP_EXPANSION_ESTIMATE = 6;
+
+  /*
+   * How long a hedged request waits for the first endpoint before asking the second one. Until
+   * the first endpoint has answered MIN_HEDGE_SAMPLES times, the default is used; after that,
+   * the 95th percentile of its answers, so only the slowest one in twenty is hedged.
+   */
+  private static final long DEFAULT_HEDGE_DELAY_MILLIS = 1500;
+  private static final long MIN_HEDGE_DELAY_MILLIS     = 250;
+  private static final long MAX_HEDGE_DELAY_MILLIS     = 5000;
+  private static final int  MIN_HEDGE_SAMPLES          = 20;
+  private static final int  HEDGE_PERCENTILE           = 95;
+
+  /* Time to first byte of every endpoint that has answered, keyed by getEndpoint(URL) */
+  private static final ConcurrentMap<String, LatencyHistogram> sEndpointLatency =
+      new ConcurrentHashMap<>();
+
+  /* Runs the requests of a hedged fetch. Idle threads exit after a minute. */
+  private static final ExecutorService sFetchExecutor =
+      Executors.newCachedThreadPool(new ThreadFactory() {
+        @Override
+        public Thread newThread(@NonNull final Runnable runnable) {
+          return new Thread(new Runnable() {
+            @Override
+            public void run() {
+              Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+              runnable.run();
+            }
+          }, "SunshineFetch");
+        }
+      });
+
   /**
    * Retrieves the proper URL to query for the weather data. The reason for both this method as
    * well as {@link #buildUrlWithLocationQuery(String)} is two fold.
@@ -97,14 +163,29 @@ public final class NetworkUtils {
    * @return URL to query weather service
    */
   public static URL getUrl(Context context) {
+    return getUrl(context, FORECAST_BASE_URL);
+  }
+
+  /**
+   * Same as {@link #getUrl(Context)}, but for the other endpoint of the weather server, which
+   * a hedged request asks when the first one is slow.
+   *
+   * @param context used to access other Utility methods
+   * @return URL to query the alternate endpoint of the weather service
+   */
+  public static URL getAlternateUrl(Context context) {
+    return getUrl(context, ALTERNATE_BASE_URL);
+  }
+
+  private static URL getUrl(Context context, String baseUrl) {
     if (SunshinePreferences.isLocationLatLonAvailable(context)) {
       double[] preferredCoordinates = SunshinePreferences.getLocationCoordinates(context);
       double latitude = preferredCoordinates[0];
       double longitude = preferredCoordinates[1];
-      return buildUrlWithLatitudeLongitude(latitude, longitude);
+      return buildUrlWithLatitudeLongitude(baseUrl, latitude, longitude);
     } else {
       String locationQuery = SunshinePreferences.getPreferredWeatherLocation(context);
-      return buildUrlWithLocationQuery(locationQuery);
+      return buildUrlWithLocationQuery(baseUrl, locationQuery);
     }
   }
 
@@ -112,12 +193,14 @@ public final class NetworkUtils {
    * Builds the URL used to talk to the weather server using latitude and longitude of a
    * location.
    *
+   * @param baseUrl   The endpoint of the weather server
    * @param latitude  The latitude of the location
    * @param longitude The longitude of the location
    * @return The Url to use to query the weather server.
    */
-  private static URL buildUrlWithLatitudeLongitude(Double latitude, Double longitude) {
-    Uri weatherQueryUri = Uri.parse(FORECAST_BASE_URL).buildUpon()
+  private static URL buildUrlWithLatitudeLongitude(String baseUrl, Double latitude,
+                                                   Double longitude) {
+    Uri weatherQueryUri = Uri.parse(baseUrl).buildUpon()
         .appendQueryParameter(LAT_PARAM, String.valueOf(latitude))
         .appendQueryParameter(LON_PARAM, String.valueOf(longitude))
         .appendQueryParameter(FORMAT_PARAM, format)
@@ -139,11 +222,12 @@ public final class NetworkUtils {
    * Builds the URL used to talk to the weather server using a location. This location is based
    * on the query capabilities of the weather provider that we are using.
    *
+   * @param baseUrl       The endpoint of the weather server
    * @param locationQuery The location that will be queried for.
    * @return The URL to use to query the weather server.
    */
-  private static URL buildUrlWithLocationQuery(String locationQuery) {
-    Uri weatherQueryUri = Uri.parse(FORECAST_BASE_URL).buildUpon()
+  private static URL buildUrlWithLocationQuery(String baseUrl, String locationQuery) {
+    Uri weatherQueryUri = Uri.parse(baseUrl).buildUpon()
         .appendQueryParameter(QUERY_PARAM, locationQuery)
         .appendQueryParameter(FORMAT_PARAM, format)
         .appendQueryParameter(UNITS_PARAM, units)
@@ -168,22 +252,544 @@ public final class NetworkUtils {
    * @throws IOException Related to network and stream reading
    */
   public static String getResponseFromHttpUrl(URL url) throws IOException {
-    HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
+    Response response = fetch(url, null, null, null);
     try {
-      InputStream in = urlConnection.getInputStream();
+      return response.getBody();
+    } finally {
+      response.close();
+    }
+  }
+
+  /**
+   * Fetches the URL, sending back the validators stored in {@link HttpValidatorStore} for it.
+   * If the server answers 304 Not Modified, no body is downloaded and the returned response
+   * reports {@link Response#isNotModified()}.
+   * <p>
+   * The body is not read here. It is streamed (and decompressed) as the caller reads from
+   * {@link Response#getReader()}, and the caller must {@link Response#close()} the response.
+   * <p>
+   * The validators of the new response are NOT stored here. Call
+   * {@link HttpValidatorStore#save(Context, URL, String, String)} once the body has been
+   * processed successfully.
+   *
+   * @param context Used to access the stored validators
+   * @param url     The URL to fetch the HTTP response from.
+   * @return The response, never null
+   * @throws IOException Related to network and stream reading
+   */
+  public static Response getConditionalResponseFromHttpUrl(Context context, URL url)
+      throws IOException {
+    return getConditionalResponseFromHttpUrl(context, url, null);
+  }
 
-      Scanner scanner = new Scanner(in);
-      scanner.useDelimiter("\\A");
+  /**
+   * Same as {@link #getConditionalResponseFromHttpUrl(Context, URL)}, but can be cancelled from
+   * another thread. Cancelling disconnects the connection, so a connect or read that is blocked
+   * on the network, here or while the body is read from the response, fails at once with an
+   * IOException instead of waiting for the socket to time out.
+   *
+   * @param context Used to access the stored validators
+   * @param url     The URL to fetch the HTTP response from.
+   * @param signal  Cancels the request and the reading of its body, may be null
+   * @return The response, never null
+   * @throws IOException Related to network and stream reading, or if the request was cancelled
+   */
+  public static Response getConditionalResponseFromHttpUrl(Context context, URL url,
+                                                           CancellationSignal signal)
+      throws IOException {
+    return fetch(url,
+        HttpValidatorStore.getETag(context, url),
+        HttpValidatorStore.getLastModified(context, url),
+        signal);
+  }
+
+  /**
+   * Fetches the weather from two endpoints, racing them only when the first is slow. The
+   * primary URL is asked first; if it hasn't answered, i.e. sent the status line and headers,
+   * within the hedge delay, the alternate URL is asked too. The first successful answer wins
+   * and the other request is cancelled. If the primary fails before the delay is up, the
+   * alternate is asked at once. Each request carries the validators stored for its own URL, so
+   * the caller must store the validators of the answer under {@link Response#getUrl()}.
+   * <p>
+   * Otherwise this behaves like {@link #getConditionalResponseFromHttpUrl(Context, URL,
+   * CancellationSignal)}: cancelling the signal cancels both requests, and then the reading of
+   * the winner's body.
+   *
+   * @param context          Used to access the stored validators
+   * @param primaryUrl       The URL to ask first
+   * @param alternateUrl     The URL to ask if the first is slow or fails, may be null
+   * @param hedgeDelayMillis How long to wait for the primary URL before asking the alternate,
+   *                         see {@link #getHedgeDelayMillis(URL)}. Negative to never ask it.
+   * @param signal           Cancels the requests and the reading of the body, may be null
+   * @return The first successful response, never null
+   * @throws IOException If both requests failed, with the error of the last one to fail
+   */
+  public static Response getHedgedResponseFromHttpUrl(Context context, URL primaryUrl,
+                                                      URL alternateUrl, long hedgeDelayMillis,
+                                                      final CancellationSignal signal)
+      throws IOException {
+    if (alternateUrl == null || hedgeDelayMillis < 0) {
+      return getConditionalResponseFromHttpUrl(context, primaryUrl, signal);
+    }
+    if (signal != null) {
+      signal.throwIfCanceled();
+    }
+
+    final BlockingQueue<Attempt> finished = new LinkedBlockingQueue<>();
+    final Attempt primary = startAttempt(context, primaryUrl, finished);
+    final AtomicReference<Attempt> alternate = new AtomicReference<>();
+
+    if (signal != null) {
+      signal.setOnCancelListener(new CancellationSignal.OnCancelListener() {
+        @Override
+        public void onCancel() {
+          primary.abandon();
+          Attempt hedge = alternate.get();
+          if (hedge != null) hedge.abandon();
+        }
+      });
+    }
 
-      boolean hasInput = scanner.hasNext();
-      String response = null;
-      if (hasInput) {
-        response = scanner.next();
+    Attempt winner = null;
+    try {
+      int pending = 1;
+      long hedgeAtNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(hedgeDelayMillis);
+      while (true) {
+        Attempt attempt;
+        if (alternate.get() == null) {
+          attempt = finished.poll(hedgeAtNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+        } else {
+          attempt = finished.take();
+        }
+
+        if (attempt != null) {
+          pending--;
+          if (attempt.mResponse != null) {
+            winner = attempt;
+            break;
+          }
+          if (alternate.get() != null && pending == 0) {
+            throw attempt.mError;
+          }
+        }
+
+                /* The primary is too slow, or has failed before it was time to hedge */
+        if (alternate.get() == null) {
+          Log.v(TAG, (attempt == null ? "Slow: " : "Failed: ") + primaryUrl);
+          alternate.set(startAttempt(context, alternateUrl, finished));
+          pending++;
+                    /* A cancel that came before the set didn't see the alternate */
+          if (signal != null) {
+            signal.throwIfCanceled();
+          }
+        }
       }
-      scanner.close();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for " + primaryUrl);
+    } finally {
+      if (signal != null) {
+        signal.setOnCancelListener(null);
+      }
+      if (winner != primary) primary.abandon();
+      Attempt hedge = alternate.get();
+      if (hedge != null && winner != hedge) hedge.abandon();
+    }
+
+        /* From here on the caller's signal cancels the winner alone, as with any response */
+    Response response = winner.mResponse;
+    response.setSignal(signal);
+    if (signal != null && signal.isCanceled()) {
+      response.close();
+      throw new OperationCanceledException();
+    }
+    return response;
+  }
+
+  /**
+   * Returns the hedge delay for requests to the given URL: the 95th percentile of the time its
+   * endpoint took to answer, within sensible bounds, or a default until it has answered often
+   * enough to tell.
+   *
+   * @param url The URL a hedged request asks first
+   * @return The delay to pass to {@link #getHedgedResponseFromHttpUrl}, in milliseconds
+   */
+  public static long getHedgeDelayMillis(URL url) {
+    LatencyHistogram latency = sEndpointLatency.get(getEndpoint(url));
+    if (latency == null || latency.getCount() < MIN_HEDGE_SAMPLES) {
+      return DEFAULT_HEDGE_DELAY_MILLIS;
+    }
+    long millis = TimeUnit.NANOSECONDS.toMillis(latency.getValueAtPercentile(HEDGE_PERCENTILE));
+    return Math.min(MAX_HEDGE_DELAY_MILLIS, Math.max(MIN_HEDGE_DELAY_MILLIS, millis));
+  }
+
+  /**
+   * Returns the time to first byte of every request to the endpoint of the given URL that got
+   * an answer since the process started. Requests of any location and parameters share their
+   * endpoint's histogram; cancelled and failed requests aren't recorded.
+   *
+   * @param url A URL of the endpoint
+   * @return The endpoint's histogram, empty if it has never answered
+   */
+  @NonNull
+  public static LatencyHistogram getEndpointLatency(URL url) {
+    String endpoint = getEndpoint(url);
+    LatencyHistogram latency = sEndpointLatency.get(endpoint);
+    if (latency == null) {
+      LatencyHistogram created = new LatencyHistogram();
+      latency = sEndpointLatency.putIfAbsent(endpoint, created);
+      if (latency == null) latency = created;
+    }
+    return latency;
+  }
+
+  /* A URL without its query, which is where the location goes */
+  private static String getEndpoint(URL url) {
+    return url.getProtocol() + "://" + url.getAuthority() + url.getPath();
+  }
+
+  private static Attempt startAttempt(Context context, URL url, BlockingQueue<Attempt> finished) {
+    Attempt attempt = new Attempt(url,
+        HttpValidatorStore.getETag(context, url),
+        HttpValidatorStore.getLastModified(context, url),
+        finished);
+    sFetchExecutor.execute(attempt);
+    return attempt;
+  }
+
+  private static Response fetch(URL url, String eTag, String lastModified,
+                                CancellationSignal signal) throws IOException {
+    if (signal != null) {
+      signal.throwIfCanceled();
+    }
+
+    final HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
+    if (signal != null) {
+      /* Called at once if the signal was cancelled in the meantime */
+      signal.setOnCancelListener(new CancellationSignal.OnCancelListener() {
+        @Override
+        public void onCancel() {
+          urlConnection.disconnect();
+        }
+      });
+    }
+
+    boolean handedOver = false;
+    try {
+      /*
+       * Once we set Accept-Encoding ourselves, HttpURLConnection no longer decompresses for us,
+       * but Content-Length stays meaningful. We decompress in Response#getReader.
+       */
+      urlConnection.setRequestProperty(HEADER_ACCEPT_ENCODING, ENCODING_GZIP);
+      if (eTag != null) {
+        urlConnection.setRequestProperty(HEADER_IF_NONE_MATCH, eTag);
+      }
+      if (lastModified != null) {
+        urlConnection.setRequestProperty(HEADER_IF_MODIFIED_SINCE, lastModified);
+      }
+
+      Response response;
+      if (urlConnection.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+        Log.v(TAG, "Not modified: " + url);
+        response = new Response(url, urlConnection, signal, true, eTag, lastModified);
+      } else {
+        response = new Response(url,
+            urlConnection,
+            signal,
+            false,
+            urlConnection.getHeaderField(HEADER_ETAG),
+            urlConnection.getHeaderField(HEADER_LAST_MODIFIED));
+      }
+      handedOver = true;
       return response;
     } finally {
-      urlConnection.disconnect();
+      if (!handedOver) {
+        if (signal != null) {
+          signal.setOnCancelListener(null);
+        }
+        urlConnection.disconnect();
+      }
+    }
+  }
+
+  /**
+   * Wraps a response body in a Reader, decompressing it on the fly if it is gzip encoded. JSON
+   * is UTF-8 unless stated otherwise.
+   *
+   * @param in   The raw body as it came off the network
+   * @param gzip true if the body is gzip encoded
+   * @return A Reader over the decoded body
+   * @throws IOException If the gzip header can't be read
+   */
+  static Reader openReader(InputStream in, boolean gzip) throws IOException {
+    if (gzip) {
+      in = new GZIPInputStream(in, STREAM_BUFFER_SIZE);
+    }
+    return new InputStreamReader(in, CHARSET_UTF_8);
+  }
+
+  /**
+   * Reads a Reader to its end into a String. The buffer is allocated once from the expected
+   * length, so a body whose length is known up front is copied without the buffer having to grow.
+   *
+   * @param reader         The Reader to drain
+   * @param expectedLength The expected number of chars, or -1 if unknown
+   * @return Everything the Reader produced, null if it produced nothing
+   * @throws IOException Related to stream reading
+   */
+  static String readFully(Reader reader, int expectedLength) throws IOException {
+    int capacity = expectedLength > 0
+        ? Math.min(expectedLength, MAX_PRESIZED_BUFFER)
+        : STREAM_BUFFER_SIZE;
+    StringBuilder builder = new StringBuilder(capacity);
+
+    char[] buffer = new char[STREAM_BUFFER_SIZE];
+    int read;
+    while ((read = reader.read(buffer)) != -1) {
+      builder.append(buffer, 0, read);
+    }
+
+    return builder.length() == 0 ? null : builder.toString();
+  }
+
+  /**
+   * The outcome of a (possibly conditional) request: either a body together with the validators
+   * the server sent for it, or a "not modified" answer without a body. The response holds on to
+   * its connection, and to the signal that cancels it, until it is closed.
+   */
+  public static final class Response implements Closeable {
+
+    private final URL                mUrl;
+    private final HttpURLConnection  mConnection;
+    private final boolean            mNotModified;
+    private final String             mETag;
+    private final String             mLastModified;
+
+    private CancellationSignal mSignal;
+    private Reader mReader;
+    private MeteredInputStream mBody;
+
+    Response(URL url, HttpURLConnection connection, CancellationSignal signal,
+             boolean notModified, String eTag, String lastModified) {
+      mUrl = url;
+      mConnection = connection;
+      mSignal = signal;
+      mNotModified = notModified;
+      mETag = eTag;
+      mLastModified = lastModified;
+    }
+
+    /**
+     * @return The URL that was requested. After a hedged request, the one that answered.
+     */
+    public URL getUrl() {
+      return mUrl;
+    }
+
+    /* Hands cancelling the connection over to another signal, which close() lets go of */
+    void setSignal(CancellationSignal signal) {
+      if (mSignal != null) {
+        mSignal.setOnCancelListener(null);
+      }
+      mSignal = signal;
+      if (signal != null) {
+        signal.setOnCancelListener(new CancellationSignal.OnCancelListener() {
+          @Override
+          public void onCancel() {
+            mConnection.disconnect();
+          }
+        });
+      }
+    }
+
+    /**
+     * @return true if the server confirmed that the data we already have is still current
+     */
+    public boolean isNotModified() {
+      return mNotModified;
+    }
+
+    /**
+     * Returns a Reader over the decoded body. The body is decompressed while it is being read,
+     * so it never has to be held in memory as a whole.
+     *
+     * @return A Reader over the body
+     * @throws IOException Related to network and stream reading
+     */
+    public Reader getReader() throws IOException {
+      if (mReader == null) {
+        boolean gzip = ENCODING_GZIP.equalsIgnoreCase(mConnection.getContentEncoding());
+        mBody = new MeteredInputStream(mConnection.getInputStream());
+        mReader = openReader(mBody, gzip);
+      }
+      return mReader;
+    }
+
+    /**
+     * Reads the whole decoded body into a String. Prefer {@link #getReader()}.
+     *
+     * @return The contents of the HTTP response, null if not modified or empty
+     * @throws IOException Related to network and stream reading
+     */
+    public String getBody() throws IOException {
+      if (mNotModified) return null;
+
+      /*
+       * Content-Length counts the bytes on the wire. For a plain body that's a good guess of
+       * the number of chars. A gzipped body typically inflates several times over.
+       */
+      int expectedLength = mConnection.getContentLength();
+      if (expectedLength > 0
+          && ENCODING_GZIP.equalsIgnoreCase(mConnection.getContentEncoding())) {
+        expectedLength *= GZIP_EXPANSION_ESTIMATE;
+      }
+      return readFully(getReader(), expectedLength);
+    }
+
+    /**
+     * @return How many bytes of the body have been read off the network so far, before they
+     * were decompressed
+     */
+    public long getBytesRead() {
+      return mBody == null ? 0 : mBody.mBytes;
+    }
+
+    /**
+     * @return How long reading the body off the network has taken so far, in nanoseconds. The
+     * time the reader's consumer spent between reads isn't counted.
+     */
+    public long getReadNanos() {
+      return mBody == null ? 0 : mBody.mNanos;
+    }
+
+    /**
+     * @return The ETag header of the response, null if the server didn't send one
+     */
+    public String getETag() {
+      return mETag;
+    }
+
+    /**
+     * @return The Last-Modified header of the response, null if the server didn't send one
+     */
+    public String getLastModified() {
+      return mLastModified;
+    }
+
+    /**
+     * Releases the connection. Safe to call more than once.
+     */
+    @Override
+    public void close() {
+      if (mReader != null) {
+        try {
+          mReader.close();
+        } catch (IOException e) {
+          /* Nothing left to do with this connection anyway */
+        }
+      }
+      if (mSignal != null) {
+        mSignal.setOnCancelListener(null);
+      }
+      mConnection.disconnect();
+    }
+  }
+
+  /**
+   * One request of a hedged fetch. It runs on sFetchExecutor and reports to the queue of its
+   * fetch when it is done. Abandoning it cancels the request, and closes the response if the
+   * request has already produced one or still does.
+   */
+  private static final class Attempt implements Runnable {
+
+    private final URL                     mUrl;
+    private final String                  mETag;
+    private final String                  mLastModified;
+    private final BlockingQueue<Attempt>  mFinished;
+    private final CancellationSignal      mSignal = new CancellationSignal();
+
+    /* Set before the attempt is queued as finished, so the queue publishes them */
+    Response    mResponse;
+    IOException mError;
+
+    /* Guarded by this */
+    private boolean mAbandoned;
+
+    Attempt(URL url, String eTag, String lastModified, BlockingQueue<Attempt> finished) {
+      mUrl = url;
+      mETag = eTag;
+      mLastModified = lastModified;
+      mFinished = finished;
+    }
+
+    @Override
+    public void run() {
+      Response response = null;
+      try {
+        long startNanos = System.nanoTime();
+        response = fetch(mUrl, mETag, mLastModified, mSignal);
+        getEndpointLatency(mUrl).record(System.nanoTime() - startNanos);
+      } catch (IOException e) {
+        mError = e;
+      } catch (OperationCanceledException e) {
+        mError = new InterruptedIOException("Cancelled: " + mUrl);
+      } catch (RuntimeException e) {
+        mError = new IOException("Failed: " + mUrl, e);
+      }
+
+      synchronized (this) {
+        if (mAbandoned && response != null) {
+          response.close();
+          response = null;
+          mError = new InterruptedIOException("Cancelled: " + mUrl);
+        }
+        mResponse = response;
+      }
+      mFinished.add(this);
+    }
+
+    void abandon() {
+      Response response;
+      synchronized (this) {
+        mAbandoned = true;
+        response = mResponse;
+      }
+      mSignal.cancel();
+      if (response != null) {
+        response.close();
+      }
+    }
+  }
+
+  /**
+   * Counts the bytes read through it and the time spent waiting for them. Only read by the
+   * thread that reads the body.
+   */
+  private static final class MeteredInputStream extends FilterInputStream {
+
+    long mBytes;
+    long mNanos;
+
+    MeteredInputStream(InputStream in) {
+      super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+      long start = System.nanoTime();
+      int b = super.read();
+      mNanos += System.nanoTime() - start;
+      if (b != -1) mBytes++;
+      return b;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int count) throws IOException {
+      long start = System.nanoTime();
+      int read = super.read(buffer, offset, count);
+      mNanos += System.nanoTime() - start;
+      if (read > 0) mBytes += read;
+      return read;
     }
   }
-}
\ No newline at end of file
+}
@@ -15,14 +15,21 @@
  */
 package com.example.android.sunshine.utilities;
 
-import android.content.ContentValues;
+import android.annotation.TargetApi;
 import android.content.Context;
+import android.os.Build;
+import android.support.v4.os.CancellationSignal;
+import android.util.JsonReader;
+import android.util.JsonToken;
+import com.example.android.sunshine.data.ForecastBatch;
 import com.example.android.sunshine.data.SunshinePreferences;
-import com.example.android.sunshine.data.WeatherContract;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
 import java.net.HttpURLConnection;
 
 /**
@@ -58,19 +65,137 @@ public final class OpenWeatherJsonUtils {
 
   private static final String OWM_MESSAGE_CODE = "cod";
 
+  /*
+   * Bits used by the streaming parser to remember which fields of a day it has seen. The DOM
+   * parser fails on a missing field, so the streaming parser has to do the same.
+   */
+  private static final int FIELD_PRESSURE   = 1;
+  private static final int FIELD_HUMIDITY   = 1 << 1;
+  private static final int FIELD_WIND_SPEED = 1 << 2;
+  private static final int FIELD_DEGREES    = 1 << 3;
+  private static final int FIELD_MAX        = 1 << 4;
+  private static final int FIELD_MIN        = 1 << 5;
+  private static final int FIELD_WEATHER_ID = 1 << 6;
+  private static final int FIELDS_ALL       = (1 << 7) - 1;
+
+  /*
+   * Whether forecasts are parsed with the streaming JsonReader (the default) or with the
+   * org.json DOM parser. The DOM parser is kept so both can be compared on the same payloads.
+   */
+  private static volatile boolean sStreamingParserEnabled = true;
+
+  /**
+   * Switches between the streaming parser and the org.json DOM parser.
+   *
+   * @param enabled true to parse with JsonReader, false to build an org.json DOM first
+   */
+  public static void setStreamingParserEnabled(boolean enabled) {
+    sStreamingParserEnabled = enabled;
+  }
+
+  /**
+   * Returns true if {@link #getForecastFromJson(Context, String)} will use the
+   * streaming parser. JsonReader only exists from API 11, so older devices always use the DOM.
+   *
+   * @return true if the streaming parser is used
+   */
+  public static boolean isStreamingParserEnabled() {
+    return sStreamingParserEnabled && Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB;
+  }
+
   /**
-   * This method parses JSON from a web response and returns an array of Strings
-   * describing the weather over various days from the forecast.
-   * <p/>
-   * Later on, we'll be parsing the JSON into structured data within the
-   * getFullWeatherDataFromJson function, leveraging the data we have stored in the JSON. For
-   * now, we just convert the JSON into human-readable strings.
+   * This method parses JSON from a web response and returns a ForecastBatch describing the
+   * weather over various days from the forecast, using whichever parser is currently enabled.
    *
+   * @param context         Used to store the location coordinates of the forecast
    * @param forecastJsonStr JSON response from server
-   * @return Array of Strings describing weather data
+   * @return The days of the forecast, null if the server reported an error
+   * @throws JSONException If JSON data cannot be properly parsed
+   * @throws IOException   If the streaming parser hits malformed JSON
+   */
+  public static ForecastBatch getForecastFromJson(Context context, String forecastJsonStr)
+      throws JSONException, IOException {
+    if (isStreamingParserEnabled()) {
+      return getForecastFromJsonStream(context, new StringReader(forecastJsonStr));
+    }
+    return getForecastFromJsonDom(context, forecastJsonStr);
+  }
+
+  /**
+   * Same as {@link #getForecastFromJson(Context, String)}, but reads the JSON from a Reader.
+   * The streaming parser consumes it as it arrives; the DOM parser reads it fully first.
+   *
+   * @param context        Used to store the location coordinates of the forecast
+   * @param forecastReader Reader positioned at the start of the JSON response
+   * @return The days of the forecast, null if the server reported an error
    * @throws JSONException If JSON data cannot be properly parsed
+   * @throws IOException   If the JSON cannot be read, or is malformed
    */
-  public static ContentValues[] getWeatherContentValuesFromJson(Context context, String forecastJsonStr)
+  public static ForecastBatch getForecastFromJson(Context context, Reader forecastReader)
+      throws JSONException, IOException {
+    return getForecastFromJson(context, forecastReader, null);
+  }
+
+  /**
+   * Same as {@link #getForecastFromJson(Context, Reader)}, but stops between two days of the
+   * forecast once the signal is cancelled.
+   *
+   * @param context        Used to store the location coordinates of the forecast
+   * @param forecastReader Reader positioned at the start of the JSON response
+   * @param signal         Cancels the parse, may be null
+   * @return The days of the forecast, null if the server reported an error
+   * @throws JSONException If JSON data cannot be properly parsed
+   * @throws IOException   If the JSON cannot be read, or is malformed
+   * @throws android.support.v4.os.OperationCanceledException If the signal was cancelled
+   */
+  public static ForecastBatch getForecastFromJson(Context context, Reader forecastReader,
+                                                  CancellationSignal signal)
+      throws JSONException, IOException {
+    if (isStreamingParserEnabled()) {
+      return getForecastFromJsonStream(context, forecastReader, signal);
+    }
+    String forecastJsonStr = NetworkUtils.readFully(forecastReader, -1);
+    if (signal != null) {
+      signal.throwIfCanceled();
+    }
+    return getForecastFromJsonDom(context, forecastJsonStr);
+  }
+
+  /**
+   * Same as {@link #getForecastFromJson(Context, Reader, CancellationSignal)}, but reads the
+   * JSON from a response. The DOM parser then reads the body into a buffer presized from its
+   * Content-Length.
+   *
+   * @param context  Used to store the location coordinates of the forecast
+   * @param response The response of the forecast request, which the caller closes
+   * @param signal   Cancels the parse, may be null
+   * @return The days of the forecast, null if the server reported an error
+   * @throws JSONException If JSON data cannot be properly parsed
+   * @throws IOException   If the JSON cannot be read, or is malformed
+   * @throws android.support.v4.os.OperationCanceledException If the signal was cancelled
+   */
+  public static ForecastBatch getForecastFromJson(Context context, NetworkUtils.Response response,
+                                                  CancellationSignal signal)
+      throws JSONException, IOException {
+    if (isStreamingParserEnabled()) {
+      return getForecastFromJsonStream(context, response.getReader(), signal);
+    }
+    String forecastJsonStr = response.getBody();
+    if (signal != null) {
+      signal.throwIfCanceled();
+    }
+    return getForecastFromJsonDom(context, forecastJsonStr);
+  }
+
+  /**
+   * Parses the forecast by building an org.json DOM of the whole response first.
+   *
+   * @param context         Used to store the location coordinates of the forecast
+   * @param forecastJsonStr JSON response from server
+   * @return The days of the forecast, null if the server reported an error
+   * @throws JSONException If JSON data cannot be properly parsed
+   */
+  public static ForecastBatch getForecastFromJsonDom(Context context, String forecastJsonStr)
       throws JSONException {
 
     JSONObject forecastJson = new JSONObject(forecastJsonStr);
@@ -101,7 +226,7 @@ public final class OpenWeatherJsonUtils {
 
     SunshinePreferences.setLocationDetails(context, cityLatitude, cityLongitude);
 
-    ContentValues[] weatherContentValues = new ContentValues[jsonWeatherArray.length()];
+    ForecastBatch forecast = new ForecastBatch(jsonWeatherArray.length());
 
         /*
          * OWM returns daily forecasts based upon the local time of the city that is being asked
@@ -162,19 +287,209 @@ public final class OpenWeatherJsonUtils {
       high = temperatureObject.getDouble(OWM_MAX);
       low = temperatureObject.getDouble(OWM_MIN);
 
-      ContentValues weatherValues = new ContentValues();
-      weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, dateTimeMillis);
-      weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, humidity);
-      weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, pressure);
-      weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, windSpeed);
-      weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, windDirection);
-      weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, high);
-      weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, low);
-      weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherId);
-
-      weatherContentValues[i] = weatherValues;
+      forecast.add(dateTimeMillis, weatherId, low, high, humidity, pressure, windSpeed,
+          windDirection);
+    }
+
+    return forecast;
+  }
+
+  /**
+   * Parses the forecast in a single pass over the JSON tokens, without building a DOM. Each day
+   * is appended to the ForecastBatch as soon as its fields have been read. The top level keys
+   * may come in any order, so the location and the error code are only acted upon at the end.
+   *
+   * @param context        Used to store the location coordinates of the forecast
+   * @param forecastReader Reader positioned at the start of the JSON response
+   * @return The days of the forecast, null if the server reported an error
+   * @throws JSONException If a required field is missing
+   * @throws IOException   If the JSON is malformed or cannot be read
+   */
+  @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+  public static ForecastBatch getForecastFromJsonStream(Context context, Reader forecastReader)
+      throws JSONException, IOException {
+    return getForecastFromJsonStream(context, forecastReader, null);
+  }
+
+  /* Same as above, but checks the signal, if any, between two days of the forecast */
+  @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+  private static ForecastBatch getForecastFromJsonStream(Context context, Reader forecastReader,
+                                                         CancellationSignal signal)
+      throws JSONException, IOException {
+    JsonReader reader = new JsonReader(forecastReader);
+    try {
+      int errorCode = HttpURLConnection.HTTP_OK;
+      double[] cityCoord = null;
+      ForecastBatch forecast = null;
+
+      long normalizedUtcStartDay = SunshineDateUtils.getNormalizedUtcDateForToday();
+
+      reader.beginObject();
+      while (reader.hasNext()) {
+        String name = reader.nextName();
+        if (OWM_MESSAGE_CODE.equals(name)) {
+          errorCode = (int) reader.nextDouble();
+        } else if (OWM_CITY.equals(name)) {
+          cityCoord = readCityCoord(reader);
+        } else if (OWM_LIST.equals(name)) {
+          forecast = readWeatherList(reader, normalizedUtcStartDay, signal);
+        } else {
+          reader.skipValue();
+        }
+      }
+      reader.endObject();
+
+      /* Same error handling as the DOM parser: anything but 200 means no usable data */
+      if (errorCode != HttpURLConnection.HTTP_OK) {
+        return null;
+      }
+
+      if (forecast == null) {
+        throw new JSONException("No value for " + OWM_LIST);
+      }
+      if (cityCoord == null) {
+        throw new JSONException("No value for " + OWM_CITY + "." + OWM_COORD);
+      }
+
+      SunshinePreferences.setLocationDetails(context, cityCoord[0], cityCoord[1]);
+
+      return forecast;
+    } finally {
+      reader.close();
+    }
+  }
+
+  /**
+   * Reads the "city" object and returns its latitude and longitude.
+   */
+  @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+  private static double[] readCityCoord(JsonReader reader) throws JSONException, IOException {
+    double[] coord = null;
+
+    reader.beginObject();
+    while (reader.hasNext()) {
+      if (OWM_COORD.equals(reader.nextName())) {
+        coord = new double[2];
+        boolean hasLatitude = false;
+        boolean hasLongitude = false;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+          String name = reader.nextName();
+          if (OWM_LATITUDE.equals(name)) {
+            coord[0] = reader.nextDouble();
+            hasLatitude = true;
+          } else if (OWM_LONGITUDE.equals(name)) {
+            coord[1] = reader.nextDouble();
+            hasLongitude = true;
+          } else {
+            reader.skipValue();
+          }
+        }
+        reader.endObject();
+
+        if (!hasLatitude || !hasLongitude) {
+          throw new JSONException("Incomplete " + OWM_COORD + " in " + OWM_CITY);
+        }
+      } else {
+        reader.skipValue();
+      }
+    }
+    reader.endObject();
+
+    return coord;
+  }
+
+  /**
+   * Reads the "list" array, appending every day straight to a ForecastBatch. The signal, if
+   * any, is checked before every day.
+   */
+  @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+  private static ForecastBatch readWeatherList(JsonReader reader, long normalizedUtcStartDay,
+                                               CancellationSignal signal)
+      throws JSONException, IOException {
+    ForecastBatch forecast = new ForecastBatch();
+
+    reader.beginArray();
+    while (reader.hasNext()) {
+      if (signal != null) {
+        signal.throwIfCanceled();
+      }
+      int index = forecast.size();
+
+      double pressure = 0;
+      int humidity = 0;
+      double windSpeed = 0;
+      double windDirection = 0;
+      double high = 0;
+      double low = 0;
+      int weatherId = 0;
+      int seen = 0;
+
+      reader.beginObject();
+      while (reader.hasNext()) {
+        String name = reader.nextName();
+        if (OWM_PRESSURE.equals(name)) {
+          pressure = reader.nextDouble();
+          seen |= FIELD_PRESSURE;
+        } else if (OWM_HUMIDITY.equals(name)) {
+          humidity = (int) reader.nextDouble();
+          seen |= FIELD_HUMIDITY;
+        } else if (OWM_WINDSPEED.equals(name)) {
+          windSpeed = reader.nextDouble();
+          seen |= FIELD_WIND_SPEED;
+        } else if (OWM_WIND_DIRECTION.equals(name)) {
+          windDirection = reader.nextDouble();
+          seen |= FIELD_DEGREES;
+        } else if (OWM_TEMPERATURE.equals(name)) {
+          reader.beginObject();
+          while (reader.hasNext()) {
+            String temperatureName = reader.nextName();
+            if (OWM_MAX.equals(temperatureName)) {
+              high = reader.nextDouble();
+              seen |= FIELD_MAX;
+            } else if (OWM_MIN.equals(temperatureName)) {
+              low = reader.nextDouble();
+              seen |= FIELD_MIN;
+            } else {
+              reader.skipValue();
+            }
+          }
+          reader.endObject();
+        } else if (OWM_WEATHER.equals(name)) {
+          /* Only the first element of the "weather" array is used, like in the DOM parser */
+          reader.beginArray();
+          if (reader.hasNext() && reader.peek() == JsonToken.BEGIN_OBJECT) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+              if (OWM_WEATHER_ID.equals(reader.nextName())) {
+                weatherId = (int) reader.nextDouble();
+                seen |= FIELD_WEATHER_ID;
+              } else {
+                reader.skipValue();
+              }
+            }
+            reader.endObject();
+          }
+          while (reader.hasNext()) {
+            reader.skipValue();
+          }
+          reader.endArray();
+        } else {
+          reader.skipValue();
+        }
+      }
+      reader.endObject();
+
+      if (seen != FIELDS_ALL) {
+        throw new JSONException("Incomplete forecast for day " + index);
+      }
+
+      forecast.add(normalizedUtcStartDay + SunshineDateUtils.DAY_IN_MILLIS * index,
+          weatherId, low, high, humidity, pressure, windSpeed, windDirection);
     }
+    reader.endArray();
 
-    return weatherContentValues;
+    return forecast;
   }
-}
\ No newline at end of file
+}
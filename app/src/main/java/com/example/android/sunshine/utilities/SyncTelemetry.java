@@ -0,0 +1,294 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import android.os.Bundle;
+import com.example.android.sunshine.data.WeatherContract;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Where the time of each sync goes. A sync fills in a {@link Trace} stage by stage, with the
+ * time and the number of bytes or rows of each stage, and publishes it with its outcome when it
+ * ends. The last {@link #CAPACITY} syncs are kept in a ring buffer in memory.
+ * <p>
+ * Publishing takes no lock: a sync claims the next sequence number and overwrites the oldest
+ * slot with its record. Records are immutable once published, so a reader copies out whichever
+ * records still carry the sequence numbers it expects, and skips the ones overwritten under it.
+ */
+public final class SyncTelemetry {
+
+  /* The stages of a sync, as indices into STAGE_NAMES and a record's per-stage arrays */
+  public static final int STAGE_URL      = 0;
+  public static final int STAGE_CONNECT  = 1;
+  public static final int STAGE_DOWNLOAD = 2;
+  public static final int STAGE_PARSE    = 3;
+  public static final int STAGE_DELETE   = 4;
+  public static final int STAGE_INSERT   = 5;
+  public static final int STAGE_NOTIFY   = 6;
+  public static final int STAGE_WEAR     = 7;
+
+  private static final String[] STAGE_NAMES = {
+      "url",
+      "connect",
+      "download",
+      "parse",
+      "delete",
+      "insert",
+      "notify",
+      "wear",
+  };
+
+  public static final int STAGE_COUNT = STAGE_NAMES.length;
+
+  /* How a sync ended */
+  public static final int OUTCOME_SUCCESS      = 0;
+  public static final int OUTCOME_NOT_MODIFIED = 1;
+  public static final int OUTCOME_NO_DATA      = 2;
+  public static final int OUTCOME_FAILED       = 3;
+  public static final int OUTCOME_CANCELLED    = 4;
+  public static final int OUTCOME_FRESH        = 5;
+
+  /* Syncs run every few hours at most, so this is days of history in a few KB */
+  static final int CAPACITY = 64;
+
+  private static final AtomicReferenceArray<Record> sRecords =
+      new AtomicReferenceArray<>(CAPACITY);
+  private static final AtomicLong sNextSequence = new AtomicLong();
+
+  private SyncTelemetry() {
+  }
+
+  /**
+   * Starts the trace of a sync.
+   */
+  public static Trace startTrace() {
+    return new Trace();
+  }
+
+  /**
+   * @return The stage the given STAGE_* constant stands for, as it is named in the Bundle of
+   * {@link WeatherContract#METHOD_GET_SYNC_TELEMETRY}
+   */
+  public static String getStageName(int stage) {
+    return STAGE_NAMES[stage];
+  }
+
+  /**
+   * Returns the records still in the ring buffer, oldest first.
+   */
+  public static List<Record> getRecords() {
+    long next = sNextSequence.get();
+    long first = Math.max(0, next - CAPACITY);
+
+    List<Record> records = new ArrayList<>((int) (next - first));
+    for (long sequence = first; sequence < next; sequence++) {
+      Record record = sRecords.get(slotOf(sequence));
+            /* Not published yet, or already replaced by a newer sync */
+      if (record != null && record.mSequence == sequence) {
+        records.add(record);
+      }
+    }
+    return records;
+  }
+
+  /**
+   * Writes the records still in the ring buffer into a Bundle, see
+   * {@link WeatherContract#METHOD_GET_SYNC_TELEMETRY} for its layout.
+   */
+  public static Bundle toBundle() {
+    List<Record> records = getRecords();
+
+    Bundle telemetry = new Bundle();
+    telemetry.putStringArray(WeatherContract.KEY_SYNC_STAGES, STAGE_NAMES.clone());
+
+    long[] sequences = new long[records.size()];
+    for (int i = 0; i < sequences.length; i++) {
+      Record record = records.get(i);
+      sequences[i] = record.mSequence;
+
+      Bundle values = new Bundle();
+      values.putLong(WeatherContract.KEY_SYNC_START_MILLIS, record.mStartMillis);
+      values.putInt(WeatherContract.KEY_SYNC_OUTCOME, record.mOutcome);
+      values.putInt(WeatherContract.KEY_SYNC_FAILED_STAGE, record.mFailedStage);
+      values.putLong(WeatherContract.KEY_SYNC_TOTAL_NANOS, record.mTotalNanos);
+      values.putLongArray(WeatherContract.KEY_SYNC_STAGE_NANOS, record.mStageNanos.clone());
+      values.putLongArray(WeatherContract.KEY_SYNC_STAGE_COUNTS, record.mStageCounts.clone());
+      telemetry.putBundle(WeatherContract.buildSyncRecordKey(record.mSequence), values);
+    }
+    telemetry.putLongArray(WeatherContract.KEY_SYNC_SEQUENCES, sequences);
+    return telemetry;
+  }
+
+  private static void publish(Record record) {
+    sRecords.set(slotOf(record.mSequence), record);
+  }
+
+  private static int slotOf(long sequence) {
+    return (int) (sequence % CAPACITY);
+  }
+
+  /**
+   * The stages of one sync as it runs. A trace belongs to the thread running the sync and is
+   * not thread safe; nothing is shared until {@link #finish(int)} publishes it.
+   */
+  public static final class Trace {
+
+    private final long mStartMillis = System.currentTimeMillis();
+    private final long mStartNanos = System.nanoTime();
+
+    private final long[] mStageNanos = new long[STAGE_COUNT];
+    private final long[] mStageCounts = new long[STAGE_COUNT];
+
+    /* The stage between begin and end, or -1 */
+    private int mStage = -1;
+    private long mStageStartNanos;
+
+    private boolean mFinished;
+
+    private Trace() {
+    }
+
+    /**
+     * Starts timing a stage. A stage may run more than once per sync; its times add up.
+     *
+     * @param stage One of the STAGE_* constants
+     */
+    public void begin(int stage) {
+      mStage = stage;
+      mStageStartNanos = System.nanoTime();
+    }
+
+    /**
+     * Stops timing the stage that was begun last.
+     *
+     * @param count The bytes or rows the stage handled
+     */
+    public void end(long count) {
+      if (mStage < 0) {
+        throw new IllegalStateException("No stage was begun");
+      }
+      mStageNanos[mStage] += System.nanoTime() - mStageStartNanos;
+      mStageCounts[mStage] += count;
+      mStage = -1;
+    }
+
+    /**
+     * Moves part of the time of one stage to another, for stages that run interleaved. The
+     * streaming parser, for one, reads the body off the network as it goes, so the time it
+     * spent waiting for bytes belongs to the download.
+     *
+     * @param fromStage The stage that was timed
+     * @param toStage   The stage the time belongs to
+     * @param nanos     The time to move
+     * @param count     The bytes or rows of toStage
+     */
+    public void split(int fromStage, int toStage, long nanos, long count) {
+      mStageNanos[fromStage] -= nanos;
+      mStageNanos[toStage] += nanos;
+      mStageCounts[toStage] += count;
+    }
+
+    /**
+     * Publishes the trace to the ring buffer. A stage that was begun but not ended is where a
+     * failed or cancelled sync stopped. Only the first call has an effect.
+     *
+     * @param outcome One of the OUTCOME_* constants
+     * @return The published record, or null if the trace had been finished before
+     */
+    public Record finish(int outcome) {
+      if (mFinished) return null;
+      mFinished = true;
+
+      Record record = new Record(sNextSequence.getAndIncrement(), mStartMillis,
+          System.nanoTime() - mStartNanos, outcome, mStage, mStageNanos, mStageCounts);
+      publish(record);
+      return record;
+    }
+  }
+
+  /**
+   * One finished sync. Immutable.
+   */
+  public static final class Record {
+
+    private final long mSequence;
+    private final long mStartMillis;
+    private final long mTotalNanos;
+    private final int mOutcome;
+    private final int mFailedStage;
+    private final long[] mStageNanos;
+    private final long[] mStageCounts;
+
+    Record(long sequence, long startMillis, long totalNanos, int outcome, int failedStage,
+           long[] stageNanos, long[] stageCounts) {
+      mSequence = sequence;
+      mStartMillis = startMillis;
+      mTotalNanos = totalNanos;
+      mOutcome = outcome;
+      mFailedStage = failedStage;
+      mStageNanos = stageNanos.clone();
+      mStageCounts = stageCounts.clone();
+    }
+
+    /**
+     * @return The number of syncs recorded before this one since the process started
+     */
+    public long getSequence() {
+      return mSequence;
+    }
+
+    /**
+     * @return The wall clock time the sync started at, in milliseconds
+     */
+    public long getStartMillis() {
+      return mStartMillis;
+    }
+
+    public long getTotalNanos() {
+      return mTotalNanos;
+    }
+
+    /**
+     * @return One of the OUTCOME_* constants
+     */
+    public int getOutcome() {
+      return mOutcome;
+    }
+
+    /**
+     * @return The STAGE_* constant of the stage the sync stopped in, or -1 if it stopped
+     * between stages
+     */
+    public int getFailedStage() {
+      return mFailedStage;
+    }
+
+    public long getStageNanos(int stage) {
+      return mStageNanos[stage];
+    }
+
+    /**
+     * @return The bytes or rows the stage handled
+     */
+    public long getStageCount(int stage) {
+      return mStageCounts[stage];
+    }
+  }
+}